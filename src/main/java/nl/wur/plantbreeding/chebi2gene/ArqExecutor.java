@@ -0,0 +1,208 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.QuerySolutionMap;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.SortCondition;
+import com.hp.hpl.jena.query.Syntax;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.shared.Lock;
+import java.io.IOException;
+import java.util.HashSet;
+
+/**
+ * The parts of the QueryRdfEngine which need ARQ: running a query against a
+ * local model and writing the pages of a paginated query.
+ *
+ * They are kept out of the engine so that ARQ, whose classes and subsystem
+ * take a noticeable time to load and initialize, is only loaded by the
+ * first query needing it. Lookups answered from an index or a cache, and
+ * the queries sent to the endpoint in one go, never load it. The moment it
+ * is loaded is recorded by the StartupTimer.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+final class ArqExecutor {
+
+    static {
+        StartupTimer.jenaLoaded();
+    }
+
+    /**
+     * No instance.
+     */
+    private ArqExecutor() {
+    }
+
+    /**
+     * Runs a query built from a template, or a page of it, against a local
+     * model and hands its rows to the given handler. The read lock of the
+     * model is held while the query runs, so that it does not see an update
+     * partly applied (see ReleaseUpdater).
+     *
+     * @param local the model
+     * @param params the template and the values bound to its parameters
+     * @param offset the first row of the page, -1 for the whole result
+     * @param size the number of rows per page
+     * @param limit the maximum time, in milliseconds, the query may run, 0
+     * for no limit
+     * @param keys the list of key to retrieve the results from the query
+     * @param handler the handler receiving the rows, one value per key
+     * @throws IOException if the handler fails
+     */
+    static void select(final Model local,
+            final QueryTemplate.Parameters params, final long offset,
+            final int size, final long limit, final String[] keys,
+            final RowHandler handler) throws IOException {
+        final QueryExecution qexec = createExecution(local, params, offset,
+                size);
+        if (limit > 0) {
+            qexec.setTimeout(limit);
+        }
+        local.enterCriticalSection(Lock.READ);
+        try {
+            final ResultSet results = qexec.execSelect();
+            while (results.hasNext()) {
+                handler.row(toRow(results.nextSolution(), keys));
+            }
+        } finally {
+            local.leaveCriticalSection();
+            qexec.close();
+        }
+    }
+
+    /**
+     * Whether a query can be run by pages: it is a SELECT without its own
+     * LIMIT.
+     *
+     * @param params the template and the values bound to its parameters
+     * @return true if the query can be paginated
+     */
+    static boolean isPageable(final QueryTemplate.Parameters params) {
+        final Query query = params.getTemplate().getQuery();
+        return query.isSelectType() && !query.hasLimit();
+    }
+
+    /**
+     * Returns the text of a page of a query built from a template.
+     *
+     * @param params the template and the values bound to its parameters
+     * @param offset the first row of the page
+     * @param size the number of rows per page
+     * @return the sparql query of the page
+     */
+    static String pageQuery(final QueryTemplate.Parameters params,
+            final long offset, final int size) {
+        return toPage(QueryFactory.create(params.toQueryString(),
+                Syntax.syntaxARQ), offset, size).serialize();
+    }
+
+    /**
+     * Returns the values of the given keys in a solution.
+     *
+     * @param soln the solution
+     * @param keys the list of key to retrieve
+     * @return the values, null for the keys which are not bound
+     */
+    private static String[] toRow(final QuerySolution soln,
+            final String[] keys) {
+        final String[] row = new String[keys.length];
+        for (int cnt = 0; cnt < keys.length; cnt++) {
+            final RDFNode node = soln.get(keys[cnt]);
+            row[cnt] = node == null ? null : node.toString();
+        }
+        return row;
+    }
+
+    /**
+     * Returns a copy of a query restricted to a page. The query is sorted on
+     * all its result variables, after its own sort conditions, so that the
+     * order of its rows is total and its pages never overlap.
+     *
+     * @param query the query
+     * @param offset the first row of the page
+     * @param size the number of rows per page
+     * @return the query of the page
+     */
+    private static Query toPage(final Query query, final long offset,
+            final int size) {
+        final Query page = query.cloneQuery();
+        final HashSet<String> sorted = new HashSet<String>();
+        if (page.hasOrderBy()) {
+            for (SortCondition cond : page.getOrderBy()) {
+                if (cond.getExpression().isVariable()) {
+                    sorted.add(cond.getExpression().getVarName());
+                }
+            }
+        }
+        for (String var : page.getResultVars()) {
+            if (!sorted.contains(var)) {
+                page.addOrderBy(var, Query.ORDER_DEFAULT);
+            }
+        }
+        page.setLimit(size);
+        page.setOffset(offset);
+        return page;
+    }
+
+    /**
+     * Creates the execution of a query built from a template, or of a page
+     * of it, against a local model, re-using the parsed template with the
+     * parameters as initial bindings whenever they are all single terms.
+     *
+     * @param local the model
+     * @param params the template and the values bound to its parameters
+     * @param offset the first row of the page, -1 for the whole result
+     * @param size the number of rows per page
+     * @return a QueryExecution object
+     */
+    private static QueryExecution createExecution(final Model local,
+            final QueryTemplate.Parameters params, final long offset,
+            final int size) {
+        if (params.isScalar()) {
+            final QuerySolutionMap initial = new QuerySolutionMap();
+            final String[] names = params.getNames();
+            for (int cnt = 0; cnt < names.length; cnt++) {
+                if (params.getKind(cnt) == QueryTemplate.IRI) {
+                    initial.add(names[cnt],
+                            local.createResource(params.getValue(cnt)));
+                } else {
+                    initial.add(names[cnt],
+                            local.createLiteral(params.getValue(cnt)));
+                }
+            }
+            Query query = params.getTemplate().getQuery();
+            if (offset >= 0) {
+                query = toPage(query, offset, size);
+            }
+            return QueryExecutionFactory.create(query, local, initial);
+        } else if (offset < 0) {
+            return QueryExecutionFactory.create(params.toQueryString(),
+                    local);
+        }
+        return QueryExecutionFactory.create(toPage(QueryFactory.create(
+                params.toQueryString(), Syntax.syntaxARQ), offset, size),
+                local);
+    }
+}
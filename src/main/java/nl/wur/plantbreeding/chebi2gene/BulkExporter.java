@@ -0,0 +1,348 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exports the complete chebi to rhea to uniprot to ITAG gene mapping in a
+ * columnar file (see ColumnarWriter), with one row per compound, reaction,
+ * protein and gene.
+ *
+ * The compounds are resolved by batches, each batch with two queries (its
+ * proteins, then the genes of these proteins), several batches being run
+ * concurrently. Each batch is written as one group of rows and recorded in a
+ * checkpoint file next to the output, so an interrupted export resumes from
+ * the last batch written.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class BulkExporter {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = Logger.getLogger(
+            BulkExporter.class.getName());
+    /**
+     * The columns of the exported table.
+     */
+    public static final String[] COLUMNS = {"chebi_id", "reaction_id",
+        "uniprot_id", "gene", "scaffold", "start", "stop", "description"};
+    /**
+     * The QueryRdf object used to run the queries.
+     */
+    private final QueryRdf query;
+    /**
+     * Number of batches resolved concurrently.
+     */
+    private int parallelism = 4;
+    /**
+     * Number of compounds per batch.
+     */
+    private int batchSize = 50;
+
+    /**
+     * Constructor.
+     *
+     * @param queryrdf the QueryRdf object used to run the queries
+     */
+    public BulkExporter(final QueryRdf queryrdf) {
+        this.query = queryrdf;
+    }
+
+    /**
+     * Return the number of batches resolved concurrently.
+     *
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of batches resolved concurrently.
+     *
+     * @param newparallelism the parallelism
+     */
+    public void setParallelism(final int newparallelism) {
+        this.parallelism = newparallelism;
+    }
+
+    /**
+     * Return the number of compounds per batch.
+     *
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the number of compounds per batch.
+     *
+     * @param newbatchsize the batch size
+     */
+    public void setBatchSize(final int newbatchsize) {
+        this.batchSize = newbatchsize;
+    }
+
+    /**
+     * Export all the compounds of rhea, resuming a previous export of the
+     * same file if it was interrupted.
+     *
+     * @param output the file to write
+     * @return the number of rows in the file
+     * @throws IOException if the export fails, it can then be resumed
+     */
+    public long export(final File output) throws IOException {
+        File compoundsFile = new File(output.getPath() + ".compounds");
+        File checkpointFile = new File(output.getPath() + ".checkpoint");
+        ArrayList<String> compounds;
+        Properties checkpoint = new Properties();
+        ColumnarWriter writer;
+        if (checkpointFile.isFile() && compoundsFile.isFile()) {
+            InputStream in = new FileInputStream(checkpointFile);
+            try {
+                checkpoint.load(in);
+            } finally {
+                in.close();
+            }
+            compounds = readLines(compoundsFile);
+            writer = new ColumnarWriter(output, COLUMNS,
+                    Long.parseLong(checkpoint.getProperty("offset")));
+            LOG.log(Level.INFO, "Resuming export at compound {0} of {1}",
+                    new Object[]{checkpoint.getProperty("next"),
+                        compounds.size()});
+        } else {
+            compounds = query.getChebiOfRhea();
+            writeLines(compoundsFile, compounds);
+            writer = new ColumnarWriter(output, COLUMNS);
+            checkpoint.setProperty("next", "0");
+            checkpoint.setProperty("rows", "0");
+        }
+
+        int next = Integer.parseInt(checkpoint.getProperty("next"));
+        long rows = Long.parseLong(checkpoint.getProperty("rows"));
+        final boolean shared = query.getExecutor() != null;
+        ExecutorService executor = shared ? query.getExecutor()
+                : Executors.newFixedThreadPool(parallelism);
+        ArrayDeque<Future<List<String[]>>> pending =
+                new ArrayDeque<Future<List<String[]>>>();
+        ArrayDeque<Integer> ends = new ArrayDeque<Integer>();
+        try {
+            int submitted = next;
+            while (next < compounds.size()) {
+                while (submitted < compounds.size()
+                        && pending.size() < 2 * parallelism) {
+                    int end = Math.min(compounds.size(),
+                            submitted + batchSize);
+                    final List<String> batch = compounds.subList(submitted,
+                            end);
+                    pending.add(executor.submit(
+                            new Callable<List<String[]>>() {
+
+                                @Override
+                                public List<String[]> call() {
+                                    return resolve(batch);
+                                }
+                            }));
+                    ends.add(end);
+                    submitted = end;
+                }
+                List<String[]> group = pending.poll().get();
+                next = ends.poll();
+                writer.writeGroup(group);
+                rows += group.size();
+                checkpoint.setProperty("offset",
+                        Long.toString(writer.getOffset()));
+                checkpoint.setProperty("next", Integer.toString(next));
+                checkpoint.setProperty("rows", Long.toString(rows));
+                saveCheckpoint(checkpoint, checkpointFile);
+                Object[] vals = {next, compounds.size(), rows};
+                LOG.log(Level.INFO, "Exported {0}/{1} compounds, {2} rows",
+                        vals);
+            }
+            writer.close();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Export failed", ex.getCause());
+        } finally {
+            if (!shared) {
+                executor.shutdownNow();
+            } else {
+                for (Future<List<String[]>> future : pending) {
+                    future.cancel(true);
+                }
+            }
+        }
+        checkpointFile.delete();
+        compoundsFile.delete();
+        return rows;
+    }
+
+    /**
+     * Resolve a batch of compounds into rows of the table.
+     *
+     * @param batch the chebi identifiers of the compounds
+     * @return the rows, sorted by compound, reaction and protein
+     */
+    List<String[]> resolve(final List<String> batch) {
+        HashMap<String, HashMap<String, ArrayList<String>>> byCompound =
+                query.getProteinOfChebis(batch);
+        ArrayList<String> all = new ArrayList<String>();
+        for (HashMap<String, ArrayList<String>> reactions
+                : byCompound.values()) {
+            for (ArrayList<String> prots : reactions.values()) {
+                all.addAll(prots);
+            }
+        }
+        HashMap<String, ArrayList<HashMap<String, String>>> genes =
+                query.getGenesOfProteins(all);
+
+        ArrayList<String[]> rows = new ArrayList<String[]>();
+        for (String chebi_id : batch) {
+            HashMap<String, ArrayList<String>> reactions =
+                    byCompound.get(chebi_id);
+            if (reactions != null) {
+                addRows(rows, chebi_id, reactions, genes);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Add the rows of a compound to a table.
+     *
+     * @param rows the table to add the rows to
+     * @param chebi_id the chebi identifier of the compound
+     * @param reactions the proteins of the compound, by reaction
+     * @param genes the genes of the proteins, by uniprot identifier
+     */
+    static void addRows(final List<String[]> rows, final String chebi_id,
+            final HashMap<String, ArrayList<String>> reactions,
+            final HashMap<String, ArrayList<HashMap<String, String>>> genes) {
+        TreeMap<String, ArrayList<String>> sorted =
+                new TreeMap<String, ArrayList<String>>(reactions);
+        for (String react_id : sorted.keySet()) {
+            for (String prot : sorted.get(react_id)) {
+                ArrayList<HashMap<String, String>> list = genes.get(prot);
+                if (list == null) {
+                    rows.add(new String[]{chebi_id, react_id, prot,
+                                null, null, null, null, null});
+                    continue;
+                }
+                for (HashMap<String, String> gene : list) {
+                    rows.add(new String[]{chebi_id, react_id, prot,
+                                gene.get("name"), gene.get("sca"),
+                                gene.get("start"), gene.get("stop"),
+                                gene.get("desc")});
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the checkpoint, replacing the previous one in a single rename.
+     *
+     * @param checkpoint the checkpoint
+     * @param file the checkpoint file
+     * @throws IOException if the checkpoint cannot be written
+     */
+    private static void saveCheckpoint(final Properties checkpoint,
+            final File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            checkpoint.store(out, "chebi2gene export checkpoint");
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            throw new IOException("Cannot write " + file);
+        }
+    }
+
+    /**
+     * Write a list of strings, one per line.
+     *
+     * @param file the file to write
+     * @param lines the strings
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeLines(final File file, final List<String> lines)
+            throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        try {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read a list of strings, one per line.
+     *
+     * @param file the file to read
+     * @return the strings
+     * @throws IOException if the file cannot be read
+     */
+    private static ArrayList<String> readLines(final File file)
+            throws IOException {
+        ArrayList<String> lines = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line = in.readLine();
+            while (line != null) {
+                lines.add(line);
+                line = in.readLine();
+            }
+        } finally {
+            in.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fills a ResultCache with compounds before traffic is accepted, for
+ * instance the compounds recorded in a QueryLog by the previous process.
+ *
+ * The compounds are resolved by batches, as in the BulkExporter: one query
+ * for the proteins of the batch and one for the genes, organisms and
+ * pathways of all these proteins, at most parallelism batches running at
+ * once. The results are the same as the ones of Chebi2gene in one-shot
+ * mode, they are cached under the keys of this mode. A batch which fails
+ * is logged and skipped. The threads are created by the first warm-up and
+ * kept for the following ones until close() is called.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class CacheWarmer {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = Logger.getLogger(
+            CacheWarmer.class.getName());
+    /**
+     * The QueryRdf object used to run the queries.
+     */
+    private final QueryRdf query;
+    /**
+     * The cache to fill, may be null.
+     */
+    private final ResultCache cache;
+    /**
+     * Number of batches resolved concurrently.
+     */
+    private int parallelism = 4;
+    /**
+     * Number of compounds per batch.
+     */
+    private int batchSize = 50;
+    /**
+     * The threads resolving the batches, null until the first warm-up or
+     * after close().
+     */
+    private ExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * @param queryrdf the QueryRdf object used to run the queries
+     * @param resultcache the cache to fill, null to only return the results
+     */
+    public CacheWarmer(final QueryRdf queryrdf,
+            final ResultCache resultcache) {
+        this.query = queryrdf;
+        this.cache = resultcache;
+    }
+
+    /**
+     * Set the number of batches resolved concurrently, before the first
+     * warm-up.
+     *
+     * @param newparallelism the parallelism
+     */
+    public void setParallelism(final int newparallelism) {
+        this.parallelism = newparallelism;
+    }
+
+    /**
+     * Set the number of compounds per batch.
+     *
+     * @param newbatchsize the batch size
+     */
+    public void setBatchSize(final int newbatchsize) {
+        this.batchSize = newbatchsize;
+    }
+
+    /**
+     * Resolve the given compounds and put them in the cache. The results are
+     * also returned, for instance to build a ReverseIndex or a
+     * GeneIntervalIndex.
+     *
+     * @param chebi_ids the chebi identifiers of the compounds
+     * @return the compounds resolved, in no particular order
+     * @throws InterruptedException if interrupted while waiting for a batch
+     */
+    public List<CompoundResult> warm(final Collection<String> chebi_ids)
+            throws InterruptedException {
+        ArrayList<String> all = new ArrayList<String>(
+                new LinkedHashSet<String>(chebi_ids));
+        ArrayList<CompoundResult> output = new ArrayList<CompoundResult>();
+        if (all.isEmpty()) {
+            return output;
+        }
+        CompletionService<List<CompoundResult>> completion =
+                new ExecutorCompletionService<List<CompoundResult>>(
+                executor());
+        ArrayList<Future<List<CompoundResult>>> futures =
+                new ArrayList<Future<List<CompoundResult>>>();
+        long start = System.currentTimeMillis();
+        int batches = 0;
+        try {
+            for (int from = 0; from < all.size(); from += batchSize) {
+                final List<String> batch = all.subList(from,
+                        Math.min(all.size(), from + batchSize));
+                futures.add(completion.submit(
+                        new Callable<List<CompoundResult>>() {
+
+                    @Override
+                    public List<CompoundResult> call() {
+                        return resolve(batch);
+                    }
+                }));
+                batches++;
+            }
+            int failed = 0;
+            for (int cnt = 0; cnt < batches; cnt++) {
+                try {
+                    List<CompoundResult> results = completion.take().get();
+                    for (CompoundResult result : results) {
+                        if (cache != null) {
+                            cache.put(result, true);
+                        }
+                        output.add(result);
+                    }
+                } catch (ExecutionException ex) {
+                    failed++;
+                    LOG.log(Level.WARNING, "Warm-up batch failed",
+                            ex.getCause());
+                }
+                Object[] vals = {output.size(), all.size(), failed};
+                LOG.log(Level.INFO, "Warmed up {0}/{1} compounds, "
+                        + "{2} batches failed", vals);
+            }
+        } finally {
+            for (Future<List<CompoundResult>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        Object[] vals = {output.size(),
+            (System.currentTimeMillis() - start) / 1000.0};
+        LOG.log(Level.INFO, "Warm-up of {0} compounds done in {1}s", vals);
+        return output;
+    }
+
+    /**
+     * Returns the threads resolving the batches, created on first use.
+     *
+     * @return the ExecutorService
+     */
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Math.max(1, parallelism),
+                    new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable task) {
+                    Thread thread = new Thread(task, "chebi2gene-warmer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Stop the threads resolving the batches. A later warm-up starts new
+     * ones.
+     */
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Resolve a batch of compounds.
+     *
+     * @param batch the chebi identifiers of the compounds
+     * @return the compounds, including the ones without reaction
+     */
+    List<CompoundResult> resolve(final List<String> batch) {
+        HashMap<String, HashMap<String, ArrayList<String>>> byCompound =
+                query.getProteinOfChebis(batch);
+        HashMap<String, ArrayList<String>> all =
+                new HashMap<String, ArrayList<String>>();
+        for (String chebi_id : byCompound.keySet()) {
+            LinkedHashSet<String> prots = new LinkedHashSet<String>();
+            for (ArrayList<String> list : byCompound.get(chebi_id).values()) {
+                prots.addAll(list);
+            }
+            all.put(chebi_id, new ArrayList<String>(prots));
+        }
+        HashMap<String, ArrayList<HashMap<String, String>>> genes =
+                new HashMap<String, ArrayList<HashMap<String, String>>>();
+        HashMap<String, ArrayList<String>> organisms =
+                new HashMap<String, ArrayList<String>>();
+        HashMap<String, ArrayList<String>> pathways =
+                new HashMap<String, ArrayList<String>>();
+        query.getAnnotationsOfProteins(all, genes, organisms, pathways);
+
+        ArrayList<CompoundResult> output = new ArrayList<CompoundResult>();
+        for (String chebi_id : batch) {
+            HashMap<String, ArrayList<String>> reactions =
+                    byCompound.get(chebi_id);
+            if (reactions == null) {
+                reactions = new HashMap<String, ArrayList<String>>();
+            }
+            ArrayList<String> prots = all.get(chebi_id);
+            output.add(new CompoundResult(chebi_id, reactions,
+                    subset(pathways, prots), subset(organisms, prots),
+                    subset(genes, prots)));
+        }
+        return output;
+    }
+
+    /**
+     * Returns the entries of the given proteins.
+     *
+     * @param <V> the type of the values
+     * @param map the values, by uniprot identifier
+     * @param prots the uniprot identifiers, may be null
+     * @return the values of the proteins, by uniprot identifier
+     */
+    private static <V> HashMap<String, V> subset(final HashMap<String, V> map,
+            final Collection<String> prots) {
+        HashMap<String, V> output = new HashMap<String, V>();
+        if (prots != null) {
+            for (String prot : prots) {
+                V value = map.get(prot);
+                if (value != null) {
+                    output.put(prot, value);
+                }
+            }
+        }
+        return output;
+    }
+}
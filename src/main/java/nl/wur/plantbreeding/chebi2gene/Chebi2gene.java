@@ -17,7 +17,11 @@
 package nl.wur.plantbreeding.chebi2gene;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map.Entry;
+import java.util.Set;
 
 /**
  * This class handles the core function of the chebi2gene package. For a given
@@ -29,6 +33,11 @@ import java.util.HashMap;
  */
 public class Chebi2gene {
 
+    /**
+     * The chebi identifier of the compound resolved.
+     */
+    private String chebiId;
+
     /**
      * A dictionary containing all the proteins related with the compound
      * specified. The data structure returned is like: {string: [String]}, where
@@ -61,6 +70,60 @@ public class Chebi2gene {
      */
     private HashMap<String, ArrayList<HashMap<String, String>>> genes =
             new HashMap<String, ArrayList<HashMap<String, String>>>();
+    /**
+     * Whether to retrieve the genes, organisms and pathways of all the
+     * proteins in a single combined query rather than three queries per
+     * reaction.
+     */
+    private boolean oneShot = false;
+    /**
+     * The cache of resolved compounds, may be null.
+     */
+    private ResultCache cache;
+    /**
+     * The hierarchy used to expand a compound class to its descendants, may
+     * be null.
+     */
+    private ChebiHierarchy hierarchy;
+    /**
+     * Whether the expansion adds the equivalent forms of the compounds.
+     */
+    private boolean withEquivalents = false;
+    /**
+     * The filter of the compounds of rhea, by default the one of the
+     * QueryRdf object.
+     */
+    private RheaFilter rheaFilter;
+    /**
+     * The deadline of the resolution, may be null.
+     */
+    private Deadline deadline;
+    /**
+     * Whether the last resolution completed before its deadline.
+     */
+    private boolean complete = true;
+    /**
+     * The QueryRdf object used to run the queries, the shared default one
+     * when null.
+     */
+    private final QueryRdf queryRdf;
+
+    /**
+     * Default constructor, querying the default endpoint.
+     */
+    public Chebi2gene() {
+        this.queryRdf = null;
+    }
+
+    /**
+     * Constructor setting the QueryRdf object used to run the queries, which
+     * allows querying another endpoint or a local model.
+     *
+     * @param query the QueryRdf object to use
+     */
+    public Chebi2gene(final QueryRdf query) {
+        this.queryRdf = query;
+    }
 
     /**
      * Constructor which for a given chebi identifier will retrieve all proteins
@@ -68,14 +131,330 @@ public class Chebi2gene {
      * associated with the proteins found. The information can then be retrieved
      * using the different getters available.
      *
+     * When a deadline is set and passes during the resolution, the queries
+     * still running are cancelled and the information found so far is kept,
+     * see isComplete().
+     *
      * @param chebi_id
      */
     public void Chebi2gene(String chebi_id) {
-        QueryRdf query = new QueryRdf();
-        proteins = query.getProteinOfChebi(chebi_id);
-        pathways = query.getPathwaysOfProteins(proteins);
-        genes = query.getGenesOfProteins(proteins);
-        organisms = query.getOrganismOfProteins(proteins);
+        chebiId = chebi_id;
+        complete = true;
+        if (deadline == null) {
+            resolve(chebi_id);
+        } else {
+            Deadline previous = deadline.attach();
+            try {
+                resolve(chebi_id);
+            } finally {
+                Deadline.detach(previous);
+            }
+        }
+        StartupTimer.answered();
+    }
+
+    /**
+     * Retrieve the proteins of a compound then the pathways, genes and
+     * organisms of these proteins.
+     *
+     * @param chebi_id the chebi identifier of the compound
+     */
+    private void resolve(final String chebi_id) {
+        Set<String> expanded = hierarchy == null
+                ? Collections.singleton(chebi_id)
+                : hierarchy.expand(chebi_id, withEquivalents);
+        boolean single = expanded.size() == 1;
+        QueryRdf query = queryRdf == null ? QueryRdf.getDefault() : queryRdf;
+        query.recordLookup(chebi_id);
+        RheaFilter filter = rheaFilter == null ? query.getRheaFilter()
+                : rheaFilter;
+        if (filter != null) {
+            // Compounds without reaction have no protein: drop them, and
+            // answer without querying if none is left.
+            Set<String> candidates = new LinkedHashSet<String>();
+            for (String id : expanded) {
+                if (filter.mightContain(id)) {
+                    candidates.add(id);
+                }
+            }
+            if (candidates.isEmpty()) {
+                proteins = new HashMap<String, ArrayList<String>>();
+                pathways = new HashMap<String, ArrayList<String>>();
+                genes = new HashMap<String,
+                        ArrayList<HashMap<String, String>>>();
+                organisms = new HashMap<String, ArrayList<String>>();
+                return;
+            }
+            expanded = candidates;
+        }
+        ResultCache store = cache == null ? query.getCache() : cache;
+        long generation = store == null ? 0 : store.getGeneration();
+        if (store != null && single) {
+            CompoundResult cached = store.get(chebi_id, oneShot);
+            if (cached != null) {
+                proteins = cached.getProteins();
+                pathways = cached.getPathways();
+                genes = cached.getGenes();
+                organisms = cached.getOrganisms();
+                return;
+            }
+        }
+        proteins = new HashMap<String, ArrayList<String>>();
+        pathways = new HashMap<String, ArrayList<String>>();
+        genes = new HashMap<String, ArrayList<HashMap<String, String>>>();
+        organisms = new HashMap<String, ArrayList<String>>();
+        try {
+            if (expanded.size() == 1) {
+                proteins = query.getProteinOfChebi(
+                        expanded.iterator().next());
+            } else {
+                GroupCollector<String> merged =
+                        new GroupCollector<String>(true);
+                for (HashMap<String, ArrayList<String>> reactions
+                        : query.getProteinOfChebis(expanded).values()) {
+                    for (Entry<String, ArrayList<String>> entry
+                            : reactions.entrySet()) {
+                        for (String prot : entry.getValue()) {
+                            merged.add(entry.getKey(), prot);
+                        }
+                    }
+                }
+                proteins = merged.toMap();
+            }
+        } catch (RuntimeException ex) {
+            expired(ex);
+            return;
+        }
+        if (oneShot) {
+            try {
+                query.getAnnotationsOfProteins(proteins, genes, organisms,
+                        pathways);
+            } catch (RuntimeException ex) {
+                expired(ex);
+            }
+        } else {
+            // The getters query one reaction at a time: ask them reaction
+            // by reaction, so that what is found before the deadline is
+            // kept.
+            GroupCollector<String> foundPathways =
+                    new GroupCollector<String>(true);
+            GroupCollector<HashMap<String, String>> foundGenes =
+                    new GroupCollector<HashMap<String, String>>(false);
+            GroupCollector<String> foundOrganisms =
+                    new GroupCollector<String>(true);
+            try {
+                for (HashMap<String, ArrayList<String>> reaction
+                        : byReaction(proteins)) {
+                    collect(foundPathways,
+                            query.getPathwaysOfProteins(reaction));
+                }
+                for (HashMap<String, ArrayList<String>> reaction
+                        : byReaction(proteins)) {
+                    collect(foundGenes, query.getGenesOfProteins(reaction));
+                }
+                for (HashMap<String, ArrayList<String>> reaction
+                        : byReaction(proteins)) {
+                    collect(foundOrganisms,
+                            query.getOrganismOfProteins(reaction));
+                }
+            } catch (RuntimeException ex) {
+                expired(ex);
+            }
+            pathways = foundPathways.toMap();
+            genes = foundGenes.toMap();
+            organisms = foundOrganisms.toMap();
+        }
+        if (store != null && single && complete) {
+            store.put(new CompoundResult(chebi_id, proteins, pathways,
+                    organisms, genes), oneShot, generation);
+        }
+    }
+
+    /**
+     * Split the proteins of a compound into one dictionary per reaction.
+     *
+     * @param data a dictionary where the keys are reactions identifier and
+     * the values lists of proteins
+     * @return the dictionaries {reaction: [proteins]}, one per reaction
+     */
+    private static ArrayList<HashMap<String, ArrayList<String>>> byReaction(
+            final HashMap<String, ArrayList<String>> data) {
+        ArrayList<HashMap<String, ArrayList<String>>> output =
+                new ArrayList<HashMap<String, ArrayList<String>>>();
+        for (Entry<String, ArrayList<String>> entry : data.entrySet()) {
+            HashMap<String, ArrayList<String>> reaction =
+                    new HashMap<String, ArrayList<String>>();
+            reaction.put(entry.getKey(), entry.getValue());
+            output.add(reaction);
+        }
+        return output;
+    }
+
+    /**
+     * Add the values of a dictionary of lists to a collector.
+     *
+     * @param <V> the type of the values
+     * @param into the collector
+     * @param found the dictionary {key: [values]}
+     */
+    private static <V> void collect(final GroupCollector<V> into,
+            final HashMap<String, ArrayList<V>> found) {
+        for (Entry<String, ArrayList<V>> entry : found.entrySet()) {
+            for (V value : entry.getValue()) {
+                into.add(entry.getKey(), value);
+            }
+        }
+    }
+
+    /**
+     * Handle a query which failed during the resolution: if the deadline
+     * has passed, the resolution is marked incomplete, otherwise the
+     * failure is passed on.
+     *
+     * @param ex the failure
+     * @throws RuntimeException the failure, if the deadline has not passed
+     */
+    private void expired(final RuntimeException ex) {
+        if (deadline == null || !deadline.isExpired()) {
+            throw ex;
+        }
+        complete = false;
+    }
+
+    /**
+     * Set the deadline of the next resolutions: every query gets the time
+     * left as its timeout, the queries still running when it passes are
+     * cancelled and those not started yet are not sent. The information
+     * found before the deadline is returned and the resolution is marked
+     * incomplete. Incomplete results are not cached.
+     *
+     * @param newdeadline a Deadline (ie: Deadline.after(2000)), null for no
+     * time limit
+     */
+    public void setDeadline(final Deadline newdeadline) {
+        this.deadline = newdeadline;
+    }
+
+    /**
+     * Return the deadline of the resolutions.
+     *
+     * @return the Deadline, null if there is no time limit
+     */
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Return whether the last resolution completed before its deadline.
+     * When it did not, the proteins, genes, organisms and pathways returned
+     * are only those found in time, possibly none.
+     *
+     * @return boolean complete
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Return the cache of resolved compounds.
+     *
+     * @return the ResultCache, null if none is used
+     */
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Set the cache of resolved compounds, by default the one of the QueryRdf
+     * object. Compounds found in the cache are not queried again; the
+     * dictionaries returned are then shared with the cache and should not be
+     * modified.
+     *
+     * @param newcache a ResultCache, null to disable caching
+     */
+    public void setCache(final ResultCache newcache) {
+        this.cache = newcache;
+    }
+
+    /**
+     * Set the hierarchy used to expand a compound class to all its
+     * descendants: the proteins of a compound are then the proteins of the
+     * reactions of any of its descendants. Expanded compounds are not
+     * cached.
+     *
+     * @param newhierarchy a ChebiHierarchy, null to disable the expansion
+     * @param equivalents whether to also add the conjugate acids and bases
+     * and the tautomers of the descendants
+     */
+    public void setHierarchy(final ChebiHierarchy newhierarchy,
+            final boolean equivalents) {
+        this.hierarchy = newhierarchy;
+        this.withEquivalents = equivalents;
+    }
+
+    /**
+     * Set the filter of the compounds taking part in a rhea reaction, by
+     * default the one of the QueryRdf object. A compound which is not in
+     * the filter is resolved to empty dictionaries without any query;
+     * when expanding a compound class, the descendants which are not in the
+     * filter are not queried.
+     *
+     * @param filter a RheaFilter, null to use the one of the QueryRdf object
+     */
+    public void setRheaFilter(final RheaFilter filter) {
+        this.rheaFilter = filter;
+    }
+
+    /**
+     * Return the filter of the compounds taking part in a rhea reaction.
+     *
+     * @return the RheaFilter set, null if the one of the QueryRdf object is
+     * used
+     */
+    public RheaFilter getRheaFilter() {
+        return rheaFilter;
+    }
+
+    /**
+     * Return the hierarchy used to expand a compound class.
+     *
+     * @return the ChebiHierarchy, null if compounds are not expanded
+     */
+    public ChebiHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    /**
+     * Return whether the one-shot mode is used.
+     *
+     * @return boolean oneShot
+     */
+    public boolean isOneShot() {
+        return oneShot;
+    }
+
+    /**
+     * Set the one-shot mode. In this mode a compound is resolved with two
+     * queries: one for its proteins and one for the genes, organisms and
+     * pathways of all these proteins, whatever the number of reactions. A
+     * protein shared by several reactions is then only listed once per
+     * gene.
+     *
+     * @param newoneshot boolean
+     */
+    public void setOneShot(final boolean newoneshot) {
+        this.oneShot = newoneshot;
+    }
+
+    /**
+     * Returns the complete information of the compound, for instance to be
+     * encoded with the CompoundResultCodec.
+     *
+     * @return a CompoundResult
+     */
+    public CompoundResult getResult() {
+        return new CompoundResult(chebiId, proteins, pathways, organisms,
+                genes);
     }
 
     /**
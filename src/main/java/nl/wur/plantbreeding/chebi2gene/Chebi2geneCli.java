@@ -0,0 +1,543 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Command line annotator: reads chebi identifiers or compound names, one per
+ * line, and writes the proteins and genes of each compound.
+ *
+ * Each input line is either a chebi identifier (with or without the CHEBI:
+ * prefix) or a compound name searched with getExactChebiFromSearch(); only
+ * the first column of a tab separated line is used, and a line starting with
+ * '{' is read as a JSON object with a "chebi_id" or a "name" member.
+ *
+ * The lines are read one at a time and resolved by a fixed pool of threads,
+ * with a bounded number of lines in flight, so the memory used does not
+ * depend on the size of the input. The results are written as soon as they
+ * are available, in the order of the input or, with --unordered, in the
+ * order in which they complete. Progress, throughput and error counts are
+ * printed on the standard error.
+ *
+ * The tab separated output has at least one row per input line: a compound
+ * without protein, or a name matching no compound, gets a row with the
+ * columns it lacks left empty, and a line which cannot be resolved a row
+ * with its error in the last column.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class Chebi2geneCli {
+
+    /**
+     * The columns of the tab separated output.
+     */
+    public static final String[] COLUMNS = {"input", "chebi_id",
+        "reaction_id", "uniprot_id", "gene", "scaffold", "start", "stop",
+        "description", "error"};
+    /**
+     * Pattern of the chebi identifiers.
+     */
+    private static final Pattern CHEBI_ID = Pattern.compile(
+            "(?i)(CHEBI:)?\\d+");
+    /**
+     * Usage message.
+     */
+    private static final String USAGE = "Usage: chebi2gene [options]\n"
+            + "  --input FILE       read FILE instead of the standard input\n"
+            + "  --output FILE      write FILE instead of the standard output\n"
+            + "  --format tsv|jsonl output format (default: tsv)\n"
+            + "  --parallelism N    number of lines resolved concurrently"
+            + " (default: 4)\n"
+            + "  --unordered        write the results as they complete\n"
+            + "  --one-shot         retrieve the annotations of all the"
+            + " proteins in one query\n"
+            + "  --endpoint URL     the sparql endpoint to query\n"
+            + "  --quiet            do not print the progress\n";
+    /**
+     * The QueryRdf object used to run the queries.
+     */
+    private final QueryRdf query;
+    /**
+     * Whether to write JSON Lines rather than tab separated values.
+     */
+    private boolean json = false;
+    /**
+     * Number of lines resolved concurrently.
+     */
+    private int parallelism = 4;
+    /**
+     * Whether to write the results in the order they complete.
+     */
+    private boolean unordered = false;
+    /**
+     * Whether to use the one-shot resolution mode of Chebi2gene.
+     */
+    private boolean oneShot = false;
+    /**
+     * Interval between two progress reports in milliseconds, 0 to disable.
+     */
+    private long progressInterval = 5000;
+
+    /**
+     * The outcome of the resolution of one input line.
+     */
+    private static final class Outcome {
+
+        /**
+         * Position of the line in the input.
+         */
+        private final long index;
+        /**
+         * The input line.
+         */
+        private final String input;
+        /**
+         * The compounds found, null on error.
+         */
+        private final List<CompoundResult> results;
+        /**
+         * The error message, null on success.
+         */
+        private final String error;
+
+        /**
+         * Constructor.
+         *
+         * @param idx position of the line in the input
+         * @param line the input line
+         * @param found the compounds found, null on error
+         * @param message the error message, null on success
+         */
+        Outcome(final long idx, final String line,
+                final List<CompoundResult> found, final String message) {
+            this.index = idx;
+            this.input = line;
+            this.results = found;
+            this.error = message;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param queryrdf the QueryRdf object used to run the queries
+     */
+    public Chebi2geneCli(final QueryRdf queryrdf) {
+        this.query = queryrdf;
+    }
+
+    /**
+     * Set whether to write JSON Lines rather than tab separated values.
+     *
+     * @param newjson boolean json
+     */
+    public void setJson(final boolean newjson) {
+        this.json = newjson;
+    }
+
+    /**
+     * Set the number of lines resolved concurrently.
+     *
+     * @param newparallelism the parallelism
+     */
+    public void setParallelism(final int newparallelism) {
+        this.parallelism = newparallelism;
+    }
+
+    /**
+     * Set whether to write the results in the order they complete rather
+     * than in the order of the input.
+     *
+     * @param newunordered boolean unordered
+     */
+    public void setUnordered(final boolean newunordered) {
+        this.unordered = newunordered;
+    }
+
+    /**
+     * Set whether to use the one-shot resolution mode of Chebi2gene.
+     *
+     * @param newoneshot boolean one-shot
+     */
+    public void setOneShot(final boolean newoneshot) {
+        this.oneShot = newoneshot;
+    }
+
+    /**
+     * Set the interval between two progress reports.
+     *
+     * @param millis the interval in milliseconds, 0 to disable the reports
+     */
+    public void setProgressInterval(final long millis) {
+        this.progressInterval = millis;
+    }
+
+    /**
+     * Entry point.
+     *
+     * @param args the command line arguments
+     * @throws IOException if the input cannot be read or the output written
+     */
+    public static void main(final String[] args) throws IOException {
+        QueryRdf.Builder builder = QueryRdf.builder();
+        String input = null;
+        String output = null;
+        boolean unordered = false;
+        boolean oneShot = false;
+        boolean quiet = false;
+        boolean json = false;
+        int parallelism = 0;
+        try {
+            for (int cnt = 0; cnt < args.length; cnt++) {
+                String arg = args[cnt];
+                if (arg.equals("--unordered")) {
+                    unordered = true;
+                } else if (arg.equals("--one-shot")) {
+                    oneShot = true;
+                } else if (arg.equals("--quiet")) {
+                    quiet = true;
+                } else if (arg.equals("--help")) {
+                    System.out.print(USAGE);
+                    return;
+                } else if (cnt + 1 < args.length) {
+                    String value = args[++cnt];
+                    if (arg.equals("--input")) {
+                        input = value;
+                    } else if (arg.equals("--output")) {
+                        output = value;
+                    } else if (arg.equals("--format")) {
+                        if (!value.equals("tsv") && !value.equals("jsonl")) {
+                            throw new IllegalArgumentException(
+                                    "Unknown format: " + value);
+                        }
+                        json = value.equals("jsonl");
+                    } else if (arg.equals("--parallelism")) {
+                        parallelism = Integer.parseInt(value);
+                    } else if (arg.equals("--endpoint")) {
+                        builder.endpoint(value);
+                    } else {
+                        throw new IllegalArgumentException(
+                                "Unknown option: " + arg);
+                    }
+                } else {
+                    throw new IllegalArgumentException(
+                            "Missing value or unknown option: " + arg);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+        Chebi2geneCli cli = new Chebi2geneCli(builder.build());
+        cli.setUnordered(unordered);
+        cli.setOneShot(oneShot);
+        cli.setJson(json);
+        if (quiet) {
+            cli.setProgressInterval(0);
+        }
+        if (parallelism > 0) {
+            cli.setParallelism(parallelism);
+        }
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                input == null ? System.in : new FileInputStream(input),
+                "UTF-8"));
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                output == null ? System.out : new FileOutputStream(output),
+                "UTF-8"));
+        long errors;
+        try {
+            errors = cli.run(in, out, System.err);
+        } finally {
+            in.close();
+            out.close();
+        }
+        if (errors > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Resolve all the lines of the input and write their results.
+     *
+     * @param in the input
+     * @param out the output, flushed but not closed
+     * @param log where to print the progress and the errors
+     * @return the number of lines which could not be resolved
+     * @throws IOException if the input cannot be read or the output written
+     */
+    public long run(final BufferedReader in, final Writer out,
+            final PrintStream log) throws IOException {
+        if (!json) {
+            writeRow(out, COLUMNS);
+        }
+        int window = 4 * parallelism;
+        final boolean shared = query.getExecutor() != null;
+        ExecutorService executor = shared ? query.getExecutor()
+                : Executors.newFixedThreadPool(parallelism);
+        CompletionService<Outcome> completion =
+                new ExecutorCompletionService<Outcome>(executor);
+        ArrayDeque<Future<Outcome>> pending = new ArrayDeque<Future<Outcome>>();
+        long start = System.currentTimeMillis();
+        long lastReport = start;
+        long read = 0;
+        long written = 0;
+        long errors = 0;
+        try {
+            String line = in.readLine();
+            while (line != null || written < read) {
+                if (line != null && read - written < window) {
+                    if (!line.trim().isEmpty()) {
+                        final long idx = read++;
+                        final String text = line;
+                        Callable<Outcome> task = new Callable<Outcome>() {
+
+                            @Override
+                            public Outcome call() {
+                                return resolve(idx, text);
+                            }
+                        };
+                        pending.add(unordered ? completion.submit(task)
+                                : executor.submit(task));
+                    }
+                    line = in.readLine();
+                    continue;
+                }
+                Future<Outcome> done;
+                if (unordered) {
+                    done = completion.take();
+                    pending.remove(done);
+                } else {
+                    done = pending.poll();
+                }
+                Outcome outcome = done.get();
+                if (outcome.error != null) {
+                    errors++;
+                    log.println("Line " + (outcome.index + 1) + " ("
+                            + outcome.input + "): " + outcome.error);
+                }
+                write(out, outcome);
+                written++;
+                long now = System.currentTimeMillis();
+                if (progressInterval > 0
+                        && now - lastReport >= progressInterval) {
+                    lastReport = now;
+                    out.flush();
+                    log.println(progress(written, errors, now - start));
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Resolution failed", ex.getCause());
+        } finally {
+            if (!shared) {
+                executor.shutdownNow();
+            } else {
+                for (Future<Outcome> future : pending) {
+                    future.cancel(true);
+                }
+            }
+            out.flush();
+        }
+        if (progressInterval > 0) {
+            log.println(progress(written, errors,
+                    System.currentTimeMillis() - start));
+            long first = StartupTimer.getFirstAnswerMillis();
+            if (first >= 0) {
+                log.println(String.format("first answer after %.3fs, %s",
+                        first / 1000.0, StartupTimer.isJenaLoaded()
+                        ? "Jena loaded" : "Jena not loaded"));
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Returns a progress report.
+     *
+     * @param lines number of lines processed
+     * @param errors number of lines which failed
+     * @param millis time elapsed in milliseconds
+     * @return the report
+     */
+    private static String progress(final long lines, final long errors,
+            final long millis) {
+        double rate = lines * 1000.0 / Math.max(1, millis);
+        return String.format("%d lines in %.1fs (%.1f lines/s), %d errors",
+                lines, millis / 1000.0, rate, errors);
+    }
+
+    /**
+     * Resolve one input line, never throwing.
+     *
+     * @param idx position of the line in the input
+     * @param line the input line
+     * @return the outcome
+     */
+    private Outcome resolve(final long idx, final String line) {
+        try {
+            String text = line.trim();
+            String chebi_id = null;
+            String name = null;
+            if (text.startsWith("{")) {
+                LinkedHashMap<String, String> obj = Json.parseObject(text);
+                chebi_id = obj.get("chebi_id");
+                name = obj.get("name");
+            } else {
+                int tab = text.indexOf('\t');
+                if (tab >= 0) {
+                    text = text.substring(0, tab).trim();
+                }
+                if (CHEBI_ID.matcher(text).matches()) {
+                    chebi_id = text;
+                } else {
+                    name = text;
+                }
+            }
+
+            TreeSet<String> ids = new TreeSet<String>();
+            if (chebi_id != null) {
+                int colon = chebi_id.indexOf(':');
+                ids.add(chebi_id.substring(colon + 1));
+            } else if (name != null) {
+                ids.addAll(query.getExactChebiFromSearch(name).keySet());
+            } else {
+                return new Outcome(idx, line, null,
+                        "No chebi_id nor name found");
+            }
+            ArrayList<CompoundResult> results = new ArrayList<CompoundResult>();
+            for (String id : ids) {
+                Chebi2gene c2g = new Chebi2gene(query);
+                c2g.setOneShot(oneShot);
+                c2g.Chebi2gene(id);
+                results.add(c2g.getResult());
+            }
+            return new Outcome(idx, line, results, null);
+        } catch (RuntimeException ex) {
+            String message = ex.getMessage();
+            return new Outcome(idx, line, null, message == null
+                    ? ex.getClass().getName() : message);
+        }
+    }
+
+    /**
+     * Write the result of one input line.
+     *
+     * @param out the output
+     * @param outcome the result
+     * @throws IOException if the output cannot be written
+     */
+    private void write(final Writer out, final Outcome outcome)
+            throws IOException {
+        if (json) {
+            LinkedHashMap<String, Object> obj =
+                    new LinkedHashMap<String, Object>();
+            obj.put("input", outcome.input);
+            if (outcome.error != null) {
+                obj.put("error", outcome.error);
+            } else {
+                ArrayList<Object> compounds = new ArrayList<Object>();
+                for (CompoundResult result : outcome.results) {
+                    LinkedHashMap<String, Object> compound =
+                            new LinkedHashMap<String, Object>();
+                    compound.put("chebi_id", result.getChebiId());
+                    compound.put("proteins", result.getProteins());
+                    compound.put("genes", result.getGenes());
+                    compound.put("organisms", result.getOrganisms());
+                    compound.put("pathways", result.getPathways());
+                    compounds.add(compound);
+                }
+                obj.put("results", compounds);
+            }
+            out.write(Json.toJson(obj));
+            out.write('\n');
+        } else {
+            String[] row = new String[COLUMNS.length];
+            row[0] = outcome.input.trim();
+            if (outcome.error != null) {
+                row[COLUMNS.length - 1] = outcome.error;
+                writeRow(out, row);
+                return;
+            }
+            ArrayList<String[]> rows = new ArrayList<String[]>();
+            for (CompoundResult result : outcome.results) {
+                int before = rows.size();
+                BulkExporter.addRows(rows, result.getChebiId(),
+                        result.getProteins(), result.getGenes());
+                if (rows.size() == before) {
+                    rows.add(new String[]{result.getChebiId()});
+                }
+            }
+            if (rows.isEmpty()) {
+                writeRow(out, row);
+            }
+            for (String[] values : rows) {
+                Arrays.fill(row, 1, row.length, null);
+                System.arraycopy(values, 0, row, 1, values.length);
+                writeRow(out, row);
+            }
+        }
+    }
+
+    /**
+     * Write a tab separated row, tabs and new lines in the values being
+     * replaced by spaces and null values by empty strings.
+     *
+     * @param out the output
+     * @param row the values
+     * @throws IOException if the output cannot be written
+     */
+    private static void writeRow(final Writer out, final String[] row)
+            throws IOException {
+        for (int cnt = 0; cnt < row.length; cnt++) {
+            if (cnt > 0) {
+                out.write('\t');
+            }
+            if (row[cnt] != null) {
+                out.write(row[cnt].replace('\t', ' ').replace('\n', ' ')
+                        .replace('\r', ' '));
+            }
+        }
+        out.write('\n');
+    }
+}
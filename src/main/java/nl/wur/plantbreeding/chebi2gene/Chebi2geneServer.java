@@ -0,0 +1,497 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Embeddable HTTP service returning JSON, built on the HTTP server of the
+ * JDK. All the requests share one QueryRdf object and one ResultCache.
+ *
+ * Routes:
+ * <ul>
+ * <li>GET /search?name=...[&amp;extended=true]: the compounds whose name (or,
+ * extended, synonyms) contain the given string, see SearchChebi.</li>
+ * <li>GET /compound?chebi_id=...[&amp;budget=MS]: the proteins, genes,
+ * organisms and pathways of a compound, see Chebi2gene, and whether they
+ * were all found within the time budget (complete).</li>
+ * <li>GET /metrics: request and cache counters in the Prometheus text
+ * format.</li>
+ * </ul>
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class Chebi2geneServer {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = Logger.getLogger(
+            Chebi2geneServer.class.getName());
+    /**
+     * The QueryRdf object shared by all the requests.
+     */
+    private final QueryRdf query;
+    /**
+     * The cache shared by all the requests, may be null.
+     */
+    private final ResultCache cache;
+    /**
+     * The request counters.
+     */
+    private final Metrics metrics = new Metrics();
+    /**
+     * Number of threads handling the requests.
+     */
+    private final int threads;
+    /**
+     * Whether compounds are resolved in the one-shot mode.
+     */
+    private boolean oneShot = true;
+    /**
+     * Default time budget of a compound, in milliseconds, 0 for none.
+     */
+    private long budget = 0;
+    /**
+     * The HTTP server, null when stopped.
+     */
+    private HttpServer server;
+    /**
+     * The threads handling the requests, null when stopped.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * @param queryrdf the QueryRdf object shared by all the requests
+     * @param resultcache the cache shared by all the requests, may be null
+     * @param nthreads number of threads handling the requests
+     */
+    public Chebi2geneServer(final QueryRdf queryrdf,
+            final ResultCache resultcache, final int nthreads) {
+        this.query = queryrdf;
+        this.cache = resultcache;
+        this.threads = nthreads;
+    }
+
+    /**
+     * Set whether compounds are resolved in the one-shot mode (the default),
+     * see Chebi2gene.setOneShot().
+     *
+     * @param newoneshot boolean
+     */
+    public void setOneShot(final boolean newoneshot) {
+        this.oneShot = newoneshot;
+    }
+
+    /**
+     * Set the default time budget of the resolution of a compound, which a
+     * request may override with its budget parameter. A compound not
+     * resolved in time is returned with the information found so far and
+     * complete set to false.
+     *
+     * @param millis the budget in milliseconds, 0 for no limit
+     */
+    public void setTimeBudget(final long millis) {
+        this.budget = millis;
+    }
+
+    /**
+     * Start serving.
+     *
+     * @param address the address to listen to, port 0 for any free port
+     * @throws IOException if the address cannot be bound
+     */
+    public synchronized void start(final InetSocketAddress address)
+            throws IOException {
+        server = HttpServer.create(address, 0);
+        server.createContext("/search", new Route("search") {
+
+            @Override
+            Object handle(final HashMap<String, String> params) {
+                String name = required(params, "name");
+                if ("true".equals(params.get("extended"))) {
+                    return SearchChebi.SearchChebiExtended(query, name);
+                }
+                return SearchChebi.SearchChebiSimple(query, name);
+            }
+        });
+        server.createContext("/compound", new Route("compound") {
+
+            @Override
+            Object handle(final HashMap<String, String> params) {
+                String chebi_id = required(params, "chebi_id");
+                chebi_id = chebi_id.substring(chebi_id.indexOf(':') + 1);
+                long millis = budget;
+                if (params.containsKey("budget")) {
+                    try {
+                        millis = Long.parseLong(params.get("budget").trim());
+                    } catch (NumberFormatException ex) {
+                        throw new IllegalArgumentException(
+                                "Invalid parameter: budget");
+                    }
+                }
+                Chebi2gene c2g = new Chebi2gene(query);
+                c2g.setCache(cache);
+                c2g.setOneShot(oneShot);
+                if (millis > 0) {
+                    c2g.setDeadline(Deadline.after(millis));
+                }
+                c2g.Chebi2gene(chebi_id);
+                LinkedHashMap<String, Object> obj =
+                        new LinkedHashMap<String, Object>();
+                obj.put("chebi_id", chebi_id);
+                obj.put("complete", c2g.isComplete());
+                obj.put("proteins", c2g.getProteins());
+                obj.put("genes", c2g.getGenes());
+                obj.put("organisms", c2g.getOrganisms());
+                obj.put("pathways", c2g.getPathways());
+                return obj;
+            }
+        });
+        server.createContext("/metrics", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange)
+                    throws IOException {
+                send(exchange, 200, "text/plain; version=0.0.4",
+                        metrics.render(cache));
+            }
+        });
+        executor = newExecutor(threads);
+        server.setExecutor(executor);
+        server.start();
+        LOG.log(Level.INFO, "Chebi2geneServer listening on {0}",
+                server.getAddress());
+    }
+
+    /**
+     * Returns the port the server listens to.
+     *
+     * @return the port
+     */
+    public synchronized int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stop serving.
+     *
+     * @param delay maximum time in seconds to wait for the requests being
+     * processed
+     */
+    public synchronized void stop(final int delay) {
+        if (server != null) {
+            server.stop(delay);
+            executor.shutdown();
+            server = null;
+            executor = null;
+        }
+    }
+
+    /**
+     * Returns the executor of the requests: one virtual thread per request
+     * when the JVM supports them, a fixed pool of threads otherwise.
+     *
+     * @param nthreads size of the fixed pool
+     * @return the ExecutorService
+     */
+    private static ExecutorService newExecutor(final int nthreads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newFixedThreadPool(nthreads);
+        }
+    }
+
+    /**
+     * Parse the query string of a request.
+     *
+     * @param exchange the request
+     * @return the parameters, by name
+     */
+    private static HashMap<String, String> parameters(
+            final HttpExchange exchange) {
+        HashMap<String, String> params = new HashMap<String, String>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return params;
+        }
+        try {
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, eq),
+                            "UTF-8"), URLDecoder.decode(
+                            pair.substring(eq + 1), "UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return params;
+    }
+
+    /**
+     * Returns a required parameter.
+     *
+     * @param params the parameters of the request
+     * @param name the name of the parameter
+     * @return the value
+     * @throws IllegalArgumentException if the parameter is missing or empty
+     */
+    private static String required(final HashMap<String, String> params,
+            final String name) {
+        String value = params.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return value.trim();
+    }
+
+    /**
+     * Send a response and close the exchange.
+     *
+     * @param exchange the request
+     * @param status the HTTP status
+     * @param type the content type
+     * @param body the body of the response
+     * @throws IOException if the response cannot be sent
+     */
+    private static void send(final HttpExchange exchange, final int status,
+            final String type, final String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type",
+                type + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * A route returning JSON, counted in the metrics.
+     */
+    private abstract class Route implements HttpHandler {
+
+        /**
+         * Name of the route in the metrics.
+         */
+        private final String name;
+
+        /**
+         * Constructor.
+         *
+         * @param routename name of the route in the metrics
+         */
+        Route(final String routename) {
+            this.name = routename;
+        }
+
+        /**
+         * Handle a request.
+         *
+         * @param params the parameters of the request
+         * @return the response, converted to JSON
+         * @throws IllegalArgumentException if the request is invalid
+         */
+        abstract Object handle(HashMap<String, String> params);
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            long start = metrics.start();
+            int status = 200;
+            String body;
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    status = 405;
+                    body = error("Method not allowed");
+                } else {
+                    body = Json.toJson(handle(parameters(exchange)));
+                }
+            } catch (IllegalArgumentException ex) {
+                status = 400;
+                body = error(ex.getMessage());
+            } catch (RuntimeException ex) {
+                LOG.log(Level.WARNING, "Request failed: "
+                        + exchange.getRequestURI(), ex);
+                status = 500;
+                body = error(String.valueOf(ex.getMessage()));
+            }
+            try {
+                send(exchange, status, "application/json", body);
+            } finally {
+                metrics.end(name, start, status != 200);
+            }
+        }
+
+        /**
+         * Returns the JSON body of an error.
+         *
+         * @param message the error message
+         * @return the JSON text
+         */
+        private String error(final String message) {
+            LinkedHashMap<String, String> obj =
+                    new LinkedHashMap<String, String>();
+            obj.put("error", message);
+            return Json.toJson(obj);
+        }
+    }
+
+    /**
+     * Entry point: java Chebi2geneServer [--port N] [--threads N]
+     * [--cache N] [--endpoint URL] [--query-log FILE] [--rhea-filter FPP]
+     * [--budget MS]. The budget is the default time allowed to resolve a
+     * compound. With a query log, the compounds it lists are loaded in the
+     * cache before the server starts and the compounds looked up are saved
+     * in it when the server stops. With a rhea filter, the compounds without
+     * reaction are answered without querying the endpoint; the filter is
+     * built with the given false positive rate (ie: 0.01) and rebuilt every
+     * day. An unknown option, or an option without value, is reported on the
+     * standard error and the process exits with status 2.
+     *
+     * @param args the command line arguments
+     * @throws IOException if the server cannot be started
+     * @throws InterruptedException if interrupted during the warm-up
+     */
+    public static void main(final String[] args) throws IOException,
+            InterruptedException {
+        int port = 8080;
+        int nthreads = 32;
+        int entries = 10000;
+        File logFile = null;
+        double fpp = 0;
+        long millis = 0;
+        QueryRdf.Builder builder = QueryRdf.builder();
+        try {
+            for (int cnt = 0; cnt < args.length; cnt += 2) {
+                if (cnt + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value for "
+                            + args[cnt]);
+                }
+                if (args[cnt].equals("--port")) {
+                    port = Integer.parseInt(args[cnt + 1]);
+                } else if (args[cnt].equals("--threads")) {
+                    nthreads = Integer.parseInt(args[cnt + 1]);
+                } else if (args[cnt].equals("--cache")) {
+                    entries = Integer.parseInt(args[cnt + 1]);
+                } else if (args[cnt].equals("--endpoint")) {
+                    builder.endpoint(args[cnt + 1]);
+                } else if (args[cnt].equals("--query-log")) {
+                    logFile = new File(args[cnt + 1]);
+                } else if (args[cnt].equals("--rhea-filter")) {
+                    fpp = Double.parseDouble(args[cnt + 1]);
+                } else if (args[cnt].equals("--budget")) {
+                    millis = Long.parseLong(args[cnt + 1]);
+                } else {
+                    throw new IllegalArgumentException("Unknown option: "
+                            + args[cnt]);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(2);
+        }
+        // Keep as many idle connections to the endpoint as there are
+        // threads querying it, HttpURLConnection keeps 5 by default.
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections",
+                    Integer.toString(nthreads));
+        }
+        ResultCache resultcache = new ResultCache(entries, true);
+        if (fpp > 0) {
+            // The filter is built, and refreshed, with the engine configured
+            // so far; the engine of the server is then built with it.
+            QueryRdf plain = builder.build();
+            RheaFilter filter = RheaFilter.fromQuery(plain, fpp);
+            ScheduledExecutorService scheduler =
+                    Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+
+                        @Override
+                        public Thread newThread(final Runnable task) {
+                            Thread thread = new Thread(task,
+                                    "rhea-filter-refresh");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            filter.scheduleRefresh(plain, scheduler, 24, TimeUnit.HOURS);
+            builder.rheaFilter(filter);
+        }
+        if (logFile != null) {
+            final QueryLog log = new QueryLog(entries);
+            if (logFile.isFile()) {
+                List<String> recent = QueryLog.load(logFile);
+                CacheWarmer warmer = new CacheWarmer(builder.build(),
+                        resultcache);
+                warmer.setParallelism(Math.max(1, Math.min(8, nthreads)));
+                try {
+                    warmer.warm(recent.subList(0,
+                            Math.min(entries, recent.size())));
+                } finally {
+                    warmer.close();
+                }
+                for (int cnt = recent.size() - 1; cnt >= 0; cnt--) {
+                    log.record(recent.get(cnt));
+                }
+            }
+            builder.queryLog(log);
+            final File target = logFile;
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        log.save(target);
+                    } catch (IOException ex) {
+                        LOG.log(Level.WARNING, "Cannot save the query log",
+                                ex);
+                    }
+                }
+            });
+        }
+        Chebi2geneServer server = new Chebi2geneServer(builder.build(),
+                resultcache, nthreads);
+        server.setTimeBudget(millis);
+        server.start(new InetSocketAddress(port));
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * Precomputed transitive closure of the is_a hierarchy of chebi, used to
+ * expand a compound class (ie: carotene) to all its descendants before
+ * looking up their reactions in rhea.
+ *
+ * For every compound, the closure holds the sorted indexes of all its
+ * descendants (itself included) in one int array, so an expansion is a
+ * single contiguous scan. Compounds may also be linked to equivalent forms
+ * (conjugate acids and bases, tautomers), which can be added to the
+ * descendants of an expansion.
+ *
+ * The hierarchy is immutable and may be shared between threads. It can be
+ * saved to a file to avoid querying chebi at every start.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public final class ChebiHierarchy {
+
+    /**
+     * Version of the file format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The chebi identifiers, sorted.
+     */
+    private final String[] chebiIds;
+    /**
+     * Offsets of the descendants of each compound in the closure array.
+     */
+    private final int[] closureOffsets;
+    /**
+     * The descendants of the compounds.
+     */
+    private final int[] closure;
+    /**
+     * Offsets of the equivalent forms of each compound in the equivalents
+     * array.
+     */
+    private final int[] equivalentOffsets;
+    /**
+     * The equivalent forms of the compounds.
+     */
+    private final int[] equivalents;
+
+    /**
+     * Build the hierarchy and compute its closure.
+     *
+     * @param isA the is_a relations, as pairs of chebi identifiers: child
+     * then parent
+     * @param equivalences the equivalences between compounds (conjugate
+     * acid/base, tautomer), as pairs of chebi identifiers, may be empty
+     */
+    public ChebiHierarchy(final Collection<String[]> isA,
+            final Collection<String[]> equivalences) {
+        TreeSet<String> ids = new TreeSet<String>();
+        for (String[] pair : isA) {
+            ids.add(pair[0]);
+            ids.add(pair[1]);
+        }
+        for (String[] pair : equivalences) {
+            ids.add(pair[0]);
+            ids.add(pair[1]);
+        }
+        this.chebiIds = ids.toArray(new String[ids.size()]);
+        int size = chebiIds.length;
+
+        // Children of every compound, in compressed sparse rows.
+        int[] childOffsets = new int[size + 1];
+        int[][] edges = toIndexes(isA);
+        for (int[] edge : edges) {
+            childOffsets[edge[1] + 1]++;
+        }
+        for (int cnt = 0; cnt < size; cnt++) {
+            childOffsets[cnt + 1] += childOffsets[cnt];
+        }
+        int[] children = new int[edges.length];
+        int[] fill = Arrays.copyOf(childOffsets, size);
+        for (int[] edge : edges) {
+            children[fill[edge[1]]++] = edge[0];
+        }
+
+        // Closure: a walk down from every compound, the stamp array marking
+        // the compounds already reached by the current walk.
+        int[] stamp = new int[size];
+        Arrays.fill(stamp, -1);
+        int[] stack = new int[size];
+        int[] found = new int[size];
+        this.closureOffsets = new int[size + 1];
+        int[] all = new int[Math.max(16, size * 2)];
+        for (int node = 0; node < size; node++) {
+            int nfound = 0;
+            int top = 0;
+            stack[top++] = node;
+            stamp[node] = node;
+            while (top > 0) {
+                int cur = stack[--top];
+                found[nfound++] = cur;
+                for (int cnt = childOffsets[cur]; cnt < childOffsets[cur + 1];
+                        cnt++) {
+                    int child = children[cnt];
+                    if (stamp[child] != node) {
+                        stamp[child] = node;
+                        stack[top++] = child;
+                    }
+                }
+            }
+            Arrays.sort(found, 0, nfound);
+            int start = closureOffsets[node];
+            if (start + nfound > all.length) {
+                all = Arrays.copyOf(all, Math.max(all.length * 2,
+                        start + nfound));
+            }
+            System.arraycopy(found, 0, all, start, nfound);
+            closureOffsets[node + 1] = start + nfound;
+        }
+        this.closure = Arrays.copyOf(all, closureOffsets[size]);
+
+        // Equivalent forms, in both directions.
+        int[][] pairs = toIndexes(equivalences);
+        this.equivalentOffsets = new int[size + 1];
+        for (int[] pair : pairs) {
+            equivalentOffsets[pair[0] + 1]++;
+            equivalentOffsets[pair[1] + 1]++;
+        }
+        for (int cnt = 0; cnt < size; cnt++) {
+            equivalentOffsets[cnt + 1] += equivalentOffsets[cnt];
+        }
+        this.equivalents = new int[2 * pairs.length];
+        fill = Arrays.copyOf(equivalentOffsets, size);
+        for (int[] pair : pairs) {
+            equivalents[fill[pair[0]]++] = pair[1];
+            equivalents[fill[pair[1]]++] = pair[0];
+        }
+    }
+
+    /**
+     * Constructor used when reading a saved hierarchy.
+     *
+     * @param ids the chebi identifiers
+     * @param offsets the offsets of the closure
+     * @param descendants the closure
+     * @param eqOffsets the offsets of the equivalent forms
+     * @param eqs the equivalent forms
+     */
+    private ChebiHierarchy(final String[] ids, final int[] offsets,
+            final int[] descendants, final int[] eqOffsets,
+            final int[] eqs) {
+        this.chebiIds = ids;
+        this.closureOffsets = offsets;
+        this.closure = descendants;
+        this.equivalentOffsets = eqOffsets;
+        this.equivalents = eqs;
+    }
+
+    /**
+     * Retrieve the hierarchy of chebi from the endpoint (or local model) of
+     * the given QueryRdf object and compute its closure.
+     *
+     * @param query the QueryRdf object used to run the query
+     * @return the hierarchy
+     */
+    public static ChebiHierarchy fromQuery(final QueryRdf query) {
+        ArrayList<String[]> isA = new ArrayList<String[]>();
+        ArrayList<String[]> equivalences = new ArrayList<String[]>();
+        query.getChebiRelations(isA, equivalences);
+        return new ChebiHierarchy(isA, equivalences);
+    }
+
+    /**
+     * Convert pairs of chebi identifiers to pairs of indexes.
+     *
+     * @param pairs the pairs of chebi identifiers
+     * @return the pairs of indexes
+     */
+    private int[][] toIndexes(final Collection<String[]> pairs) {
+        int[][] output = new int[pairs.size()][];
+        int cnt = 0;
+        for (String[] pair : pairs) {
+            output[cnt++] = new int[]{Arrays.binarySearch(chebiIds, pair[0]),
+                        Arrays.binarySearch(chebiIds, pair[1])};
+        }
+        return output;
+    }
+
+    /**
+     * Returns the compound and all its descendants.
+     *
+     * @param chebi_id the chebi identifier of the compound or class
+     * @param withEquivalents whether to add the equivalent forms (conjugate
+     * acids and bases, tautomers) of the compounds found
+     * @return the sorted chebi identifiers, only the given one if it is not
+     * in the hierarchy
+     */
+    public TreeSet<String> expand(final String chebi_id,
+            final boolean withEquivalents) {
+        TreeSet<String> output = new TreeSet<String>();
+        output.add(chebi_id);
+        int idx = Arrays.binarySearch(chebiIds, chebi_id);
+        if (idx < 0) {
+            return output;
+        }
+        for (int cnt = closureOffsets[idx]; cnt < closureOffsets[idx + 1];
+                cnt++) {
+            int node = closure[cnt];
+            output.add(chebiIds[node]);
+            if (withEquivalents) {
+                for (int eq = equivalentOffsets[node];
+                        eq < equivalentOffsets[node + 1]; eq++) {
+                    output.add(chebiIds[equivalents[eq]]);
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns the number of descendants of a compound, itself included.
+     *
+     * @param chebi_id the chebi identifier of the compound or class
+     * @return the number of descendants, 1 if it is not in the hierarchy
+     */
+    public int countDescendants(final String chebi_id) {
+        int idx = Arrays.binarySearch(chebiIds, chebi_id);
+        return idx < 0 ? 1 : closureOffsets[idx + 1] - closureOffsets[idx];
+    }
+
+    /**
+     * Returns the number of compounds in the hierarchy.
+     *
+     * @return the number of compounds
+     */
+    public int size() {
+        return chebiIds.length;
+    }
+
+    /**
+     * Save the hierarchy and its closure.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(final File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)));
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(chebiIds.length);
+            for (String id : chebiIds) {
+                out.writeUTF(id);
+            }
+            writeInts(out, closureOffsets);
+            writeInts(out, closure);
+            writeInts(out, equivalentOffsets);
+            writeInts(out, equivalents);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read a hierarchy saved with write().
+     *
+     * @param file the file to read
+     * @return the hierarchy
+     * @throws IOException if the file cannot be read
+     */
+    public static ChebiHierarchy read(final File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported format version: "
+                        + version);
+            }
+            String[] ids = new String[in.readInt()];
+            for (int cnt = 0; cnt < ids.length; cnt++) {
+                ids[cnt] = in.readUTF();
+            }
+            return new ChebiHierarchy(ids, readInts(in), readInts(in),
+                    readInts(in), readInts(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write an int array preceded by its length.
+     *
+     * @param out the output
+     * @param values the array
+     * @throws IOException if the array cannot be written
+     */
+    private static void writeInts(final DataOutputStream out,
+            final int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Read an int array written by writeInts().
+     *
+     * @param in the input
+     * @return the array
+     * @throws IOException if the array cannot be read
+     */
+    private static int[] readInts(final DataInputStream in)
+            throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int cnt = 0; cnt < values.length; cnt++) {
+            values[cnt] = in.readInt();
+        }
+        return values;
+    }
+}
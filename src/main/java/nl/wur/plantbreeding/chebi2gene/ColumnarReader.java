@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the files written by the ColumnarWriter, one group of rows at a time.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public final class ColumnarReader {
+
+    /**
+     * The content of the file.
+     */
+    private final ByteBuffer in;
+    /**
+     * The names of the columns.
+     */
+    private final String[] columns;
+    /**
+     * Whether the end marker was read.
+     */
+    private boolean complete = false;
+
+    /**
+     * Constructor, reading the header of the file.
+     *
+     * @param file the file to read
+     * @throws IOException if the file cannot be read or is not a columnar file
+     */
+    public ColumnarReader(final File file) throws IOException {
+        this.in = CompoundResultCodec.map(file);
+        for (byte b : ColumnarWriter.MAGIC) {
+            if (!in.hasRemaining() || in.get() != b) {
+                throw new IOException(file + " is not a columnar file");
+            }
+        }
+        int version = in.get();
+        if (version != ColumnarWriter.VERSION) {
+            throw new IOException("Unsupported format version: " + version);
+        }
+        this.columns = CompoundResultCodec.readDictionary(in);
+    }
+
+    /**
+     * Returns the names of the columns.
+     *
+     * @return the names of the columns
+     */
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    /**
+     * Whether the end of the file was reached and the file was properly
+     * closed by its writer.
+     *
+     * @return boolean complete
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Read the next group of rows.
+     *
+     * @return the values of the group, by column then by row, or null when
+     * there are no more groups
+     * @throws IOException if the file is corrupted
+     */
+    public String[][] nextGroup() throws IOException {
+        if (complete || !in.hasRemaining()) {
+            return null;
+        }
+        int nrows = Varint.readInt(in);
+        if (nrows == 0) {
+            complete = true;
+            return null;
+        }
+        String[][] group = new String[columns.length][];
+        Inflater inflater = new Inflater();
+        try {
+            for (int col = 0; col < columns.length; col++) {
+                byte[] raw = new byte[Varint.readInt(in)];
+                byte[] compressed = new byte[Varint.readInt(in)];
+                in.get(compressed);
+                inflater.reset();
+                inflater.setInput(compressed);
+                if (inflater.inflate(raw) != raw.length) {
+                    throw new IOException("Truncated column chunk");
+                }
+                ByteBuffer chunk = ByteBuffer.wrap(raw);
+                String[] dict = CompoundResultCodec.readDictionary(chunk);
+                String[] values = new String[nrows];
+                for (int row = 0; row < nrows; row++) {
+                    values[row] = CompoundResultCodec.readValue(chunk, dict);
+                }
+                group[col] = values;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException(ex.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return group;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a table of strings in a simple, self-describing, columnar file.
+ *
+ * The file starts with the magic string C2GCOL, a version byte and the names
+ * of the columns. The rows follow in groups, each group being its number of
+ * rows then, for each column, its deflate compressed chunk: a dictionary of
+ * the distinct strings of the chunk followed by one varint per row (see
+ * CompoundResultCodec for the encoding of the values). A group with no row
+ * marks the end of the file.
+ *
+ * Every group is forced to disk when written, so a file can be truncated
+ * back to the end of its last group (see getOffset()) and appended to.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public final class ColumnarWriter {
+
+    /**
+     * Magic string at the start of the files.
+     */
+    static final byte[] MAGIC = {'C', '2', 'G', 'C', 'O', 'L'};
+    /**
+     * Version of the format.
+     */
+    static final int VERSION = 1;
+    /**
+     * The file written.
+     */
+    private final RandomAccessFile file;
+    /**
+     * Number of columns.
+     */
+    private final int ncols;
+    /**
+     * Compressor of the chunks.
+     */
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    /**
+     * Create a new file.
+     *
+     * @param output the file to create
+     * @param columns the names of the columns
+     * @throws IOException if the file cannot be written
+     */
+    public ColumnarWriter(final File output, final String[] columns)
+            throws IOException {
+        this.ncols = columns.length;
+        this.file = new RandomAccessFile(output, "rw");
+        file.setLength(0);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(MAGIC, 0, MAGIC.length);
+        header.write(VERSION);
+        CompoundResultCodec.writeDictionary(header, Arrays.asList(columns));
+        file.write(header.toByteArray());
+        file.getChannel().force(false);
+    }
+
+    /**
+     * Re-open a file to append groups, dropping everything after the given
+     * offset.
+     *
+     * @param output the file to append to
+     * @param columns the names of the columns
+     * @param offset the end of the last complete group, as returned by
+     * getOffset()
+     * @throws IOException if the file cannot be opened
+     */
+    public ColumnarWriter(final File output, final String[] columns,
+            final long offset) throws IOException {
+        this.ncols = columns.length;
+        this.file = new RandomAccessFile(output, "rw");
+        file.setLength(offset);
+        file.seek(offset);
+    }
+
+    /**
+     * Write a group of rows and force it to disk.
+     *
+     * @param rows the rows, each with one value per column
+     * @throws IOException if the file cannot be written
+     */
+    public void writeGroup(final List<String[]> rows) throws IOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream group = new ByteArrayOutputStream();
+        Varint.write(group, rows.size());
+        ByteArrayOutputStream values = new ByteArrayOutputStream();
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        byte[] buf = new byte[1 << 16];
+        for (int col = 0; col < ncols; col++) {
+            LinkedHashMap<String, Integer> dict =
+                    new LinkedHashMap<String, Integer>();
+            values.reset();
+            for (String[] row : rows) {
+                CompoundResultCodec.writeValue(values, dict, row[col]);
+            }
+            chunk.reset();
+            CompoundResultCodec.writeDictionary(chunk, dict.keySet());
+            values.writeTo(chunk);
+            byte[] raw = chunk.toByteArray();
+
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(
+                    raw.length / 2 + 16);
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buf);
+                compressed.write(buf, 0, len);
+            }
+            Varint.write(group, raw.length);
+            Varint.write(group, compressed.size());
+            compressed.writeTo(group);
+        }
+        file.write(group.toByteArray());
+        file.getChannel().force(false);
+    }
+
+    /**
+     * Returns the end of the last group written.
+     *
+     * @return the offset in the file
+     * @throws IOException if the file is closed
+     */
+    public long getOffset() throws IOException {
+        return file.getFilePointer();
+    }
+
+    /**
+     * Mark the end of the rows and close the file.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void close() throws IOException {
+        try {
+            file.write(0);
+            file.getChannel().force(false);
+        } finally {
+            deflater.end();
+            file.close();
+        }
+    }
+}
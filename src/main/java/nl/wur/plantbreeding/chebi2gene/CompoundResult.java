@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The complete resolution of a chebi compound: the proteins of its reactions
+ * and the pathways, organisms and genes of these proteins. This is what
+ * Chebi2gene computes and what is kept in the ResultCache.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class CompoundResult {
+
+    /**
+     * The chebi identifier of the compound.
+     */
+    private final String chebiId;
+    /**
+     * The proteins of the compound, by reaction identifier.
+     */
+    private final HashMap<String, ArrayList<String>> proteins;
+    /**
+     * The pathways of the proteins, by uniprot identifier.
+     */
+    private final HashMap<String, ArrayList<String>> pathways;
+    /**
+     * The organisms of the proteins, by uniprot identifier.
+     */
+    private final HashMap<String, ArrayList<String>> organisms;
+    /**
+     * The genes of the proteins, by uniprot identifier.
+     */
+    private final HashMap<String, ArrayList<HashMap<String, String>>> genes;
+
+    /**
+     * Constructor.
+     *
+     * @param chebi_id the chebi identifier of the compound
+     * @param proteins the proteins, by reaction identifier
+     * @param pathways the pathways, by uniprot identifier
+     * @param organisms the organisms, by uniprot identifier
+     * @param genes the genes, by uniprot identifier
+     */
+    public CompoundResult(final String chebi_id,
+            final HashMap<String, ArrayList<String>> proteins,
+            final HashMap<String, ArrayList<String>> pathways,
+            final HashMap<String, ArrayList<String>> organisms,
+            final HashMap<String, ArrayList<HashMap<String, String>>> genes) {
+        this.chebiId = chebi_id;
+        this.proteins = proteins;
+        this.pathways = pathways;
+        this.organisms = organisms;
+        this.genes = genes;
+    }
+
+    /**
+     * Returns the chebi identifier of the compound.
+     *
+     * @return the chebi identifier
+     */
+    public String getChebiId() {
+        return chebiId;
+    }
+
+    /**
+     * Returns the proteins information.
+     *
+     * @return a dictionary of the proteins, by reaction identifier
+     */
+    public HashMap<String, ArrayList<String>> getProteins() {
+        return proteins;
+    }
+
+    /**
+     * Returns the pathways information.
+     *
+     * @return a dictionary of the pathways, by uniprot identifier
+     */
+    public HashMap<String, ArrayList<String>> getPathways() {
+        return pathways;
+    }
+
+    /**
+     * Returns the organisms information.
+     *
+     * @return a dictionary of the organisms, by uniprot identifier
+     */
+    public HashMap<String, ArrayList<String>> getOrganisms() {
+        return organisms;
+    }
+
+    /**
+     * Returns the genes information.
+     *
+     * @return a dictionary of the genes, by uniprot identifier
+     */
+    public HashMap<String, ArrayList<HashMap<String, String>>> getGenes() {
+        return genes;
+    }
+
+    /**
+     * Returns all the identifiers this result depends on: the chebi
+     * identifier, the reactions, the proteins and the gene names.
+     *
+     * @return a set of identifiers
+     */
+    public Set<String> getIdentifiers() {
+        HashSet<String> ids = new HashSet<String>();
+        ids.add(chebiId);
+        for (String react : proteins.keySet()) {
+            ids.add(react);
+            ids.addAll(proteins.get(react));
+        }
+        for (ArrayList<HashMap<String, String>> list : genes.values()) {
+            for (HashMap<String, String> gene : list) {
+                ids.add(gene.get("name"));
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ * Compact binary format of a CompoundResult, used as cache value and as export
+ * format.
+ *
+ * An encoded result starts with a dictionary of all its distinct strings
+ * (scaffold names, descriptions, organisms are then stored once) followed by
+ * the four dictionaries of the result in which every value is a varint:
+ * either a decimal number stored as is (identifiers, gene positions) or a
+ * reference to the dictionary. Results are read straight from a ByteBuffer,
+ * such as a memory mapped file, without intermediate copy.
+ *
+ * In a file, results follow each other, each prefixed by its length.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public final class CompoundResultCodec {
+
+    /**
+     * First byte of an encoded result, the format version.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Encoding of the strings.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Utility class.
+     */
+    private CompoundResultCodec() {
+    }
+
+    /**
+     * Encode a result.
+     *
+     * @param result the CompoundResult to encode
+     * @return the encoded result
+     */
+    public static byte[] encode(final CompoundResult result) {
+        LinkedHashMap<String, Integer> dict =
+                new LinkedHashMap<String, Integer>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+        writeValue(body, dict, result.getChebiId());
+        writeLists(body, dict, result.getProteins());
+        writeLists(body, dict, result.getPathways());
+        writeLists(body, dict, result.getOrganisms());
+        Varint.write(body, result.getGenes().size());
+        for (Entry<String, ArrayList<HashMap<String, String>>> entry
+                : result.getGenes().entrySet()) {
+            writeValue(body, dict, entry.getKey());
+            Varint.write(body, entry.getValue().size());
+            for (HashMap<String, String> gene : entry.getValue()) {
+                Varint.write(body, gene.size());
+                for (Entry<String, String> field : gene.entrySet()) {
+                    writeValue(body, dict, field.getKey());
+                    writeValue(body, dict, field.getValue());
+                }
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                body.size() + 16 * dict.size() + 8);
+        out.write(VERSION);
+        writeDictionary(out, dict.keySet());
+        byte[] tail = body.toByteArray();
+        out.write(tail, 0, tail.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a result from the current position of a buffer, the position is
+     * moved to the end of the result.
+     *
+     * @param in the buffer
+     * @return the CompoundResult
+     */
+    public static CompoundResult decode(final ByteBuffer in) {
+        int version = in.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException(
+                    "Unsupported format version: " + version);
+        }
+        String[] dict = readDictionary(in);
+        String chebi_id = readValue(in, dict);
+        HashMap<String, ArrayList<String>> proteins = readLists(in, dict);
+        HashMap<String, ArrayList<String>> pathways = readLists(in, dict);
+        HashMap<String, ArrayList<String>> organisms = readLists(in, dict);
+        int nkeys = Varint.readInt(in);
+        HashMap<String, ArrayList<HashMap<String, String>>> genes =
+                new HashMap<String, ArrayList<HashMap<String, String>>>(
+                nkeys * 2);
+        for (int cnt = 0; cnt < nkeys; cnt++) {
+            String key = readValue(in, dict);
+            int ngenes = Varint.readInt(in);
+            ArrayList<HashMap<String, String>> list =
+                    new ArrayList<HashMap<String, String>>(ngenes);
+            for (int cnt2 = 0; cnt2 < ngenes; cnt2++) {
+                int nfields = Varint.readInt(in);
+                HashMap<String, String> gene =
+                        new HashMap<String, String>(nfields * 2);
+                for (int cnt3 = 0; cnt3 < nfields; cnt3++) {
+                    String field = readValue(in, dict);
+                    gene.put(field, readValue(in, dict));
+                }
+                list.add(gene);
+            }
+            genes.put(key, list);
+        }
+        return new CompoundResult(chebi_id, proteins, pathways, organisms,
+                genes);
+    }
+
+    /**
+     * Write a result, prefixed by its length.
+     *
+     * @param out the stream to write to
+     * @param result the CompoundResult to write
+     * @throws IOException if the stream cannot be written
+     */
+    public static void write(final OutputStream out,
+            final CompoundResult result) throws IOException {
+        byte[] bytes = encode(result);
+        ByteArrayOutputStream len = new ByteArrayOutputStream(5);
+        Varint.write(len, bytes.length);
+        len.writeTo(out);
+        out.write(bytes);
+    }
+
+    /**
+     * Read the next length prefixed result of a buffer.
+     *
+     * @param in the buffer, at the start of a result or at its end
+     * @return the CompoundResult or null if there are no more results
+     */
+    public static CompoundResult read(final ByteBuffer in) {
+        if (!in.hasRemaining()) {
+            return null;
+        }
+        int len = Varint.readInt(in);
+        int end = in.position() + len;
+        CompoundResult result = decode(in);
+        if (in.position() != end) {
+            throw new IllegalArgumentException("Corrupted result at "
+                    + (end - len));
+        }
+        return result;
+    }
+
+    /**
+     * Map a file of results in memory, to be read with read(ByteBuffer).
+     *
+     * @param file the file written with write(OutputStream, CompoundResult)
+     * @return a read-only ByteBuffer over the file
+     * @throws IOException if the file cannot be mapped
+     */
+    public static ByteBuffer map(final File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Write a dictionary of strings: their number then each string as its
+     * length followed by its UTF-8 bytes.
+     *
+     * @param out the stream to write to
+     * @param strings the strings, in the order of their index
+     */
+    static void writeDictionary(final ByteArrayOutputStream out,
+            final Collection<String> strings) {
+        Varint.write(out, strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(UTF8);
+            Varint.write(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Read a dictionary of strings written by writeDictionary, directly from
+     * the backing array of the buffer when there is one.
+     *
+     * @param in the buffer to read from
+     * @return the strings, by index
+     */
+    static String[] readDictionary(final ByteBuffer in) {
+        String[] dict = new String[Varint.readInt(in)];
+        for (int cnt = 0; cnt < dict.length; cnt++) {
+            int len = Varint.readInt(in);
+            if (in.hasArray()) {
+                dict[cnt] = new String(in.array(),
+                        in.arrayOffset() + in.position(), len, UTF8);
+                in.position(in.position() + len);
+            } else {
+                byte[] bytes = new byte[len];
+                in.get(bytes);
+                dict[cnt] = new String(bytes, UTF8);
+            }
+        }
+        return dict;
+    }
+
+    /**
+     * Write a dictionary of lists.
+     *
+     * @param out the stream to write to
+     * @param dict the dictionary of strings being built
+     * @param data the dictionary of lists to write
+     */
+    private static void writeLists(final ByteArrayOutputStream out,
+            final LinkedHashMap<String, Integer> dict,
+            final HashMap<String, ArrayList<String>> data) {
+        Varint.write(out, data.size());
+        for (Entry<String, ArrayList<String>> entry : data.entrySet()) {
+            writeValue(out, dict, entry.getKey());
+            Varint.write(out, entry.getValue().size());
+            for (String value : entry.getValue()) {
+                writeValue(out, dict, value);
+            }
+        }
+    }
+
+    /**
+     * Read a dictionary of lists.
+     *
+     * @param in the buffer to read from
+     * @param dict the dictionary of strings
+     * @return the dictionary of lists
+     */
+    private static HashMap<String, ArrayList<String>> readLists(
+            final ByteBuffer in, final String[] dict) {
+        int nkeys = Varint.readInt(in);
+        HashMap<String, ArrayList<String>> data =
+                new HashMap<String, ArrayList<String>>(nkeys * 2);
+        for (int cnt = 0; cnt < nkeys; cnt++) {
+            String key = readValue(in, dict);
+            int nvalues = Varint.readInt(in);
+            ArrayList<String> values = new ArrayList<String>(nvalues);
+            for (int cnt2 = 0; cnt2 < nvalues; cnt2++) {
+                values.add(readValue(in, dict));
+            }
+            data.put(key, values);
+        }
+        return data;
+    }
+
+    /**
+     * Write a value: a number as (number * 2 + 1), null as 0 and any other
+     * string as (index in the dictionary + 1) * 2.
+     *
+     * @param out the stream to write to
+     * @param dict the dictionary of strings being built
+     * @param value the value to write
+     */
+    static void writeValue(final ByteArrayOutputStream out,
+            final LinkedHashMap<String, Integer> dict, final String value) {
+        if (value == null) {
+            Varint.write(out, 0);
+        } else if (Varint.isNumber(value)) {
+            Varint.write(out, (Long.parseLong(value) << 1) | 1);
+        } else {
+            Integer idx = dict.get(value);
+            if (idx == null) {
+                idx = dict.size();
+                dict.put(value, idx);
+            }
+            Varint.write(out, (idx + 1L) << 1);
+        }
+    }
+
+    /**
+     * Read a value written by writeValue.
+     *
+     * @param in the buffer to read from
+     * @param dict the dictionary of strings
+     * @return the value
+     */
+    static String readValue(final ByteBuffer in, final String[] dict) {
+        long code = Varint.read(in);
+        if ((code & 1) == 1) {
+            return Long.toString(code >>> 1);
+        } else if (code == 0) {
+            return null;
+        }
+        return dict[(int) (code >>> 1) - 1];
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.Arrays;
+
+/**
+ * Immutable compressed set of non-negative ints, laid out as a roaring
+ * bitmap: the values are split by their high 16 bits in chunks of 65536,
+ * each chunk being stored either as a sorted array of its low 16 bits
+ * (up to ARRAY_MAX values) or as a bitmap of 1024 words. Sparse sets then
+ * cost two bytes per value and dense ones one bit per possible value, and
+ * the size of the intersection of two sets is computed chunk by chunk
+ * without building it.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+final class CompressedBitSet {
+
+    /**
+     * Largest number of values of a chunk stored as an array.
+     */
+    static final int ARRAY_MAX = 4096;
+    /**
+     * Number of words of the bitmap of a chunk.
+     */
+    private static final int BITMAP_WORDS = 1024;
+    /**
+     * The high 16 bits of the values of each chunk, sorted.
+     */
+    private final char[] keys;
+    /**
+     * The content of each chunk: a char[] of sorted low 16 bits or a
+     * long[BITMAP_WORDS] bitmap.
+     */
+    private final Object[] containers;
+    /**
+     * Number of values in the set.
+     */
+    private final int cardinality;
+
+    /**
+     * Constructor.
+     *
+     * @param chunkKeys the high 16 bits of the chunks
+     * @param chunks the content of the chunks
+     * @param count the number of values
+     */
+    private CompressedBitSet(final char[] chunkKeys, final Object[] chunks,
+            final int count) {
+        this.keys = chunkKeys;
+        this.containers = chunks;
+        this.cardinality = count;
+    }
+
+    /**
+     * Returns the set of the given values.
+     *
+     * @param values the values, in any order, possibly repeated
+     * @return the set
+     * @throws IllegalArgumentException if a value is negative
+     */
+    static CompressedBitSet of(final int[] values) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        if (sorted.length > 0 && sorted[0] < 0) {
+            throw new IllegalArgumentException("Negative value: "
+                    + sorted[0]);
+        }
+        int distinct = 0;
+        for (int cnt = 0; cnt < sorted.length; cnt++) {
+            if (cnt == 0 || sorted[cnt] != sorted[cnt - 1]) {
+                sorted[distinct++] = sorted[cnt];
+            }
+        }
+        int nchunks = 0;
+        for (int cnt = 0; cnt < distinct; cnt++) {
+            if (cnt == 0 || sorted[cnt] >>> 16 != sorted[cnt - 1] >>> 16) {
+                nchunks++;
+            }
+        }
+        char[] chunkKeys = new char[nchunks];
+        Object[] chunks = new Object[nchunks];
+        int from = 0;
+        for (int chunk = 0; chunk < nchunks; chunk++) {
+            int high = sorted[from] >>> 16;
+            int to = from;
+            while (to < distinct && sorted[to] >>> 16 == high) {
+                to++;
+            }
+            chunkKeys[chunk] = (char) high;
+            if (to - from <= ARRAY_MAX) {
+                char[] lows = new char[to - from];
+                for (int cnt = from; cnt < to; cnt++) {
+                    lows[cnt - from] = (char) sorted[cnt];
+                }
+                chunks[chunk] = lows;
+            } else {
+                long[] bitmap = new long[BITMAP_WORDS];
+                for (int cnt = from; cnt < to; cnt++) {
+                    int low = sorted[cnt] & 0xFFFF;
+                    bitmap[low >>> 6] |= 1L << low;
+                }
+                chunks[chunk] = bitmap;
+            }
+            from = to;
+        }
+        return new CompressedBitSet(chunkKeys, chunks, distinct);
+    }
+
+    /**
+     * Returns the number of values in the set.
+     *
+     * @return the cardinality
+     */
+    int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Returns whether the set contains a value.
+     *
+     * @param value the value
+     * @return boolean
+     */
+    boolean contains(final int value) {
+        if (value < 0) {
+            return false;
+        }
+        int chunk = Arrays.binarySearch(keys, (char) (value >>> 16));
+        if (chunk < 0) {
+            return false;
+        }
+        return contains(containers[chunk], (char) value);
+    }
+
+    /**
+     * Returns the number of values found in both this set and another one.
+     *
+     * @param other the other set
+     * @return the cardinality of the intersection
+     */
+    int andCardinality(final CompressedBitSet other) {
+        int count = 0;
+        int idx1 = 0;
+        int idx2 = 0;
+        while (idx1 < keys.length && idx2 < other.keys.length) {
+            if (keys[idx1] < other.keys[idx2]) {
+                idx1++;
+            } else if (keys[idx1] > other.keys[idx2]) {
+                idx2++;
+            } else {
+                count += andCardinality(containers[idx1],
+                        other.containers[idx2]);
+                idx1++;
+                idx2++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the values of the set.
+     *
+     * @return the values, sorted
+     */
+    int[] toArray() {
+        int[] output = new int[cardinality];
+        int pos = 0;
+        for (int chunk = 0; chunk < keys.length; chunk++) {
+            int high = keys[chunk] << 16;
+            if (containers[chunk] instanceof char[]) {
+                for (char low : (char[]) containers[chunk]) {
+                    output[pos++] = high | low;
+                }
+            } else {
+                long[] bitmap = (long[]) containers[chunk];
+                for (int word = 0; word < bitmap.length; word++) {
+                    long bits = bitmap[word];
+                    while (bits != 0) {
+                        output[pos++] = high | (word << 6)
+                                | Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                    }
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns whether a chunk contains the given low 16 bits.
+     *
+     * @param container the chunk
+     * @param low the low 16 bits
+     * @return boolean
+     */
+    private static boolean contains(final Object container, final char low) {
+        if (container instanceof char[]) {
+            return Arrays.binarySearch((char[]) container, low) >= 0;
+        }
+        return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+    }
+
+    /**
+     * Returns the number of values found in two chunks.
+     *
+     * @param first the first chunk
+     * @param second the second chunk
+     * @return the cardinality of their intersection
+     */
+    private static int andCardinality(final Object first,
+            final Object second) {
+        if (first instanceof long[] && second instanceof long[]) {
+            long[] bits1 = (long[]) first;
+            long[] bits2 = (long[]) second;
+            int count = 0;
+            for (int word = 0; word < BITMAP_WORDS; word++) {
+                count += Long.bitCount(bits1[word] & bits2[word]);
+            }
+            return count;
+        } else if (first instanceof long[]) {
+            return andCardinality(second, first);
+        }
+        char[] lows = (char[]) first;
+        int count = 0;
+        if (second instanceof long[]) {
+            long[] bitmap = (long[]) second;
+            for (char low : lows) {
+                if ((bitmap[low >>> 6] & (1L << low)) != 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        char[] others = (char[]) second;
+        int idx1 = 0;
+        int idx2 = 0;
+        while (idx1 < lows.length && idx2 < others.length) {
+            if (lows[idx1] < others[idx2]) {
+                idx1++;
+            } else if (lows[idx1] > others[idx2]) {
+                idx2++;
+            } else {
+                count++;
+                idx1++;
+                idx2++;
+            }
+        }
+        return count;
+    }
+}
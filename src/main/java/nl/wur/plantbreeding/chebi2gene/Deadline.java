@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import com.hp.hpl.jena.query.QueryCancelledException;
+
+/**
+ * A point in time by which a piece of work, for instance the resolution of
+ * a compound, must be done.
+ *
+ * A deadline is attached to the thread doing the work (see attach()): every
+ * query run by this thread then gets the remaining time as its timeout, on
+ * the client and as a hint to the endpoint, and no new query is sent once
+ * the deadline has passed. The paginated queries pass the deadline on to
+ * the threads fetching their pages.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public final class Deadline {
+
+    /**
+     * The deadline of the work done by each thread.
+     */
+    private static final ThreadLocal<Deadline> CURRENT =
+            new ThreadLocal<Deadline>();
+    /**
+     * The time budget, in milliseconds.
+     */
+    private final long budget;
+    /**
+     * The deadline, as a System.nanoTime() value.
+     */
+    private final long end;
+
+    /**
+     * Constructor.
+     *
+     * @param millis the time budget, in milliseconds
+     */
+    private Deadline(final long millis) {
+        this.budget = millis;
+        this.end = System.nanoTime() + millis * 1000000L;
+    }
+
+    /**
+     * Returns the deadline after the given time budget, from now.
+     *
+     * @param millis the time budget, in milliseconds
+     * @return the Deadline
+     * @throws IllegalArgumentException if the budget is negative
+     */
+    public static Deadline after(final long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Negative time budget: "
+                    + millis);
+        }
+        return new Deadline(millis);
+    }
+
+    /**
+     * Returns the time budget given when the deadline was created.
+     *
+     * @return the budget, in milliseconds
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the time left before the deadline.
+     *
+     * @return the time left in milliseconds, 0 once the deadline has passed
+     */
+    public long remaining() {
+        long left = end - System.nanoTime();
+        return left <= 0 ? 0 : (left + 999999L) / 1000000L;
+    }
+
+    /**
+     * Returns whether the deadline has passed.
+     *
+     * @return boolean
+     */
+    public boolean isExpired() {
+        return end - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Attach this deadline to the current thread, until detach() is called
+     * with the deadline returned.
+     *
+     * @return the deadline attached before, may be null
+     */
+    Deadline attach() {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    /**
+     * Restore the deadline attached to the current thread before attach().
+     *
+     * @param previous the deadline returned by attach(), may be null
+     */
+    static void detach(final Deadline previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Returns the deadline attached to the current thread.
+     *
+     * @return the Deadline, null if none is attached
+     */
+    static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Returns the timeout of a query run by the current thread: the
+     * configured timeout, shortened to the time left before the deadline of
+     * the thread.
+     *
+     * @param configured the timeout of the queries, in milliseconds, 0 for
+     * no limit
+     * @return the timeout in milliseconds, 0 for no limit
+     * @throws QueryCancelledException if the deadline has passed
+     */
+    static long timeout(final long configured) {
+        Deadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return configured;
+        }
+        long left = deadline.remaining();
+        if (left == 0) {
+            throw new QueryCancelledException();
+        }
+        return configured > 0 ? Math.min(configured, left) : left;
+    }
+}
@@ -0,0 +1,558 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Over-representation analysis of the pathways and ITAG genes of a list of
+ * compounds, for instance the compounds found in an experiment, against a
+ * background of resolved compounds.
+ *
+ * Every compound of the background gets a dense index, and every pathway
+ * (or gene) the set of the compounds linked to it through their proteins,
+ * as a CompressedBitSet. Testing a list of compounds is then one
+ * intersection count per set, run in parallel on the common fork/join pool
+ * when there are many sets, and one hypergeometric upper tail computed from
+ * a table of log factorials. The p-values are adjusted for the number of
+ * sets tested with the Benjamini-Hochberg procedure.
+ *
+ * The analysis is immutable and may be shared between threads.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public final class EnrichmentAnalysis {
+
+    /**
+     * Number of sets tested by a single task.
+     */
+    private static final int CHUNK = 256;
+
+    /**
+     * The sets of compounds of one kind of annotation.
+     */
+    private static final class Sets {
+
+        /**
+         * The names of the sets, sorted.
+         */
+        private final String[] names;
+        /**
+         * The compounds of each set, as indexes in the chebiIds array.
+         */
+        private final CompressedBitSet[] members;
+
+        /**
+         * Constructor.
+         *
+         * @param byName the indexes of the compounds, by set name
+         */
+        Sets(final TreeMap<String, TreeSet<Integer>> byName) {
+            this.names = byName.keySet().toArray(new String[byName.size()]);
+            this.members = new CompressedBitSet[names.length];
+            int cnt = 0;
+            for (TreeSet<Integer> set : byName.values()) {
+                int[] values = new int[set.size()];
+                int pos = 0;
+                for (int value : set) {
+                    values[pos++] = value;
+                }
+                members[cnt++] = CompressedBitSet.of(values);
+            }
+        }
+    }
+
+    /**
+     * The chebi identifiers of the background, sorted.
+     */
+    private final String[] chebiIds;
+    /**
+     * The compounds of each pathway.
+     */
+    private final Sets pathways;
+    /**
+     * The compounds of each gene.
+     */
+    private final Sets genes;
+    /**
+     * ln(i!) for i from 0 to the size of the background.
+     */
+    private final double[] lnFactorials;
+
+    /**
+     * Build the analysis of the given background. A compound is linked to
+     * the pathways and the genes of all the proteins of its reactions.
+     *
+     * @param background the resolved compounds, typically all the compounds
+     * which could have been found by the experiment
+     */
+    public EnrichmentAnalysis(final Collection<CompoundResult> background) {
+        HashMap<String, CompoundResult> byId =
+                new HashMap<String, CompoundResult>();
+        for (CompoundResult result : background) {
+            byId.put(result.getChebiId(), result);
+        }
+        this.chebiIds = byId.keySet().toArray(new String[byId.size()]);
+        Arrays.sort(chebiIds);
+        TreeMap<String, TreeSet<Integer>> byPathway =
+                new TreeMap<String, TreeSet<Integer>>();
+        TreeMap<String, TreeSet<Integer>> byGene =
+                new TreeMap<String, TreeSet<Integer>>();
+        for (int idx = 0; idx < chebiIds.length; idx++) {
+            CompoundResult result = byId.get(chebiIds[idx]);
+            for (ArrayList<String> prots : result.getProteins().values()) {
+                for (String prot : prots) {
+                    ArrayList<String> names = result.getPathways().get(prot);
+                    if (names != null) {
+                        for (String name : names) {
+                            add(byPathway, name, idx);
+                        }
+                    }
+                    ArrayList<HashMap<String, String>> list =
+                            result.getGenes().get(prot);
+                    if (list != null) {
+                        for (HashMap<String, String> gene : list) {
+                            if (gene.get("name") != null) {
+                                add(byGene, gene.get("name"), idx);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        this.pathways = new Sets(byPathway);
+        this.genes = new Sets(byGene);
+        this.lnFactorials = new double[chebiIds.length + 1];
+        for (int cnt = 1; cnt <= chebiIds.length; cnt++) {
+            lnFactorials[cnt] = lnFactorials[cnt - 1] + Math.log(cnt);
+        }
+    }
+
+    /**
+     * Add a compound to a set.
+     *
+     * @param map the sets, by name
+     * @param name the name of the set
+     * @param idx the index of the compound
+     */
+    private static void add(final Map<String, TreeSet<Integer>> map,
+            final String name, final int idx) {
+        TreeSet<Integer> set = map.get(name);
+        if (set == null) {
+            set = new TreeSet<Integer>();
+            map.put(name, set);
+        }
+        set.add(idx);
+    }
+
+    /**
+     * Returns the pathways over-represented in a list of compounds.
+     *
+     * @param chebi_ids the chebi identifiers of the compounds, those which
+     * are not in the background are ignored
+     * @return the pathways linked to at least one of the compounds, by
+     * increasing p-value
+     */
+    public List<Term> enrichPathways(final Collection<String> chebi_ids) {
+        return enrich(pathways, chebi_ids);
+    }
+
+    /**
+     * Returns the ITAG genes over-represented in a list of compounds.
+     *
+     * @param chebi_ids the chebi identifiers of the compounds, those which
+     * are not in the background are ignored
+     * @return the genes linked to at least one of the compounds, by
+     * increasing p-value
+     */
+    public List<Term> enrichGenes(final Collection<String> chebi_ids) {
+        return enrich(genes, chebi_ids);
+    }
+
+    /**
+     * Returns the number of compounds of the background.
+     *
+     * @return the number of compounds
+     */
+    public int size() {
+        return chebiIds.length;
+    }
+
+    /**
+     * Returns the number of pathways linked to the background.
+     *
+     * @return the number of pathways
+     */
+    public int getPathwayCount() {
+        return pathways.names.length;
+    }
+
+    /**
+     * Returns the number of genes linked to the background.
+     *
+     * @return the number of genes
+     */
+    public int getGeneCount() {
+        return genes.names.length;
+    }
+
+    /**
+     * Test all the sets of one kind against a list of compounds.
+     *
+     * @param sets the sets
+     * @param chebi_ids the chebi identifiers of the compounds
+     * @return the sets linked to at least one of the compounds, by
+     * increasing p-value
+     */
+    private List<Term> enrich(final Sets sets,
+            final Collection<String> chebi_ids) {
+        ArrayList<Integer> found = new ArrayList<Integer>();
+        for (String chebi_id : chebi_ids) {
+            int idx = Arrays.binarySearch(chebiIds,
+                    chebi_id.substring(chebi_id.indexOf(':') + 1));
+            if (idx >= 0) {
+                found.add(idx);
+            }
+        }
+        int[] values = new int[found.size()];
+        for (int cnt = 0; cnt < values.length; cnt++) {
+            values[cnt] = found.get(cnt);
+        }
+        final CompressedBitSet query = CompressedBitSet.of(values);
+        if (query.cardinality() == 0) {
+            return new ArrayList<Term>();
+        }
+        final int[] overlaps = new int[sets.names.length];
+        final double[] pvalues = new double[sets.names.length];
+        Scan scan = new Scan(sets, query, overlaps, pvalues, 0,
+                sets.names.length);
+        if (sets.names.length <= CHUNK) {
+            scan.compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(scan);
+        }
+
+        ArrayList<Integer> hits = new ArrayList<Integer>();
+        for (int cnt = 0; cnt < overlaps.length; cnt++) {
+            if (overlaps[cnt] > 0) {
+                hits.add(cnt);
+            }
+        }
+        Collections.sort(hits, new Comparator<Integer>() {
+
+            @Override
+            public int compare(final Integer set1, final Integer set2) {
+                int cmp = Double.compare(pvalues[set1], pvalues[set2]);
+                return cmp != 0 ? cmp
+                        : sets.names[set1].compareTo(sets.names[set2]);
+            }
+        });
+        // Benjamini-Hochberg: the sets without compound of the list have a
+        // p-value of 1 and rank last, they do not change the others.
+        int tested = sets.names.length;
+        double[] qvalues = new double[hits.size()];
+        double min = 1;
+        for (int rank = hits.size() - 1; rank >= 0; rank--) {
+            min = Math.min(min, pvalues[hits.get(rank)] * tested
+                    / (rank + 1));
+            qvalues[rank] = min;
+        }
+        int[] members = query.toArray();
+        ArrayList<Term> output = new ArrayList<Term>(hits.size());
+        for (int rank = 0; rank < hits.size(); rank++) {
+            int set = hits.get(rank);
+            ArrayList<String> compounds = new ArrayList<String>();
+            for (int idx : members) {
+                if (sets.members[set].contains(idx)) {
+                    compounds.add(chebiIds[idx]);
+                }
+            }
+            output.add(new Term(sets.names[set], compounds,
+                    sets.members[set].cardinality(), query.cardinality(),
+                    chebiIds.length, pvalues[set], qvalues[rank]));
+        }
+        return output;
+    }
+
+    /**
+     * Returns the probability to find at least overlap compounds of a set in
+     * a random list of compounds: the upper tail of the hypergeometric
+     * distribution.
+     *
+     * @param overlap the number of compounds of the list in the set
+     * @param setSize the number of compounds of the set
+     * @param listSize the number of compounds of the list
+     * @param total the number of compounds of the background
+     * @return the p-value
+     */
+    double upperTail(final int overlap, final int setSize,
+            final int listSize, final int total) {
+        int max = Math.min(setSize, listSize);
+        if (overlap > max) {
+            return 0;
+        }
+        double term = Math.exp(lnChoose(setSize, overlap)
+                + lnChoose(total - setSize, listSize - overlap)
+                - lnChoose(total, listSize));
+        double sum = 0;
+        for (int cnt = overlap; cnt <= max && term > 0; cnt++) {
+            sum += term;
+            term *= (double) (setSize - cnt) * (listSize - cnt)
+                    / ((double) (cnt + 1)
+                    * (total - setSize - listSize + cnt + 1));
+        }
+        return Math.min(1, sum);
+    }
+
+    /**
+     * Returns ln(n choose k).
+     *
+     * @param n the number of elements
+     * @param k the number of elements chosen
+     * @return the logarithm of the binomial coefficient
+     */
+    private double lnChoose(final int n, final int k) {
+        return lnFactorials[n] - lnFactorials[k] - lnFactorials[n - k];
+    }
+
+    /**
+     * Tests a range of sets, splitting it in two halves while it is larger
+     * than a chunk.
+     */
+    private final class Scan extends RecursiveAction {
+
+        /**
+         * Serial version.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The sets.
+         */
+        private final Sets sets;
+        /**
+         * The compounds of the list.
+         */
+        private final CompressedBitSet query;
+        /**
+         * The overlap of each set, filled.
+         */
+        private final int[] overlaps;
+        /**
+         * The p-value of each set, filled.
+         */
+        private final double[] pvalues;
+        /**
+         * The first set of the range.
+         */
+        private final int lo;
+        /**
+         * The end of the range, exclusive.
+         */
+        private final int hi;
+
+        /**
+         * Constructor.
+         *
+         * @param allsets the sets
+         * @param list the compounds of the list
+         * @param overlapsOut the overlap of each set
+         * @param pvaluesOut the p-value of each set
+         * @param from the first set of the range
+         * @param to the end of the range, exclusive
+         */
+        Scan(final Sets allsets, final CompressedBitSet list,
+                final int[] overlapsOut, final double[] pvaluesOut,
+                final int from, final int to) {
+            this.sets = allsets;
+            this.query = list;
+            this.overlaps = overlapsOut;
+            this.pvalues = pvaluesOut;
+            this.lo = from;
+            this.hi = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > CHUNK) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Scan(sets, query, overlaps, pvalues, lo, mid),
+                        new Scan(sets, query, overlaps, pvalues, mid, hi));
+                return;
+            }
+            for (int set = lo; set < hi; set++) {
+                CompressedBitSet members = sets.members[set];
+                int overlap = members.andCardinality(query);
+                overlaps[set] = overlap;
+                pvalues[set] = overlap == 0 ? 1 : upperTail(overlap,
+                        members.cardinality(), query.cardinality(),
+                        chebiIds.length);
+            }
+        }
+    }
+
+    /**
+     * The result of the test of one pathway or gene.
+     */
+    public static final class Term {
+
+        /**
+         * The name of the pathway or gene.
+         */
+        private final String name;
+        /**
+         * The compounds of the list linked to it.
+         */
+        private final List<String> compounds;
+        /**
+         * Number of compounds of the background linked to it.
+         */
+        private final int size;
+        /**
+         * Number of compounds of the list found in the background.
+         */
+        private final int listSize;
+        /**
+         * Number of compounds of the background.
+         */
+        private final int total;
+        /**
+         * The hypergeometric p-value.
+         */
+        private final double pValue;
+        /**
+         * The p-value adjusted with the Benjamini-Hochberg procedure.
+         */
+        private final double qValue;
+
+        /**
+         * Constructor.
+         *
+         * @param termname the name of the pathway or gene
+         * @param found the compounds of the list linked to it
+         * @param setSize number of compounds of the background linked to it
+         * @param nlist number of compounds of the list in the background
+         * @param ntotal number of compounds of the background
+         * @param pvalue the p-value
+         * @param qvalue the adjusted p-value
+         */
+        Term(final String termname, final List<String> found,
+                final int setSize, final int nlist, final int ntotal,
+                final double pvalue, final double qvalue) {
+            this.name = termname;
+            this.compounds = Collections.unmodifiableList(found);
+            this.size = setSize;
+            this.listSize = nlist;
+            this.total = ntotal;
+            this.pValue = pvalue;
+            this.qValue = qvalue;
+        }
+
+        /**
+         * Returns the name of the pathway or gene.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the compounds of the list linked to the pathway or gene.
+         *
+         * @return the chebi identifiers, sorted
+         */
+        public List<String> getCompounds() {
+            return compounds;
+        }
+
+        /**
+         * Returns the number of compounds of the list linked to the pathway
+         * or gene.
+         *
+         * @return the overlap
+         */
+        public int getOverlap() {
+            return compounds.size();
+        }
+
+        /**
+         * Returns the number of compounds of the background linked to the
+         * pathway or gene.
+         *
+         * @return the size of the set
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the number of compounds of the list found in the
+         * background.
+         *
+         * @return the size of the list
+         */
+        public int getListSize() {
+            return listSize;
+        }
+
+        /**
+         * Returns the number of compounds of the background.
+         *
+         * @return the size of the background
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * Returns the probability to find as many compounds of the list
+         * linked to the pathway or gene by chance.
+         *
+         * @return the p-value
+         */
+        public double getPValue() {
+            return pValue;
+        }
+
+        /**
+         * Returns the p-value adjusted for the number of pathways or genes
+         * tested (false discovery rate).
+         *
+         * @return the adjusted p-value
+         */
+        public double getQValue() {
+            return qValue;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + getOverlap() + "/" + listSize + " vs "
+                    + size + "/" + total + " p=" + pValue + " q=" + qValue;
+        }
+    }
+}
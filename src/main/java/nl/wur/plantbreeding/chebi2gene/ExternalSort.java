@@ -0,0 +1,374 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts lines of text within a memory budget. Lines are kept in memory until
+ * the budget is used, then sorted and written to a temporary run file; the
+ * runs are merged when the lines are read back.
+ *
+ * The runs are deleted when the sorted lines are closed, or by discard()
+ * when they are not read back, so that a long running process does not
+ * keep track of every run it wrote.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+final class ExternalSort {
+
+    /**
+     * Rough memory overhead of a String in an ArrayList, in bytes.
+     */
+    private static final int LINE_OVERHEAD = 56;
+    /**
+     * The memory budget, in bytes.
+     */
+    private final long budget;
+    /**
+     * The directory in which to write the runs, null for the default
+     * temporary directory.
+     */
+    private final File tmpDir;
+    /**
+     * Whether to drop duplicated lines.
+     */
+    private final boolean unique;
+    /**
+     * The lines not written to a run yet.
+     */
+    private final ArrayList<String> buffer = new ArrayList<String>();
+    /**
+     * Estimated memory used by the buffer.
+     */
+    private long used = 0;
+    /**
+     * The runs written so far.
+     */
+    private final ArrayList<File> runs = new ArrayList<File>();
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes the memory budget, in bytes
+     * @param directory the directory for the runs, null for the default one
+     * @param distinct whether to drop duplicated lines
+     */
+    ExternalSort(final long maxBytes, final File directory,
+            final boolean distinct) {
+        this.budget = maxBytes;
+        this.tmpDir = directory;
+        this.unique = distinct;
+    }
+
+    /**
+     * Add a line to sort.
+     *
+     * @param line the line, without line terminator
+     * @throws IOException if a run cannot be written
+     */
+    void add(final String line) throws IOException {
+        buffer.add(line);
+        used += LINE_OVERHEAD + 2L * line.length();
+        if (used >= budget) {
+            spill();
+        }
+    }
+
+    /**
+     * Returns the number of runs written to disk so far.
+     *
+     * @return the number of runs
+     */
+    int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Sort the buffer and write it to a new run.
+     *
+     * @throws IOException if the run cannot be written
+     */
+    private void spill() throws IOException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        Collections.sort(buffer);
+        File run = File.createTempFile("chebi2gene-run", ".txt", tmpDir);
+        boolean written = false;
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(run), "UTF-8"), 1 << 16);
+            try {
+                String previous = null;
+                for (String line : buffer) {
+                    if (!unique || !line.equals(previous)) {
+                        out.write(line);
+                        out.write('\n');
+                    }
+                    previous = line;
+                }
+            } finally {
+                out.close();
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                run.delete();
+            }
+        }
+        runs.add(run);
+        buffer.clear();
+        used = 0;
+    }
+
+    /**
+     * Returns all the lines added, sorted. No line can be added afterward.
+     *
+     * @return the sorted lines, to close once read
+     * @throws IOException if the runs cannot be read
+     */
+    Lines sorted() throws IOException {
+        if (runs.isEmpty()) {
+            Collections.sort(buffer);
+            return new Lines(new ArrayList<String>(buffer), null, unique);
+        }
+        try {
+            spill();
+            return new Lines(null, new ArrayList<File>(runs), unique);
+        } catch (IOException ex) {
+            discard();
+            throw ex;
+        }
+    }
+
+    /**
+     * Delete the runs written so far and drop the lines in memory, when the
+     * lines are not to be read back (ie: the query producing them failed).
+     */
+    void discard() {
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        buffer.clear();
+        used = 0;
+    }
+
+    /**
+     * Sort all the lines of a reader into a file.
+     *
+     * @param in the lines to sort
+     * @param out the file in which to write the sorted lines
+     * @param maxBytes the memory budget, in bytes
+     * @param distinct whether to drop duplicated lines
+     * @throws IOException if reading or writing fails
+     */
+    static void sort(final BufferedReader in, final File out,
+            final long maxBytes, final boolean distinct) throws IOException {
+        ExternalSort sorter = new ExternalSort(maxBytes,
+                out.getAbsoluteFile().getParentFile(), distinct);
+        try {
+            String line = in.readLine();
+            while (line != null) {
+                sorter.add(line);
+                line = in.readLine();
+            }
+        } catch (IOException ex) {
+            sorter.discard();
+            throw ex;
+        }
+        Lines lines = sorter.sorted();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(out), "UTF-8"), 1 << 16);
+        try {
+            String next = lines.next();
+            while (next != null) {
+                writer.write(next);
+                writer.write('\n');
+                next = lines.next();
+            }
+        } finally {
+            writer.close();
+            lines.close();
+        }
+    }
+
+    /**
+     * The sorted lines, read from memory or merged from the runs.
+     */
+    static final class Lines {
+
+        /**
+         * The lines when they all fitted in memory.
+         */
+        private final ArrayList<String> memory;
+        /**
+         * Position in the in-memory lines.
+         */
+        private int position = 0;
+        /**
+         * The run files, deleted on close.
+         */
+        private final ArrayList<File> files;
+        /**
+         * The open runs, ordered by their current line.
+         */
+        private final PriorityQueue<Run> queue;
+        /**
+         * Whether to drop duplicated lines.
+         */
+        private final boolean unique;
+        /**
+         * The last line returned.
+         */
+        private String previous;
+
+        /**
+         * Constructor.
+         *
+         * @param lines the sorted lines, if they are in memory
+         * @param runs the run files, if the lines are on disk
+         * @param distinct whether to drop duplicated lines
+         * @throws IOException if a run cannot be opened
+         */
+        private Lines(final ArrayList<String> lines,
+                final ArrayList<File> runs, final boolean distinct)
+                throws IOException {
+            this.memory = lines;
+            this.files = runs;
+            this.unique = distinct;
+            this.queue = new PriorityQueue<Run>();
+            if (runs != null) {
+                try {
+                    for (File file : runs) {
+                        Run run = new Run(new BufferedReader(
+                                new InputStreamReader(new FileInputStream(
+                                file), "UTF-8"), 1 << 16));
+                        if (run.current != null) {
+                            queue.add(run);
+                        } else {
+                            run.reader.close();
+                        }
+                    }
+                } catch (IOException ex) {
+                    close();
+                    throw ex;
+                }
+            }
+        }
+
+        /**
+         * Returns the next line.
+         *
+         * @return the next line in sorted order, null at the end
+         * @throws IOException if a run cannot be read
+         */
+        String next() throws IOException {
+            String line = nextLine();
+            while (unique && line != null && line.equals(previous)) {
+                line = nextLine();
+            }
+            previous = line;
+            return line;
+        }
+
+        /**
+         * Returns the next line, duplicates included.
+         *
+         * @return the next line, null at the end
+         * @throws IOException if a run cannot be read
+         */
+        private String nextLine() throws IOException {
+            if (memory != null) {
+                return position < memory.size() ? memory.get(position++)
+                        : null;
+            }
+            Run run = queue.poll();
+            if (run == null) {
+                return null;
+            }
+            String line = run.current;
+            run.current = run.reader.readLine();
+            if (run.current != null) {
+                queue.add(run);
+            } else {
+                run.reader.close();
+            }
+            return line;
+        }
+
+        /**
+         * Close the runs and delete their files.
+         *
+         * @throws IOException if a run cannot be closed
+         */
+        void close() throws IOException {
+            for (Run run : queue) {
+                run.reader.close();
+            }
+            queue.clear();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * An open run and its current line.
+     */
+    private static final class Run implements Comparable<Run> {
+
+        /**
+         * The reader of the run.
+         */
+        private final BufferedReader reader;
+        /**
+         * The current line of the run.
+         */
+        private String current;
+
+        /**
+         * Constructor reading the first line of the run.
+         *
+         * @param in the reader of the run
+         * @throws IOException if the run cannot be read
+         */
+        private Run(final BufferedReader in) throws IOException {
+            this.reader = in;
+            this.current = in.readLine();
+        }
+
+        @Override
+        public int compareTo(final Run other) {
+            return current.compareTo(other.current);
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory index of the positions of the ITAG genes linked to chebi
+ * compounds, answering which genes or compounds overlap a region of a
+ * scaffold.
+ *
+ * The genes of each scaffold are sorted by start in primitive arrays which
+ * form an implicit binary search tree (the root of a range being its middle
+ * element), each node holding the highest stop of its subtree. A query
+ * skips every subtree ending before the region and stops at the first gene
+ * starting after it, so it runs in O(log n + k) for k genes found.
+ *
+ * Positions are inclusive on both ends, as in ITAG. The index is immutable
+ * and may be shared between threads.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public final class GeneIntervalIndex {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = Logger.getLogger(
+            GeneIntervalIndex.class.getName());
+
+    /**
+     * The genes of one scaffold.
+     */
+    private static final class Scaffold {
+
+        /**
+         * Start of the genes, sorted.
+         */
+        private long[] starts;
+        /**
+         * Stop of the genes.
+         */
+        private long[] stops;
+        /**
+         * Highest stop of the subtree rooted at each gene.
+         */
+        private long[] maxStops;
+        /**
+         * Index of the genes in the names array.
+         */
+        private int[] genes;
+    }
+
+    /**
+     * The scaffolds, by name.
+     */
+    private final HashMap<String, Scaffold> scaffolds =
+            new HashMap<String, Scaffold>();
+    /**
+     * The names of the genes.
+     */
+    private final String[] names;
+    /**
+     * Offsets of the compounds of each gene in the compounds array: the
+     * compounds of gene i are at compounds[offsets[i]] to
+     * compounds[offsets[i + 1] - 1].
+     */
+    private final int[] offsets;
+    /**
+     * The compounds of the genes, as indexes in the chebiIds array.
+     */
+    private final int[] compounds;
+    /**
+     * The chebi identifiers of the compounds.
+     */
+    private final String[] chebiIds;
+
+    /**
+     * Build the index of the genes of the given compounds. A gene without a
+     * scaffold, start or stop, or whose start or stop is not a number, is
+     * ignored.
+     *
+     * @param results the resolved compounds
+     */
+    public GeneIntervalIndex(final Collection<CompoundResult> results) {
+        this(rowsOf(results));
+    }
+
+    /**
+     * Build the index from rows of chebi identifier, gene, scaffold, start
+     * and stop.
+     *
+     * @param rows the rows
+     */
+    private GeneIntervalIndex(final List<String[]> rows) {
+        LinkedHashMap<String, Integer> chebiIdx =
+                new LinkedHashMap<String, Integer>();
+        LinkedHashMap<String, Integer> geneIdx =
+                new LinkedHashMap<String, Integer>();
+        ArrayList<String[]> positions = new ArrayList<String[]>();
+        ArrayList<TreeSet<Integer>> geneCompounds =
+                new ArrayList<TreeSet<Integer>>();
+        int invalid = 0;
+        for (String[] row : rows) {
+            if (row[1] == null || row[2] == null || row[3] == null
+                    || row[4] == null) {
+                continue;
+            }
+            Long start = position(row[3]);
+            Long stop = position(row[4]);
+            if (start == null || stop == null) {
+                invalid++;
+                continue;
+            }
+            Integer gene = geneIdx.get(row[1]);
+            if (gene == null) {
+                gene = geneIdx.size();
+                geneIdx.put(row[1], gene);
+                positions.add(new String[]{row[0], row[1], row[2],
+                    start.toString(), stop.toString()});
+                geneCompounds.add(new TreeSet<Integer>());
+            }
+            Integer chebi = chebiIdx.get(row[0]);
+            if (chebi == null) {
+                chebi = chebiIdx.size();
+                chebiIdx.put(row[0], chebi);
+            }
+            geneCompounds.get(gene).add(chebi);
+        }
+        if (invalid > 0) {
+            LOG.log(Level.WARNING, "{0} genes ignored, their start or stop "
+                    + "is not a number", invalid);
+        }
+
+        this.names = geneIdx.keySet().toArray(new String[geneIdx.size()]);
+        this.chebiIds = chebiIdx.keySet().toArray(
+                new String[chebiIdx.size()]);
+        this.offsets = new int[names.length + 1];
+        for (int gene = 0; gene < names.length; gene++) {
+            offsets[gene + 1] = offsets[gene]
+                    + geneCompounds.get(gene).size();
+        }
+        this.compounds = new int[offsets[names.length]];
+        for (int gene = 0; gene < names.length; gene++) {
+            int pos = offsets[gene];
+            for (int chebi : geneCompounds.get(gene)) {
+                compounds[pos++] = chebi;
+            }
+        }
+
+        HashMap<String, ArrayList<Integer>> byScaffold =
+                new HashMap<String, ArrayList<Integer>>();
+        final long[] allStarts = new long[names.length];
+        final long[] allStops = new long[names.length];
+        for (int gene = 0; gene < names.length; gene++) {
+            String[] row = positions.get(gene);
+            allStarts[gene] = Long.parseLong(row[3]);
+            allStops[gene] = Long.parseLong(row[4]);
+            ArrayList<Integer> list = byScaffold.get(row[2]);
+            if (list == null) {
+                list = new ArrayList<Integer>();
+                byScaffold.put(row[2], list);
+            }
+            list.add(gene);
+        }
+        for (Map.Entry<String, ArrayList<Integer>> entry
+                : byScaffold.entrySet()) {
+            ArrayList<Integer> list = entry.getValue();
+            Integer[] sorted = list.toArray(new Integer[list.size()]);
+            Arrays.sort(sorted, new Comparator<Integer>() {
+
+                @Override
+                public int compare(final Integer g1, final Integer g2) {
+                    return Long.compare(allStarts[g1], allStarts[g2]);
+                }
+            });
+            Scaffold sca = new Scaffold();
+            int size = sorted.length;
+            sca.starts = new long[size];
+            sca.stops = new long[size];
+            sca.maxStops = new long[size];
+            sca.genes = new int[size];
+            for (int cnt = 0; cnt < size; cnt++) {
+                sca.genes[cnt] = sorted[cnt];
+                sca.starts[cnt] = allStarts[sorted[cnt]];
+                sca.stops[cnt] = allStops[sorted[cnt]];
+            }
+            augment(sca, 0, size);
+            scaffolds.put(entry.getKey(), sca);
+        }
+    }
+
+    /**
+     * Returns a position given as the value of a literal, plain or typed
+     * (ie: 100^^http://www.w3.org/2001/XMLSchema#int).
+     *
+     * @param value the literal as returned by the queries
+     * @return the position, null if it is not a number
+     */
+    static Long position(final String value) {
+        int end = value.indexOf("^^");
+        String lexical = end < 0 ? value : value.substring(0, end);
+        try {
+            return Long.valueOf(lexical.trim());
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Load the index from a file written by the BulkExporter.
+     *
+     * @param export the exported file
+     * @return the index
+     * @throws IOException if the file cannot be read
+     */
+    public static GeneIntervalIndex load(final File export)
+            throws IOException {
+        ColumnarReader reader = new ColumnarReader(export);
+        List<String> columns = Arrays.asList(reader.getColumns());
+        int[] cols = {columns.indexOf("chebi_id"), columns.indexOf("gene"),
+            columns.indexOf("scaffold"), columns.indexOf("start"),
+            columns.indexOf("stop")};
+        for (int col : cols) {
+            if (col < 0) {
+                throw new IOException(export + " is not a BulkExporter file");
+            }
+        }
+        ArrayList<String[]> rows = new ArrayList<String[]>();
+        String[][] group = reader.nextGroup();
+        while (group != null) {
+            for (int row = 0; row < group[0].length; row++) {
+                String[] values = new String[cols.length];
+                for (int cnt = 0; cnt < cols.length; cnt++) {
+                    values[cnt] = group[cols[cnt]][row];
+                }
+                rows.add(values);
+            }
+            group = reader.nextGroup();
+        }
+        return new GeneIntervalIndex(rows);
+    }
+
+    /**
+     * Returns the rows of chebi identifier, gene, scaffold, start and stop
+     * of the given compounds.
+     *
+     * @param results the resolved compounds
+     * @return the rows
+     */
+    private static List<String[]> rowsOf(
+            final Collection<CompoundResult> results) {
+        ArrayList<String[]> rows = new ArrayList<String[]>();
+        for (CompoundResult result : results) {
+            for (ArrayList<HashMap<String, String>> list
+                    : result.getGenes().values()) {
+                for (HashMap<String, String> gene : list) {
+                    rows.add(new String[]{result.getChebiId(),
+                                gene.get("name"), gene.get("sca"),
+                                gene.get("start"), gene.get("stop")});
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Fill the highest stops of the subtree of the genes lo to hi - 1.
+     *
+     * @param sca the scaffold
+     * @param lo the first gene of the subtree
+     * @param hi the end of the subtree, exclusive
+     * @return the highest stop of the subtree
+     */
+    private static long augment(final Scaffold sca, final int lo,
+            final int hi) {
+        if (lo >= hi) {
+            return Long.MIN_VALUE;
+        }
+        int mid = (lo + hi) >>> 1;
+        long max = Math.max(sca.stops[mid], Math.max(augment(sca, lo, mid),
+                augment(sca, mid + 1, hi)));
+        sca.maxStops[mid] = max;
+        return max;
+    }
+
+    /**
+     * Collect the genes of the subtree lo to hi - 1 overlapping a region.
+     *
+     * @param sca the scaffold
+     * @param lo the first gene of the subtree
+     * @param hi the end of the subtree, exclusive
+     * @param start start of the region
+     * @param stop stop of the region
+     * @param found the indexes of the genes found, in start order
+     */
+    private static void overlapping(final Scaffold sca, final int lo,
+            final int hi, final long start, final long stop,
+            final List<Integer> found) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (sca.maxStops[mid] < start) {
+            return;
+        }
+        overlapping(sca, lo, mid, start, stop, found);
+        if (sca.starts[mid] <= stop) {
+            if (sca.stops[mid] >= start) {
+                found.add(sca.genes[mid]);
+            }
+            overlapping(sca, mid + 1, hi, start, stop, found);
+        }
+    }
+
+    /**
+     * Returns the indexes of the genes overlapping a region.
+     *
+     * @param scaffold the scaffold
+     * @param start start of the region
+     * @param stop stop of the region
+     * @return the genes, in start order
+     */
+    private List<Integer> overlapping(final String scaffold,
+            final long start, final long stop) {
+        ArrayList<Integer> found = new ArrayList<Integer>();
+        Scaffold sca = scaffolds.get(scaffold);
+        if (sca != null) {
+            overlapping(sca, 0, sca.starts.length, start, stop, found);
+        }
+        return found;
+    }
+
+    /**
+     * Returns the genes linked to a compound which overlap a region.
+     *
+     * @param scaffold the scaffold, as in the ITAG annotation (ie:
+     * SL2.40ch10)
+     * @param start start of the region
+     * @param stop stop of the region, inclusive
+     * @return the names of the genes, in start order
+     */
+    public List<String> getGenes(final String scaffold, final long start,
+            final long stop) {
+        ArrayList<String> output = new ArrayList<String>();
+        for (int gene : overlapping(scaffold, start, stop)) {
+            output.add(names[gene]);
+        }
+        return output;
+    }
+
+    /**
+     * Returns the compounds having a gene which overlaps a region.
+     *
+     * @param scaffold the scaffold, as in the ITAG annotation (ie:
+     * SL2.40ch10)
+     * @param start start of the region
+     * @param stop stop of the region, inclusive
+     * @return the chebi identifiers of the compounds, sorted
+     */
+    public TreeSet<String> getCompounds(final String scaffold,
+            final long start, final long stop) {
+        TreeSet<String> output = new TreeSet<String>();
+        for (int gene : overlapping(scaffold, start, stop)) {
+            for (int cnt = offsets[gene]; cnt < offsets[gene + 1]; cnt++) {
+                output.add(chebiIds[compounds[cnt]]);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns the number of genes in the index.
+     *
+     * @return the number of genes
+     */
+    public int size() {
+        return names.length;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * Groups values by key, in the dictionaries of lists returned by QueryRdf:
+ * {string: [V]}. The values of a key keep their insertion order and, for a
+ * distinct collector, are deduplicated with a hash set, so collecting n
+ * rows is linear whatever the number of values per key.
+ *
+ * @param <V> the type of the values
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+final class GroupCollector<V> {
+
+    /**
+     * Whether to drop duplicated values of a key.
+     */
+    private final boolean distinct;
+    /**
+     * The values, by key, in insertion order.
+     */
+    private final LinkedHashMap<String, Collection<V>> groups =
+            new LinkedHashMap<String, Collection<V>>();
+
+    /**
+     * Constructor.
+     *
+     * @param unique whether to drop duplicated values of a key
+     */
+    GroupCollector(final boolean unique) {
+        this.distinct = unique;
+    }
+
+    /**
+     * Add a value to the group of a key.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    void add(final String key, final V value) {
+        Collection<V> group = groups.get(key);
+        if (group == null) {
+            group = distinct ? new LinkedHashSet<V>() : new ArrayList<V>();
+            groups.put(key, group);
+        }
+        group.add(value);
+    }
+
+    /**
+     * Returns the groups as a dictionary of lists.
+     *
+     * @return a new dictionary {key: [values]}
+     */
+    HashMap<String, ArrayList<V>> toMap() {
+        HashMap<String, ArrayList<V>> output =
+                new HashMap<String, ArrayList<V>>(groups.size() * 4 / 3 + 1);
+        for (Map.Entry<String, Collection<V>> entry : groups.entrySet()) {
+            output.put(entry.getKey(), new ArrayList<V>(entry.getValue()));
+        }
+        return output;
+    }
+
+    /**
+     * Add the groups to an existing dictionary of lists, appending to the
+     * lists already there (without duplicates for a distinct collector).
+     *
+     * @param output the dictionary to add the groups to
+     */
+    void addTo(final Map<String, ArrayList<V>> output) {
+        for (Map.Entry<String, Collection<V>> entry : groups.entrySet()) {
+            ArrayList<V> list = output.get(entry.getKey());
+            if (list == null) {
+                output.put(entry.getKey(),
+                        new ArrayList<V>(entry.getValue()));
+            } else if (distinct) {
+                LinkedHashSet<V> merged = new LinkedHashSet<V>(list);
+                merged.addAll(entry.getValue());
+                list.clear();
+                list.addAll(merged);
+            } else {
+                list.addAll(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Append the groups of another collector, as if its values had been
+     * added to this one after the values already there.
+     *
+     * @param other the collector to append
+     */
+    void merge(final GroupCollector<V> other) {
+        for (Map.Entry<String, Collection<V>> entry
+                : other.groups.entrySet()) {
+            Collection<V> group = groups.get(entry.getKey());
+            if (group == null) {
+                groups.put(entry.getKey(), entry.getValue());
+            } else {
+                group.addAll(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Decodes the rows of a query result into a collector, for the
+     * MatrixReducer.
+     *
+     * @param <V> the type of the values
+     */
+    abstract static class Decoder<V>
+            implements MatrixReducer.Accumulator<GroupCollector<V>> {
+
+        /**
+         * Whether the collectors drop duplicated values of a key.
+         */
+        private final boolean distinct;
+
+        /**
+         * Constructor.
+         *
+         * @param unique whether the collectors drop duplicated values of a
+         * key
+         */
+        Decoder(final boolean unique) {
+            this.distinct = unique;
+        }
+
+        @Override
+        public GroupCollector<V> create() {
+            return new GroupCollector<V>(distinct);
+        }
+
+        @Override
+        public void merge(final GroupCollector<V> into,
+                final GroupCollector<V> other) {
+            into.merge(other);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.List;
+
+/**
+ * Receives the results of a streaming query one group at a time, the groups
+ * being handed in the order of their keys.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public interface GroupHandler {
+
+    /**
+     * Handle one group.
+     *
+     * @param key the key of the group (ie: a reaction identifier)
+     * @param rows the distinct rows of the group, sorted, without the key
+     */
+    void group(String key, List<String[]> rows);
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Minimal JSON support: writing maps, collections, strings, numbers and
+ * booleans, and reading flat objects of strings such as the lines of a JSON
+ * Lines input.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+final class Json {
+
+    /**
+     * Utility class.
+     */
+    private Json() {
+    }
+
+    /**
+     * Returns the JSON representation of a value.
+     *
+     * @param value a Map, Collection, String, Number, Boolean or null
+     * @return the JSON text
+     */
+    static String toJson(final Object value) {
+        return append(new StringBuilder(), value).toString();
+    }
+
+    /**
+     * Append the JSON representation of a value.
+     *
+     * @param sb the StringBuilder to append to
+     * @param value a Map, Collection, String, Number, Boolean or null
+     * @return the given StringBuilder
+     */
+    static StringBuilder append(final StringBuilder sb, final Object value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Object obj : ((Map<?, ?>) value).entrySet()) {
+                Entry<?, ?> entry = (Entry<?, ?>) obj;
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                appendString(sb, String.valueOf(entry.getKey()));
+                sb.append(':');
+                append(sb, entry.getValue());
+            }
+            sb.append('}');
+        } else if (value instanceof Collection) {
+            sb.append('[');
+            boolean first = true;
+            for (Object item : (Collection<?>) value) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                append(sb, item);
+            }
+            sb.append(']');
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else {
+            appendString(sb, value.toString());
+        }
+        return sb;
+    }
+
+    /**
+     * Append a quoted and escaped JSON string.
+     *
+     * @param sb the StringBuilder to append to
+     * @param value the string
+     * @return the given StringBuilder
+     */
+    static StringBuilder appendString(final StringBuilder sb,
+            final String value) {
+        sb.append('"');
+        for (int cnt = 0; cnt < value.length(); cnt++) {
+            char c = value.charAt(cnt);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"');
+    }
+
+    /**
+     * Parse a flat JSON object whose values are strings, numbers, booleans
+     * or null. Values are returned as strings.
+     *
+     * @param text the JSON text
+     * @return the members of the object, in order
+     * @throws IllegalArgumentException if the text is not such an object
+     */
+    static LinkedHashMap<String, String> parseObject(final String text) {
+        LinkedHashMap<String, String> output =
+                new LinkedHashMap<String, String>();
+        int[] pos = {skip(text, 0)};
+        expect(text, pos, '{');
+        if (peek(text, pos) == '}') {
+            return output;
+        }
+        while (true) {
+            String key = parseString(text, pos);
+            expect(text, pos, ':');
+            String value;
+            if (peek(text, pos) == '"') {
+                value = parseString(text, pos);
+            } else {
+                int start = pos[0];
+                while (pos[0] < text.length()
+                        && ",} \t\r\n".indexOf(text.charAt(pos[0])) < 0) {
+                    pos[0]++;
+                }
+                value = text.substring(start, pos[0]);
+                if (value.equals("null")) {
+                    value = null;
+                }
+            }
+            output.put(key, value);
+            char c = peek(text, pos);
+            pos[0]++;
+            if (c == '}') {
+                return output;
+            } else if (c != ',') {
+                throw new IllegalArgumentException("Invalid JSON object: "
+                        + text);
+            }
+        }
+    }
+
+    /**
+     * Skip white spaces.
+     *
+     * @param text the JSON text
+     * @param from the position to start from
+     * @return the position of the next non white space character
+     */
+    private static int skip(final String text, final int from) {
+        int pos = from;
+        while (pos < text.length()
+                && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Returns the next non white space character, without consuming it.
+     *
+     * @param text the JSON text
+     * @param pos the current position, moved past white spaces
+     * @return the character
+     */
+    private static char peek(final String text, final int[] pos) {
+        pos[0] = skip(text, pos[0]);
+        if (pos[0] >= text.length()) {
+            throw new IllegalArgumentException("Truncated JSON: " + text);
+        }
+        return text.charAt(pos[0]);
+    }
+
+    /**
+     * Consume the given character.
+     *
+     * @param text the JSON text
+     * @param pos the current position
+     * @param c the expected character
+     */
+    private static void expect(final String text, final int[] pos,
+            final char c) {
+        if (peek(text, pos) != c) {
+            throw new IllegalArgumentException("Expected '" + c + "' at "
+                    + pos[0] + " in: " + text);
+        }
+        pos[0]++;
+    }
+
+    /**
+     * Parse a JSON string.
+     *
+     * @param text the JSON text
+     * @param pos the current position, at the opening quote
+     * @return the unescaped string
+     */
+    private static String parseString(final String text, final int[] pos) {
+        expect(text, pos, '"');
+        StringBuilder sb = new StringBuilder();
+        while (pos[0] < text.length()) {
+            char c = text.charAt(pos[0]++);
+            if (c == '"') {
+                return sb.toString();
+            } else if (c == '\\' && pos[0] < text.length()) {
+                char e = text.charAt(pos[0]++);
+                switch (e) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'u':
+                        sb.append((char) Integer.parseInt(
+                                text.substring(pos[0], pos[0] + 4), 16));
+                        pos[0] += 4;
+                        break;
+                    default:
+                        sb.append(e);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        throw new IllegalArgumentException("Unterminated JSON string: "
+                + text);
+    }
+}
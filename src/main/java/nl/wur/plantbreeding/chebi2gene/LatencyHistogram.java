@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with a bounded relative error, in the manner of an
+ * HDR histogram: the values are counted in buckets whose width doubles with
+ * every power of two, each power being split into SUB_BUCKETS linear
+ * sub-buckets. Any value up to Long.MAX_VALUE is recorded in constant time
+ * and space, and the percentiles are exact to within 1 / SUB_BUCKETS of the
+ * value.
+ *
+ * Values are recorded concurrently without locking.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+final class LatencyHistogram {
+
+    /**
+     * Number of bits of the sub-bucket index.
+     */
+    private static final int SUB_BITS = 8;
+    /**
+     * Number of sub-buckets of a power of two, half of them for the powers
+     * above the first.
+     */
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /**
+     * Half the number of sub-buckets.
+     */
+    private static final int HALF = SUB_BUCKETS >> 1;
+    /**
+     * Number of values in each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(
+            (64 - SUB_BITS + 2) * HALF);
+    /**
+     * Number of values recorded.
+     */
+    private final AtomicLong total = new AtomicLong();
+    /**
+     * Sum of the values recorded.
+     */
+    private final AtomicLong sum = new AtomicLong();
+    /**
+     * Highest value recorded.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Returns the bucket of a value.
+     *
+     * @param value the value, positive
+     * @return the index of its bucket
+     */
+    static int indexOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the highest value counted in a bucket.
+     *
+     * @param index the index of the bucket
+     * @return the highest value of the bucket
+     */
+    static long highestOf(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        long sub = index % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param value the value, negative values being counted as 0
+     */
+    void record(final long value) {
+        long val = Math.max(0, value);
+        counts.incrementAndGet(indexOf(val));
+        total.incrementAndGet();
+        sum.addAndGet(val);
+        long highest = max.get();
+        while (val > highest && !max.compareAndSet(highest, val)) {
+            highest = max.get();
+        }
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return the number of values
+     */
+    long getCount() {
+        return total.get();
+    }
+
+    /**
+     * Returns the highest value recorded.
+     *
+     * @return the highest value, 0 if none was recorded
+     */
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the values recorded.
+     *
+     * @return the mean, 0 if none was recorded
+     */
+    double getMean() {
+        long count = total.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * Returns the value at a percentile: the lowest value such that the
+     * given percentage of the values recorded are lower or equal, rounded
+     * up to the highest value of its bucket.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the value, 0 if none was recorded
+     */
+    long getValueAtPercentile(final double percentile) {
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(
+                Math.min(100, percentile) / 100 * count));
+        long seen = 0;
+        for (int index = 0; index < counts.length(); index++) {
+            seen += counts.get(index);
+            if (seen >= rank) {
+                return Math.min(highestOf(index), max.get());
+            }
+        }
+        return max.get();
+    }
+}
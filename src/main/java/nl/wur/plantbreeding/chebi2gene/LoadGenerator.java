@@ -0,0 +1,979 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replays a workload of compound lookups, name searches and bulk
+ * resolutions against a backend, at a fixed rate, and reports the
+ * throughput, latency percentiles, error rate and cache hit ratio.
+ *
+ * The load is generated in open loop: every request has an intended start
+ * time set by the target rate alone (evenly spaced, or with exponential
+ * gaps to mimic independent users), and is dispatched at that time whether
+ * or not the previous ones have completed. Its latency is measured from
+ * the intended start, so the time spent waiting behind slow requests is
+ * counted, instead of being hidden by a slower sending rate (coordinated
+ * omission). The time spent executing the request alone is reported
+ * separately as the service time.
+ *
+ * The backend is either a QueryRdf object used in process, querying a
+ * remote endpoint, a stand-in endpoint or a local model, with a
+ * ResultCache, or a running Chebi2geneServer reached over HTTP.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class LoadGenerator {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = Logger.getLogger(
+            LoadGenerator.class.getName());
+    /**
+     * Kind of the requests resolving one compound.
+     */
+    public static final String COMPOUND = "compound";
+    /**
+     * Kind of the requests searching compounds by name or synonym.
+     */
+    public static final String SEARCH = "search";
+    /**
+     * Kind of the requests resolving a list of compounds at once.
+     */
+    public static final String BULK = "bulk";
+    /**
+     * Usage of the command line.
+     */
+    private static final String USAGE = "Usage: java "
+            + LoadGenerator.class.getName() + " [options]\n"
+            + "Backend (default: the default endpoint, in process):\n"
+            + "  --endpoint URL     the sparql endpoint, or a stand-in, to"
+            + " query\n"
+            + "  --model FILE       query a local model (N-Triples, Turtle"
+            + " or RDF/XML)\n"
+            + "  --server URL       send the requests to a Chebi2geneServer\n"
+            + "  --cache N          entries of the in-process cache (default:"
+            + " 10000, 0 for none)\n"
+            + "  --timeout MS       timeout of the in-process queries\n"
+            + "  --one-shot         retrieve the annotations in one query\n"
+            + "Workload (default: synthetic over the compounds of rhea):\n"
+            + "  --workload FILE    replay FILE: one request per line,"
+            + " 'compound ID',\n"
+            + "                     'search NAME', 'bulk ID ID...' or a bare"
+            + " ID (ie: a query log)\n"
+            + "  --ids FILE         compounds of the synthetic workload, most"
+            + " popular first\n"
+            + "  --names FILE       names searched by the synthetic workload\n"
+            + "  --zipf S           popularity skew of the compounds (default:"
+            + " 1.0)\n"
+            + "  --search-ratio R   share of searches (default: 0.05)\n"
+            + "  --bulk-ratio R     share of bulk requests (default: 0.01)\n"
+            + "  --bulk-size N      compounds per bulk request (default: 50)\n"
+            + "Load:\n"
+            + "  --rate N           requests per second (default: 10)\n"
+            + "  --duration S       length of the run in seconds (default:"
+            + " 60)\n"
+            + "  --threads N        requests executed concurrently (default:"
+            + " 64)\n"
+            + "  --poisson          exponential gaps between the requests\n"
+            + "  --seed N           seed of the random generator\n";
+
+    /**
+     * A request of a workload.
+     */
+    public static final class Request {
+
+        /**
+         * The kind of request: COMPOUND, SEARCH or BULK.
+         */
+        private final String kind;
+        /**
+         * The chebi identifiers or the name searched.
+         */
+        private final List<String> arguments;
+
+        /**
+         * Constructor.
+         *
+         * @param requestkind COMPOUND, SEARCH or BULK
+         * @param args the chebi identifiers, or the name searched
+         * @throws IllegalArgumentException if the kind is unknown or the
+         * arguments do not fit it
+         */
+        public Request(final String requestkind, final List<String> args) {
+            if (!COMPOUND.equals(requestkind) && !SEARCH.equals(requestkind)
+                    && !BULK.equals(requestkind)) {
+                throw new IllegalArgumentException("Unknown request: "
+                        + requestkind);
+            }
+            if (args.isEmpty() || !BULK.equals(requestkind)
+                    && args.size() != 1) {
+                throw new IllegalArgumentException("Invalid " + requestkind
+                        + " request: " + args);
+            }
+            this.kind = requestkind;
+            this.arguments = Collections.unmodifiableList(
+                    new ArrayList<String>(args));
+        }
+
+        /**
+         * Returns the kind of request.
+         *
+         * @return COMPOUND, SEARCH or BULK
+         */
+        public String getKind() {
+            return kind;
+        }
+
+        /**
+         * Returns the arguments of the request.
+         *
+         * @return the chebi identifiers, or the name searched
+         */
+        public List<String> getArguments() {
+            return arguments;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(kind);
+            for (String arg : arguments) {
+                sb.append(' ').append(arg);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Executes the requests.
+     */
+    private abstract static class Backend {
+
+        /**
+         * Execute a request.
+         *
+         * @param request the request
+         * @throws Exception if the request fails
+         */
+        abstract void execute(Request request) throws Exception;
+
+        /**
+         * Returns the cache counters of the backend.
+         *
+         * @return the hits and misses, null when unknown
+         */
+        abstract long[] cacheCounters();
+
+        /**
+         * Release the resources used during a run; the backend may still
+         * run the requests of a later one.
+         */
+        void close() {
+        }
+    }
+
+    /**
+     * Backend running the requests in process.
+     */
+    private static final class LocalBackend extends Backend {
+
+        /**
+         * The QueryRdf object used to run the queries.
+         */
+        private final QueryRdf query;
+        /**
+         * The cache of resolved compounds, may be null.
+         */
+        private final ResultCache cache;
+        /**
+         * The CacheWarmer resolving the bulk requests.
+         */
+        private final CacheWarmer warmer;
+        /**
+         * Whether the compounds are resolved in one-shot mode.
+         */
+        private volatile boolean oneShot = false;
+
+        /**
+         * Constructor.
+         *
+         * @param queryrdf the QueryRdf object used to run the queries
+         * @param resultcache the cache of resolved compounds, may be null
+         */
+        LocalBackend(final QueryRdf queryrdf,
+                final ResultCache resultcache) {
+            this.query = queryrdf;
+            this.cache = resultcache;
+            this.warmer = new CacheWarmer(queryrdf, resultcache);
+        }
+
+        @Override
+        void execute(final Request request) throws Exception {
+            List<String> args = request.getArguments();
+            if (COMPOUND.equals(request.getKind())) {
+                Chebi2gene c2g = new Chebi2gene(query);
+                c2g.setCache(cache);
+                c2g.setOneShot(oneShot);
+                c2g.Chebi2gene(args.get(0));
+            } else if (SEARCH.equals(request.getKind())) {
+                SearchChebi.SearchChebiExtended(query, args.get(0));
+            } else {
+                int expected = new HashSet<String>(args).size();
+                int found = warmer.warm(args).size();
+                if (found < expected) {
+                    throw new IOException((expected - found) + " of "
+                            + expected + " compounds not resolved");
+                }
+            }
+        }
+
+        @Override
+        long[] cacheCounters() {
+            return cache == null ? null
+                    : new long[]{cache.getHits(), cache.getMisses()};
+        }
+
+        @Override
+        void close() {
+            warmer.close();
+        }
+    }
+
+    /**
+     * Backend sending the requests to a Chebi2geneServer.
+     */
+    private static final class HttpBackend extends Backend {
+
+        /**
+         * The URL of the server, without trailing slash.
+         */
+        private final String base;
+
+        /**
+         * Constructor.
+         *
+         * @param url the URL of the server
+         */
+        HttpBackend(final String url) {
+            this.base = url.endsWith("/") ? url.substring(0, url.length() - 1)
+                    : url;
+        }
+
+        @Override
+        void execute(final Request request) throws Exception {
+            List<String> args = request.getArguments();
+            if (SEARCH.equals(request.getKind())) {
+                get("/search?extended=true&name="
+                        + URLEncoder.encode(args.get(0), "UTF-8"));
+            } else {
+                for (String chebi_id : args) {
+                    get("/compound?chebi_id="
+                            + URLEncoder.encode(chebi_id, "UTF-8"));
+                }
+            }
+        }
+
+        @Override
+        long[] cacheCounters() {
+            long[] output = {-1, -1};
+            try {
+                for (String line : get("/metrics").split("\n")) {
+                    if (line.startsWith("chebi2gene_cache_hits_total ")) {
+                        output[0] = Long.parseLong(line.substring(
+                                line.indexOf(' ') + 1).trim());
+                    } else if (line.startsWith(
+                            "chebi2gene_cache_misses_total ")) {
+                        output[1] = Long.parseLong(line.substring(
+                                line.indexOf(' ') + 1).trim());
+                    }
+                }
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "Cannot read the metrics", ex);
+            }
+            return output[0] < 0 || output[1] < 0 ? null : output;
+        }
+
+        /**
+         * Send a GET request and read the whole response.
+         *
+         * @param path the path and query of the request
+         * @return the body of the response
+         * @throws IOException if the request fails or is answered with an
+         * error
+         */
+        private String get(final String path) throws IOException {
+            HttpURLConnection conn = (HttpURLConnection) new URL(base + path)
+                    .openConnection();
+            int status = conn.getResponseCode();
+            InputStream in = status < 400 ? conn.getInputStream()
+                    : conn.getErrorStream();
+            StringBuilder sb = new StringBuilder();
+            if (in != null) {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(in, "UTF-8"));
+                try {
+                    char[] buf = new char[8192];
+                    int len = reader.read(buf);
+                    while (len >= 0) {
+                        sb.append(buf, 0, len);
+                        len = reader.read(buf);
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+            if (status >= 400) {
+                throw new IOException("HTTP " + status + " for " + path);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * The outcome of a run.
+     */
+    public static final class Report {
+
+        /**
+         * Number of requests sent.
+         */
+        private final long requests;
+        /**
+         * Number of requests which failed.
+         */
+        private final long errors;
+        /**
+         * Time from the first intended start to the last completion, in
+         * nanoseconds.
+         */
+        private final long elapsed;
+        /**
+         * The target rate, in requests per second.
+         */
+        private final double rate;
+        /**
+         * Latencies from the intended start, in microseconds.
+         */
+        private final LatencyHistogram latencies;
+        /**
+         * Service times, in microseconds.
+         */
+        private final LatencyHistogram serviceTimes;
+        /**
+         * Cache hits during the run, -1 when unknown.
+         */
+        private final long cacheHits;
+        /**
+         * Cache misses during the run, -1 when unknown.
+         */
+        private final long cacheMisses;
+
+        /**
+         * Constructor.
+         *
+         * @param sent number of requests sent
+         * @param failed number of requests which failed
+         * @param nanos length of the run
+         * @param target the target rate
+         * @param latency the latencies
+         * @param service the service times
+         * @param before the cache counters before the run, may be null
+         * @param after the cache counters after the run, may be null
+         */
+        Report(final long sent, final long failed, final long nanos,
+                final double target, final LatencyHistogram latency,
+                final LatencyHistogram service, final long[] before,
+                final long[] after) {
+            this.requests = sent;
+            this.errors = failed;
+            this.elapsed = nanos;
+            this.rate = target;
+            this.latencies = latency;
+            this.serviceTimes = service;
+            boolean known = before != null && after != null;
+            this.cacheHits = known ? after[0] - before[0] : -1;
+            this.cacheMisses = known ? after[1] - before[1] : -1;
+        }
+
+        /**
+         * Returns the number of requests sent.
+         *
+         * @return the number of requests
+         */
+        public long getRequests() {
+            return requests;
+        }
+
+        /**
+         * Returns the number of requests which failed.
+         *
+         * @return the number of errors
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * Returns the share of requests which failed.
+         *
+         * @return the error rate, between 0 and 1
+         */
+        public double getErrorRate() {
+            return requests == 0 ? 0 : (double) errors / requests;
+        }
+
+        /**
+         * Returns the number of requests completed per second.
+         *
+         * @return the throughput
+         */
+        public double getThroughput() {
+            return elapsed <= 0 ? 0 : requests * 1e9 / elapsed;
+        }
+
+        /**
+         * Returns the latency of the requests at a percentile, measured
+         * from their intended start.
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return the latency in milliseconds
+         */
+        public double getLatency(final double percentile) {
+            return latencies.getValueAtPercentile(percentile) / 1e3;
+        }
+
+        /**
+         * Returns the service time of the requests at a percentile,
+         * measured from their actual start.
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return the service time in milliseconds
+         */
+        public double getServiceTime(final double percentile) {
+            return serviceTimes.getValueAtPercentile(percentile) / 1e3;
+        }
+
+        /**
+         * Returns the share of the compounds found in the cache.
+         *
+         * @return the hit ratio between 0 and 1, -1 when unknown
+         */
+        public double getCacheHitRatio() {
+            long total = cacheHits + cacheMisses;
+            return cacheHits < 0 ? -1 : total == 0 ? 0
+                    : (double) cacheHits / total;
+        }
+
+        /**
+         * Append the percentiles of a histogram.
+         *
+         * @param sb the report
+         * @param name the name of the histogram
+         * @param histogram the histogram, in microseconds
+         */
+        private static void appendPercentiles(final StringBuilder sb,
+                final String name, final LatencyHistogram histogram) {
+            sb.append(String.format("%-13s p50 %.1f  p90 %.1f  p99 %.1f"
+                    + "  p99.9 %.1f  max %.1f  mean %.1f (ms)%n", name,
+                    histogram.getValueAtPercentile(50) / 1e3,
+                    histogram.getValueAtPercentile(90) / 1e3,
+                    histogram.getValueAtPercentile(99) / 1e3,
+                    histogram.getValueAtPercentile(99.9) / 1e3,
+                    histogram.getMax() / 1e3, histogram.getMean() / 1e3));
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("requests      %d, %d errors (%.2f%%)%n",
+                    requests, errors, 100 * getErrorRate()));
+            sb.append(String.format("throughput    %.1f req/s over %.1fs"
+                    + " (target %.1f req/s)%n", getThroughput(),
+                    elapsed / 1e9, rate));
+            appendPercentiles(sb, "latency", latencies);
+            appendPercentiles(sb, "service time", serviceTimes);
+            if (cacheHits < 0) {
+                sb.append(String.format("cache         unknown%n"));
+            } else {
+                sb.append(String.format("cache         %d hits, %d misses"
+                        + " (%.1f%% hits)%n", cacheHits, cacheMisses,
+                        100 * getCacheHitRatio()));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * The backend executing the requests.
+     */
+    private final Backend backend;
+    /**
+     * Number of requests executed concurrently.
+     */
+    private int threads = 64;
+    /**
+     * Whether the gaps between requests are exponential rather than even.
+     */
+    private boolean poisson = false;
+    /**
+     * Seed of the random gaps.
+     */
+    private long seed = 42;
+
+    /**
+     * Constructor running the requests in process.
+     *
+     * @param queryrdf the QueryRdf object used to run the queries
+     * @param resultcache the cache of resolved compounds, null for none
+     */
+    public LoadGenerator(final QueryRdf queryrdf,
+            final ResultCache resultcache) {
+        this.backend = new LocalBackend(queryrdf, resultcache);
+    }
+
+    /**
+     * Constructor sending the requests to a Chebi2geneServer.
+     *
+     * @param serverUrl the URL of the server (ie: http://localhost:8080)
+     */
+    public LoadGenerator(final String serverUrl) {
+        this.backend = new HttpBackend(serverUrl);
+    }
+
+    /**
+     * Set the number of requests executed concurrently. The requests
+     * waiting for a thread are still timed from their intended start.
+     *
+     * @param newthreads the number of threads
+     */
+    public void setThreads(final int newthreads) {
+        this.threads = newthreads;
+    }
+
+    /**
+     * Set whether the gaps between the requests are exponential, as for
+     * independent users, rather than even.
+     *
+     * @param newpoisson boolean
+     */
+    public void setPoisson(final boolean newpoisson) {
+        this.poisson = newpoisson;
+    }
+
+    /**
+     * Set the seed of the random gaps between the requests.
+     *
+     * @param newseed the seed
+     */
+    public void setSeed(final long newseed) {
+        this.seed = newseed;
+    }
+
+    /**
+     * Set whether the in-process backend resolves the compounds in
+     * one-shot mode, see Chebi2gene.setOneShot().
+     *
+     * @param newoneshot boolean
+     */
+    public void setOneShot(final boolean newoneshot) {
+        if (backend instanceof LocalBackend) {
+            ((LocalBackend) backend).oneShot = newoneshot;
+        }
+    }
+
+    /**
+     * Send requests at the target rate, cycling through the workload, and
+     * wait for all of them to complete.
+     *
+     * @param workload the requests, replayed in order
+     * @param rate the target rate, in requests per second
+     * @param count the number of requests to send
+     * @return the report of the run
+     * @throws InterruptedException if interrupted while sending or waiting
+     */
+    public Report run(final List<Request> workload, final double rate,
+            final long count) throws InterruptedException {
+        if (workload.isEmpty() || !(rate > 0)) {
+            throw new IllegalArgumentException(
+                    "Empty workload or invalid rate: " + rate);
+        }
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final LatencyHistogram serviceTimes = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong lastEnd = new AtomicLong();
+        long[] before = backend.cacheCounters();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, threads), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable task) {
+                Thread thread = new Thread(task, "load-generator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Random random = new Random(seed);
+        double gap = 1e9 / rate;
+        long start = System.nanoTime();
+        double offset = 0;
+        try {
+            for (long cnt = 0; cnt < count; cnt++) {
+                final long intended = start + (long) offset;
+                offset += poisson ? -Math.log(1 - random.nextDouble()) * gap
+                        : gap;
+                long wait = intended - System.nanoTime();
+                while (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    wait = intended - System.nanoTime();
+                }
+                final Request request = workload.get(
+                        (int) (cnt % workload.size()));
+                pool.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        long begin = System.nanoTime();
+                        try {
+                            backend.execute(request);
+                        } catch (Exception ex) {
+                            errors.incrementAndGet();
+                            LOG.log(Level.FINE, "Request failed: "
+                                    + request, ex);
+                        }
+                        long end = System.nanoTime();
+                        latencies.record((end - intended) / 1000);
+                        serviceTimes.record((end - begin) / 1000);
+                        long last = lastEnd.get();
+                        while (end - last > 0
+                                && !lastEnd.compareAndSet(last, end)) {
+                            last = lastEnd.get();
+                        }
+                    }
+                });
+            }
+            pool.shutdown();
+            while (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOG.log(Level.INFO, "Waiting for {0} requests",
+                        count - latencies.getCount());
+            }
+        } finally {
+            pool.shutdownNow();
+            backend.close();
+        }
+        return new Report(count, errors.get(), lastEnd.get() - start, rate,
+                latencies, serviceTimes, before, backend.cacheCounters());
+    }
+
+    /**
+     * Read a recorded workload: one request per line, either a kind
+     * followed by its arguments ('compound ID', 'search NAME', 'bulk ID
+     * ID...') or a bare chebi identifier, so that a QueryLog file can be
+     * replayed. Empty lines and lines starting with # are ignored.
+     *
+     * @param file the file to read
+     * @return the requests, in the order of the file
+     * @throws IOException if the file cannot be read or a line is invalid
+     */
+    public static List<Request> loadWorkload(final File file)
+            throws IOException {
+        ArrayList<Request> output = new ArrayList<Request>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line = in.readLine();
+            while (line != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    output.add(parseRequest(line));
+                }
+                line = in.readLine();
+            }
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(file + ": " + ex.getMessage(), ex);
+        } finally {
+            in.close();
+        }
+        return output;
+    }
+
+    /**
+     * Parse a line of a recorded workload.
+     *
+     * @param line the line, trimmed
+     * @return the request
+     * @throws IllegalArgumentException if the line is invalid
+     */
+    static Request parseRequest(final String line) {
+        int space = line.indexOf(' ');
+        if (space < 0) {
+            return new Request(COMPOUND, Collections.singletonList(
+                    line.substring(line.indexOf(':') + 1)));
+        }
+        String kind = line.substring(0, space);
+        String rest = line.substring(space + 1).trim();
+        if (SEARCH.equals(kind)) {
+            return new Request(kind, Collections.singletonList(rest));
+        }
+        ArrayList<String> ids = new ArrayList<String>();
+        for (String id : rest.split("\\s+")) {
+            ids.add(id.substring(id.indexOf(':') + 1));
+        }
+        return new Request(kind, ids);
+    }
+
+    /**
+     * Build a synthetic workload: compound lookups whose popularity follows
+     * a Zipf law (the compound of rank r being drawn with a weight of
+     * 1 / r^skew), mixed with searches and bulk requests of random
+     * compounds.
+     *
+     * @param ids the compounds, most popular first
+     * @param names the names searched, may be empty to send no search
+     * @param count the number of requests
+     * @param skew the exponent of the Zipf law, 0 for uniform popularity
+     * @param searchRatio the share of searches
+     * @param bulkRatio the share of bulk requests
+     * @param bulkSize the number of compounds of a bulk request
+     * @param seed the seed of the random generator
+     * @return the requests
+     */
+    public static List<Request> syntheticWorkload(final List<String> ids,
+            final List<String> names, final int count, final double skew,
+            final double searchRatio, final double bulkRatio,
+            final int bulkSize, final long seed) {
+        if (ids.isEmpty()) {
+            throw new IllegalArgumentException("No compound to request");
+        }
+        double[] cumulative = new double[ids.size()];
+        double total = 0;
+        for (int rank = 0; rank < cumulative.length; rank++) {
+            total += Math.pow(rank + 1, -skew);
+            cumulative[rank] = total;
+        }
+        Random random = new Random(seed);
+        ArrayList<Request> output = new ArrayList<Request>(count);
+        for (int cnt = 0; cnt < count; cnt++) {
+            double draw = random.nextDouble();
+            if (!names.isEmpty() && draw < searchRatio) {
+                output.add(new Request(SEARCH, Collections.singletonList(
+                        names.get(random.nextInt(names.size())))));
+            } else if (draw < searchRatio + bulkRatio) {
+                ArrayList<String> batch = new ArrayList<String>(bulkSize);
+                for (int idx = 0; idx < bulkSize; idx++) {
+                    batch.add(ids.get(random.nextInt(ids.size())));
+                }
+                output.add(new Request(BULK, batch));
+            } else {
+                int rank = Arrays.binarySearch(cumulative,
+                        random.nextDouble() * total);
+                rank = rank < 0 ? Math.min(-rank - 1, ids.size() - 1) : rank;
+                output.add(new Request(COMPOUND, Collections.singletonList(
+                        ids.get(rank))));
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Read the lines of a file, without the empty ones.
+     *
+     * @param file the file to read
+     * @return the lines, trimmed
+     * @throws IOException if the file cannot be read
+     */
+    private static List<String> readLines(final File file)
+            throws IOException {
+        ArrayList<String> output = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line = in.readLine();
+            while (line != null) {
+                if (!line.trim().isEmpty()) {
+                    output.add(line.trim());
+                }
+                line = in.readLine();
+            }
+        } finally {
+            in.close();
+        }
+        return output;
+    }
+
+    /**
+     * Load a local model, its syntax guessed from the extension of the
+     * file.
+     *
+     * @param file the file to read
+     * @return the model
+     * @throws IOException if the file cannot be read
+     */
+    private static Model loadModel(final File file) throws IOException {
+        String name = file.getName().toLowerCase();
+        String lang = name.endsWith(".nt") ? "N-TRIPLE"
+                : name.endsWith(".ttl") ? "TURTLE"
+                : name.endsWith(".n3") ? "N3" : "RDF/XML";
+        Model model = ModelFactory.createDefaultModel();
+        InputStream in = new FileInputStream(file);
+        try {
+            model.read(in, null, lang);
+        } finally {
+            in.close();
+        }
+        return model;
+    }
+
+    /**
+     * Entry point, see the USAGE.
+     *
+     * @param args the command line arguments
+     * @throws IOException if a file cannot be read
+     * @throws InterruptedException if interrupted during the run
+     */
+    public static void main(final String[] args) throws IOException,
+            InterruptedException {
+        QueryRdf.Builder builder = QueryRdf.builder();
+        String server = null;
+        int entries = 10000;
+        File workloadFile = null;
+        File idsFile = null;
+        File namesFile = null;
+        double skew = 1.0;
+        double searchRatio = 0.05;
+        double bulkRatio = 0.01;
+        int bulkSize = 50;
+        double rate = 10;
+        double duration = 60;
+        int nthreads = 64;
+        boolean poisson = false;
+        boolean oneShot = false;
+        long seed = 42;
+        try {
+            for (int cnt = 0; cnt < args.length; cnt++) {
+                String arg = args[cnt];
+                if (arg.equals("--poisson")) {
+                    poisson = true;
+                } else if (arg.equals("--one-shot")) {
+                    oneShot = true;
+                } else if (arg.equals("--help")) {
+                    System.out.print(USAGE);
+                    return;
+                } else if (cnt + 1 < args.length) {
+                    String value = args[++cnt];
+                    if (arg.equals("--endpoint")) {
+                        builder.endpoint(value);
+                    } else if (arg.equals("--model")) {
+                        builder.model(loadModel(new File(value)));
+                    } else if (arg.equals("--server")) {
+                        server = value;
+                    } else if (arg.equals("--cache")) {
+                        entries = Integer.parseInt(value);
+                    } else if (arg.equals("--timeout")) {
+                        builder.timeout(Long.parseLong(value));
+                    } else if (arg.equals("--workload")) {
+                        workloadFile = new File(value);
+                    } else if (arg.equals("--ids")) {
+                        idsFile = new File(value);
+                    } else if (arg.equals("--names")) {
+                        namesFile = new File(value);
+                    } else if (arg.equals("--zipf")) {
+                        skew = Double.parseDouble(value);
+                    } else if (arg.equals("--search-ratio")) {
+                        searchRatio = Double.parseDouble(value);
+                    } else if (arg.equals("--bulk-ratio")) {
+                        bulkRatio = Double.parseDouble(value);
+                    } else if (arg.equals("--bulk-size")) {
+                        bulkSize = Integer.parseInt(value);
+                    } else if (arg.equals("--rate")) {
+                        rate = Double.parseDouble(value);
+                    } else if (arg.equals("--duration")) {
+                        duration = Double.parseDouble(value);
+                    } else if (arg.equals("--threads")) {
+                        nthreads = Integer.parseInt(value);
+                    } else if (arg.equals("--seed")) {
+                        seed = Long.parseLong(value);
+                    } else {
+                        throw new IllegalArgumentException(
+                                "Unknown option: " + arg);
+                    }
+                } else {
+                    throw new IllegalArgumentException("Unknown option: "
+                            + arg);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+        // The warm-up of every bulk request would flood the output.
+        Logger.getLogger(CacheWarmer.class.getName()).setLevel(
+                Level.WARNING);
+        ResultCache cache = entries > 0 ? new ResultCache(entries) : null;
+        QueryRdf query = builder.cache(cache).build();
+        LoadGenerator generator = server != null
+                ? new LoadGenerator(server) : new LoadGenerator(query, cache);
+        generator.setThreads(nthreads);
+        generator.setPoisson(poisson);
+        generator.setSeed(seed);
+        generator.setOneShot(oneShot);
+        long count = Math.max(1, Math.round(rate * duration));
+        List<Request> workload;
+        if (workloadFile != null) {
+            workload = loadWorkload(workloadFile);
+        } else {
+            List<String> ids = idsFile != null ? QueryLog.load(idsFile)
+                    : query.getChebiOfRhea();
+            List<String> names = namesFile != null ? readLines(namesFile)
+                    : Collections.<String>emptyList();
+            workload = syntheticWorkload(ids, names,
+                    (int) Math.min(count, 1000000), skew, searchRatio,
+                    bulkRatio, bulkSize, seed);
+        }
+        System.out.print(generator.run(workload, rate, count));
+    }
+}
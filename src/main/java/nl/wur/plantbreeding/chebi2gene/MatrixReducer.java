@@ -0,0 +1,196 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Decodes and groups the rows of a query result into an accumulator, either
+ * sequentially or, for large results, in parallel on the common fork/join
+ * pool: the rows are split in contiguous chunks, each chunk is decoded in
+ * its own accumulator and the accumulators are merged left to right, so the
+ * result is the same as the sequential one as long as merging an
+ * accumulator appends to it as adding its rows would have.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+final class MatrixReducer {
+
+    /**
+     * Default number of rows decoded by a single task.
+     */
+    static final int CHUNK = 4096;
+
+    /**
+     * Utility class.
+     */
+    private MatrixReducer() {
+    }
+
+    /**
+     * How the rows are decoded and how partial results are merged.
+     *
+     * @param <A> the type of the accumulator
+     */
+    interface Accumulator<A> {
+
+        /**
+         * Returns a new, empty accumulator.
+         *
+         * @return the accumulator
+         */
+        A create();
+
+        /**
+         * Decode a row into an accumulator.
+         *
+         * @param acc the accumulator
+         * @param row the row
+         */
+        void add(A acc, List<String> row);
+
+        /**
+         * Append the content of an accumulator to another one.
+         *
+         * @param into the accumulator of the earlier rows, modified
+         * @param other the accumulator of the following rows
+         */
+        void merge(A into, A other);
+    }
+
+    /**
+     * Decode all the rows of a matrix.
+     *
+     * @param <A> the type of the accumulator
+     * @param matrix the rows
+     * @param acc how to decode and merge the rows
+     * @param parallel whether to decode large matrices in parallel
+     * @return the accumulator holding all the rows
+     */
+    static <A> A reduce(final List<? extends List<String>> matrix,
+            final Accumulator<A> acc, final boolean parallel) {
+        return reduce(matrix, acc, parallel, CHUNK);
+    }
+
+    /**
+     * Decode all the rows of a matrix.
+     *
+     * @param <A> the type of the accumulator
+     * @param matrix the rows
+     * @param acc how to decode and merge the rows
+     * @param parallel whether to decode large matrices in parallel
+     * @param chunk number of rows decoded by a single task
+     * @return the accumulator holding all the rows
+     */
+    static <A> A reduce(final List<? extends List<String>> matrix,
+            final Accumulator<A> acc, final boolean parallel,
+            final int chunk) {
+        if (!parallel || matrix.size() <= chunk) {
+            return sequential(matrix, 0, matrix.size(), acc);
+        }
+        return ForkJoinPool.commonPool().invoke(
+                new Task<A>(matrix, 0, matrix.size(), acc, chunk));
+    }
+
+    /**
+     * Decode a range of rows in a new accumulator.
+     *
+     * @param <A> the type of the accumulator
+     * @param matrix the rows
+     * @param lo the first row
+     * @param hi the end of the range, exclusive
+     * @param acc how to decode the rows
+     * @return the accumulator
+     */
+    private static <A> A sequential(final List<? extends List<String>> matrix,
+            final int lo, final int hi, final Accumulator<A> acc) {
+        A output = acc.create();
+        for (int cnt = lo; cnt < hi; cnt++) {
+            acc.add(output, matrix.get(cnt));
+        }
+        return output;
+    }
+
+    /**
+     * Decodes a range of rows, splitting it in two halves while it is larger
+     * than a chunk.
+     *
+     * @param <A> the type of the accumulator
+     */
+    private static final class Task<A> extends RecursiveTask<A> {
+
+        /**
+         * Serial version.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The rows.
+         */
+        private final List<? extends List<String>> matrix;
+        /**
+         * The first row of the range.
+         */
+        private final int lo;
+        /**
+         * The end of the range, exclusive.
+         */
+        private final int hi;
+        /**
+         * How to decode and merge the rows.
+         */
+        private final Accumulator<A> acc;
+        /**
+         * Number of rows decoded without splitting.
+         */
+        private final int chunk;
+
+        /**
+         * Constructor.
+         *
+         * @param rows the rows
+         * @param from the first row of the range
+         * @param to the end of the range, exclusive
+         * @param accumulator how to decode and merge the rows
+         * @param size number of rows decoded without splitting
+         */
+        Task(final List<? extends List<String>> rows, final int from,
+                final int to, final Accumulator<A> accumulator,
+                final int size) {
+            this.matrix = rows;
+            this.lo = from;
+            this.hi = to;
+            this.acc = accumulator;
+            this.chunk = size;
+        }
+
+        @Override
+        protected A compute() {
+            if (hi - lo <= chunk) {
+                return sequential(matrix, lo, hi, acc);
+            }
+            int mid = (lo + hi) >>> 1;
+            Task<A> left = new Task<A>(matrix, lo, mid, acc, chunk);
+            left.fork();
+            A right = new Task<A>(matrix, mid, hi, acc, chunk).compute();
+            A output = left.join();
+            acc.merge(output, right);
+            return output;
+        }
+    }
+}
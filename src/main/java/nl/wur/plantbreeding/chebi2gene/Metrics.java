@@ -0,0 +1,184 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request counters of the Chebi2geneServer, by route, published in the
+ * Prometheus text format.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+final class Metrics {
+
+    /**
+     * The counters of one route.
+     */
+    private static final class Route {
+
+        /**
+         * Number of requests completed.
+         */
+        private final AtomicLong requests = new AtomicLong();
+        /**
+         * Number of requests which failed.
+         */
+        private final AtomicLong errors = new AtomicLong();
+        /**
+         * Total time spent in the requests, in nanoseconds.
+         */
+        private final AtomicLong nanos = new AtomicLong();
+        /**
+         * Longest request, in nanoseconds.
+         */
+        private final AtomicLong maxNanos = new AtomicLong();
+    }
+
+    /**
+     * The counters, by route.
+     */
+    private final ConcurrentHashMap<String, Route> routes =
+            new ConcurrentHashMap<String, Route>();
+    /**
+     * Number of requests being processed.
+     */
+    private final AtomicLong inFlight = new AtomicLong();
+
+    /**
+     * Returns the counters of a route, creating them if needed.
+     *
+     * @param route the route
+     * @return the counters
+     */
+    private Route route(final String route) {
+        Route counters = routes.get(route);
+        if (counters == null) {
+            routes.putIfAbsent(route, new Route());
+            counters = routes.get(route);
+        }
+        return counters;
+    }
+
+    /**
+     * Record the start of a request.
+     *
+     * @return the start time, to be given to end()
+     */
+    long start() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the end of a request.
+     *
+     * @param route the route of the request
+     * @param start the start time returned by start()
+     * @param failed whether the request failed
+     */
+    void end(final String route, final long start, final boolean failed) {
+        long elapsed = System.nanoTime() - start;
+        inFlight.decrementAndGet();
+        Route counters = route(route);
+        counters.requests.incrementAndGet();
+        if (failed) {
+            counters.errors.incrementAndGet();
+        }
+        counters.nanos.addAndGet(elapsed);
+        long max = counters.maxNanos.get();
+        while (elapsed > max
+                && !counters.maxNanos.compareAndSet(max, elapsed)) {
+            max = counters.maxNanos.get();
+        }
+    }
+
+    /**
+     * Returns the metrics in the Prometheus text format.
+     *
+     * @param cache the cache of the server, may be null
+     * @return the metrics
+     */
+    String render(final ResultCache cache) {
+        StringBuilder sb = new StringBuilder();
+        TreeMap<String, Route> sorted = new TreeMap<String, Route>(routes);
+        sb.append("# TYPE chebi2gene_requests_total counter\n");
+        for (Map.Entry<String, Route> entry : sorted.entrySet()) {
+            line(sb, "chebi2gene_requests_total", entry.getKey(),
+                    entry.getValue().requests.get());
+        }
+        sb.append("# TYPE chebi2gene_errors_total counter\n");
+        for (Map.Entry<String, Route> entry : sorted.entrySet()) {
+            line(sb, "chebi2gene_errors_total", entry.getKey(),
+                    entry.getValue().errors.get());
+        }
+        sb.append("# TYPE chebi2gene_request_seconds_sum counter\n");
+        for (Map.Entry<String, Route> entry : sorted.entrySet()) {
+            line(sb, "chebi2gene_request_seconds_sum", entry.getKey(),
+                    entry.getValue().nanos.get() / 1e9);
+        }
+        sb.append("# TYPE chebi2gene_request_seconds_max gauge\n");
+        for (Map.Entry<String, Route> entry : sorted.entrySet()) {
+            line(sb, "chebi2gene_request_seconds_max", entry.getKey(),
+                    entry.getValue().maxNanos.get() / 1e9);
+        }
+        sb.append("# TYPE chebi2gene_requests_in_flight gauge\n");
+        sb.append("chebi2gene_requests_in_flight ").append(inFlight.get())
+                .append('\n');
+        long first = StartupTimer.getFirstAnswerMillis();
+        if (first >= 0) {
+            sb.append("# TYPE chebi2gene_first_answer_seconds gauge\n");
+            sb.append("chebi2gene_first_answer_seconds ").append(first / 1e3)
+                    .append('\n');
+        }
+        long jena = StartupTimer.getJenaLoadMillis();
+        if (jena >= 0) {
+            sb.append("# TYPE chebi2gene_jena_load_seconds gauge\n");
+            sb.append("chebi2gene_jena_load_seconds ").append(jena / 1e3)
+                    .append('\n');
+        }
+        if (cache != null) {
+            sb.append("# TYPE chebi2gene_cache_hits_total counter\n");
+            sb.append("chebi2gene_cache_hits_total ").append(cache.getHits())
+                    .append('\n');
+            sb.append("# TYPE chebi2gene_cache_misses_total counter\n");
+            sb.append("chebi2gene_cache_misses_total ")
+                    .append(cache.getMisses()).append('\n');
+            sb.append("# TYPE chebi2gene_cache_entries gauge\n");
+            sb.append("chebi2gene_cache_entries ").append(cache.size())
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Append one sample.
+     *
+     * @param sb the StringBuilder to append to
+     * @param name the name of the metric
+     * @param route the route label
+     * @param value the value
+     */
+    private static void line(final StringBuilder sb, final String name,
+            final String route, final Object value) {
+        sb.append(name).append("{route=\"").append(route).append("\"} ")
+                .append(value).append('\n');
+    }
+}
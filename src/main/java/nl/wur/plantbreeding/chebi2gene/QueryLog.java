@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The chebi identifiers most recently looked up, recorded by the
+ * QueryRdfEngine it is attached to. The log keeps a bounded number of
+ * distinct identifiers, forgetting the least recently used ones, and can be
+ * saved to a file so that the next process can warm its cache up with the
+ * CacheWarmer before accepting traffic.
+ *
+ * The log is thread-safe.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public final class QueryLog {
+
+    /**
+     * The identifiers, least recently used first.
+     */
+    private final LinkedHashMap<String, Boolean> entries;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximum number of identifiers kept
+     */
+    public QueryLog(final int capacity) {
+        this.entries = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Record a lookup.
+     *
+     * @param chebi_id the chebi identifier looked up
+     */
+    public synchronized void record(final String chebi_id) {
+        entries.put(chebi_id, Boolean.TRUE);
+    }
+
+    /**
+     * Returns the identifiers recorded.
+     *
+     * @return the identifiers, most recently used first
+     */
+    public synchronized List<String> recent() {
+        ArrayList<String> output = new ArrayList<String>(entries.keySet());
+        Collections.reverse(output);
+        return output;
+    }
+
+    /**
+     * Returns the number of identifiers recorded.
+     *
+     * @return the number of identifiers
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Write the identifiers recorded, one per line, most recently used
+     * first.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void save(final File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmp), "UTF-8"));
+        try {
+            for (String chebi_id : recent()) {
+                out.write(chebi_id);
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            throw new IOException("Cannot write " + file);
+        }
+    }
+
+    /**
+     * Read identifiers saved with save(), or any list of chebi identifiers
+     * written one per line. Empty lines and lines starting with # are
+     * ignored, as is a CHEBI: prefix.
+     *
+     * @param file the file to read
+     * @return the identifiers, in the order of the file
+     * @throws IOException if the file cannot be read
+     */
+    public static List<String> load(final File file) throws IOException {
+        ArrayList<String> output = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line = in.readLine();
+            while (line != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    output.add(line.substring(line.indexOf(':') + 1));
+                }
+                line = in.readLine();
+            }
+        } finally {
+            in.close();
+        }
+        return output;
+    }
+}
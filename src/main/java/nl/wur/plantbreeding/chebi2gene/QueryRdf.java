@@ -16,9 +16,27 @@
  */
 package nl.wur.plantbreeding.chebi2gene;
 
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.sparql.engine.http.QueryExceptionHTTP;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 /**
@@ -34,27 +52,406 @@ public class QueryRdf extends QueryRdfEngine {
      */
     private static final Logger LOG = Logger.getLogger(
             QueryRdf.class.getName());
+    /**
+     * Default graph containing the ITAG information.
+     */
+    public static final String ITAG_GRAPH = "http://itag2.pbr.wur.nl/";
+    /**
+     * Default graph containing UNIPROT.
+     */
+    public static final String UNIPROT_GRAPH = "http://uniprot.pbr.wur.nl/";
+    /**
+     * Default graph containing Chebi from EBI.
+     */
+    public static final String CHEBI_GRAPH = "http://chebi.pbr.wur.nl/";
+    /**
+     * Default graph containing rhea from EBI.
+     */
+    public static final String RHEA_GRAPH = "http://rhea.pbr.wur.nl/";
     /**
      * Graph containing the ITAG information.
      */
-    private String itag = "FROM <http://itag2.pbr.wur.nl/> \n";
+    private final String itag;
     /**
      * Graph containing UNIPROT.
      */
-    private final String uniprot = "FROM <http://uniprot.pbr.wur.nl/> \n";
+    private final String uniprot;
     /**
      * Graph containing Chebi from EBI.
      */
-    private final String chebi = "FROM <http://chebi.pbr.wur.nl/>";
+    private final String chebi;
     /**
      * Graph containing rhea from EBI.
      */
-    private final String rhea = "FROM <http://rhea.pbr.wur.nl/> \n";
+    private final String rhea;
+    /**
+     * The cache of resolved compounds shared by the users of this object,
+     * may be null.
+     */
+    private final ResultCache cache;
+    /**
+     * The threads shared by the users of this object, may be null.
+     */
+    private final ExecutorService executor;
+    /**
+     * The names of the genomes whose gene graphs are queried, empty when
+     * only the ITAG graph is.
+     */
+    private final String[] genomes;
+    /**
+     * Query retrieving the genes of a list of proteins, by genome.
+     */
+    private final QueryTemplate[] genomeGenesQueries;
+    /**
+     * Query retrieving the proteins of a list of genes, by genome.
+     */
+    private final QueryTemplate[] genomeProteinsQueries;
+
+    /**
+     * Start of the IRI of the uniprot proteins.
+     */
+    private static final String UNIPROT_IRI = "http://purl.uniprot.org/uniprot/";
+    /**
+     * Start of the IRI of the chebi compounds as cross-referenced in rhea.
+     */
+    private static final String RHEA_CHEBI_IRI = "http://www.ebi.ac.uk/rhea#CHEBI:";
+    /**
+     * Start of the IRI of the uniprot proteins as cross-referenced in rhea.
+     */
+    private static final String RHEA_UNIPROT_IRI = "http://www.ebi.ac.uk/rhea#UNIPROT:";
+    /**
+     * Query searching chebi for a name.
+     */
+    private final QueryTemplate exactChebiQuery;
+    /**
+     * Query searching chebi for a name or a synonym.
+     */
+    private final QueryTemplate extendedChebiQuery;
+    /**
+     * Query retrieving the genes of a list of proteins.
+     */
+    private final QueryTemplate genesQuery;
+    /**
+     * Query retrieving the organisms of a list of proteins.
+     */
+    private final QueryTemplate organismsQuery;
+    /**
+     * Query retrieving the pathways of a list of proteins.
+     */
+    private final QueryTemplate pathwaysQuery;
+    /**
+     * Query retrieving the proteins of a compound.
+     */
+    private final QueryTemplate proteinsQuery;
+    /**
+     * Query retrieving the genes, organisms and pathways of a list of
+     * proteins at once.
+     */
+    private final QueryTemplate annotationsQuery;
+    /**
+     * Query listing the compounds cross-referenced in rhea.
+     */
+    private final QueryTemplate compoundsQuery;
+    /**
+     * Query retrieving the proteins of a list of compounds.
+     */
+    private final QueryTemplate proteinsOfCompoundsQuery;
+    /**
+     * Query retrieving the reactions and compounds of a list of proteins.
+     */
+    private final QueryTemplate compoundsOfProteinsQuery;
+    /**
+     * Query retrieving the proteins of a list of ITAG genes.
+     */
+    private final QueryTemplate proteinsOfGenesQuery;
+    /**
+     * Query retrieving the relations between chebi compounds.
+     */
+    private final QueryTemplate chebiRelationsQuery;
+    /**
+     * Query retrieving the structure data of the chebi compounds.
+     */
+    private final QueryTemplate structuresQuery;
+    /**
+     * Query retrieving the compounds taking part in every rhea reaction,
+     * with their side.
+     */
+    private final QueryTemplate participantsQuery;
+    /**
+     * Query retrieving the proteins of every rhea reaction.
+     */
+    private final QueryTemplate enzymesQuery;
+    /**
+     * The properties of chebi describing the structure of a compound, in
+     * the order of the columns returned by getChebiStructures().
+     */
+    private static final List<String> STRUCTURE_IRIS = Arrays.asList(
+            "http://purl.obolibrary.org/obo/chebi/inchikey",
+            "http://purl.obolibrary.org/obo/chebi/inchi",
+            "http://purl.obolibrary.org/obo/chebi/formula",
+            "http://purl.obolibrary.org/obo/chebi/monoisotopicmass",
+            "http://purl.obolibrary.org/obo/chebi/smiles");
+    /**
+     * The is_a relation of chebi.
+     */
+    private static final String SUBCLASS_OF_IRI =
+            "http://www.w3.org/2000/01/rdf-schema#subClassOf";
+    /**
+     * The relations of chebi linking equivalent forms of a compound.
+     */
+    private static final List<String> EQUIVALENCE_IRIS = Arrays.asList(
+            "http://purl.obolibrary.org/obo#is_conjugate_acid_of",
+            "http://purl.obolibrary.org/obo#is_conjugate_base_of",
+            "http://purl.obolibrary.org/obo#is_tautomer_of");
+    /**
+     * Maximum number of proteins, genes or compounds sent in a single query.
+     */
+    private static final int MAX_PROTEINS_PER_QUERY = 500;
+    /**
+     * Number of rows per page of the compounds of rhea, when the queries
+     * are not paginated.
+     */
+    private static final int COMPOUNDS_PAGE_SIZE = 10000;
+    /**
+     * Rough memory overhead of a row kept in memory, in bytes.
+     */
+    private static final int ROW_OVERHEAD = 96;
 
     /**
      * Default constructor.
      */
     public QueryRdf() {
+        this(ITAG_GRAPH, UNIPROT_GRAPH, CHEBI_GRAPH, RHEA_GRAPH,
+                new LinkedHashMap<String, String>(), null, null);
+    }
+
+    /**
+     * Constructor used by the Builder.
+     *
+     * @param itagGraph the graph containing the ITAG information
+     * @param uniprotGraph the graph containing UNIPROT
+     * @param chebiGraph the graph containing Chebi
+     * @param rheaGraph the graph containing rhea
+     * @param genomeGraphs the gene graphs queried instead of the ITAG one,
+     * by genome name, may be empty
+     * @param resultcache the shared cache, may be null
+     * @param threads the shared threads, may be null
+     */
+    private QueryRdf(final String itagGraph, final String uniprotGraph,
+            final String chebiGraph, final String rheaGraph,
+            final Map<String, String> genomeGraphs,
+            final ResultCache resultcache, final ExecutorService threads) {
+        this.itag = "FROM <" + itagGraph + "> \n";
+        this.uniprot = "FROM <" + uniprotGraph + "> \n";
+        this.chebi = "FROM <" + chebiGraph + ">";
+        this.rhea = "FROM <" + rheaGraph + "> \n";
+        this.cache = resultcache;
+        this.executor = threads;
+        this.genomes = genomeGraphs.keySet().toArray(
+                new String[genomeGraphs.size()]);
+        this.genomeGenesQueries = new QueryTemplate[genomes.length];
+        this.genomeProteinsQueries = new QueryTemplate[genomes.length];
+        for (int cnt = 0; cnt < genomes.length; cnt++) {
+            String from = "FROM <" + genomeGraphs.get(genomes[cnt]) + "> \n";
+            genomeGenesQueries[cnt] = genesTemplate(from);
+            genomeProteinsQueries[cnt] = proteinsOfGenesTemplate(from);
+        }
+        exactChebiQuery = new QueryTemplate(
+                "PREFIX rdfs:<http://www.w3.org/2000/01/rdf-schema#> \n"
+                + "    PREFIX obo:<http://purl.obolibrary.org/obo#> \n"
+                + "    SELECT DISTINCT ?id ?name ?syn \n"
+                + chebi
+                + "    WHERE { \n"
+                + "      { \n"
+                + "        ?id rdfs:label ?name . \n"
+                + "        ?id obo:Synonym ?syn . \n"
+                + "        FILTER ( \n"
+                + "            regex(?name, ${search}, \"i\") \n"
+                + "        ) \n"
+                + "      } \n"
+                + "    } ORDER BY ?id ");
+        extendedChebiQuery = new QueryTemplate(
+                "PREFIX rdfs:<http://www.w3.org/2000/01/rdf-schema#> \n"
+                + "    PREFIX obo:<http://purl.obolibrary.org/obo#> \n"
+                + "    SELECT DISTINCT ?id ?name ?syn \n"
+                + chebi
+                + "    WHERE { \n"
+                + "      { \n"
+                + "        ?id rdfs:label ?name . \n"
+                + "        ?id obo:Synonym ?syn . \n"
+                + "        FILTER ( \n"
+                + "            regex(?name, ${search}, \"i\") \n"
+                + "                  || regex(?syn, ${search}, \"i\")\n"
+                + "        ) \n"
+                + "      } \n"
+                + "    } ORDER BY ?id ");
+        genesQuery = genesTemplate(itag);
+        organismsQuery = new QueryTemplate(
+                "PREFIX uniprot:<http://purl.uniprot.org/core/> \n"
+                + "        SELECT DISTINCT ?prot ?name \n"
+                + uniprot
+                + "        WHERE { \n"
+                + "            ?prot uniprot:organism ?orga . \n"
+                + "            ?orga uniprot:scientificName ?name . \n"
+                + "            FILTER ( \n"
+                + "                ?prot IN ( \n"
+                + "${proteins}\n"
+                + "                ) \n"
+                + "            ) \n"
+                + "        }");
+        pathwaysQuery = new QueryTemplate(
+                "PREFIX gene:<http://pbr.wur.nl/GENE#> \n"
+                + "        PREFIX uniprot:<http://purl.uniprot.org/core/> \n"
+                + "        PREFIX rdfs:<http://www.w3.org/2000/01/rdf-schema#> \n"
+                + "        SELECT DISTINCT ?prot ?desc \n"
+                + uniprot
+                + "        WHERE { \n"
+                + "            ?prot uniprot:annotation ?annot . \n"
+                + "            ?annot rdfs:seeAlso ?url . \n"
+                + "            ?annot rdfs:comment ?desc . \n"
+                + "            FILTER ( \n"
+                + "                ?prot IN ( \n"
+                + "${proteins}\n"
+                + "                ) \n"
+                + "            ) \n"
+                + "        }");
+        proteinsQuery = new QueryTemplate(
+                "prefix bp: <http://www.biopax.org/release/biopax-level2.owl#> \n"
+                + "    SELECT DISTINCT ?react ?xref \n"
+                + rhea
+                + "    WHERE { \n"
+                + "      ?cmp bp:XREF ${compound} . \n"
+                + "      ?dir ?p ?cmp . \n"
+                + "      ?react ?p2 ?dir . \n"
+                + "      ?react bp:XREF ?xref . \n"
+                + "      FILTER ( \n"
+                + "        regex(str(?xref), 'UNIPROT') \n"
+                + "      ) \n"
+                + "    } \n");
+        compoundsQuery = new QueryTemplate(
+                "prefix bp: <http://www.biopax.org/release/biopax-level2.owl#> \n"
+                + "    SELECT DISTINCT ?chebi \n"
+                + rhea
+                + "    WHERE { \n"
+                + "      ?cmp bp:XREF ?chebi . \n"
+                + "      FILTER ( \n"
+                + "        regex(str(?chebi), 'CHEBI:') \n"
+                + "      ) \n"
+                + "    } \n");
+        proteinsOfCompoundsQuery = new QueryTemplate(
+                "prefix bp: <http://www.biopax.org/release/biopax-level2.owl#> \n"
+                + "    SELECT DISTINCT ?chebi ?react ?xref \n"
+                + rhea
+                + "    WHERE { \n"
+                + "      ?cmp bp:XREF ?chebi . \n"
+                + "      FILTER ( \n"
+                + "        ?chebi IN ( \n"
+                + "${compounds}\n"
+                + "        ) \n"
+                + "      ) \n"
+                + "      ?dir ?p ?cmp . \n"
+                + "      ?react ?p2 ?dir . \n"
+                + "      ?react bp:XREF ?xref . \n"
+                + "      FILTER ( \n"
+                + "        regex(str(?xref), 'UNIPROT') \n"
+                + "      ) \n"
+                + "    } \n");
+        compoundsOfProteinsQuery = new QueryTemplate(
+                "prefix bp: <http://www.biopax.org/release/biopax-level2.owl#> \n"
+                + "    SELECT DISTINCT ?xref ?react ?chebi \n"
+                + rhea
+                + "    WHERE { \n"
+                + "      ?react bp:XREF ?xref . \n"
+                + "      FILTER ( \n"
+                + "        ?xref IN ( \n"
+                + "${proteins}\n"
+                + "        ) \n"
+                + "      ) \n"
+                + "      ?react ?p2 ?dir . \n"
+                + "      ?dir ?p ?cmp . \n"
+                + "      ?cmp bp:XREF ?chebi . \n"
+                + "      FILTER ( \n"
+                + "        regex(str(?chebi), 'CHEBI:') \n"
+                + "      ) \n"
+                + "    } \n");
+        proteinsOfGenesQuery = proteinsOfGenesTemplate(itag);
+        chebiRelationsQuery = new QueryTemplate(
+                "SELECT DISTINCT ?child ?rel ?parent \n"
+                + chebi
+                + "    WHERE { \n"
+                + "      ?child ?rel ?parent . \n"
+                + "      FILTER ( \n"
+                + "        ?rel IN ( \n"
+                + "${relations}\n"
+                + "        ) \n"
+                + "      ) \n"
+                + "    } \n");
+        structuresQuery = new QueryTemplate(
+                "SELECT DISTINCT ?id ?prop ?value \n"
+                + chebi
+                + "    WHERE { \n"
+                + "      ?id ?prop ?value . \n"
+                + "      FILTER ( \n"
+                + "        ?prop IN ( \n"
+                + "${properties}\n"
+                + "        ) \n"
+                + "      ) \n"
+                + "    } ORDER BY ?id \n");
+        participantsQuery = new QueryTemplate(
+                "prefix bp: <http://www.biopax.org/release/biopax-level2.owl#> \n"
+                + "    SELECT DISTINCT ?react ?side ?chebi \n"
+                + rhea
+                + "    WHERE { \n"
+                + "      ?react ?p2 ?dir . \n"
+                + "      ?dir ?side ?cmp . \n"
+                + "      ?cmp bp:XREF ?chebi . \n"
+                + "      FILTER ( \n"
+                + "        regex(str(?chebi), 'CHEBI:') \n"
+                + "      ) \n"
+                + "    } \n");
+        enzymesQuery = new QueryTemplate(
+                "prefix bp: <http://www.biopax.org/release/biopax-level2.owl#> \n"
+                + "    SELECT DISTINCT ?react ?xref \n"
+                + rhea
+                + "    WHERE { \n"
+                + "      ?react bp:XREF ?xref . \n"
+                + "      FILTER ( \n"
+                + "        regex(str(?xref), 'UNIPROT') \n"
+                + "      ) \n"
+                + "    } \n");
+        annotationsQuery = new QueryTemplate(
+                "PREFIX gene:<http://pbr.wur.nl/GENE#> \n"
+                + "        PREFIX pos:<http://pbr.wur.nl/POSITION#> \n"
+                + "        PREFIX uniprot:<http://purl.uniprot.org/core/> \n"
+                + "        PREFIX rdfs:<http://www.w3.org/2000/01/rdf-schema#> \n"
+                + "        SELECT DISTINCT ?prot ?name ?sca ?start ?stop ?desc "
+                + "?orga ?path \n"
+                + uniprot
+                + (genomes.length > 0 ? "" : itag)
+                + "        WHERE { \n"
+                + (genomes.length > 0 ? "" : "            { \n"
+                + "                ?gene gene:Protein ?prot . \n"
+                + "                ?gene gene:Position ?pos . \n"
+                + "                ?pos pos:Scaffold ?sca . \n"
+                + "                ?gene gene:Description ?desc . \n"
+                + "                ?gene gene:FeatureName ?name . \n"
+                + "                ?pos pos:Start ?start . \n"
+                + "                ?pos pos:Stop ?stop . \n"
+                + "            } UNION ")
+                + "            { \n"
+                + "                ?prot uniprot:organism ?taxon . \n"
+                + "                ?taxon uniprot:scientificName ?orga . \n"
+                + "            } UNION { \n"
+                + "                ?prot uniprot:annotation ?annot . \n"
+                + "                ?annot rdfs:seeAlso ?url . \n"
+                + "                ?annot rdfs:comment ?path . \n"
+                + "            } \n"
+                + "            FILTER ( \n"
+                + "                ?prot IN ( \n"
+                + "${proteins}\n"
+                + "                ) \n"
+                + "            ) \n"
+                + "        } ORDER BY ?name \n");
     }
 
     /**
@@ -63,22 +460,443 @@ public class QueryRdf extends QueryRdfEngine {
      * @param uri to set
      */
     public QueryRdf(final String uri) {
+        this();
         this.URI = uri;
     }
 
-    private String arrayListToString(ArrayList<String> arrayList) {
-        String string = "";
-        for (int cnt = 0; cnt < arrayList.size(); cnt++) {
-            string = string
-                    + "<http://purl.uniprot.org/uniprot/"
-                    + arrayList.get(cnt) + ">";
-            if (cnt + 1 == arrayList.size()) {
-                string = string + "\n";
-            } else {
-                string = string + ", \n";
+    /**
+     * Returns the query retrieving the genes of a list of proteins from a
+     * gene graph.
+     *
+     * @param from the FROM clause of the gene graph
+     * @return the query template
+     */
+    private static QueryTemplate genesTemplate(final String from) {
+        return new QueryTemplate(
+                "PREFIX gene:<http://pbr.wur.nl/GENE#> \n"
+                + "        PREFIX pos:<http://pbr.wur.nl/POSITION#> \n"
+                + "        SELECT DISTINCT ?prot ?name ?sca ?start ?stop ?desc \n"
+                + from
+                + "        WHERE{ \n"
+                + "            ?gene gene:Protein ?prot . \n"
+                + "                FILTER ( \n"
+                + "                ?prot IN ( \n"
+                + "${proteins}\n"
+                + "                ) \n"
+                + "            ) \n"
+                + "            ?gene gene:Position ?pos . \n"
+                + "            ?pos pos:Scaffold ?sca . \n"
+                + "            ?gene gene:Description ?desc . \n"
+                + "            ?gene gene:FeatureName ?name . \n"
+                + "            ?pos pos:Start ?start . \n"
+                + "            ?pos pos:Stop ?stop . \n"
+                + "        } ORDER BY ?name \n");
+    }
+
+    /**
+     * Returns the query retrieving the proteins of a list of genes from a
+     * gene graph.
+     *
+     * @param from the FROM clause of the gene graph
+     * @return the query template
+     */
+    private static QueryTemplate proteinsOfGenesTemplate(final String from) {
+        return new QueryTemplate(
+                "PREFIX gene:<http://pbr.wur.nl/GENE#> \n"
+                + "        SELECT DISTINCT ?name ?prot \n"
+                + from
+                + "        WHERE{ \n"
+                + "            ?gene gene:FeatureName ?name . \n"
+                + "                FILTER ( \n"
+                + "                ?name IN ( \n"
+                + "${names}\n"
+                + "                ) \n"
+                + "            ) \n"
+                + "            ?gene gene:Protein ?prot . \n"
+                + "        } \n");
+    }
+
+    /**
+     * Returns a new Builder of a shared QueryRdf object.
+     *
+     * @return the Builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the QueryRdf object used when none is given: built once, with
+     * the default configuration, and shared by the whole process.
+     *
+     * @return the default QueryRdf object
+     */
+    public static QueryRdf getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Holds the default QueryRdf object, created on first use.
+     */
+    private static final class DefaultHolder {
+
+        /**
+         * The default QueryRdf object.
+         */
+        private static final QueryRdf INSTANCE = builder().build();
+    }
+
+    /**
+     * Returns the cache of resolved compounds shared by the users of this
+     * object.
+     *
+     * @return the ResultCache, null if none was configured
+     */
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the threads shared by the users of this object (ie:
+     * Chebi2geneCli, BulkExporter), which do not shut them down.
+     *
+     * @return the ExecutorService, null if none was configured
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Returns the names of the genomes whose gene graphs are queried.
+     *
+     * @return the names of the genomes, empty when only the ITAG graph is
+     * queried and the genes are not tagged
+     */
+    public List<String> getGenomes() {
+        return Collections.unmodifiableList(Arrays.asList(genomes));
+    }
+
+    /**
+     * Builds a QueryRdf object whose configuration cannot be changed once
+     * built, so that it can be created once and shared by all the threads
+     * of a process. Its setters then throw an IllegalStateException.
+     */
+    public static final class Builder {
+
+        /**
+         * The URI of the engine.
+         */
+        private String uri;
+        /**
+         * The sparql endpoint, null for the default one.
+         */
+        private String endpoint;
+        /**
+         * The local model, may be null.
+         */
+        private Model model;
+        /**
+         * The debug mode.
+         */
+        private boolean debug = false;
+        /**
+         * The timeout of the queries, in milliseconds.
+         */
+        private long timeout = 0;
+        /**
+         * The memory budget of the streaming queries, 0 for the default one.
+         */
+        private long memoryBudget = 0;
+        /**
+         * The directory of the rows spilled to disk.
+         */
+        private File spillDirectory;
+        /**
+         * Whether large results are decoded in parallel.
+         */
+        private boolean parallelDecoding = false;
+        /**
+         * The graph containing the ITAG information.
+         */
+        private String itagGraph = ITAG_GRAPH;
+        /**
+         * The graph containing UNIPROT.
+         */
+        private String uniprotGraph = UNIPROT_GRAPH;
+        /**
+         * The graph containing Chebi.
+         */
+        private String chebiGraph = CHEBI_GRAPH;
+        /**
+         * The graph containing rhea.
+         */
+        private String rheaGraph = RHEA_GRAPH;
+        /**
+         * The gene graphs queried instead of the ITAG one, by genome name.
+         */
+        private final LinkedHashMap<String, String> genomeGraphs =
+                new LinkedHashMap<String, String>();
+        /**
+         * The shared cache.
+         */
+        private ResultCache cache;
+        /**
+         * The shared threads.
+         */
+        private ExecutorService executor;
+        /**
+         * The log of the compounds looked up.
+         */
+        private QueryLog queryLog;
+        /**
+         * The filter of the compounds of rhea.
+         */
+        private RheaFilter rheaFilter;
+        /**
+         * Preferred format of the results, null for the default.
+         */
+        private String resultFormat;
+        /**
+         * Number of rows per page, 0 to fetch the results in one go.
+         */
+        private int pageSize = 0;
+        /**
+         * Number of pages fetched concurrently, 0 for the default.
+         */
+        private int pageParallelism = 0;
+
+        /**
+         * Use QueryRdf.builder().
+         */
+        private Builder() {
+        }
+
+        /**
+         * Set the URI of the engine.
+         *
+         * @param newuri the URI
+         * @return this Builder
+         */
+        public Builder uri(final String newuri) {
+            this.uri = newuri;
+            return this;
+        }
+
+        /**
+         * Set the sparql endpoint queried.
+         *
+         * @param url the url of the endpoint
+         * @return this Builder
+         */
+        public Builder endpoint(final String url) {
+            this.endpoint = url;
+            return this;
+        }
+
+        /**
+         * Set the local model to query instead of the endpoint.
+         *
+         * @param newmodel the Model
+         * @return this Builder
+         */
+        public Builder model(final Model newmodel) {
+            this.model = newmodel;
+            return this;
+        }
+
+        /**
+         * Set the debug mode.
+         *
+         * @param newdebug boolean
+         * @return this Builder
+         */
+        public Builder debug(final boolean newdebug) {
+            this.debug = newdebug;
+            return this;
+        }
+
+        /**
+         * Set the maximum time a query may run.
+         *
+         * @param millis the timeout in milliseconds, 0 for no limit
+         * @return this Builder
+         */
+        public Builder timeout(final long millis) {
+            this.timeout = millis;
+            return this;
+        }
+
+        /**
+         * Set the memory budget of the rows of a query.
+         *
+         * @param bytes the budget in bytes
+         * @return this Builder
+         */
+        public Builder memoryBudget(final long bytes) {
+            this.memoryBudget = bytes;
+            return this;
+        }
+
+        /**
+         * Set the directory of the rows spilled to disk.
+         *
+         * @param directory the directory
+         * @return this Builder
+         */
+        public Builder spillDirectory(final File directory) {
+            this.spillDirectory = directory;
+            return this;
+        }
+
+        /**
+         * Set whether large results are decoded and grouped in parallel.
+         *
+         * @param parallel boolean
+         * @return this Builder
+         */
+        public Builder parallelDecoding(final boolean parallel) {
+            this.parallelDecoding = parallel;
+            return this;
+        }
+
+        /**
+         * Set the graphs queried.
+         *
+         * @param itagUri the graph containing the ITAG information
+         * @param uniprotUri the graph containing UNIPROT
+         * @param chebiUri the graph containing Chebi
+         * @param rheaUri the graph containing rhea
+         * @return this Builder
+         */
+        public Builder graphs(final String itagUri, final String uniprotUri,
+                final String chebiUri, final String rheaUri) {
+            this.itagGraph = itagUri;
+            this.uniprotGraph = uniprotUri;
+            this.chebiGraph = chebiUri;
+            this.rheaGraph = rheaUri;
+            return this;
+        }
+
+        /**
+         * Add a genome whose gene graph is queried for the genes of the
+         * proteins. Once a genome is added, the ITAG graph set with graphs()
+         * is no longer queried for genes: the graphs of all the genomes
+         * added are queried concurrently and every gene is tagged with the
+         * name of its genome, under the "genome" key.
+         *
+         * @param name the name of the genome (ie: tomato)
+         * @param graphUri the graph containing its genes, in the same
+         * schema as the ITAG graph
+         * @return this Builder
+         */
+        public Builder genome(final String name, final String graphUri) {
+            this.genomeGraphs.put(name, graphUri);
+            return this;
+        }
+
+        /**
+         * Set the cache of resolved compounds shared by the users of the
+         * QueryRdf object.
+         *
+         * @param resultcache the ResultCache
+         * @return this Builder
+         */
+        public Builder cache(final ResultCache resultcache) {
+            this.cache = resultcache;
+            return this;
+        }
+
+        /**
+         * Set the threads shared by the users of the QueryRdf object.
+         *
+         * @param threads the ExecutorService, never shut down by them
+         * @return this Builder
+         */
+        public Builder executor(final ExecutorService threads) {
+            this.executor = threads;
+            return this;
+        }
+
+        /**
+         * Set the preferred format of the results sent by the endpoint.
+         *
+         * @param format tsv, json or xml
+         * @return this Builder
+         * @throws IllegalArgumentException if the format is unknown
+         */
+        public Builder resultFormat(final String format) {
+            SparqlHttpClient.acceptHeader(format);
+            this.resultFormat = format;
+            return this;
+        }
+
+        /**
+         * Fetch the results of the queries by pages.
+         *
+         * @param rows the number of rows per page
+         * @param parallel the number of pages fetched concurrently
+         * @return this Builder
+         */
+        public Builder pages(final int rows, final int parallel) {
+            this.pageSize = rows;
+            this.pageParallelism = parallel;
+            return this;
+        }
+
+        /**
+         * Set the log recording the compounds looked up.
+         *
+         * @param log the QueryLog
+         * @return this Builder
+         */
+        public Builder queryLog(final QueryLog log) {
+            this.queryLog = log;
+            return this;
+        }
+
+        /**
+         * Set the filter of the compounds taking part in a rhea reaction.
+         *
+         * @param filter the RheaFilter
+         * @return this Builder
+         */
+        public Builder rheaFilter(final RheaFilter filter) {
+            this.rheaFilter = filter;
+            return this;
+        }
+
+        /**
+         * Build the QueryRdf object, whose configuration is then frozen.
+         *
+         * @return the QueryRdf object
+         */
+        public QueryRdf build() {
+            QueryRdf query = new QueryRdf(itagGraph, uniprotGraph,
+                    chebiGraph, rheaGraph, genomeGraphs, cache, executor);
+            query.URI = uri;
+            if (endpoint != null) {
+                query.endpoint = endpoint;
+            }
+            query.model = model;
+            query.debug = debug;
+            query.timeout = timeout;
+            if (memoryBudget > 0) {
+                query.memoryBudget = memoryBudget;
+            }
+            query.spillDirectory = spillDirectory;
+            query.parallelDecoding = parallelDecoding;
+            query.queryLog = queryLog;
+            query.rheaFilter = rheaFilter;
+            query.pageSize = pageSize;
+            if (resultFormat != null) {
+                query.resultFormat = resultFormat;
             }
+            if (pageParallelism > 0) {
+                query.pageParallelism = pageParallelism;
+            }
+            query.freeze();
+            return query;
         }
-        return string;
     }
 
     /**
@@ -96,49 +914,11 @@ public class QueryRdf extends QueryRdfEngine {
     public final HashMap<String, HashMap<String, ArrayList<String>>> getExactChebiFromSearch(final String name) {
         ArrayList<ArrayList<String>> matrix =
                 new ArrayList<ArrayList<String>>();
-        String querystring =
-                "PREFIX rdfs:<http://www.w3.org/2000/01/rdf-schema#> \n"
-                + "    PREFIX obo:<http://purl.obolibrary.org/obo#> \n"
-                + "    SELECT DISTINCT ?id ?name ?syn \n"
-                + chebi
-                + "    WHERE { \n"
-                + "      { \n"
-                + "        ?id rdfs:label ?name . \n"
-                + "        ?id obo:Synonym ?syn . \n"
-                + "        FILTER ( \n"
-                + "            regex(?name, \"" + name + "\", \"i\") \n"
-                + "        ) \n"
-                + "      } \n"
-                + "    } ORDER BY ?id ";
-//        System.out.println(querystring);
         String[] keys = {"id", "name", "syn"};
-        matrix = this.remoteSelectQuery(querystring, matrix, keys);
+        matrix = this.selectQuery(
+                exactChebiQuery.bind().regex("search", name), matrix, keys);
 
-        HashMap<String, HashMap<String, ArrayList<String>>> output =
-                new HashMap<String, HashMap<String, ArrayList<String>>>();
-        for (ArrayList<String> rows : matrix) {
-            String[] tmp1 = rows.get(0).split("/");
-            String[] tmp2 = tmp1[tmp1.length - 1].split("_");
-            String chebi_id = tmp2[tmp2.length - 1];
-            if (output.containsKey(chebi_id)) {
-                HashMap<String, ArrayList<String>> tmp = output.get(chebi_id);
-                ArrayList<String> syns = tmp.get("syn");
-                syns.add(rows.get(2));
-                tmp.put("syn", syns);
-                output.put(chebi_id, tmp);
-            } else {
-                HashMap<String, ArrayList<String>> tmp =
-                        new HashMap<String, ArrayList<String>>();
-                ArrayList<String> names = new ArrayList<String>();
-                names.add(rows.get(1));
-                ArrayList<String> syns = new ArrayList<String>();
-                syns.add(rows.get(2));
-                tmp.put("name", names);
-                tmp.put("syn", syns);
-                output.put(chebi_id, tmp);
-            }
-        }
-        return output;
+        return toSearchResult(matrix);
     }
 
     /**
@@ -156,50 +936,129 @@ public class QueryRdf extends QueryRdfEngine {
     public final HashMap<String, HashMap<String, ArrayList<String>>> getExtendedChebiFromSearch(final String name) {
         ArrayList<ArrayList<String>> matrix =
                 new ArrayList<ArrayList<String>>();
-        String querystring =
-                "PREFIX rdfs:<http://www.w3.org/2000/01/rdf-schema#> \n"
-                + "    PREFIX obo:<http://purl.obolibrary.org/obo#> \n"
-                + "    SELECT DISTINCT ?id ?name ?syn \n"
-                + chebi
-                + "    WHERE { \n"
-                + "      { \n"
-                + "        ?id rdfs:label ?name . \n"
-                + "        ?id obo:Synonym ?syn . \n"
-                + "        FILTER ( \n"
-                + "            regex(?name, \"" + name + "\", \"i\") \n"
-                + "                  || regex(?syn, \"" + name + "\", \"i\")\n"
-                + "        ) \n"
-                + "      } \n"
-                + "    } ORDER BY ?id ";
-//        System.out.println(querystring);
         String[] keys = {"id", "name", "syn"};
-        matrix = this.remoteSelectQuery(querystring, matrix, keys);
+        matrix = this.selectQuery(
+                extendedChebiQuery.bind().regex("search", name), matrix, keys);
+
+        return toSearchResult(matrix);
+    }
+
+    /**
+     * Group the rows of a search by compound: the name of a compound is the
+     * one of its first row, its synonyms those of all its rows.
+     *
+     * @param matrix the rows of id, name and synonym
+     * @return a dictionary {string: {'name': [String], 'syn': [String]}}
+     */
+    private HashMap<String, HashMap<String, ArrayList<String>>>
+            toSearchResult(List<? extends List<String>> matrix) {
+        GroupCollector<String[]> rows = MatrixReducer.reduce(matrix,
+                new GroupCollector.Decoder<String[]>(false) {
+
+                    @Override
+                    public void add(final GroupCollector<String[]> acc,
+                            final List<String> row) {
+                        String[] tmp1 = row.get(0).split("/");
+                        acc.add(lastPart(tmp1[tmp1.length - 1], "_"),
+                                new String[]{row.get(1), row.get(2)});
+                    }
+                }, parallelDecoding);
+        HashMap<String, HashMap<String, ArrayList<String>>> output =
+                new HashMap<String, HashMap<String, ArrayList<String>>>();
+        for (Entry<String, ArrayList<String[]>> entry
+                : rows.toMap().entrySet()) {
+            ArrayList<String> names = new ArrayList<String>();
+            names.add(entry.getValue().get(0)[0]);
+            ArrayList<String> syns = new ArrayList<String>();
+            for (String[] pair : entry.getValue()) {
+                syns.add(pair[1]);
+            }
+            HashMap<String, ArrayList<String>> tmp =
+                    new HashMap<String, ArrayList<String>>();
+            tmp.put("name", names);
+            tmp.put("syn", syns);
+            output.put(entry.getKey(), tmp);
+        }
+        return output;
+    }
+
+    /**
+     * Returns the part of a value after the last occurrence of a separator.
+     *
+     * @param value the value
+     * @param sep the separator, null to keep the value as is
+     * @return the end of the value
+     */
+    private static String lastPart(String value, String sep) {
+        if (sep == null) {
+            return value;
+        }
+        String[] tmp = value.split(sep);
+        return tmp[tmp.length - 1];
+    }
+
+    /**
+     * Returns the decoder grouping the second column of the rows by the
+     * first one, dropping the duplicated values.
+     *
+     * @param keySep the separator before the key in the first column, null
+     * to use the whole column
+     * @param valueSep the separator before the value in the second column,
+     * null to use the whole column
+     * @return the decoder
+     */
+    private static GroupCollector.Decoder<String> pairs(final String keySep,
+            final String valueSep) {
+        return new GroupCollector.Decoder<String>(true) {
+
+            @Override
+            public void add(final GroupCollector<String> acc,
+                    final List<String> row) {
+                acc.add(lastPart(row.get(0), keySep),
+                        lastPart(row.get(1), valueSep));
+            }
+        };
+    }
+
+    /**
+     * Returns the decoder grouping the third column of the rows by the first
+     * and then the second one, dropping the duplicated values.
+     *
+     * @param sep0 the separator before the key in the first column
+     * @param sep1 the separator before the key in the second column
+     * @param sep2 the separator before the value in the third column
+     * @return the decoder
+     */
+    private static MatrixReducer.Accumulator<
+            LinkedHashMap<String, GroupCollector<String>>> triples(
+            final String sep0, final String sep1, final String sep2) {
+        return new MatrixReducer.Accumulator<
+                LinkedHashMap<String, GroupCollector<String>>>() {
+
+            @Override
+            public LinkedHashMap<String, GroupCollector<String>> create() {
+                return new LinkedHashMap<String, GroupCollector<String>>();
+            }
+
+            @Override
+            public void add(
+                    final LinkedHashMap<String, GroupCollector<String>> acc,
+                    final List<String> row) {
+                groupOf(acc, lastPart(row.get(0), sep0)).add(
+                        lastPart(row.get(1), sep1),
+                        lastPart(row.get(2), sep2));
+            }
 
-        HashMap<String, HashMap<String, ArrayList<String>>> output =
-                new HashMap<String, HashMap<String, ArrayList<String>>>();
-        for (ArrayList<String> rows : matrix) {
-            String[] tmp1 = rows.get(0).split("/");
-            String[] tmp2 = tmp1[tmp1.length - 1].split("_");
-            String chebi_id = tmp2[tmp2.length - 1];
-            if (output.containsKey(chebi_id)) {
-                HashMap<String, ArrayList<String>> tmp = output.get(chebi_id);
-                ArrayList<String> syns = tmp.get("syn");
-                syns.add(rows.get(2));
-                tmp.put("syn", syns);
-                output.put(chebi_id, tmp);
-            } else {
-                HashMap<String, ArrayList<String>> tmp =
-                        new HashMap<String, ArrayList<String>>();
-                ArrayList<String> names = new ArrayList<String>();
-                names.add(rows.get(1));
-                ArrayList<String> syns = new ArrayList<String>();
-                syns.add(rows.get(2));
-                tmp.put("name", names);
-                tmp.put("syn", syns);
-                output.put(chebi_id, tmp);
+            @Override
+            public void merge(
+                    final LinkedHashMap<String, GroupCollector<String>> into,
+                    final LinkedHashMap<String, GroupCollector<String>> other) {
+                for (Entry<String, GroupCollector<String>> entry
+                        : other.entrySet()) {
+                    groupOf(into, entry.getKey()).merge(entry.getValue());
+                }
             }
-        }
-        return output;
+        };
     }
 
     /**
@@ -210,65 +1069,386 @@ public class QueryRdf extends QueryRdfEngine {
      * @return a dictionary containing all the genes related with the proteins
      * specified. The data structure returned is like: {string: [{String:
      * String}]}, where the keys are the uniprot identifier and the values are
-     * list of gene identifier associated with the protein.
+     * list of gene identifier associated with the protein. When genomes are
+     * set (see Builder.genome()), their gene graphs are queried concurrently
+     * and every gene has a "genome" entry.
      */
     public final HashMap<String, ArrayList<
             HashMap<String, String>>> getGenesOfProteins(
             HashMap<String, ArrayList<String>> data) {
-        HashMap<String, ArrayList<HashMap<String, String>>> output =
-                new HashMap<String, ArrayList<HashMap<String, String>>>();
+        GroupCollector<HashMap<String, String>> output =
+                new GroupCollector<HashMap<String, String>>(false);
+        final String[] keys = {"prot", "name", "sca", "start", "stop",
+            "desc"};
         for (Entry<String, ArrayList<String>> entry : data.entrySet()) {
             ArrayList<String> arrayList = entry.getValue();
-            String proteins = arrayListToString(arrayList);
-
-            ArrayList<ArrayList<String>> matrix =
-                    new ArrayList<ArrayList<String>>();
-            String querystring =
-                    "PREFIX gene:<http://pbr.wur.nl/GENE#> \n"
-                    + "        PREFIX pos:<http://pbr.wur.nl/POSITION#> \n"
-                    + "        SELECT DISTINCT ?prot ?name ?sca ?start ?stop ?desc \n"
-                    + itag
-                    + "        WHERE{ \n"
-                    + "            ?gene gene:Protein ?prot . \n"
-                    + "                FILTER ( \n"
-                    + "                ?prot IN ( \n"
-                    + proteins
-                    + "                ) \n"
-                    + "            ) \n"
-                    + "            ?gene gene:Position ?pos . \n"
-                    + "            ?pos pos:Scaffold ?sca . \n"
-                    + "            ?gene gene:Description ?desc . \n"
-                    + "            ?gene gene:FeatureName ?name . \n"
-                    + "            ?pos pos:Start ?start . \n"
-                    + "            ?pos pos:Stop ?stop . \n"
-                    + "        } ORDER BY ?name \n";
-            String[] keys = {"prot", "name", "sca", "start", "stop", "desc"};
-//            System.out.println(querystring);
-            matrix = this.remoteSelectQuery(querystring, matrix, keys);
-            for (ArrayList<String> rows : matrix) {
-                String[] tmp1 = rows.get(0).split("/");
-                String prot_id = tmp1[tmp1.length - 1];
+            if (genomes.length > 0) {
+                output.merge(genesOfGenomes(arrayList, null));
+                continue;
+            }
+            output.merge(reduceQuery(genesQuery.bind().iriList(
+                    "proteins", UNIPROT_IRI, arrayList), keys,
+                    geneDecoder(keys, null)));
+        }
+        return output.toMap();
+    }
+
+    /**
+     * Returns the genes associated with a set of proteins, as
+     * getGenesOfProteins(data) but with a single query per batch of
+     * MAX_PROTEINS_PER_QUERY proteins, each protein being sent once.
+     *
+     * @param prot_ids uniprot identifiers of proteins.
+     * @return the genes, by uniprot identifier, as returned by
+     * getGenesOfProteins(data)
+     */
+    public final HashMap<String, ArrayList<
+            HashMap<String, String>>> getGenesOfProteins(
+            Collection<String> prot_ids) {
+        GroupCollector<HashMap<String, String>> output =
+                new GroupCollector<HashMap<String, String>>(false);
+        final String[] keys = {"prot", "name", "sca", "start", "stop",
+            "desc"};
+        ArrayList<String> all = new ArrayList<String>(
+                new LinkedHashSet<String>(prot_ids));
+        for (int from = 0; from < all.size();
+                from += MAX_PROTEINS_PER_QUERY) {
+            List<String> batch = all.subList(from,
+                    Math.min(all.size(), from + MAX_PROTEINS_PER_QUERY));
+            if (genomes.length > 0) {
+                output.merge(genesOfGenomes(batch, null));
+                continue;
+            }
+            output.merge(reduceQuery(genesQuery.bind().iriList(
+                    "proteins", UNIPROT_IRI, batch), keys,
+                    geneDecoder(keys, null)));
+        }
+        return output.toMap();
+    }
+
+    /**
+     * Returns the decoder of the rows of the genes query.
+     *
+     * @param keys the columns of the rows, the uniprot identifier first
+     * @param genome the genome tagging the genes, null for none
+     * @return the decoder grouping the genes by protein
+     */
+    private static GroupCollector.Decoder<HashMap<String, String>>
+            geneDecoder(final String[] keys, final String genome) {
+        return new GroupCollector.Decoder<HashMap<String, String>>(false) {
 
+            @Override
+            public void add(
+                    final GroupCollector<HashMap<String, String>> acc,
+                    final List<String> row) {
                 HashMap<String, String> gene = new HashMap<String, String>();
                 for (int cnt = 0; cnt < keys.length; cnt++) {
-                    gene.put(keys[cnt], rows.get(cnt));
+                    gene.put(keys[cnt], row.get(cnt));
                 }
-
-                if (output.containsKey(prot_id)) {
-                    ArrayList<HashMap<String, String>> tmp = output.get(prot_id);
-                    tmp.add(gene);
-                    output.put(prot_id, tmp);
-                } else {
-                    ArrayList<HashMap<String, String>> tmp =
-                            new ArrayList<HashMap<String, String>>();
-                    tmp.add(gene);
-                    output.put(prot_id, tmp);
+                if (genome != null) {
+                    gene.put("genome", genome);
                 }
+                acc.add(lastPart(row.get(0), "/"), gene);
             }
+        };
+    }
+
+    /**
+     * Returns the genes of proteins in the gene graphs of all the genomes,
+     * which are queried concurrently, optionally along with another query.
+     *
+     * @param prot_ids uniprot identifiers of proteins.
+     * @param other another query run at the same time, its rows kept in
+     * other, may be null
+     * @return the genes, tagged by genome, grouped by protein
+     */
+    private GroupCollector<HashMap<String, String>> genesOfGenomes(
+            final List<String> prot_ids, final PendingQuery other) {
+        String[] keys = {"prot", "name", "sca", "start", "stop", "desc"};
+        ArrayList<PendingQuery> queries = new ArrayList<PendingQuery>();
+        for (QueryTemplate template : genomeGenesQueries) {
+            queries.add(new PendingQuery(template.bind().iriList(
+                    "proteins", UNIPROT_IRI, prot_ids), keys));
+        }
+        if (other != null) {
+            queries.add(other);
+        }
+        runConcurrently(queries);
+        GroupCollector<HashMap<String, String>> output =
+                new GroupCollector<HashMap<String, String>>(false);
+        for (int cnt = 0; cnt < genomes.length; cnt++) {
+            output.merge(queries.get(cnt).reduce(
+                    geneDecoder(keys, genomes[cnt])));
         }
         return output;
     }
 
+    /**
+     * Keeps the rows of a query in memory as long as they fit in the memory
+     * budget of the engine, and spools them, spilling to disk, past it.
+     */
+    private final class BudgetedRows implements RowHandler {
+
+        /**
+         * The rows kept in memory, until the budget is used.
+         */
+        private ArrayList<ArrayList<String>> matrix =
+                new ArrayList<ArrayList<String>>();
+        /**
+         * The spool of the rows once the budget is used, null before.
+         */
+        private RowSpool spool;
+        /**
+         * Rough memory used by the rows kept in memory, in bytes.
+         */
+        private long used = 0;
+
+        @Override
+        public void row(final String[] values) throws IOException {
+            if (spool != null) {
+                spool.row(values);
+                return;
+            }
+            matrix.add(new ArrayList<String>(Arrays.asList(values)));
+            used += ROW_OVERHEAD;
+            for (String value : values) {
+                used += value == null ? 0 : 2L * value.length();
+            }
+            if (used >= memoryBudget) {
+                spool = new RowSpool(memoryBudget, spillDirectory);
+                for (ArrayList<String> row : matrix) {
+                    spool.row(row.toArray(new String[row.size()]));
+                }
+                matrix = null;
+            }
+        }
+
+        /**
+         * Decode all the rows: in parallel if enabled when they were kept in
+         * memory, one group of rows sharing their first value at a time when
+         * they were spooled.
+         *
+         * @param <A> the type of the accumulator
+         * @param decoder how the rows are decoded
+         * @return the accumulator of all the rows
+         * @throws IOException if the spooled rows cannot be read
+         */
+        private <A> A reduce(final MatrixReducer.Accumulator<A> decoder)
+                throws IOException {
+            if (spool == null) {
+                return MatrixReducer.reduce(matrix, decoder,
+                        parallelDecoding);
+            }
+            final A acc = decoder.create();
+            spool.forEachGroup(new GroupHandler() {
+
+                @Override
+                public void group(final String key,
+                        final List<String[]> rows) {
+                    for (String[] row : rows) {
+                        ArrayList<String> values =
+                                new ArrayList<String>(row.length + 1);
+                        values.add(key);
+                        values.addAll(Arrays.asList(row));
+                        decoder.add(acc, values);
+                    }
+                }
+            });
+            return acc;
+        }
+
+        /**
+         * Drop the rows, deleting the ones spilled to disk, when they are
+         * not to be decoded.
+         */
+        private void discard() {
+            matrix = null;
+            if (spool != null) {
+                spool.discard();
+            }
+        }
+    }
+
+    /**
+     * Runs a query and decodes its rows within the memory budget of the
+     * engine (see setMemoryBudget): a result too large for it is spilled to
+     * disk and decoded group by group, instead of being held whole before
+     * decoding.
+     *
+     * @param <A> the type of the accumulator
+     * @param params the template and the values bound to its parameters
+     * @param keys the columns of the rows
+     * @param decoder how the rows are decoded
+     * @return the accumulator of all the rows
+     */
+    private <A> A reduceQuery(final QueryTemplate.Parameters params,
+            final String[] keys, final MatrixReducer.Accumulator<A> decoder) {
+        BudgetedRows rows = new BudgetedRows();
+        boolean queried = false;
+        try {
+            this.selectQuery(params, keys, rows);
+            queried = true;
+            return rows.reduce(decoder);
+        } catch (IOException ex) {
+            throw new QueryExceptionHTTP(ex);
+        } finally {
+            if (!queried) {
+                rows.discard();
+            }
+        }
+    }
+
+    /**
+     * A query to run concurrently with others, and its result, kept within
+     * the memory budget of the engine.
+     */
+    private final class PendingQuery {
+
+        /**
+         * The template and the values bound to its parameters.
+         */
+        private final QueryTemplate.Parameters params;
+        /**
+         * The columns retrieved.
+         */
+        private final String[] keys;
+        /**
+         * The rows of the result, filled by run().
+         */
+        private final BudgetedRows rows = new BudgetedRows();
+
+        /**
+         * Constructor.
+         *
+         * @param parameters the template and its bound values
+         * @param columns the columns retrieved
+         */
+        PendingQuery(final QueryTemplate.Parameters parameters,
+                final String[] columns) {
+            this.params = parameters;
+            this.keys = columns;
+        }
+
+        /**
+         * Run the query, keeping its rows.
+         */
+        void run() {
+            boolean queried = false;
+            try {
+                selectQuery(params, keys, rows);
+                queried = true;
+            } catch (IOException ex) {
+                throw new QueryExceptionHTTP(ex);
+            } finally {
+                if (!queried) {
+                    rows.discard();
+                }
+            }
+        }
+
+        /**
+         * Drop the rows of the query, when they are not to be decoded.
+         */
+        void discard() {
+            rows.discard();
+        }
+
+        /**
+         * Decode the rows of the query.
+         *
+         * @param <A> the type of the accumulator
+         * @param decoder how the rows are decoded
+         * @return the accumulator of all the rows
+         */
+        <A> A reduce(final MatrixReducer.Accumulator<A> decoder) {
+            try {
+                return rows.reduce(decoder);
+            } catch (IOException ex) {
+                throw new QueryExceptionHTTP(ex);
+            }
+        }
+    }
+
+    /**
+     * Holds the threads running the queries of the genomes, created on
+     * first use. They are distinct from the shared executor, whose threads
+     * may themselves be waiting for these queries.
+     */
+    private static final class FanOutHolder {
+
+        /**
+         * The threads, daemons created as needed.
+         */
+        private static final ExecutorService POOL =
+                Executors.newCachedThreadPool(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable task) {
+                Thread thread = new Thread(task, "chebi2gene-genomes");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Run queries concurrently, the first one in the calling thread, and
+     * wait for all of them. The deadline of the calling thread applies to
+     * every query.
+     *
+     * @param queries the queries, whose matrix is filled
+     */
+    private void runConcurrently(final List<PendingQuery> queries) {
+        final Deadline deadline = Deadline.current();
+        ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+        boolean queried = false;
+        try {
+            for (final PendingQuery query : queries.subList(1,
+                    queries.size())) {
+                futures.add(FanOutHolder.POOL.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() {
+                        Deadline previous = deadline == null ? null
+                                : deadline.attach();
+                        try {
+                            query.run();
+                            return null;
+                        } finally {
+                            if (deadline != null) {
+                                Deadline.detach(previous);
+                            }
+                        }
+                    }
+                }));
+            }
+            queries.get(0).run();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            queried = true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                    "Interrupted while querying the genomes", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException("Genome query failed",
+                    ex.getCause());
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            if (!queried) {
+                for (PendingQuery query : queries) {
+                    query.discard();
+                }
+            }
+        }
+    }
+
     /**
      * Returns the all organism associated with the proteins.
      *
@@ -281,48 +1461,15 @@ public class QueryRdf extends QueryRdfEngine {
      */
     public final HashMap<String, ArrayList<String>> getOrganismOfProteins(
             HashMap<String, ArrayList<String>> data) {
-        HashMap<String, ArrayList<String>> output =
-                new HashMap<String, ArrayList<String>>();
+        GroupCollector<String> output = new GroupCollector<String>(true);
         for (Entry<String, ArrayList<String>> entry : data.entrySet()) {
             ArrayList<String> arrayList = entry.getValue();
-            String proteins = arrayListToString(arrayList);
-
-            ArrayList<ArrayList<String>> matrix =
-                    new ArrayList<ArrayList<String>>();
-            String querystring =
-                    "PREFIX uniprot:<http://purl.uniprot.org/core/> \n"
-                    + "        SELECT DISTINCT ?prot ?name \n"
-                    + uniprot
-                    + "        WHERE { \n"
-                    + "            ?prot uniprot:organism ?orga . \n"
-                    + "            ?orga uniprot:scientificName ?name . \n"
-                    + "            FILTER ( \n"
-                    + "                ?prot IN ( \n"
-                    + proteins
-                    + "                ) \n"
-                    + "            ) \n"
-                    + "        }";
             String[] keys = {"prot", "name"};
-            matrix = this.remoteSelectQuery(querystring, matrix, keys);
-            for (ArrayList<String> rows : matrix) {
-                String[] tmp1 = rows.get(0).split("/");
-                String prot_id = tmp1[tmp1.length - 1];
-                String orga = rows.get(1);
-
-                if (output.containsKey(prot_id)) {
-                    ArrayList<String> tmp = output.get(prot_id);
-                    if (!tmp.contains(orga)) {
-                        tmp.add(orga);
-                    }
-                    output.put(prot_id, tmp);
-                } else {
-                    ArrayList<String> tmp = new ArrayList<String>();
-                    tmp.add(orga);
-                    output.put(prot_id, tmp);
-                }
-            }
+            output.merge(reduceQuery(organismsQuery.bind().iriList(
+                    "proteins", UNIPROT_IRI, arrayList), keys,
+                    pairs("/", null)));
         }
-        return output;
+        return output.toMap();
     }
 
     /**
@@ -337,52 +1484,15 @@ public class QueryRdf extends QueryRdfEngine {
      */
     public final HashMap<String, ArrayList<String>> getPathwaysOfProteins(
             HashMap<String, ArrayList<String>> data) {
-        HashMap<String, ArrayList<String>> output =
-                new HashMap<String, ArrayList<String>>();
+        GroupCollector<String> output = new GroupCollector<String>(true);
         for (Entry<String, ArrayList<String>> entry : data.entrySet()) {
             ArrayList<String> arrayList = entry.getValue();
-            String proteins = arrayListToString(arrayList);
-
-            ArrayList<ArrayList<String>> matrix =
-                    new ArrayList<ArrayList<String>>();
-            String querystring =
-                    "PREFIX gene:<http://pbr.wur.nl/GENE#> \n"
-                    + "        PREFIX uniprot:<http://purl.uniprot.org/core/> \n"
-                    + "        PREFIX rdfs:<http://www.w3.org/2000/01/rdf-schema#> \n"
-                    + "        SELECT DISTINCT ?prot ?desc \n"
-                    + uniprot
-                    + "        WHERE { \n"
-                    + "            ?prot uniprot:annotation ?annot . \n"
-                    + "            ?annot rdfs:seeAlso ?url . \n"
-                    + "            ?annot rdfs:comment ?desc . \n"
-                    + "            FILTER ( \n"
-                    + "                ?prot IN ( \n"
-                    + proteins
-                    + "                ) \n"
-                    + "            ) \n"
-                    + "        }";
             String[] keys = {"prot", "desc"};
-//            System.out.println(querystring);
-            matrix = this.remoteSelectQuery(querystring, matrix, keys);
-            for (ArrayList<String> rows : matrix) {
-                String[] tmp1 = rows.get(0).split("/");
-                String prot_id = tmp1[tmp1.length - 1];
-                String desc = rows.get(1);
-
-                if (output.containsKey(prot_id)) {
-                    ArrayList<String> tmp = output.get(prot_id);
-                    if (!tmp.contains(desc)) {
-                        tmp.add(desc);
-                    }
-                    output.put(prot_id, tmp);
-                } else {
-                    ArrayList<String> tmp = new ArrayList<String>();
-                    tmp.add(desc);
-                    output.put(prot_id, tmp);
-                }
-            }
+            output.merge(reduceQuery(pathwaysQuery.bind().iriList(
+                    "proteins", UNIPROT_IRI, arrayList), keys,
+                    pairs("/", null)));
         }
-        return output;
+        return output.toMap();
     }
 
     /**
@@ -396,46 +1506,541 @@ public class QueryRdf extends QueryRdfEngine {
      */
     public final HashMap<String, ArrayList<String>> getProteinOfChebi(
             String chebi_id) {
-        HashMap<String, ArrayList<String>> output =
-                new HashMap<String, ArrayList<String>>();
+        String[] keys = {"react", "xref"};
+        return reduceQuery(proteinsQuery.bind().iri(
+                "compound", RHEA_CHEBI_IRI + chebi_id), keys,
+                pairs("#", "UNIPROT:")).toMap();
+    }
+
+    /**
+     * Retrieve in one go the genes, organisms and pathways associated with
+     * the proteins of all the reactions given. Instead of three queries per
+     * reaction, every distinct protein is sent once in a single combined
+     * query (split only when there are more than MAX_PROTEINS_PER_QUERY
+     * proteins), run at the same time as the queries of the gene graphs
+     * when several genomes are set, and the rows are sorted into the given
+     * dictionaries, which
+     * have the same structure as the output of getGenesOfProteins,
+     * getOrganismOfProteins and getPathwaysOfProteins.
+     *
+     * @param data a dictionary where the keys are reactions identifier and the
+     * values lists of proteins identifier.
+     * @param genes the dictionary in which to store the genes of the proteins
+     * @param organisms the dictionary in which to store the organisms of the
+     * proteins
+     * @param pathways the dictionary in which to store the pathways of the
+     * proteins
+     */
+    public final void getAnnotationsOfProteins(
+            HashMap<String, ArrayList<String>> data,
+            HashMap<String, ArrayList<HashMap<String, String>>> genes,
+            HashMap<String, ArrayList<String>> organisms,
+            HashMap<String, ArrayList<String>> pathways) {
+        LinkedHashSet<String> distinct = new LinkedHashSet<String>();
+        for (ArrayList<String> arrayList : data.values()) {
+            distinct.addAll(arrayList);
+        }
+        ArrayList<String> all = new ArrayList<String>(distinct);
+        final String[] keys = {"prot", "name", "sca", "start", "stop",
+            "desc", "orga", "path"};
+        MatrixReducer.Accumulator<Annotations> annotations =
+                new MatrixReducer.Accumulator<Annotations>() {
+
+            @Override
+            public Annotations create() {
+                return new Annotations();
+            }
+
+            @Override
+            public void add(final Annotations acc, final List<String> row) {
+                String prot_id = lastPart(row.get(0), "/");
+                if (row.get(6) != null) {
+                    acc.organisms.add(prot_id, row.get(6));
+                } else if (row.get(7) != null) {
+                    acc.pathways.add(prot_id, row.get(7));
+                } else {
+                    HashMap<String, String> gene =
+                            new HashMap<String, String>();
+                    for (int cnt = 0; cnt < 6; cnt++) {
+                        gene.put(keys[cnt], row.get(cnt));
+                    }
+                    acc.genes.add(prot_id, gene);
+                }
+            }
+
+            @Override
+            public void merge(final Annotations into,
+                    final Annotations other) {
+                into.genes.merge(other.genes);
+                into.organisms.merge(other.organisms);
+                into.pathways.merge(other.pathways);
+            }
+        };
+        Annotations output = annotations.create();
+        for (int from = 0; from < all.size();
+                from += MAX_PROTEINS_PER_QUERY) {
+            List<String> batch = all.subList(from,
+                    Math.min(all.size(), from + MAX_PROTEINS_PER_QUERY));
+            if (genomes.length > 0) {
+                PendingQuery uniprotQuery = new PendingQuery(
+                        annotationsQuery.bind().iriList("proteins",
+                        UNIPROT_IRI, batch), keys);
+                output.genes.merge(genesOfGenomes(batch, uniprotQuery));
+                annotations.merge(output, uniprotQuery.reduce(annotations));
+            } else {
+                annotations.merge(output, reduceQuery(annotationsQuery
+                        .bind().iriList("proteins", UNIPROT_IRI, batch),
+                        keys, annotations));
+            }
+        }
+        output.genes.addTo(genes);
+        output.organisms.addTo(organisms);
+        output.pathways.addTo(pathways);
+    }
+
+    /**
+     * The genes, organisms and pathways of proteins, grouped by protein.
+     */
+    private static final class Annotations {
+
+        /**
+         * The genes of the proteins.
+         */
+        private final GroupCollector<HashMap<String, String>> genes =
+                new GroupCollector<HashMap<String, String>>(false);
+        /**
+         * The organisms of the proteins.
+         */
+        private final GroupCollector<String> organisms =
+                new GroupCollector<String>(true);
+        /**
+         * The pathways of the proteins.
+         */
+        private final GroupCollector<String> pathways =
+                new GroupCollector<String>(true);
+    }
+
+    /**
+     * Returns the collector of the given key, creating it if needed.
+     *
+     * @param groups the collectors, by key
+     * @param key the key
+     * @return the distinct collector of the key
+     */
+    private static GroupCollector<String> groupOf(
+            Map<String, GroupCollector<String>> groups, String key) {
+        GroupCollector<String> group = groups.get(key);
+        if (group == null) {
+            group = new GroupCollector<String>(true);
+            groups.put(key, group);
+        }
+        return group;
+    }
+
+    /**
+     * Convert collectors by key into dictionaries of lists by key.
+     *
+     * @param groups the collectors, by key
+     * @return a dictionary {key: {string: [String]}}
+     */
+    private static HashMap<String, HashMap<String, ArrayList<String>>>
+            toMaps(Map<String, GroupCollector<String>> groups) {
+        HashMap<String, HashMap<String, ArrayList<String>>> output =
+                new HashMap<String, HashMap<String, ArrayList<String>>>();
+        for (Entry<String, GroupCollector<String>> entry
+                : groups.entrySet()) {
+            output.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return output;
+    }
+
+    /**
+     * Returns the identifiers of all the chebi compounds taking part in a rhea
+     * reaction. The query is always sent by pages, of COMPOUNDS_PAGE_SIZE
+     * rows unless the page size of this object is set.
+     *
+     * @return the sorted list of chebi identifiers
+     */
+    public final ArrayList<String> getChebiOfRhea() {
+        final TreeSet<String> output = new TreeSet<String>();
+        String[] keys = {"chebi"};
+        try {
+            this.selectPagedQuery(compoundsQuery.bind(), keys,
+                    COMPOUNDS_PAGE_SIZE, new RowHandler() {
+
+                @Override
+                public void row(final String[] values) {
+                    String[] tmp1 = values[0].split("CHEBI:");
+                    output.add(tmp1[tmp1.length - 1]);
+                }
+            });
+        } catch (IOException ex) {
+            throw new QueryExceptionHTTP(ex);
+        }
+        return new ArrayList<String>(output);
+    }
+
+    /**
+     * Returns the proteins associated with several compounds. The compounds
+     * are sent by batches of MAX_PROTEINS_PER_QUERY, so that a class
+     * expanded to thousands of descendants does not exceed the size of a
+     * query accepted by the endpoint.
+     *
+     * @param chebi_ids identifiers of compounds on chebi.
+     * @return a dictionary where the keys are the chebi identifiers and the
+     * values are dictionaries like the ones returned by getProteinOfChebi:
+     * {string: [String]}, where the keys are reaction identifiers and the
+     * values are list of proteins associated with the reaction. Compounds
+     * without reaction are not in the dictionary.
+     */
+    public final HashMap<String, HashMap<String, ArrayList<String>>>
+            getProteinOfChebis(Collection<String> chebi_ids) {
+        LinkedHashMap<String, GroupCollector<String>> output =
+                new LinkedHashMap<String, GroupCollector<String>>();
+        ArrayList<String> all = new ArrayList<String>(
+                new LinkedHashSet<String>(chebi_ids));
+        String[] keys = {"chebi", "react", "xref"};
+        MatrixReducer.Accumulator<LinkedHashMap<String,
+                GroupCollector<String>>> triples =
+                triples("CHEBI:", "#", "UNIPROT:");
+        for (int from = 0; from < all.size();
+                from += MAX_PROTEINS_PER_QUERY) {
+            List<String> batch = all.subList(from,
+                    Math.min(all.size(), from + MAX_PROTEINS_PER_QUERY));
+            triples.merge(output, reduceQuery(proteinsOfCompoundsQuery
+                    .bind().iriList("compounds", RHEA_CHEBI_IRI, batch),
+                    keys, triples));
+        }
+        return toMaps(output);
+    }
+
+    /**
+     * Returns the reactions and compounds associated with proteins, the
+     * reverse of getProteinOfChebis. The proteins are sent by batches of
+     * MAX_PROTEINS_PER_QUERY.
+     *
+     * @param prot_ids uniprot identifiers of proteins.
+     * @return a dictionary where the keys are the uniprot identifiers and the
+     * values are dictionaries: {string: [String]}, where the keys are
+     * reaction identifiers and the values are list of the chebi identifiers
+     * of the compounds of the reaction. Proteins without reaction are not in
+     * the dictionary.
+     */
+    public final HashMap<String, HashMap<String, ArrayList<String>>>
+            getChebiOfProteins(Collection<String> prot_ids) {
+        LinkedHashMap<String, GroupCollector<String>> output =
+                new LinkedHashMap<String, GroupCollector<String>>();
+        ArrayList<String> all = new ArrayList<String>(
+                new LinkedHashSet<String>(prot_ids));
+        String[] keys = {"xref", "react", "chebi"};
+        MatrixReducer.Accumulator<LinkedHashMap<String,
+                GroupCollector<String>>> triples =
+                triples("UNIPROT:", "#", "CHEBI:");
+        for (int from = 0; from < all.size();
+                from += MAX_PROTEINS_PER_QUERY) {
+            List<String> batch = all.subList(from,
+                    Math.min(all.size(), from + MAX_PROTEINS_PER_QUERY));
+            triples.merge(output, reduceQuery(compoundsOfProteinsQuery
+                    .bind().iriList("proteins", RHEA_UNIPROT_IRI, batch),
+                    keys, triples));
+        }
+        return toMaps(output);
+    }
+
+    /**
+     * Returns the proteins of ITAG genes. The genes are sent by batches of
+     * MAX_PROTEINS_PER_QUERY, to the gene graphs of all the genomes at once
+     * when several are set.
+     *
+     * @param names names of ITAG genes (ie: Solyc10g079480.1.1).
+     * @return a dictionary where the keys are the gene names and the values
+     * are the lists of their uniprot identifiers. Genes without protein are
+     * not in the dictionary.
+     */
+    public final HashMap<String, ArrayList<String>> getProteinsOfGenes(
+            Collection<String> names) {
+        GroupCollector<String> output = new GroupCollector<String>(true);
+        ArrayList<String> all = new ArrayList<String>(
+                new LinkedHashSet<String>(names));
+        String[] keys = {"name", "prot"};
+        for (int from = 0; from < all.size();
+                from += MAX_PROTEINS_PER_QUERY) {
+            List<String> batch = all.subList(from,
+                    Math.min(all.size(), from + MAX_PROTEINS_PER_QUERY));
+            if (genomes.length > 0) {
+                ArrayList<PendingQuery> queries =
+                        new ArrayList<PendingQuery>();
+                for (QueryTemplate template : genomeProteinsQueries) {
+                    queries.add(new PendingQuery(template.bind().literalList(
+                            "names", batch), keys));
+                }
+                runConcurrently(queries);
+                for (PendingQuery query : queries) {
+                    output.merge(query.reduce(pairs(null, "/")));
+                }
+                continue;
+            }
+            output.merge(reduceQuery(proteinsOfGenesQuery.bind()
+                    .literalList("names", batch), keys, pairs(null, "/")));
+        }
+        return output.toMap();
+    }
+
+    /**
+     * Returns the reactions and compounds associated with ITAG genes, through
+     * their proteins, with one query for the proteins of the genes and one
+     * for their compounds (per batch of MAX_PROTEINS_PER_QUERY).
+     *
+     * @param names names of ITAG genes (ie: Solyc10g079480.1.1).
+     * @return a dictionary where the keys are the gene names and the values
+     * are dictionaries: {string: [String]}, where the keys are reaction
+     * identifiers and the values are list of the chebi identifiers of the
+     * compounds of the reaction. Genes without reaction are not in the
+     * dictionary.
+     */
+    public final HashMap<String, HashMap<String, ArrayList<String>>>
+            getChebiOfGenes(Collection<String> names) {
+        HashMap<String, ArrayList<String>> proteins =
+                getProteinsOfGenes(names);
+        LinkedHashSet<String> prot_ids = new LinkedHashSet<String>();
+        for (ArrayList<String> list : proteins.values()) {
+            prot_ids.addAll(list);
+        }
+        HashMap<String, HashMap<String, ArrayList<String>>> byProtein =
+                getChebiOfProteins(prot_ids);
+        LinkedHashMap<String, GroupCollector<String>> output =
+                new LinkedHashMap<String, GroupCollector<String>>();
+        for (Entry<String, ArrayList<String>> entry : proteins.entrySet()) {
+            for (String prot : entry.getValue()) {
+                HashMap<String, ArrayList<String>> reactions =
+                        byProtein.get(prot);
+                if (reactions == null) {
+                    continue;
+                }
+                GroupCollector<String> tmp = groupOf(output, entry.getKey());
+                for (Entry<String, ArrayList<String>> react
+                        : reactions.entrySet()) {
+                    for (String chebi_id : react.getValue()) {
+                        tmp.add(react.getKey(), chebi_id);
+                    }
+                }
+            }
+        }
+        return toMaps(output);
+    }
+
+    /**
+     * Retrieve the relations between chebi compounds used to expand a
+     * compound class: is_a, and the conjugate acid/base and tautomer
+     * relations. Relations to anything else than a chebi compound (ie:
+     * restrictions) are ignored.
+     *
+     * @param isA the list in which to store the is_a relations, as pairs of
+     * chebi identifiers: child then parent
+     * @param equivalences the list in which to store the other relations, as
+     * pairs of chebi identifiers
+     */
+    public final void getChebiRelations(List<String[]> isA,
+            List<String[]> equivalences) {
+        ArrayList<String> relations = new ArrayList<String>();
+        relations.add(SUBCLASS_OF_IRI);
+        relations.addAll(EQUIVALENCE_IRIS);
+        ArrayList<ArrayList<String>> matrix =
+                new ArrayList<ArrayList<String>>();
+        String[] keys = {"child", "rel", "parent"};
+        matrix = this.selectQuery(chebiRelationsQuery.bind().iriList(
+                "relations", "", relations), matrix, keys);
+        for (ArrayList<String> rows : matrix) {
+            if (!rows.get(0).contains("CHEBI_")
+                    || !rows.get(2).contains("CHEBI_")) {
+                continue;
+            }
+            String[] tmp1 = rows.get(0).split("_");
+            String[] tmp2 = rows.get(2).split("_");
+            String[] pair = {tmp1[tmp1.length - 1], tmp2[tmp2.length - 1]};
+            if (rows.get(1).equals(SUBCLASS_OF_IRI)) {
+                isA.add(pair);
+            } else {
+                equivalences.add(pair);
+            }
+        }
+    }
 
+    /**
+     * Retrieve the whole rhea network: the compounds taking part in every
+     * reaction, with their side, and the proteins catalysing the reactions.
+     *
+     * @param participants the list in which to store the participants, as
+     * rows of reaction identifier, side of the compound (ie: LEFT or RIGHT)
+     * and chebi identifier
+     * @param enzymes the list in which to store the enzymes, as pairs of
+     * reaction identifier and uniprot identifier
+     */
+    public final void getRheaNetwork(List<String[]> participants,
+            List<String[]> enzymes) {
         ArrayList<ArrayList<String>> matrix =
                 new ArrayList<ArrayList<String>>();
-        String querystring =
-                "prefix bp: <http://www.biopax.org/release/biopax-level2.owl#> \n"
-                + "    SELECT DISTINCT ?react ?xref \n"
-                + rhea
-                + "    WHERE { \n"
-                + "      ?cmp bp:XREF <http://www.ebi.ac.uk/rhea#CHEBI:"
-                + chebi_id + "> . \n"
-                + "      ?dir ?p ?cmp . \n"
-                + "      ?react ?p2 ?dir . \n"
-                + "      ?react bp:XREF ?xref . \n"
-                + "      FILTER ( \n"
-                + "        regex(?xref, 'UNIPROT') \n"
-                + "      ) \n"
-                + "    } \n";
-        String[] keys = {"react", "xref"};
-//        System.out.println(querystring);
-        matrix = this.remoteSelectQuery(querystring, matrix, keys);
+        String[] keys = {"react", "side", "chebi"};
+        matrix = this.selectQuery(participantsQuery.bind(), matrix, keys);
+        for (ArrayList<String> rows : matrix) {
+            participants.add(new String[]{lastPart(rows.get(0), "#"),
+                        lastPart(rows.get(1), "#"),
+                        lastPart(rows.get(2), "CHEBI:")});
+        }
+        matrix = new ArrayList<ArrayList<String>>();
+        keys = new String[]{"react", "xref"};
+        matrix = this.selectQuery(enzymesQuery.bind(), matrix, keys);
         for (ArrayList<String> rows : matrix) {
-            String[] tmp1 = rows.get(0).split("#");
-            String react_id = tmp1[tmp1.length - 1];
-            String[] tmp2 = rows.get(1).split("UNIPROT:");
-            String prot = tmp2[tmp2.length - 1];
-
-            if (output.containsKey(react_id)) {
-                ArrayList<String> tmp = output.get(react_id);
-                if (!tmp.contains(prot)) {
-                    tmp.add(prot);
+            enzymes.add(new String[]{lastPart(rows.get(0), "#"),
+                        lastPart(rows.get(1), "UNIPROT:")});
+        }
+    }
+
+    /**
+     * Returns the structure data of all the chebi compounds having some.
+     *
+     * @return one row per compound: its chebi identifier, InChIKey, InChI,
+     * formula, monoisotopic mass and SMILES, null when unknown; the first
+     * value is kept for a compound having several
+     */
+    public final ArrayList<String[]> getChebiStructures() {
+        ArrayList<ArrayList<String>> matrix =
+                new ArrayList<ArrayList<String>>();
+        String[] keys = {"id", "prop", "value"};
+        matrix = this.selectQuery(structuresQuery.bind().iriList(
+                "properties", "", STRUCTURE_IRIS), matrix, keys);
+        LinkedHashMap<String, String[]> rows =
+                new LinkedHashMap<String, String[]>();
+        for (ArrayList<String> row : matrix) {
+            if (!row.get(0).contains("CHEBI_")) {
+                continue;
+            }
+            String chebi_id = lastPart(row.get(0), "_");
+            String[] values = rows.get(chebi_id);
+            if (values == null) {
+                values = new String[STRUCTURE_IRIS.size() + 1];
+                values[0] = chebi_id;
+                rows.put(chebi_id, values);
+            }
+            int col = STRUCTURE_IRIS.indexOf(row.get(1)) + 1;
+            if (col > 0 && values[col] == null) {
+                values[col] = row.get(2);
+            }
+        }
+        return new ArrayList<String[]>(rows.values());
+    }
+
+    /**
+     * Streaming version of getProteinOfChebi, for compounds with too many
+     * reactions to hold their proteins in memory. The rows are grouped
+     * within the memory budget of the engine (see setMemoryBudget), spilling
+     * to disk when needed, and handed over one reaction at a time.
+     *
+     * @param chebi_id a string, identifier of a compound on chebi.
+     * @param handler the handler receiving, for every reaction in order of
+     * identifier, the reaction identifier and its distinct proteins as rows
+     * of one value: the uniprot identifier.
+     * @throws IOException if the rows cannot be spilled to disk
+     */
+    public final void streamProteinOfChebi(String chebi_id,
+            GroupHandler handler) throws IOException {
+        final RowSpool spool = new RowSpool(memoryBudget, spillDirectory);
+        String[] keys = {"react", "xref"};
+        boolean queried = false;
+        try {
+            this.selectQuery(proteinsQuery.bind().iri(
+                    "compound", RHEA_CHEBI_IRI + chebi_id), keys,
+                    new RowHandler() {
+
+                        @Override
+                        public void row(final String[] values)
+                                throws IOException {
+                            String[] tmp1 = values[0].split("#");
+                            String[] tmp2 = values[1].split("UNIPROT:");
+                            spool.row(new String[]{tmp1[tmp1.length - 1],
+                                        tmp2[tmp2.length - 1]});
+                        }
+                    });
+            queried = true;
+        } finally {
+            if (!queried) {
+                spool.discard();
+            }
+        }
+        spool.forEachGroup(handler);
+    }
+
+    /**
+     * Streaming version of getGenesOfProteins, for lists of proteins too
+     * long to hold their genes in memory. The proteins are sent by batches
+     * of MAX_PROTEINS_PER_QUERY, the rows are grouped within the memory
+     * budget of the engine (see setMemoryBudget), spilling to disk when
+     * needed, and handed over one protein at a time.
+     *
+     * @param prot_ids uniprot identifiers of proteins.
+     * @param handler the handler receiving, for every protein in order of
+     * identifier, the uniprot identifier and the distinct genes of the
+     * protein as rows of name, scaffold, start, stop and description, then
+     * genome when genomes are set (their graphs being queried in turn).
+     * @throws IOException if the rows cannot be spilled to disk
+     */
+    public final void streamGenesOfProteins(Collection<String> prot_ids,
+            GroupHandler handler) throws IOException {
+        final RowSpool spool = new RowSpool(memoryBudget, spillDirectory);
+        ArrayList<String> all = new ArrayList<String>(
+                new LinkedHashSet<String>(prot_ids));
+        String[] keys = {"prot", "name", "sca", "start", "stop", "desc"};
+        boolean queried = false;
+        try {
+            for (int from = 0; from < all.size();
+                    from += MAX_PROTEINS_PER_QUERY) {
+                List<String> batch = all.subList(from,
+                        Math.min(all.size(), from + MAX_PROTEINS_PER_QUERY));
+                if (genomes.length == 0) {
+                    this.selectQuery(genesQuery.bind().iriList(
+                            "proteins", UNIPROT_IRI, batch), keys,
+                            spoolGenes(spool, null));
                 }
-                output.put(react_id, tmp);
-            } else {
-                ArrayList<String> tmp = new ArrayList<String>();
-                tmp.add(prot);
-                output.put(react_id, tmp);
+                for (int cnt = 0; cnt < genomes.length; cnt++) {
+                    this.selectQuery(genomeGenesQueries[cnt].bind()
+                            .iriList("proteins", UNIPROT_IRI, batch), keys,
+                            spoolGenes(spool, genomes[cnt]));
+                }
+            }
+            queried = true;
+        } finally {
+            if (!queried) {
+                spool.discard();
             }
         }
-        return output;
+        spool.forEachGroup(handler);
+    }
+
+    /**
+     * Returns the handler spooling the rows of the genes query, the uniprot
+     * identifier of each row shortened.
+     *
+     * @param spool the spool
+     * @param genome the genome appended to the rows, null for none
+     * @return the handler
+     */
+    private static RowHandler spoolGenes(final RowSpool spool,
+            final String genome) {
+        return new RowHandler() {
+
+            @Override
+            public void row(final String[] values) throws IOException {
+                String[] tmp1 = values[0].split("/");
+                values[0] = tmp1[tmp1.length - 1];
+                if (genome == null) {
+                    spool.row(values);
+                } else {
+                    String[] tagged = Arrays.copyOf(values,
+                            values.length + 1);
+                    tagged[values.length] = genome;
+                    spool.row(tagged);
+                }
+            }
+        };
     }
 }
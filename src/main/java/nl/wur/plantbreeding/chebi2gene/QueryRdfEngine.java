@@ -19,9 +19,22 @@ package nl.wur.plantbreeding.chebi2gene;
 import com.hp.hpl.jena.query.QueryExecution;
 import com.hp.hpl.jena.query.QuerySolution;
 import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.sparql.engine.http.QueryEngineHTTP;
+import com.hp.hpl.jena.sparql.engine.http.QueryExceptionHTTP;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,15 +50,64 @@ class QueryRdfEngine {
     /**
      * Default URI used by the engine.
      */
-    protected String URI;
+    protected volatile String URI;
     /**
      * boolean variable to output more information to std out.
      */
-    protected boolean debug = false;
+    protected volatile boolean debug = false;
     /**
      * default URL to virtuoso.
      */
-    protected String endpoint = "http://sparql.plantbreeding.nl:8080/sparql/";
+    protected volatile String endpoint = "http://sparql.plantbreeding.nl:8080/sparql/";
+    /**
+     * local model, when set the queries are run against it instead of the
+     * endpoint.
+     */
+    protected volatile Model model;
+    /**
+     * Memory budget, in bytes, of the rows of a query held or grouped before
+     * they are spilled to disk.
+     */
+    protected volatile long memoryBudget = 64L << 20;
+    /**
+     * Directory of the rows spilled to disk, null for the default temporary
+     * directory.
+     */
+    protected volatile File spillDirectory;
+    /**
+     * Whether large results are decoded and grouped in parallel.
+     */
+    protected volatile boolean parallelDecoding = false;
+    /**
+     * Maximum time, in milliseconds, a query may run, 0 for no limit.
+     */
+    protected volatile long timeout = 0;
+    /**
+     * Number of rows fetched per page by the paginated queries, 0 to fetch
+     * the results in one go.
+     */
+    protected volatile int pageSize = 0;
+    /**
+     * Number of pages fetched concurrently by the paginated queries.
+     */
+    protected volatile int pageParallelism = 4;
+    /**
+     * Preferred format of the results sent by the endpoint: tsv, json or
+     * xml.
+     */
+    protected volatile String resultFormat = SparqlHttpClient.JSON;
+    /**
+     * The log of the compounds looked up, may be null.
+     */
+    protected volatile QueryLog queryLog;
+    /**
+     * The filter of the compounds of rhea, may be null.
+     */
+    protected volatile RheaFilter rheaFilter;
+    /**
+     * Whether the configuration is frozen, see freeze().
+     */
+    private volatile boolean frozen = false;
     /**
      * logger.
      */
@@ -82,6 +144,7 @@ class QueryRdfEngine {
      * @param uri String
      */
     public void setURI(final String uri) {
+        checkMutable();
         this.URI = uri;
     }
 
@@ -100,6 +163,7 @@ class QueryRdfEngine {
      * @param newdebug boolean
      */
     public void setDebug(final boolean newdebug) {
+        checkMutable();
         this.debug = newdebug;
     }
 
@@ -118,13 +182,276 @@ class QueryRdfEngine {
      * @param newservice url of the endpoint
      */
     public void setService(final String newservice) {
+        checkMutable();
         this.endpoint = newservice;
         LOG.log(Level.INFO, "QueryRdfEngine - Endpoint: {0}", this.endpoint);
     }
 
+    /**
+     * Return the local model the queries are run against.
+     *
+     * @return the Model or null if the queries are run remotely
+     */
+    public Model getModel() {
+        return model;
+    }
+
+    /**
+     * Set the local model to run the queries against, null to query the
+     * endpoint.
+     *
+     * @param newmodel a Model
+     */
+    public void setModel(final Model newmodel) {
+        checkMutable();
+        this.model = newmodel;
+    }
+
+    /**
+     * Return the memory budget of the rows of a query.
+     *
+     * @return the budget in bytes
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Set the memory budget of the rows of a query, for the streaming
+     * queries as for the getters resolving compounds, proteins and genes
+     * (getProteinOfChebi, getGenesOfProteins, getPathwaysOfProteins,
+     * getChebiOfProteins...), the genomes queried concurrently included;
+     * once it is used the rows are sorted and spilled to disk, then merged
+     * back. The searches by name and the queries loading whole graphs in
+     * memory (getChebiRelations, getRheaNetwork, getChebiStructures) are
+     * not bounded by it.
+     *
+     * @param bytes the budget in bytes
+     */
+    public void setMemoryBudget(final long bytes) {
+        checkMutable();
+        this.memoryBudget = bytes;
+    }
+
+    /**
+     * Return the directory of the rows spilled to disk.
+     *
+     * @return the directory, null for the default temporary directory
+     */
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Set the directory of the rows spilled to disk.
+     *
+     * @param directory the directory, null for the default temporary
+     * directory
+     */
+    public void setSpillDirectory(final File directory) {
+        checkMutable();
+        this.spillDirectory = directory;
+    }
+
+    /**
+     * Return whether large results are decoded and grouped in parallel.
+     *
+     * @return boolean parallelDecoding
+     */
+    public boolean isParallelDecoding() {
+        return parallelDecoding;
+    }
+
+    /**
+     * Set whether large results (more than MatrixReducer.CHUNK rows) are
+     * decoded and grouped in parallel, on the common fork/join pool. The
+     * output is the same either way.
+     *
+     * @param parallel boolean
+     */
+    public void setParallelDecoding(final boolean parallel) {
+        checkMutable();
+        this.parallelDecoding = parallel;
+    }
+
+    /**
+     * Return the maximum time a query may run.
+     *
+     * @return the timeout in milliseconds, 0 for no limit
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Set the maximum time a query may run, after which it is aborted with a
+     * QueryCancelledException (locally) or a QueryExceptionHTTP (remotely).
+     * The timeout is also sent to the endpoint, as the timeout parameter
+     * understood by virtuoso, and is shortened to the time left when the
+     * query runs under a Deadline.
+     *
+     * @param millis the timeout in milliseconds, 0 for no limit
+     */
+    public void setTimeout(final long millis) {
+        checkMutable();
+        this.timeout = millis;
+    }
+
+    /**
+     * Return the number of rows fetched per page.
+     *
+     * @return the page size, 0 if the queries are not paginated
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Set the number of rows fetched per page. When set, the template
+     * queries are sent by pages of LIMIT pageSize OFFSET n, sorted on all
+     * their variables (after their own ORDER BY) so that the pages do not
+     * overlap, and their rows are put back together in order.
+     *
+     * @param rows the page size, 0 to fetch the results in one go
+     */
+    public void setPageSize(final int rows) {
+        checkMutable();
+        this.pageSize = rows;
+    }
+
+    /**
+     * Return the number of pages fetched concurrently.
+     *
+     * @return the page parallelism
+     */
+    public int getPageParallelism() {
+        return pageParallelism;
+    }
+
+    /**
+     * Set the number of pages fetched concurrently once the first page of
+     * a query turns out to be full.
+     *
+     * @param pages the page parallelism
+     */
+    public void setPageParallelism(final int pages) {
+        checkMutable();
+        this.pageParallelism = pages;
+    }
+
+    /**
+     * Return the preferred format of the results sent by the endpoint.
+     *
+     * @return tsv, json or xml
+     */
+    public String getResultFormat() {
+        return resultFormat;
+    }
+
+    /**
+     * Set the format of the results asked to the endpoint for the template
+     * queries: "tsv" or "json" (the default), both decoded by a dedicated
+     * streaming parser, or "xml", decoded by Jena. Whatever the format
+     * asked, the results are decoded in the format the endpoint answers
+     * with.
+     *
+     * @param format tsv, json or xml
+     * @throws IllegalArgumentException if the format is unknown
+     */
+    public void setResultFormat(final String format) {
+        checkMutable();
+        SparqlHttpClient.acceptHeader(format);
+        this.resultFormat = format;
+    }
+
+    /**
+     * Return the log of the compounds looked up.
+     *
+     * @return the QueryLog, null if lookups are not recorded
+     */
+    public QueryLog getQueryLog() {
+        return queryLog;
+    }
+
+    /**
+     * Set the log recording the compounds looked up, see recordLookup().
+     *
+     * @param log the QueryLog, null to stop recording
+     */
+    public void setQueryLog(final QueryLog log) {
+        checkMutable();
+        this.queryLog = log;
+    }
+
+    /**
+     * Return the filter of the compounds taking part in a rhea reaction.
+     *
+     * @return the RheaFilter, null if none is used
+     */
+    public RheaFilter getRheaFilter() {
+        return rheaFilter;
+    }
+
+    /**
+     * Set the filter of the compounds taking part in a rhea reaction, used
+     * by Chebi2gene to answer the compounds without reaction without
+     * querying the endpoint. The filter may be refreshed while in use.
+     *
+     * @param filter the RheaFilter, null to query every compound
+     */
+    public void setRheaFilter(final RheaFilter filter) {
+        checkMutable();
+        this.rheaFilter = filter;
+    }
+
+    /**
+     * Record that a compound was looked up, in the query log if one is set,
+     * so that it can be warmed up by the next process.
+     *
+     * @param chebi_id the chebi identifier of the compound
+     */
+    public void recordLookup(final String chebi_id) {
+        final QueryLog log = queryLog;
+        if (log != null) {
+            log.record(chebi_id);
+        }
+    }
+
+    /**
+     * Freeze the configuration of the engine: any later call to a setter
+     * throws an IllegalStateException. A frozen engine may be shared by
+     * several threads.
+     */
+    final void freeze() {
+        this.frozen = true;
+    }
+
+    /**
+     * Return whether the configuration of the engine is frozen.
+     *
+     * @return boolean frozen
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Check that the configuration of the engine may still be changed.
+     *
+     * @throws IllegalStateException if the engine is frozen
+     */
+    protected final void checkMutable() {
+        if (frozen) {
+            throw new IllegalStateException("The configuration of a shared "
+                    + "engine cannot be changed, use a new one");
+        }
+    }
+
     /**
      * From a given querystring and endpoint, generate a QueryExecutionFactory
-     * and return the QueryExecution.
+     * and return the QueryExecution. The timeout is only sent to the
+     * endpoint, the QueryEngineHTTP of ARQ not implementing one of its own;
+     * a query is still refused once the Deadline has passed.
      *
      * @param service url of the endpoint to query
      * @param querystring sparql query
@@ -132,14 +459,22 @@ class QueryRdfEngine {
      */
     public QueryExecution generateQuery(final String service,
             final String querystring) {
+        StartupTimer.jenaLoaded();
         if (debug) {
             LOG.log(Level.INFO, "Service: \n{0}", service);
             LOG.log(Level.INFO, "Query: \n{0}", querystring);
         }
+        final long limit = Deadline.timeout(timeout);
         QueryExecution qexec = null;
         try {
 //            qexec = QueryExecutionFactory.sparqlService(endpoint, querystring);
-            qexec = new QueryEngineHTTP(endpoint, querystring);
+            final QueryEngineHTTP http = new QueryEngineHTTP(endpoint,
+                    querystring);
+            if (limit > 0) {
+                http.addParam(SparqlHttpClient.TIMEOUT_PARAM,
+                        Long.toString(limit));
+            }
+            qexec = http;
         } catch (Exception ex) {
             LOG.log(Level.SEVERE, ex.getMessage());
             LOG.log(Level.SEVERE, "Query: \n{0}", querystring);
@@ -283,6 +618,310 @@ class QueryRdfEngine {
         return arraylist;
     }
 
+    /**
+     * Runs a query built from a template and its bound parameters and returns
+     * the output of the given keys in the given arraylist, keys which are not
+     * bound in a solution are returned as null. The query is run
+     * against the local model when one is set, re-using the parsed template
+     * with the parameters as initial bindings whenever they are all single
+     * terms, otherwise it is sent to the endpoint and its results decoded
+     * in the format set with setResultFormat(). When a page size is set the
+     * results are fetched by pages, see setPageSize().
+     *
+     * @param params the template and the values bound to its parameters
+     * @param arraylist a list in which the results of the query will be stored
+     * @param keys the list of key to retrieve the results from the query
+     * @return the arraylist filled
+     */
+    public ArrayList<ArrayList<String>> selectQuery(
+            final QueryTemplate.Parameters params,
+            final ArrayList<ArrayList<String>> arraylist, final String[] keys) {
+        final int before = arraylist.size();
+        try {
+            this.selectQuery(params, keys, new RowHandler() {
+
+                @Override
+                public void row(final String[] values) {
+                    arraylist.add(new ArrayList<String>(
+                            Arrays.asList(values)));
+                }
+            });
+        } catch (IOException ex) {
+            throw new QueryExceptionHTTP(ex);
+        }
+        if (debug) {
+            LOG.log(Level.INFO, "{0} statements in the ResultSet",
+                    arraylist.size() - before);
+        }
+        return arraylist;
+    }
+
+    /**
+     * Runs a query built from a template and its bound parameters, as
+     * selectQuery(params, arraylist, keys), but hands every row to the
+     * given handler as soon as it is read instead of keeping them all.
+     *
+     * @param params the template and the values bound to its parameters
+     * @param keys the list of key to retrieve the results from the query
+     * @param handler the handler receiving the rows, one value per key
+     * @throws IOException if the handler fails
+     */
+    public void selectQuery(final QueryTemplate.Parameters params,
+            final String[] keys, final RowHandler handler)
+            throws IOException {
+        if (isPaged(params)) {
+            this.selectPages(params, keys, pageSize, handler);
+        } else {
+            this.execute(params, -1, 0, keys, handler);
+        }
+    }
+
+    /**
+     * Runs a query as selectQuery(params, keys, handler) but always by
+     * pages, for the queries whose result is known to be large (ie: all the
+     * compounds of rhea). The page size of this object is used when set,
+     * the given one otherwise.
+     *
+     * @param params the template and the values bound to its parameters
+     * @param keys the list of key to retrieve the results from the query
+     * @param size the number of rows per page when the queries are not
+     * paginated
+     * @param handler the handler receiving the rows, one value per key
+     * @throws IOException if the handler fails
+     */
+    protected void selectPagedQuery(final QueryTemplate.Parameters params,
+            final String[] keys, final int size, final RowHandler handler)
+            throws IOException {
+        if (ArqExecutor.isPageable(params)) {
+            this.selectPages(params, keys, pageSize > 0 ? pageSize : size,
+                    handler);
+        } else {
+            this.execute(params, -1, 0, keys, handler);
+        }
+    }
+
+    /**
+     * Runs a query built from a template, or a page of it, and hands its
+     * rows to the given handler. Against the endpoint the results are
+     * decoded by the SparqlHttpClient, without the binding objects of Jena;
+     * ARQ is only loaded, by the ArqExecutor, to run the query against a
+     * local model or to write its pages.
+     *
+     * @param params the template and the values bound to its parameters
+     * @param offset the first row of the page, -1 for the whole result
+     * @param size the number of rows per page
+     * @param keys the list of key to retrieve the results from the query
+     * @param handler the handler receiving the rows, one value per key
+     * @throws IOException if the results cannot be read or the handler
+     * fails
+     */
+    private void execute(final QueryTemplate.Parameters params,
+            final long offset, final int size, final String[] keys,
+            final RowHandler handler) throws IOException {
+        final Model local = model;
+        final long limit = Deadline.timeout(timeout);
+        if (local == null) {
+            final String querystring = offset < 0 ? params.toQueryString()
+                    : ArqExecutor.pageQuery(params, offset, size);
+            if (debug) {
+                LOG.log(Level.INFO, "Service: \n{0}", endpoint);
+                LOG.log(Level.INFO, "Query: \n{0}", querystring);
+            }
+            new SparqlHttpClient(endpoint, resultFormat, limit).select(
+                    querystring, keys, handler);
+            return;
+        }
+        if (debug) {
+            LOG.log(Level.INFO, "Local query: \n{0}", params);
+        }
+        ArqExecutor.select(local, params, offset, size, limit, keys,
+                handler);
+    }
+
+    /**
+     * Whether a query is run by pages: a page size is set and the query is a
+     * SELECT without its own LIMIT.
+     *
+     * @param params the template and the values bound to its parameters
+     * @return true if the query is paginated
+     */
+    private boolean isPaged(final QueryTemplate.Parameters params) {
+        return pageSize > 0 && ArqExecutor.isPageable(params);
+    }
+
+    /**
+     * Runs a query by pages and hands its rows, in order, to the given
+     * handler. The first page is fetched alone, so small results cost a
+     * single query; if it is full the following pages are fetched
+     * pageParallelism at a time, a new page being requested as soon as the
+     * oldest one is handed over, until a page comes back incomplete.
+     *
+     * @param params the template and the values bound to its parameters
+     * @param keys the list of key to retrieve the results from the query
+     * @param size the number of rows per page
+     * @param handler the handler receiving the rows, one value per key
+     * @throws IOException if the handler fails or the thread is interrupted
+     */
+    private void selectPages(final QueryTemplate.Parameters params,
+            final String[] keys, final int size, final RowHandler handler)
+            throws IOException {
+        List<String[]> rows = fetchPage(params, keys, 0, size);
+        for (String[] row : rows) {
+            handler.row(row);
+        }
+        if (rows.size() < size) {
+            return;
+        }
+        final int parallel = Math.max(1, pageParallelism);
+        final ExecutorService pool = PageHolder.POOL;
+        final ArrayDeque<Future<List<String[]>>> pending =
+                new ArrayDeque<Future<List<String[]>>>();
+        long next = size;
+        try {
+            for (int cnt = 0; cnt < parallel; cnt++) {
+                pending.add(submitPage(pool, params, keys, next, size));
+                next += size;
+            }
+            while (!pending.isEmpty()) {
+                rows = pending.poll().get();
+                for (String[] row : rows) {
+                    handler.row(row);
+                }
+                if (rows.size() < size) {
+                    break;
+                }
+                pending.add(submitPage(pool, params, keys, next, size));
+                next += size;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching pages", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IOException("Page query failed", ex.getCause());
+        } finally {
+            for (Future<List<String[]>> future : pending) {
+                future.cancel(true);
+            }
+        }
+        if (debug) {
+            LOG.log(Level.INFO, "{0} pages fetched", next / size);
+        }
+    }
+
+    /**
+     * Holds the threads fetching the pages of the queries, created on first
+     * use and shared by every query. They are distinct from the executor of
+     * QueryRdf, whose threads may themselves be waiting for the pages. At
+     * most pageParallelism pages of a query are requested at once.
+     */
+    private static final class PageHolder {
+
+        /**
+         * The threads, daemons created as needed.
+         */
+        private static final ExecutorService POOL =
+                Executors.newCachedThreadPool(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable task) {
+                Thread thread = new Thread(task, "chebi2gene-pages");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Fetch a page of a query in the given pool.
+     *
+     * @param pool the threads fetching the pages
+     * @param params the template and the values bound to its parameters
+     * @param keys the list of key to retrieve the results from the query
+     * @param offset the first row of the page
+     * @param size the number of rows per page
+     * @return the future rows of the page
+     */
+    private Future<List<String[]>> submitPage(final ExecutorService pool,
+            final QueryTemplate.Parameters params, final String[] keys,
+            final long offset, final int size) {
+        final Deadline deadline = Deadline.current();
+        return pool.submit(new Callable<List<String[]>>() {
+
+            @Override
+            public List<String[]> call() {
+                if (deadline == null) {
+                    return fetchPage(params, keys, offset, size);
+                }
+                final Deadline previous = deadline.attach();
+                try {
+                    return fetchPage(params, keys, offset, size);
+                } finally {
+                    Deadline.detach(previous);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetch a page of a query.
+     *
+     * @param params the template and the values bound to its parameters
+     * @param keys the list of key to retrieve the results from the query
+     * @param offset the first row of the page
+     * @param size the number of rows per page
+     * @return the rows of the page
+     */
+    private List<String[]> fetchPage(final QueryTemplate.Parameters params,
+            final String[] keys, final long offset, final int size) {
+        final ArrayList<String[]> rows = new ArrayList<String[]>(size);
+        try {
+            this.execute(params, offset, size, keys, new RowHandler() {
+
+                @Override
+                public void row(final String[] values) {
+                    rows.add(values);
+                }
+            });
+        } catch (IOException ex) {
+            throw new QueryExceptionHTTP(ex);
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the output from the given keys in the given ResultSet in the
+     * given ArrayList. Unlike getResults, keys which are not bound in a
+     * solution are kept as null so every row has one entry per key.
+     *
+     * @param results a ResultSet object
+     * @param keys a list of key
+     * @param arraylist a list of list in which to store the results extracted
+     * @return the arraylist filled
+     */
+    public ArrayList<ArrayList<String>> getSolutions(
+            final ResultSet results,
+            final String[] keys,
+            final ArrayList<ArrayList<String>> arraylist) {
+        int cnt = 0;
+        while (results.hasNext()) {
+            final QuerySolution soln = results.nextSolution();
+            final ArrayList<String> tmp = new ArrayList<String>(keys.length);
+            for (String key : keys) {
+                final RDFNode node = soln.get(key);
+                tmp.add(node == null ? null : node.toString());
+            }
+            arraylist.add(tmp);
+            cnt += 1;
+        }
+        if (debug) {
+            LOG.log(Level.INFO, "{0} statements in the ResultSet", cnt);
+        }
+        return arraylist;
+    }
+
     /**
      * Returns the output from the given key in the given ResultSet in the given
      * ArrayList.
@@ -0,0 +1,455 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.Syntax;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * A sparql query with named parameters. The template text is split once, when
+ * the template is created, into fixed fragments and parameter slots written
+ * as ${name}. Every parameter stands for one complete sparql term (an IRI, a
+ * literal or a list of IRIs) and values are escaped when they are bound, so a
+ * user supplied string can never change the shape of the query.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+final class QueryTemplate {
+
+    /**
+     * Kind of a parameter bound to an IRI.
+     */
+    static final char IRI = 'I';
+    /**
+     * Kind of a parameter bound to a plain literal.
+     */
+    static final char LITERAL = 'L';
+    /**
+     * Kind of a parameter bound to a list of terms.
+     */
+    static final char LIST = '*';
+    /**
+     * The fixed pieces of the query, there is one more fragment than slots.
+     */
+    private final String[] fragments;
+    /**
+     * The name of the parameter of each slot, in order of appearance.
+     */
+    private final String[] slots;
+    /**
+     * The distinct parameter names of the template.
+     */
+    private final String[] names;
+    /**
+     * Total length of the fixed fragments.
+     */
+    private final int length;
+    /**
+     * The query parsed with its parameters written as variables, created on
+     * first use and shared by every execution afterward.
+     */
+    private volatile Query query;
+
+    /**
+     * Constructor splitting the given template text.
+     *
+     * @param template the sparql query with ${name} parameter slots
+     */
+    QueryTemplate(final String template) {
+        ArrayList<String> frags = new ArrayList<String>();
+        ArrayList<String> params = new ArrayList<String>();
+        ArrayList<String> distinct = new ArrayList<String>();
+        int total = 0;
+        int from = 0;
+        int start = template.indexOf("${");
+        while (start >= 0) {
+            int end = template.indexOf('}', start);
+            if (end < 0) {
+                throw new IllegalArgumentException(
+                        "Unterminated parameter in query template at "
+                        + start);
+            }
+            String frag = template.substring(from, start);
+            String name = template.substring(start + 2, end);
+            frags.add(frag);
+            params.add(name);
+            if (!distinct.contains(name)) {
+                distinct.add(name);
+            }
+            total += frag.length();
+            from = end + 1;
+            start = template.indexOf("${", from);
+        }
+        String last = template.substring(from);
+        frags.add(last);
+        total += last.length();
+        this.fragments = frags.toArray(new String[frags.size()]);
+        this.slots = params.toArray(new String[params.size()]);
+        this.names = distinct.toArray(new String[distinct.size()]);
+        this.length = total;
+    }
+
+    /**
+     * Returns the distinct parameter names of the template.
+     *
+     * @return an array of parameter names
+     */
+    String[] getParameterNames() {
+        return names.clone();
+    }
+
+    /**
+     * Returns the template parsed as a sparql query in which every parameter
+     * is a variable of the same name. The query is parsed only once.
+     *
+     * @return the parsed Query
+     */
+    Query getQuery() {
+        Query parsed = query;
+        if (parsed == null) {
+            StringBuilder sb = new StringBuilder(length + 16 * slots.length);
+            for (int cnt = 0; cnt < slots.length; cnt++) {
+                sb.append(fragments[cnt]).append(" ?").append(slots[cnt])
+                        .append(' ');
+            }
+            sb.append(fragments[slots.length]);
+            parsed = QueryFactory.create(sb.toString(), Syntax.syntaxARQ);
+            query = parsed;
+        }
+        return parsed;
+    }
+
+    /**
+     * Returns a new, empty, set of parameter values for this template.
+     *
+     * @return a Parameters object
+     */
+    Parameters bind() {
+        return new Parameters(this);
+    }
+
+    /**
+     * Index of the given parameter name in the list of distinct names.
+     *
+     * @param name the parameter name
+     * @return the index of the parameter
+     */
+    private int indexOf(final String name) {
+        for (int cnt = 0; cnt < names.length; cnt++) {
+            if (names[cnt].equals(name)) {
+                return cnt;
+            }
+        }
+        throw new IllegalArgumentException(
+                "Unknown query parameter: " + name);
+    }
+
+    /**
+     * Append the given string as a quoted and escaped sparql literal.
+     *
+     * @param sb the StringBuilder to append to
+     * @param value the value of the literal
+     * @return the given StringBuilder
+     */
+    static StringBuilder appendLiteral(final StringBuilder sb,
+            final String value) {
+        sb.append('"');
+        for (int cnt = 0; cnt < value.length(); cnt++) {
+            char c = value.charAt(cnt);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.append('"');
+    }
+
+    /**
+     * Append the given IRI between angle brackets, rejecting characters which
+     * are not allowed in a sparql IRI reference.
+     *
+     * @param sb the StringBuilder to append to
+     * @param prefix the start of the IRI
+     * @param value the end of the IRI
+     * @return the given StringBuilder
+     */
+    static StringBuilder appendIri(final StringBuilder sb,
+            final String prefix, final String value) {
+        sb.append('<').append(prefix);
+        for (int cnt = 0; cnt < value.length(); cnt++) {
+            char c = value.charAt(cnt);
+            if (c <= ' ' || c == '<' || c == '>' || c == '"' || c == '{'
+                    || c == '}' || c == '|' || c == '^' || c == '`'
+                    || c == '\\') {
+                throw new IllegalArgumentException(
+                        "Invalid character in IRI: " + prefix + value);
+            }
+            sb.append(c);
+        }
+        return sb.append('>');
+    }
+
+    /**
+     * Escape all the regular expression meta-characters of the given string so
+     * that it matches itself literally in a sparql regex() filter.
+     *
+     * @param value the string to escape
+     * @return the escaped regular expression
+     */
+    static String escapeRegex(final String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 8);
+        for (int cnt = 0; cnt < value.length(); cnt++) {
+            char c = value.charAt(cnt);
+            if ("\\.?*+^$|()[]{}".indexOf(c) >= 0) {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The values bound to the parameters of a template for one execution.
+     */
+    static final class Parameters {
+
+        /**
+         * The template the values are bound to.
+         */
+        private final QueryTemplate template;
+        /**
+         * The sparql text of each bound value, by parameter index.
+         */
+        private final String[] rendered;
+        /**
+         * The unescaped value of each scalar parameter, by parameter index.
+         */
+        private final String[] values;
+        /**
+         * The kind of each bound value, by parameter index.
+         */
+        private final char[] kinds;
+
+        /**
+         * Constructor.
+         *
+         * @param tmpl the template to bind values to
+         */
+        private Parameters(final QueryTemplate tmpl) {
+            this.template = tmpl;
+            this.rendered = new String[tmpl.names.length];
+            this.values = new String[tmpl.names.length];
+            this.kinds = new char[tmpl.names.length];
+        }
+
+        /**
+         * Bind an IRI to the given parameter.
+         *
+         * @param name the parameter name
+         * @param iri the full IRI
+         * @return this object
+         */
+        Parameters iri(final String name, final String iri) {
+            int idx = template.indexOf(name);
+            rendered[idx] = appendIri(new StringBuilder(iri.length() + 2),
+                    "", iri).toString();
+            values[idx] = iri;
+            kinds[idx] = IRI;
+            return this;
+        }
+
+        /**
+         * Bind a plain string literal to the given parameter.
+         *
+         * @param name the parameter name
+         * @param value the value of the literal
+         * @return this object
+         */
+        Parameters literal(final String name, final String value) {
+            int idx = template.indexOf(name);
+            rendered[idx] = appendLiteral(
+                    new StringBuilder(value.length() + 2), value).toString();
+            values[idx] = value;
+            kinds[idx] = LITERAL;
+            return this;
+        }
+
+        /**
+         * Bind a literal matching the given text, as is, in a regex() filter.
+         *
+         * @param name the parameter name
+         * @param text the text to search for
+         * @return this object
+         */
+        Parameters regex(final String name, final String text) {
+            return literal(name, escapeRegex(text));
+        }
+
+        /**
+         * Bind a comma separated list of IRIs, built from a common prefix and
+         * the given identifiers, to the given parameter. Meant to be used
+         * within an IN ( ) filter.
+         *
+         * @param name the parameter name
+         * @param prefix the start of every IRI
+         * @param ids the identifiers completing the IRIs
+         * @return this object
+         */
+        Parameters iriList(final String name, final String prefix,
+                final Collection<String> ids) {
+            int idx = template.indexOf(name);
+            StringBuilder sb = new StringBuilder(
+                    ids.size() * (prefix.length() + 16));
+            for (String id : ids) {
+                if (sb.length() > 0) {
+                    sb.append(", \n");
+                }
+                appendIri(sb, prefix, id);
+            }
+            rendered[idx] = sb.toString();
+            values[idx] = null;
+            kinds[idx] = LIST;
+            return this;
+        }
+
+        /**
+         * Bind a comma separated list of string literals to the given
+         * parameter. Meant to be used within an IN ( ) filter.
+         *
+         * @param name the parameter name
+         * @param texts the values of the literals
+         * @return this object
+         */
+        Parameters literalList(final String name,
+                final Collection<String> texts) {
+            int idx = template.indexOf(name);
+            StringBuilder sb = new StringBuilder(texts.size() * 24);
+            for (String text : texts) {
+                if (sb.length() > 0) {
+                    sb.append(", \n");
+                }
+                appendLiteral(sb, text);
+            }
+            rendered[idx] = sb.toString();
+            values[idx] = null;
+            kinds[idx] = LIST;
+            return this;
+        }
+
+        /**
+         * Returns the template these values are bound to.
+         *
+         * @return a QueryTemplate
+         */
+        QueryTemplate getTemplate() {
+            return template;
+        }
+
+        /**
+         * Returns the bound parameter names.
+         *
+         * @return an array of parameter names
+         */
+        String[] getNames() {
+            return template.names;
+        }
+
+        /**
+         * Returns the unescaped value bound to a scalar parameter.
+         *
+         * @param idx the index of the parameter
+         * @return the value, null for list parameters
+         */
+        String getValue(final int idx) {
+            return values[idx];
+        }
+
+        /**
+         * Returns the kind of value bound to a parameter.
+         *
+         * @param idx the index of the parameter
+         * @return IRI, LITERAL or LIST
+         */
+        char getKind(final int idx) {
+            return kinds[idx];
+        }
+
+        /**
+         * Whether all the parameters are bound to single terms, in which case
+         * the parsed query can be run with these values as initial bindings.
+         *
+         * @return true if no parameter is bound to a list
+         */
+        boolean isScalar() {
+            for (char kind : kinds) {
+                if (kind == LIST) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Render the query with the bound values, in a single pass.
+         *
+         * @return the sparql query as a string
+         */
+        String toQueryString() {
+            int size = template.length;
+            int[] slotIdx = new int[template.slots.length];
+            for (int cnt = 0; cnt < slotIdx.length; cnt++) {
+                slotIdx[cnt] = template.indexOf(template.slots[cnt]);
+                if (rendered[slotIdx[cnt]] == null) {
+                    throw new IllegalStateException(
+                            "Unbound query parameter: "
+                            + template.slots[cnt]);
+                }
+                size += rendered[slotIdx[cnt]].length();
+            }
+            StringBuilder sb = new StringBuilder(size);
+            for (int cnt = 0; cnt < slotIdx.length; cnt++) {
+                sb.append(template.fragments[cnt])
+                        .append(rendered[slotIdx[cnt]]);
+            }
+            sb.append(template.fragments[slotIdx.length]);
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            return toQueryString();
+        }
+    }
+}
@@ -0,0 +1,750 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import com.hp.hpl.jena.graph.compose.MultiUnion;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+import com.hp.hpl.jena.shared.Lock;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Applies a new release of one of the graphs (chebi, rhea, uniprot, itag) to
+ * the local model incrementally. The release, as an N-Triples file, is
+ * compared to the copy kept from the previous update and only the triples
+ * added or removed are applied; the cached compounds depending on these
+ * triples are then invalidated, the rest of the cache is kept.
+ *
+ * Every graph is kept in its own model, so removing a triple from the
+ * release of one graph leaves it in the others asserting it; the local model
+ * to query, returned by getModel(), is the union of these models. Blank
+ * nodes are replaced by IRIs specific to their graph (skolemized) when a
+ * release is sorted, so that their triples can be found again to be
+ * removed.
+ *
+ * The state of each graph (sorted copy of the last release and its digest)
+ * is kept in a state directory, a release identical to the previous one is
+ * detected from its digest and skipped. A graph not updated yet by this
+ * object is loaded from its copy on first use.
+ *
+ * A release is applied, and the cache invalidated, while holding the write
+ * lock of the model (see Model.enterCriticalSection()); the queries run by
+ * QueryRdf against a local model hold its read lock, so that they never see
+ * a release partly applied.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class ReleaseUpdater {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = Logger.getLogger(
+            ReleaseUpdater.class.getName());
+    /**
+     * Number of triples applied to the model at once.
+     */
+    private static final int CHUNK_SIZE = 10000;
+    /**
+     * Memory used to sort a release, in bytes.
+     */
+    private static final long SORT_BUDGET = 64L * 1024 * 1024;
+    /**
+     * Number of neighbours above which a node is not followed when looking
+     * for the compounds touched by a change.
+     */
+    private static final int MAX_FAN_OUT = 256;
+    /**
+     * Start of the IRIs replacing the blank nodes of the releases.
+     */
+    static final String SKOLEM_IRI = "urn:chebi2gene:genid:";
+    /**
+     * The directory in which the state of the graphs is kept.
+     */
+    private final File stateDir;
+    /**
+     * The models of the graphs, by name.
+     */
+    private final LinkedHashMap<String, Model> graphs =
+            new LinkedHashMap<String, Model>();
+    /**
+     * The union of the models of the graphs.
+     */
+    private final MultiUnion union = new MultiUnion();
+    /**
+     * The local model to query, a view of the union of the graphs.
+     */
+    private final Model model = ModelFactory.createModelForGraph(union);
+    /**
+     * The cache to invalidate, may be null.
+     */
+    private final ResultCache cache;
+
+    /**
+     * Constructor.
+     *
+     * @param directory the directory in which the state of the graphs is kept
+     * @param resultcache the cache to invalidate, may be null
+     */
+    public ReleaseUpdater(final File directory,
+            final ResultCache resultcache) {
+        this.stateDir = directory;
+        this.cache = resultcache;
+    }
+
+    /**
+     * Returns the local model to query: the union of the graphs, updated in
+     * place by every release applied.
+     *
+     * @return the Model
+     */
+    public Model getModel() {
+        return model;
+    }
+
+    /**
+     * Returns the model of one graph.
+     *
+     * @param graph the name of the graph
+     * @return the Model, null if the graph was never updated by this object
+     */
+    public synchronized Model getGraph(final String graph) {
+        return graphs.get(graph);
+    }
+
+    /**
+     * Returns the model of a graph, creating it on first use and filling it
+     * with the copy of the last release applied, if any.
+     *
+     * @param graph the name of the graph
+     * @param snapshot the copy of the last release of the graph
+     * @return the Model
+     * @throws IOException if the copy cannot be read
+     */
+    private synchronized Model graphModel(final String graph,
+            final File snapshot) throws IOException {
+        Model target = graphs.get(graph);
+        if (target == null) {
+            target = ModelFactory.createDefaultModel();
+            if (snapshot.isFile()) {
+                InputStream in = new FileInputStream(snapshot);
+                try {
+                    target.read(in, null, "N-TRIPLE");
+                } finally {
+                    in.close();
+                }
+            }
+            graphs.put(graph, target);
+            model.enterCriticalSection(Lock.WRITE);
+            try {
+                union.addGraph(target.getGraph());
+            } finally {
+                model.leaveCriticalSection();
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Apply a new release of a graph.
+     *
+     * @param graph the name of the graph, used to name its state files
+     * @param release the release, as an N-Triples file
+     * @return a report of the changes applied
+     * @throws IOException if the release or the state cannot be read or
+     * written
+     */
+    public Report update(final String graph, final File release)
+            throws IOException {
+        if (!stateDir.isDirectory() && !stateDir.mkdirs()) {
+            throw new IOException("Cannot create " + stateDir);
+        }
+        File digestFile = new File(stateDir, graph + ".sha1");
+        File snapshot = new File(stateDir, graph + ".nt");
+        File backup = new File(snapshot.getPath() + ".old");
+        if (!snapshot.exists() && backup.isFile()
+                && !backup.renameTo(snapshot)) {
+            throw new IOException("Cannot restore " + backup);
+        }
+        Model target = graphModel(graph, snapshot);
+        String digest = digest(release);
+        if (snapshot.isFile() && digest.equals(readString(digestFile))) {
+            LOG.log(Level.INFO, "Release of {0} unchanged", graph);
+            return new Report(false, 0, 0, Collections.<String>emptySet());
+        }
+
+        File sorted = new File(stateDir, graph + ".nt.new");
+        BufferedReader in = reader(release);
+        try {
+            ExternalSort.sort(new TripleLines(in, SKOLEM_IRI + graph + ":"),
+                    sorted, SORT_BUDGET, true);
+        } finally {
+            in.close();
+        }
+
+        Delta delta = new Delta(target);
+        Set<String> invalidated = Collections.<String>emptySet();
+        BufferedReader previous = snapshot.isFile() ? reader(snapshot) : null;
+        BufferedReader current = reader(sorted);
+        model.enterCriticalSection(Lock.WRITE);
+        try {
+            String oldLine = previous == null ? null : previous.readLine();
+            String newLine = current.readLine();
+            while (oldLine != null || newLine != null) {
+                int cmp = oldLine == null ? 1 : newLine == null ? -1
+                        : oldLine.compareTo(newLine);
+                if (cmp < 0) {
+                    delta.remove(oldLine);
+                    oldLine = previous.readLine();
+                } else if (cmp > 0) {
+                    delta.add(newLine);
+                    newLine = current.readLine();
+                } else {
+                    oldLine = previous.readLine();
+                    newLine = current.readLine();
+                }
+            }
+            delta.flush();
+            if (cache != null) {
+                if (delta.clearAll) {
+                    invalidated = new TreeSet<String>();
+                    cache.clear();
+                } else {
+                    invalidated = cache.invalidateReferencing(delta.touched);
+                }
+            }
+        } finally {
+            model.leaveCriticalSection();
+            if (previous != null) {
+                previous.close();
+            }
+            current.close();
+        }
+
+        replace(sorted, snapshot);
+        writeString(digestFile, digest);
+
+        Object[] vals = {graph, delta.added, delta.removed,
+            delta.clearAll ? "all" : invalidated.size()};
+        LOG.log(Level.INFO, "Release of {0}: {1} triples added, {2} removed,"
+                + " {3} cached compounds invalidated", vals);
+        return new Report(true, delta.added, delta.removed, invalidated);
+    }
+
+    /**
+     * Replace a file by another. The new file is renamed in first, which
+     * replaces the old one at once where the platform allows it; otherwise
+     * the old one is moved aside until the new one is in place, so that
+     * there is always a copy to start again from (see update()).
+     *
+     * @param file the new file
+     * @param target the file to replace
+     * @throws IOException if the file cannot be replaced
+     */
+    private static void replace(final File file, final File target)
+            throws IOException {
+        if (file.renameTo(target)) {
+            return;
+        }
+        File backup = new File(target.getPath() + ".old");
+        if (backup.exists() && !backup.delete()) {
+            throw new IOException("Cannot delete " + backup);
+        }
+        if (target.exists() && !target.renameTo(backup)) {
+            throw new IOException("Cannot replace " + target);
+        }
+        if (!file.renameTo(target)) {
+            backup.renameTo(target);
+            throw new IOException("Cannot rename " + file);
+        }
+        backup.delete();
+    }
+
+    /**
+     * Returns the SHA-1 digest of a file, in hexadecimal.
+     *
+     * @param file the file
+     * @return the digest
+     * @throws IOException if the file cannot be read
+     */
+    static String digest(final File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex.getMessage());
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[1 << 16];
+            int len = in.read(buf);
+            while (len >= 0) {
+                md.update(buf, 0, len);
+                len = in.read(buf);
+            }
+        } finally {
+            in.close();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Open a file for reading as UTF-8 text.
+     *
+     * @param file the file
+     * @return a BufferedReader
+     * @throws IOException if the file cannot be opened
+     */
+    private static BufferedReader reader(final File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"), 1 << 16);
+    }
+
+    /**
+     * Returns the content of a small text file.
+     *
+     * @param file the file
+     * @return its content, null if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    private static String readString(final File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        BufferedReader in = reader(file);
+        try {
+            return in.readLine();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write a small text file.
+     *
+     * @param file the file
+     * @param content its content
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeString(final File file, final String content)
+            throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write((content + "\n").getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * The identifiers found in a node: the local name of an IRI (and its
+     * last part after a ':' or '_', as in CHEBI:1234 or CHEBI_1234) or the
+     * value of a literal.
+     *
+     * @param node the node
+     * @param tokens the set to add the identifiers to
+     */
+    static void addTokens(final RDFNode node, final Set<String> tokens) {
+        if (node.isLiteral()) {
+            tokens.add(node.asLiteral().getLexicalForm());
+        } else if (node.isURIResource()) {
+            String uri = node.asResource().getURI();
+            String local = uri.substring(Math.max(uri.lastIndexOf('/'),
+                    uri.lastIndexOf('#')) + 1);
+            tokens.add(local);
+            tokens.add(local.substring(local.lastIndexOf(':') + 1));
+            tokens.add(local.substring(local.lastIndexOf('_') + 1));
+        }
+    }
+
+    /**
+     * Replace the blank nodes of an N-Triples line, in subject or object
+     * position, with IRIs made of a prefix and their label.
+     *
+     * @param line the triple
+     * @param prefix the start of the IRIs
+     * @return the triple without blank node
+     */
+    static String skolemize(final String line, final String prefix) {
+        if (line.indexOf("_:") < 0) {
+            return line;
+        }
+        StringBuilder sb = new StringBuilder(line.length() + 32);
+        int pos;
+        if (line.startsWith("_:")) {
+            pos = appendSkolem(sb, line, 0, prefix);
+        } else {
+            pos = line.indexOf('>') + 1;
+            sb.append(line, 0, pos);
+        }
+        int end = line.indexOf('>', pos) + 1;
+        if (pos <= 0 || end <= 0) {
+            return line;
+        }
+        sb.append(line, pos, end);
+        pos = end;
+        while (pos < line.length() && Character.isWhitespace(
+                line.charAt(pos))) {
+            sb.append(line.charAt(pos++));
+        }
+        if (line.startsWith("_:", pos)) {
+            pos = appendSkolem(sb, line, pos, prefix);
+        }
+        return sb.append(line, pos, line.length()).toString();
+    }
+
+    /**
+     * Append the IRI replacing a blank node.
+     *
+     * @param sb the StringBuilder to append to
+     * @param line the triple
+     * @param start the position of the blank node in the triple
+     * @param prefix the start of the IRI
+     * @return the position following the blank node
+     */
+    private static int appendSkolem(final StringBuilder sb, final String line,
+            final int start, final String prefix) {
+        int end = start + 2;
+        while (end < line.length() && !Character.isWhitespace(
+                line.charAt(end))) {
+            end++;
+        }
+        if (end == line.length() && line.charAt(end - 1) == '.') {
+            end--;
+        }
+        sb.append('<').append(prefix).append(line, start + 2, end)
+                .append('>');
+        return end;
+    }
+
+    /**
+     * Reads the triples of an N-Triples file, one per line, skipping the
+     * comments and empty lines and skolemizing the blank nodes.
+     */
+    private static final class TripleLines extends BufferedReader {
+
+        /**
+         * The start of the IRIs replacing the blank nodes.
+         */
+        private final String prefix;
+
+        /**
+         * Constructor.
+         *
+         * @param in the N-Triples file
+         * @param skolem the start of the IRIs replacing the blank nodes
+         */
+        private TripleLines(final BufferedReader in, final String skolem) {
+            super(in);
+            this.prefix = skolem;
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            String line = super.readLine();
+            while (line != null) {
+                line = line.trim();
+                if (line.length() > 0 && line.charAt(0) != '#') {
+                    return skolemize(line, prefix);
+                }
+                line = super.readLine();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The triples added and removed, applied to the model of a graph by
+     * chunks, and the identifiers of the nodes around them in the union of
+     * the graphs.
+     */
+    private final class Delta {
+
+        /**
+         * The model of the graph updated.
+         */
+        private final Model target;
+        /**
+         * Triples to add, not applied yet.
+         */
+        private final StringBuilder toAdd = new StringBuilder();
+        /**
+         * Triples to remove, not applied yet.
+         */
+        private final StringBuilder toRemove = new StringBuilder();
+        /**
+         * Number of triples pending.
+         */
+        private int pending = 0;
+        /**
+         * Number of triples added.
+         */
+        private long added = 0;
+        /**
+         * Number of triples removed.
+         */
+        private long removed = 0;
+        /**
+         * Identifiers of the nodes touched by the changes.
+         */
+        private final HashSet<String> touched = new HashSet<String>();
+        /**
+         * Set when a change touches too many nodes to be followed, the whole
+         * cache is then cleared.
+         */
+        private boolean clearAll = false;
+
+        /**
+         * Constructor.
+         *
+         * @param graphmodel the model of the graph updated
+         */
+        private Delta(final Model graphmodel) {
+            this.target = graphmodel;
+        }
+
+        /**
+         * Record a triple to add.
+         *
+         * @param line the triple
+         */
+        private void add(final String line) {
+            toAdd.append(line).append('\n');
+            added++;
+            if (++pending >= CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * Record a triple to remove.
+         *
+         * @param line the triple
+         */
+        private void remove(final String line) {
+            toRemove.append(line).append('\n');
+            removed++;
+            if (++pending >= CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * Apply the pending changes to the model of the graph. The nodes
+         * around removed triples are looked up before the removal, the ones
+         * around added triples after the addition.
+         */
+        private void flush() {
+            if (toRemove.length() > 0) {
+                Model chunk = parse(toRemove);
+                touch(chunk);
+                target.remove(chunk);
+            }
+            if (toAdd.length() > 0) {
+                Model chunk = parse(toAdd);
+                target.add(chunk);
+                touch(chunk);
+            }
+            toAdd.setLength(0);
+            toRemove.setLength(0);
+            pending = 0;
+        }
+
+        /**
+         * Parse N-Triples.
+         *
+         * @param triples the triples, one per line
+         * @return a new Model containing the triples
+         */
+        private Model parse(final StringBuilder triples) {
+            Model chunk = ModelFactory.createDefaultModel();
+            chunk.read(new StringReader(triples.toString()), null,
+                    "N-TRIPLE");
+            return chunk;
+        }
+
+        /**
+         * Collect the identifiers of the nodes of the given triples and of
+         * the nodes up to two steps away from their subject in the model.
+         *
+         * @param chunk the changed triples
+         */
+        private void touch(final Model chunk) {
+            HashSet<Resource> visited = new HashSet<Resource>();
+            StmtIterator it = chunk.listStatements();
+            try {
+                while (it.hasNext()) {
+                    Statement stmt = it.next();
+                    addTokens(stmt.getSubject(), touched);
+                    addTokens(stmt.getObject(), touched);
+                    if (visited.add(stmt.getSubject())) {
+                        walk(stmt.getSubject(), 2, true, visited);
+                    }
+                }
+            } finally {
+                it.close();
+            }
+        }
+
+        /**
+         * Collect the identifiers of the neighbours of a node, in both
+         * directions, up to the given depth. Nodes with too many neighbours
+         * are not followed; if the changed node itself is such a hub, the
+         * whole cache will be cleared.
+         *
+         * @param node the node to start from
+         * @param depth the number of steps to follow
+         * @param origin whether the node is the subject of a change
+         * @param visited the nodes already followed
+         */
+        private void walk(final Resource node, final int depth,
+                final boolean origin, final Set<Resource> visited) {
+            ArrayList<RDFNode> next = new ArrayList<RDFNode>();
+            StmtIterator out = model.listStatements(node, null,
+                    (RDFNode) null);
+            try {
+                while (out.hasNext() && next.size() <= MAX_FAN_OUT) {
+                    next.add(out.next().getObject());
+                }
+            } finally {
+                out.close();
+            }
+            StmtIterator in = model.listStatements(null, null, node);
+            try {
+                while (in.hasNext() && next.size() <= MAX_FAN_OUT) {
+                    next.add(in.next().getSubject());
+                }
+            } finally {
+                in.close();
+            }
+            if (next.size() > MAX_FAN_OUT) {
+                if (origin) {
+                    clearAll = true;
+                }
+                return;
+            }
+            for (RDFNode neighbour : next) {
+                addTokens(neighbour, touched);
+                if (depth > 1 && neighbour.isResource()
+                        && visited.add(neighbour.asResource())) {
+                    walk(neighbour.asResource(), depth - 1, false, visited);
+                }
+            }
+        }
+    }
+
+    /**
+     * The outcome of the update of a graph.
+     */
+    public static final class Report {
+
+        /**
+         * Whether the release differed from the previous one.
+         */
+        private final boolean changed;
+        /**
+         * Number of triples added.
+         */
+        private final long added;
+        /**
+         * Number of triples removed.
+         */
+        private final long removed;
+        /**
+         * Chebi identifiers of the cached compounds invalidated.
+         */
+        private final Set<String> invalidated;
+
+        /**
+         * Constructor.
+         *
+         * @param haschanged whether the release differed from the previous one
+         * @param nadded number of triples added
+         * @param nremoved number of triples removed
+         * @param chebi_ids chebi identifiers of the compounds invalidated
+         */
+        private Report(final boolean haschanged, final long nadded,
+                final long nremoved, final Set<String> chebi_ids) {
+            this.changed = haschanged;
+            this.added = nadded;
+            this.removed = nremoved;
+            this.invalidated = chebi_ids;
+        }
+
+        /**
+         * Returns whether the release differed from the previous one.
+         *
+         * @return boolean changed
+         */
+        public boolean isChanged() {
+            return changed;
+        }
+
+        /**
+         * Returns the number of triples added.
+         *
+         * @return the number of triples added
+         */
+        public long getAdded() {
+            return added;
+        }
+
+        /**
+         * Returns the number of triples removed.
+         *
+         * @return the number of triples removed
+         */
+        public long getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Returns the chebi identifiers of the cached compounds invalidated.
+         *
+         * @return a set of chebi identifiers
+         */
+        public Set<String> getInvalidated() {
+            return invalidated;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe, least recently used, cache of the resolved compounds, by
+ * chebi identifier. Entries can be invalidated one by one or by any of the
+ * identifiers (reaction, protein, gene) they depend on, which is used to
+ * drop only the stale entries when a new release of the graphs is loaded.
+ *
+ * The results of the one-shot mode of Chebi2gene are kept under their own
+ * key, next to the ones of the default mode, so a lookup never returns a
+ * result resolved with other options.
+ *
+ * A result resolved while the cache was invalidated may describe the data
+ * before the change: put(result, oneShot, generation) drops it unless no
+ * invalidation happened since getGeneration() was read, before resolving.
+ *
+ * The CompoundResult returned are shared, they should not be modified. In
+ * compact mode the results are instead kept encoded with the
+ * CompoundResultCodec, which takes a fraction of the memory, and a new copy is
+ * decoded on every lookup.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class ResultCache {
+
+    /**
+     * Suffix of the keys of the results resolved in one-shot mode.
+     */
+    private static final String ONE_SHOT_SUFFIX = "#oneshot";
+    /**
+     * The entries, in access order: CompoundResult objects or, in compact
+     * mode, their encoded form.
+     */
+    private final LinkedHashMap<String, Object> entries;
+    /**
+     * Whether the results are kept encoded.
+     */
+    private final boolean compact;
+    /**
+     * Number of invalidations so far, guarded by the entries.
+     */
+    private long generation;
+    /**
+     * Number of lookups which found their entry.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    /**
+     * Number of lookups which did not find their entry.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries the maximum number of compounds to keep
+     */
+    public ResultCache(final int maxEntries) {
+        this(maxEntries, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries the maximum number of compounds to keep
+     * @param encoded whether to keep the results in their compact binary form
+     */
+    public ResultCache(final int maxEntries, final boolean encoded) {
+        this.compact = encoded;
+        this.entries = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<String, Object> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result of a compound resolved in the default mode.
+     *
+     * @param chebi_id the chebi identifier of the compound
+     * @return the CompoundResult or null if it is not in the cache
+     */
+    public CompoundResult get(final String chebi_id) {
+        return get(chebi_id, false);
+    }
+
+    /**
+     * Returns the cached result of a compound resolved with the given
+     * options.
+     *
+     * @param chebi_id the chebi identifier of the compound
+     * @param oneShot whether the result was resolved in one-shot mode
+     * @return the CompoundResult or null if it is not in the cache
+     */
+    public CompoundResult get(final String chebi_id, final boolean oneShot) {
+        Object value;
+        synchronized (entries) {
+            value = entries.get(key(chebi_id, oneShot));
+        }
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return toResult(value);
+    }
+
+    /**
+     * Add the result of a compound resolved in the default mode to the
+     * cache.
+     *
+     * @param result the CompoundResult
+     */
+    public void put(final CompoundResult result) {
+        put(result, false);
+    }
+
+    /**
+     * Add the result of a compound resolved with the given options to the
+     * cache.
+     *
+     * @param result the CompoundResult
+     * @param oneShot whether the result was resolved in one-shot mode
+     */
+    public void put(final CompoundResult result, final boolean oneShot) {
+        Object value = compact ? CompoundResultCodec.encode(result) : result;
+        synchronized (entries) {
+            entries.put(key(result.getChebiId(), oneShot), value);
+        }
+    }
+
+    /**
+     * Add the result of a compound resolved with the given options to the
+     * cache, unless the cache was invalidated since the resolution started.
+     *
+     * @param result the CompoundResult
+     * @param oneShot whether the result was resolved in one-shot mode
+     * @param since the generation read before resolving the compound, see
+     * getGeneration()
+     * @return true if the result was added
+     */
+    public boolean put(final CompoundResult result, final boolean oneShot,
+            final long since) {
+        Object value = compact ? CompoundResultCodec.encode(result) : result;
+        synchronized (entries) {
+            if (generation != since) {
+                return false;
+            }
+            entries.put(key(result.getChebiId(), oneShot), value);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of invalidations so far, to read before resolving
+     * a compound to put in the cache.
+     *
+     * @return the generation of the cache
+     */
+    public long getGeneration() {
+        synchronized (entries) {
+            return generation;
+        }
+    }
+
+    /**
+     * Returns the key of the result of a compound.
+     *
+     * @param chebi_id the chebi identifier of the compound
+     * @param oneShot whether the result was resolved in one-shot mode
+     * @return the key of the entry
+     */
+    private static String key(final String chebi_id, final boolean oneShot) {
+        return oneShot ? chebi_id + ONE_SHOT_SUFFIX : chebi_id;
+    }
+
+    /**
+     * Remove the given compounds from the cache, whatever the options they
+     * were resolved with.
+     *
+     * @param chebi_ids the chebi identifiers of the compounds
+     */
+    public void invalidate(final Collection<String> chebi_ids) {
+        synchronized (entries) {
+            generation++;
+            for (String chebi_id : chebi_ids) {
+                entries.remove(key(chebi_id, false));
+                entries.remove(key(chebi_id, true));
+            }
+        }
+    }
+
+    /**
+     * Remove from the cache every compound depending on one of the given
+     * identifiers (chebi, reaction, protein or gene name).
+     *
+     * @param ids the identifiers which changed
+     * @return the chebi identifiers of the compounds removed
+     */
+    public Set<String> invalidateReferencing(final Set<String> ids) {
+        TreeSet<String> removed = new TreeSet<String>();
+        synchronized (entries) {
+            generation++;
+            Iterator<Object> it = entries.values().iterator();
+            while (it.hasNext()) {
+                CompoundResult result = toResult(it.next());
+                for (String id : result.getIdentifiers()) {
+                    if (ids.contains(id)) {
+                        removed.add(result.getChebiId());
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the result stored in the cache.
+     *
+     * @param value a CompoundResult or its encoded form
+     * @return the CompoundResult, null if the value is null
+     */
+    private static CompoundResult toResult(final Object value) {
+        if (value instanceof byte[]) {
+            return CompoundResultCodec.decode(ByteBuffer.wrap((byte[]) value));
+        }
+        return (CompoundResult) value;
+    }
+
+    /**
+     * Remove all the entries of the cache.
+     */
+    public void clear() {
+        synchronized (entries) {
+            generation++;
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the number of compounds in the cache.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of lookups which found their entry.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups which did not find their entry.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+}
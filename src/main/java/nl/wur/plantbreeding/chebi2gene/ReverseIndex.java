@@ -0,0 +1,300 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory inverted index of the chebi to rhea to uniprot to ITAG gene
+ * mapping, answering which reactions and compounds a protein or a gene is
+ * linked to without querying the endpoint.
+ *
+ * The index is built from a BulkExporter file, which holds the whole mapping,
+ * or from resolved compounds. Each key (uniprot identifier or gene name) is
+ * found by binary search in a sorted array and its (reaction, compound)
+ * pairs are stored contiguously in primitive arrays. The lookups return the
+ * same dictionaries as QueryRdf.getChebiOfProteins() and getChebiOfGenes().
+ *
+ * The index is immutable and may be shared between threads.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public final class ReverseIndex {
+
+    /**
+     * The (reaction, compound) pairs of a set of keys.
+     */
+    private static final class Table {
+
+        /**
+         * The keys, sorted.
+         */
+        private final String[] keys;
+        /**
+         * Offsets of the pairs of each key: the pairs of key i are at
+         * offsets[i] to offsets[i + 1] - 1.
+         */
+        private final int[] offsets;
+        /**
+         * The reactions of the pairs, as indexes in the reactions array.
+         */
+        private final int[] reactions;
+        /**
+         * The compounds of the pairs, as indexes in the chebiIds array.
+         */
+        private final int[] compounds;
+
+        /**
+         * Build the table.
+         *
+         * @param pairs the pairs, by key, each pair being a reaction index
+         * in the high 32 bits and a compound index in the low ones
+         */
+        Table(final TreeMap<String, LinkedHashSet<Long>> pairs) {
+            this.keys = pairs.keySet().toArray(new String[pairs.size()]);
+            this.offsets = new int[keys.length + 1];
+            int cnt = 0;
+            for (LinkedHashSet<Long> set : pairs.values()) {
+                offsets[cnt + 1] = offsets[cnt] + set.size();
+                cnt++;
+            }
+            this.reactions = new int[offsets[keys.length]];
+            this.compounds = new int[offsets[keys.length]];
+            int pos = 0;
+            for (LinkedHashSet<Long> set : pairs.values()) {
+                for (long pair : set) {
+                    reactions[pos] = (int) (pair >>> 32);
+                    compounds[pos] = (int) pair;
+                    pos++;
+                }
+            }
+        }
+    }
+
+    /**
+     * The reaction identifiers.
+     */
+    private final String[] reactionIds;
+    /**
+     * The chebi identifiers.
+     */
+    private final String[] chebiIds;
+    /**
+     * The pairs of the uniprot identifiers.
+     */
+    private final Table proteins;
+    /**
+     * The pairs of the gene names.
+     */
+    private final Table genes;
+
+    /**
+     * Build the index of the given compounds.
+     *
+     * @param results the resolved compounds
+     */
+    public ReverseIndex(final Collection<CompoundResult> results) {
+        this(rowsOf(results));
+    }
+
+    /**
+     * Build the index from rows of chebi identifier, reaction identifier,
+     * uniprot identifier and gene name (possibly null).
+     *
+     * @param rows the rows
+     */
+    private ReverseIndex(final List<String[]> rows) {
+        LinkedHashMap<String, Integer> reactIdx =
+                new LinkedHashMap<String, Integer>();
+        LinkedHashMap<String, Integer> chebiIdx =
+                new LinkedHashMap<String, Integer>();
+        TreeMap<String, LinkedHashSet<Long>> byProtein =
+                new TreeMap<String, LinkedHashSet<Long>>();
+        TreeMap<String, LinkedHashSet<Long>> byGene =
+                new TreeMap<String, LinkedHashSet<Long>>();
+        for (String[] row : rows) {
+            if (row[0] == null || row[1] == null || row[2] == null) {
+                continue;
+            }
+            long pair = ((long) index(reactIdx, row[1]) << 32)
+                    | index(chebiIdx, row[0]);
+            add(byProtein, row[2], pair);
+            if (row[3] != null) {
+                add(byGene, row[3], pair);
+            }
+        }
+        this.reactionIds = reactIdx.keySet().toArray(
+                new String[reactIdx.size()]);
+        this.chebiIds = chebiIdx.keySet().toArray(
+                new String[chebiIdx.size()]);
+        this.proteins = new Table(byProtein);
+        this.genes = new Table(byGene);
+    }
+
+    /**
+     * Load the index from a file written by the BulkExporter.
+     *
+     * @param export the exported file
+     * @return the index
+     * @throws IOException if the file cannot be read
+     */
+    public static ReverseIndex load(final File export) throws IOException {
+        ColumnarReader reader = new ColumnarReader(export);
+        List<String> columns = Arrays.asList(reader.getColumns());
+        int[] cols = {columns.indexOf("chebi_id"),
+            columns.indexOf("reaction_id"), columns.indexOf("uniprot_id"),
+            columns.indexOf("gene")};
+        for (int col : cols) {
+            if (col < 0) {
+                throw new IOException(export + " is not a BulkExporter file");
+            }
+        }
+        ArrayList<String[]> rows = new ArrayList<String[]>();
+        String[][] group = reader.nextGroup();
+        while (group != null) {
+            for (int row = 0; row < group[0].length; row++) {
+                String[] values = new String[cols.length];
+                for (int cnt = 0; cnt < cols.length; cnt++) {
+                    values[cnt] = group[cols[cnt]][row];
+                }
+                rows.add(values);
+            }
+            group = reader.nextGroup();
+        }
+        return new ReverseIndex(rows);
+    }
+
+    /**
+     * Returns the rows of chebi identifier, reaction identifier, uniprot
+     * identifier and gene name of the given compounds.
+     *
+     * @param results the resolved compounds
+     * @return the rows
+     */
+    private static List<String[]> rowsOf(
+            final Collection<CompoundResult> results) {
+        ArrayList<String[]> rows = new ArrayList<String[]>();
+        for (CompoundResult result : results) {
+            ArrayList<String[]> tmp = new ArrayList<String[]>();
+            BulkExporter.addRows(tmp, result.getChebiId(),
+                    result.getProteins(), result.getGenes());
+            for (String[] row : tmp) {
+                rows.add(new String[]{row[0], row[1], row[2], row[3]});
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the index of a string in a dictionary, adding it if needed.
+     *
+     * @param dict the dictionary
+     * @param value the string
+     * @return its index
+     */
+    private static int index(final LinkedHashMap<String, Integer> dict,
+            final String value) {
+        Integer idx = dict.get(value);
+        if (idx == null) {
+            idx = dict.size();
+            dict.put(value, idx);
+        }
+        return idx;
+    }
+
+    /**
+     * Add a pair to the set of a key.
+     *
+     * @param map the sets, by key
+     * @param key the key
+     * @param pair the pair
+     */
+    private static void add(final Map<String, LinkedHashSet<Long>> map,
+            final String key, final long pair) {
+        LinkedHashSet<Long> set = map.get(key);
+        if (set == null) {
+            set = new LinkedHashSet<Long>();
+            map.put(key, set);
+        }
+        set.add(pair);
+    }
+
+    /**
+     * Look up keys in a table.
+     *
+     * @param table the table
+     * @param keys the keys
+     * @return the reactions and compounds, by key
+     */
+    private HashMap<String, HashMap<String, ArrayList<String>>> lookup(
+            final Table table, final Collection<String> keys) {
+        HashMap<String, HashMap<String, ArrayList<String>>> output =
+                new HashMap<String, HashMap<String, ArrayList<String>>>();
+        for (String key : keys) {
+            int idx = Arrays.binarySearch(table.keys, key);
+            if (idx < 0 || output.containsKey(key)) {
+                continue;
+            }
+            HashMap<String, ArrayList<String>> reactions =
+                    new HashMap<String, ArrayList<String>>();
+            for (int cnt = table.offsets[idx]; cnt < table.offsets[idx + 1];
+                    cnt++) {
+                String react_id = reactionIds[table.reactions[cnt]];
+                ArrayList<String> tmp = reactions.get(react_id);
+                if (tmp == null) {
+                    tmp = new ArrayList<String>();
+                    reactions.put(react_id, tmp);
+                }
+                tmp.add(chebiIds[table.compounds[cnt]]);
+            }
+            output.put(key, reactions);
+        }
+        return output;
+    }
+
+    /**
+     * Returns the reactions and compounds associated with proteins.
+     *
+     * @param prot_ids uniprot identifiers of proteins.
+     * @return the same dictionary as QueryRdf.getChebiOfProteins()
+     */
+    public HashMap<String, HashMap<String, ArrayList<String>>>
+            getChebiOfProteins(final Collection<String> prot_ids) {
+        return lookup(proteins, prot_ids);
+    }
+
+    /**
+     * Returns the reactions and compounds associated with ITAG genes.
+     *
+     * @param names names of ITAG genes (ie: Solyc10g079480.1.1).
+     * @return the same dictionary as QueryRdf.getChebiOfGenes()
+     */
+    public HashMap<String, HashMap<String, ArrayList<String>>>
+            getChebiOfGenes(final Collection<String> names) {
+        return lookup(genes, names);
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compact membership filter (a Bloom filter) of the chebi compounds taking
+ * part in a rhea reaction. A compound which is not in the filter has no
+ * reaction, hence no protein, gene, organism or pathway, and can be answered
+ * without querying the endpoint; a compound in the filter may still have no
+ * reaction, with the configured false positive rate.
+ *
+ * The bits are sized, when the filter is built, from the number of compounds
+ * and the false positive rate: m = -n ln(p) / ln(2)^2 bits and
+ * k = m / n ln(2) hash functions, derived from one 64 bits hash of the
+ * identifier by double hashing. A rebuild (see refresh()) replaces the bits
+ * at once, so that the filter may be shared between threads and kept in
+ * sync with new releases of rhea while it is in use. Until it is first
+ * built, the filter contains every compound.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public final class RheaFilter {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = Logger.getLogger(
+            RheaFilter.class.getName());
+    /**
+     * Smallest number of bits of a filter.
+     */
+    private static final int MIN_BITS = 64;
+    /**
+     * Smallest share of the current compounds a refresh must retrieve to
+     * replace the filter; a smaller set is more likely a truncated result
+     * than a new release of rhea.
+     */
+    private static final double MIN_REFRESH_RATIO = 0.5;
+
+    /**
+     * The bits of one build of the filter.
+     */
+    private static final class Bits {
+
+        /**
+         * The bits, 64 per word.
+         */
+        private final long[] words;
+        /**
+         * Number of bits used.
+         */
+        private final long size;
+        /**
+         * Number of hash functions.
+         */
+        private final int hashes;
+        /**
+         * Number of compounds added.
+         */
+        private final int count;
+
+        /**
+         * Constructor.
+         *
+         * @param nbits number of bits
+         * @param nhashes number of hash functions
+         * @param ncompounds number of compounds added
+         */
+        Bits(final long nbits, final int nhashes, final int ncompounds) {
+            this.words = new long[(int) ((nbits + 63) >>> 6)];
+            this.size = nbits;
+            this.hashes = nhashes;
+            this.count = ncompounds;
+        }
+    }
+
+    /**
+     * The false positive rate the filter is sized for.
+     */
+    private final double falsePositiveRate;
+    /**
+     * The current bits, null until the filter is first built.
+     */
+    private volatile Bits bits;
+
+    /**
+     * Constructor of an empty filter, which contains every compound until
+     * it is built with rebuild() or refresh().
+     *
+     * @param fpp the false positive rate, between 0 and 1 exclusive (ie:
+     * 0.01 for 1%)
+     * @throws IllegalArgumentException if the rate is out of range
+     */
+    public RheaFilter(final double fpp) {
+        if (!(fpp > 0 && fpp < 1)) {
+            throw new IllegalArgumentException(
+                    "False positive rate not in ]0, 1[: " + fpp);
+        }
+        this.falsePositiveRate = fpp;
+    }
+
+    /**
+     * Build the filter of the compounds of rhea, retrieved from the
+     * endpoint (or local model) of the given QueryRdf object. If no
+     * compound is retrieved the filter is not built, see refresh().
+     *
+     * @param query the QueryRdf object used to run the query
+     * @param fpp the false positive rate, between 0 and 1 exclusive
+     * @return the filter
+     */
+    public static RheaFilter fromQuery(final QueryRdf query,
+            final double fpp) {
+        RheaFilter filter = new RheaFilter(fpp);
+        filter.refresh(query);
+        return filter;
+    }
+
+    /**
+     * Replace the content of the filter by the given compounds.
+     *
+     * @param chebi_ids the chebi identifiers of the compounds, with or
+     * without the CHEBI: prefix
+     */
+    public void rebuild(final Collection<String> chebi_ids) {
+        int count = chebi_ids.size();
+        double ln2 = Math.log(2);
+        long nbits = Math.max(MIN_BITS, (long) Math.ceil(
+                -Math.max(1, count) * Math.log(falsePositiveRate)
+                / (ln2 * ln2)));
+        int nhashes = Math.max(1, (int) Math.round(
+                (double) nbits / Math.max(1, count) * ln2));
+        Bits next = new Bits(nbits, nhashes, count);
+        for (String chebi_id : chebi_ids) {
+            long hash = hash(chebi_id);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int cnt = 0; cnt < nhashes; cnt++) {
+                long bit = index(h1, h2, cnt, nbits);
+                next.words[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+        bits = next;
+    }
+
+    /**
+     * Rebuild the filter from the compounds of rhea retrieved with the
+     * given QueryRdf object. The filter in use is kept until the new one is
+     * complete. It is also kept, with a warning, when no compound or fewer
+     * than half of its compounds are retrieved, since the filter would then
+     * answer that the missing compounds have no reaction.
+     *
+     * @param query the QueryRdf object used to run the query
+     * @return true if the filter was rebuilt, false if it was kept
+     */
+    public boolean refresh(final QueryRdf query) {
+        long start = System.currentTimeMillis();
+        List<String> chebi_ids = query.getChebiOfRhea();
+        int previous = size();
+        if (chebi_ids.isEmpty()
+                || chebi_ids.size() < previous * MIN_REFRESH_RATIO) {
+            LOG.log(Level.WARNING, "Rhea filter of {0} compounds kept, only "
+                    + "{1} compounds retrieved", new Object[]{previous,
+                        chebi_ids.size()});
+            return false;
+        }
+        rebuild(chebi_ids);
+        Bits current = bits;
+        LOG.log(Level.INFO, "Rhea filter of {0} compounds built in {1} ms "
+                + "({2} bits, {3} hashes)", new Object[]{current.count,
+                    System.currentTimeMillis() - start, current.size,
+                    current.hashes});
+        return true;
+    }
+
+    /**
+     * Refresh the filter periodically, for instance to follow the releases
+     * of rhea. A failed or suspicious refresh is logged and the previous
+     * filter is kept.
+     *
+     * @param query the QueryRdf object used to run the query
+     * @param scheduler the scheduler running the refreshes
+     * @param period the time between two refreshes
+     * @param unit the unit of the period
+     * @return the ScheduledFuture of the refreshes, to cancel them
+     */
+    public ScheduledFuture<?> scheduleRefresh(final QueryRdf query,
+            final ScheduledExecutorService scheduler, final long period,
+            final TimeUnit unit) {
+        return scheduler.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    refresh(query);
+                } catch (RuntimeException ex) {
+                    LOG.log(Level.WARNING, "Cannot refresh the rhea filter",
+                            ex);
+                }
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Whether a compound may take part in a rhea reaction. A false answer is
+     * always right, a true one is wrong with the configured false positive
+     * rate.
+     *
+     * @param chebi_id the chebi identifier, with or without the CHEBI:
+     * prefix
+     * @return false if the compound has no reaction, true if it may have
+     * some or if the filter is not built yet
+     */
+    public boolean mightContain(final String chebi_id) {
+        Bits current = bits;
+        if (current == null) {
+            return true;
+        }
+        long hash = hash(chebi_id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int cnt = 0; cnt < current.hashes; cnt++) {
+            long bit = index(h1, h2, cnt, current.size);
+            if ((current.words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the false positive rate the filter is sized for.
+     *
+     * @return the rate, between 0 and 1
+     */
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * Returns the false positive rate of the current filter, estimated from
+     * the proportion of bits set.
+     *
+     * @return the rate, 1 if the filter is not built yet
+     */
+    public double getExpectedFalsePositiveRate() {
+        Bits current = bits;
+        if (current == null) {
+            return 1;
+        }
+        long set = 0;
+        for (long word : current.words) {
+            set += Long.bitCount(word);
+        }
+        return Math.pow((double) set / current.size, current.hashes);
+    }
+
+    /**
+     * Returns whether the filter has been built.
+     *
+     * @return boolean
+     */
+    public boolean isBuilt() {
+        return bits != null;
+    }
+
+    /**
+     * Returns the number of compounds in the current filter.
+     *
+     * @return the number of compounds, 0 if the filter is not built yet
+     */
+    public int size() {
+        Bits current = bits;
+        return current == null ? 0 : current.count;
+    }
+
+    /**
+     * Returns the number of bits of the current filter.
+     *
+     * @return the number of bits, 0 if the filter is not built yet
+     */
+    public long getBitCount() {
+        Bits current = bits;
+        return current == null ? 0 : current.size;
+    }
+
+    /**
+     * Returns the bit set by the given hash function.
+     *
+     * @param h1 the first half of the hash of the compound
+     * @param h2 the second half of the hash of the compound
+     * @param cnt the index of the hash function
+     * @param nbits the number of bits of the filter
+     * @return the index of the bit
+     */
+    private static long index(final int h1, final int h2, final int cnt,
+            final long nbits) {
+        long combined = (h1 & 0xFFFFFFFFL) + (long) cnt * (h2 | 1);
+        return (combined & Long.MAX_VALUE) % nbits;
+    }
+
+    /**
+     * Returns the 64 bits hash of a chebi identifier: FNV-1a on the
+     * characters after the CHEBI: prefix, followed by the finalizer of
+     * MurmurHash3 to spread the bits.
+     *
+     * @param chebi_id the chebi identifier
+     * @return the hash
+     */
+    static long hash(final String chebi_id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int cnt = chebi_id.indexOf(':') + 1; cnt < chebi_id.length();
+                cnt++) {
+            hash ^= chebi_id.charAt(cnt);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * In-memory network of the rhea reactions, answering which compounds are
+ * within a few reactions of a compound, which enzymes catalyse the
+ * reactions linking them and which is the shortest chain of reactions
+ * between two compounds, without querying the endpoint.
+ *
+ * The network is the bipartite graph of the compounds and the reactions
+ * they take part in, stored in compressed sparse rows in both directions:
+ * the reactions of every compound and the compounds of every reaction are
+ * contiguous slices of int arrays, each entry with the role of the
+ * compound in the reaction (substrate, product or both). The enzymes of
+ * every reaction are stored the same way. The traversals are breadth-first
+ * searches over these arrays, expanding every reaction at most once, so
+ * they run in time linear in the part of the network they reach.
+ *
+ * Compounds taking part in many reactions (water, ATP, NAD+...) link
+ * almost everything to everything; the traversals can be told to reach
+ * them without going through them.
+ *
+ * The network is immutable and may be shared between threads.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public final class RheaNetwork {
+
+    /**
+     * Role of a compound consumed by a reaction, on its left side.
+     */
+    public static final int SUBSTRATE = 1;
+    /**
+     * Role of a compound produced by a reaction, on its right side.
+     */
+    public static final int PRODUCT = 2;
+    /**
+     * The chebi identifiers, sorted.
+     */
+    private final String[] chebiIds;
+    /**
+     * The reaction identifiers, sorted.
+     */
+    private final String[] reactionIds;
+    /**
+     * The uniprot identifiers, sorted.
+     */
+    private final String[] proteinIds;
+    /**
+     * Offsets of the reactions of each compound in the compoundReactions
+     * array.
+     */
+    private final int[] compoundOffsets;
+    /**
+     * The reactions of the compounds.
+     */
+    private final int[] compoundReactions;
+    /**
+     * The role of the compound in each reaction of compoundReactions.
+     */
+    private final byte[] compoundRoles;
+    /**
+     * Offsets of the compounds of each reaction in the reactionCompounds
+     * array.
+     */
+    private final int[] reactionOffsets;
+    /**
+     * The compounds of the reactions.
+     */
+    private final int[] reactionCompounds;
+    /**
+     * The role of each compound of reactionCompounds in its reaction.
+     */
+    private final byte[] reactionRoles;
+    /**
+     * Offsets of the enzymes of each reaction in the enzymes array.
+     */
+    private final int[] enzymeOffsets;
+    /**
+     * The enzymes of the reactions, as indexes in the proteinIds array.
+     */
+    private final int[] enzymes;
+
+    /**
+     * Build the network.
+     *
+     * @param participants the compounds of the reactions, as rows of
+     * reaction identifier, side of the compound (LEFT for a substrate, RIGHT
+     * for a product, anything else for both) and chebi identifier
+     * @param catalysts the enzymes of the reactions, as pairs of reaction
+     * identifier and uniprot identifier; the enzymes of reactions without
+     * compound are ignored
+     */
+    public RheaNetwork(final Collection<String[]> participants,
+            final Collection<String[]> catalysts) {
+        TreeSet<String> compounds = new TreeSet<String>();
+        TreeSet<String> reactions = new TreeSet<String>();
+        for (String[] row : participants) {
+            reactions.add(row[0]);
+            compounds.add(row[2]);
+        }
+        this.chebiIds = compounds.toArray(new String[compounds.size()]);
+        this.reactionIds = reactions.toArray(new String[reactions.size()]);
+
+        // One edge per (compound, reaction) pair, its role in the low bits,
+        // sorted by compound then reaction.
+        long[] edges = new long[participants.size()];
+        int nedges = 0;
+        for (String[] row : participants) {
+            long compound = Arrays.binarySearch(chebiIds, row[2]);
+            long reaction = Arrays.binarySearch(reactionIds, row[0]);
+            int role = "LEFT".equals(row[1]) ? SUBSTRATE
+                    : "RIGHT".equals(row[1]) ? PRODUCT : SUBSTRATE | PRODUCT;
+            edges[nedges++] = compound << 34 | reaction << 2 | role;
+        }
+        Arrays.sort(edges);
+        int size = 0;
+        for (int cnt = 0; cnt < nedges; cnt++) {
+            if (size > 0 && edges[size - 1] >>> 2 == edges[cnt] >>> 2) {
+                edges[size - 1] |= edges[cnt] & 3;
+            } else {
+                edges[size++] = edges[cnt];
+            }
+        }
+
+        this.compoundOffsets = new int[chebiIds.length + 1];
+        this.reactionOffsets = new int[reactionIds.length + 1];
+        this.compoundReactions = new int[size];
+        this.compoundRoles = new byte[size];
+        for (int cnt = 0; cnt < size; cnt++) {
+            compoundOffsets[(int) (edges[cnt] >>> 34) + 1]++;
+            reactionOffsets[(int) (edges[cnt] >>> 2 & 0xffffffffL) + 1]++;
+            compoundReactions[cnt] = (int) (edges[cnt] >>> 2 & 0xffffffffL);
+            compoundRoles[cnt] = (byte) (edges[cnt] & 3);
+        }
+        for (int cnt = 0; cnt < chebiIds.length; cnt++) {
+            compoundOffsets[cnt + 1] += compoundOffsets[cnt];
+        }
+        for (int cnt = 0; cnt < reactionIds.length; cnt++) {
+            reactionOffsets[cnt + 1] += reactionOffsets[cnt];
+        }
+        this.reactionCompounds = new int[size];
+        this.reactionRoles = new byte[size];
+        int[] fill = Arrays.copyOf(reactionOffsets, reactionIds.length);
+        for (int cnt = 0; cnt < size; cnt++) {
+            int pos = fill[compoundReactions[cnt]]++;
+            reactionCompounds[pos] = (int) (edges[cnt] >>> 34);
+            reactionRoles[pos] = compoundRoles[cnt];
+        }
+
+        // Enzymes of the reactions, sorted and without duplicates.
+        TreeSet<String> proteins = new TreeSet<String>();
+        for (String[] pair : catalysts) {
+            if (Arrays.binarySearch(reactionIds, pair[0]) >= 0) {
+                proteins.add(pair[1]);
+            }
+        }
+        this.proteinIds = proteins.toArray(new String[proteins.size()]);
+        long[] links = new long[catalysts.size()];
+        int nlinks = 0;
+        for (String[] pair : catalysts) {
+            long reaction = Arrays.binarySearch(reactionIds, pair[0]);
+            if (reaction >= 0) {
+                links[nlinks++] = reaction << 32
+                        | Arrays.binarySearch(proteinIds, pair[1]);
+            }
+        }
+        Arrays.sort(links, 0, nlinks);
+        this.enzymeOffsets = new int[reactionIds.length + 1];
+        int[] tmp = new int[nlinks];
+        size = 0;
+        for (int cnt = 0; cnt < nlinks; cnt++) {
+            if (cnt == 0 || links[cnt] != links[cnt - 1]) {
+                enzymeOffsets[(int) (links[cnt] >>> 32) + 1]++;
+                tmp[size++] = (int) links[cnt];
+            }
+        }
+        for (int cnt = 0; cnt < reactionIds.length; cnt++) {
+            enzymeOffsets[cnt + 1] += enzymeOffsets[cnt];
+        }
+        this.enzymes = Arrays.copyOf(tmp, size);
+    }
+
+    /**
+     * Retrieve the rhea network from the endpoint (or local model) of the
+     * given QueryRdf object.
+     *
+     * @param query the QueryRdf object used to run the queries
+     * @return the network
+     */
+    public static RheaNetwork fromQuery(final QueryRdf query) {
+        ArrayList<String[]> participants = new ArrayList<String[]>();
+        ArrayList<String[]> catalysts = new ArrayList<String[]>();
+        query.getRheaNetwork(participants, catalysts);
+        return new RheaNetwork(participants, catalysts);
+    }
+
+    /**
+     * Returns the number of compounds in the network.
+     *
+     * @return the number of compounds
+     */
+    public int countCompounds() {
+        return chebiIds.length;
+    }
+
+    /**
+     * Returns the number of reactions in the network.
+     *
+     * @return the number of reactions
+     */
+    public int countReactions() {
+        return reactionIds.length;
+    }
+
+    /**
+     * Returns the reactions a compound takes part in.
+     *
+     * @param chebi_id the chebi identifier of the compound
+     * @return the reaction identifiers, sorted, empty if the compound is not
+     * in the network
+     */
+    public List<String> getReactions(final String chebi_id) {
+        int idx = Arrays.binarySearch(chebiIds, chebi_id);
+        if (idx < 0) {
+            return Collections.emptyList();
+        }
+        ArrayList<String> output = new ArrayList<String>(
+                compoundOffsets[idx + 1] - compoundOffsets[idx]);
+        for (int cnt = compoundOffsets[idx]; cnt < compoundOffsets[idx + 1];
+                cnt++) {
+            output.add(reactionIds[compoundReactions[cnt]]);
+        }
+        return output;
+    }
+
+    /**
+     * Returns the compounds of a reaction with their role.
+     *
+     * @param react_id the rhea identifier of the reaction
+     * @return the roles (SUBSTRATE, PRODUCT or both) by chebi identifier,
+     * empty if the reaction is not in the network
+     */
+    public TreeMap<String, Integer> getCompounds(final String react_id) {
+        TreeMap<String, Integer> output = new TreeMap<String, Integer>();
+        int idx = Arrays.binarySearch(reactionIds, react_id);
+        if (idx >= 0) {
+            for (int cnt = reactionOffsets[idx];
+                    cnt < reactionOffsets[idx + 1]; cnt++) {
+                output.put(chebiIds[reactionCompounds[cnt]],
+                        (int) reactionRoles[cnt]);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns the enzymes of a reaction.
+     *
+     * @param react_id the rhea identifier of the reaction
+     * @return the uniprot identifiers, sorted, empty if the reaction is not
+     * in the network
+     */
+    public List<String> getEnzymes(final String react_id) {
+        int idx = Arrays.binarySearch(reactionIds, react_id);
+        return idx < 0 ? Collections.<String>emptyList() : enzymesOf(idx);
+    }
+
+    /**
+     * Returns the enzymes of a reaction.
+     *
+     * @param reaction the index of the reaction
+     * @return the uniprot identifiers, sorted
+     */
+    private List<String> enzymesOf(final int reaction) {
+        ArrayList<String> output = new ArrayList<String>(
+                enzymeOffsets[reaction + 1] - enzymeOffsets[reaction]);
+        for (int cnt = enzymeOffsets[reaction];
+                cnt < enzymeOffsets[reaction + 1]; cnt++) {
+            output.add(proteinIds[enzymes[cnt]]);
+        }
+        return output;
+    }
+
+    /**
+     * Breadth-first search of the compounds from a compound. A compound
+     * leads to the other compounds of its reactions or, when directed, to
+     * the products of the reactions it is a substrate of.
+     *
+     * @param source the index of the first compound
+     * @param target the index of the compound at which to stop, -1 to visit
+     * every compound within reach
+     * @param hops the maximum number of reactions from the first compound
+     * @param directed whether to follow the reactions from substrates to
+     * products only
+     * @param hubDegree the number of reactions above which a compound is
+     * reached but not gone through, 0 for no limit
+     * @param previous the array in which to store the compound preceding
+     * each compound reached, -1 for the others
+     * @param via the array in which to store the reaction leading to each
+     * compound reached
+     * @param expanded the array in which to mark the reactions gone through,
+     * all of them and not only the ones leading to a new compound
+     * @return the compounds reached, in order of distance, the first
+     * compound included
+     */
+    private int[] search(final int source, final int target, final int hops,
+            final boolean directed, final int hubDegree,
+            final int[] previous, final int[] via, final boolean[] expanded) {
+        Arrays.fill(previous, -1);
+        Arrays.fill(expanded, false);
+        int[] queue = new int[chebiIds.length];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = source;
+        previous[source] = source;
+        int depth = 0;
+        while (head < tail && depth < hops
+                && (target < 0 || previous[target] < 0)) {
+            int end = tail;
+            for (; head < end; head++) {
+                int cur = queue[head];
+                if (cur != source && hubDegree > 0 && compoundOffsets[cur + 1]
+                        - compoundOffsets[cur] > hubDegree) {
+                    continue;
+                }
+                for (int cnt = compoundOffsets[cur];
+                        cnt < compoundOffsets[cur + 1]; cnt++) {
+                    int reaction = compoundReactions[cnt];
+                    if (expanded[reaction] || directed
+                            && (compoundRoles[cnt] & SUBSTRATE) == 0) {
+                        continue;
+                    }
+                    expanded[reaction] = true;
+                    for (int pos = reactionOffsets[reaction];
+                            pos < reactionOffsets[reaction + 1]; pos++) {
+                        int next = reactionCompounds[pos];
+                        if (previous[next] < 0 && (!directed
+                                || (reactionRoles[pos] & PRODUCT) != 0)) {
+                            previous[next] = cur;
+                            via[next] = reaction;
+                            queue[tail++] = next;
+                        }
+                    }
+                }
+            }
+            depth++;
+        }
+        return Arrays.copyOf(queue, tail);
+    }
+
+    /**
+     * Returns the compounds within a number of reactions of a compound.
+     *
+     * @param chebi_id the chebi identifier of the compound
+     * @param hops the maximum number of reactions to go through
+     * @param directed whether to follow the reactions from substrates to
+     * products only
+     * @param hubDegree the number of reactions above which a compound is
+     * reached but not gone through, 0 for no limit
+     * @return the number of reactions to each compound reached, by chebi
+     * identifier, in order of distance; the compound itself is at 0, and
+     * the output is empty if it is not in the network
+     */
+    public LinkedHashMap<String, Integer> getNeighbours(
+            final String chebi_id, final int hops, final boolean directed,
+            final int hubDegree) {
+        LinkedHashMap<String, Integer> output =
+                new LinkedHashMap<String, Integer>();
+        int source = Arrays.binarySearch(chebiIds, chebi_id);
+        if (source < 0) {
+            return output;
+        }
+        int[] previous = new int[chebiIds.length];
+        int[] via = new int[chebiIds.length];
+        int[] dist = new int[chebiIds.length];
+        for (int node : search(source, -1, hops, directed, hubDegree,
+                previous, via, new boolean[reactionIds.length])) {
+            dist[node] = node == source ? 0 : dist[previous[node]] + 1;
+            output.put(chebiIds[node], dist[node]);
+        }
+        return output;
+    }
+
+    /**
+     * Returns the enzymes of the reactions linking a compound to the
+     * compounds within a number of reactions of it, as found by
+     * getNeighbours(): every reaction gone through from a compound at fewer
+     * than hops reactions, including the ones between compounds already
+     * reached (ie: two reactions converting the same substrate into the same
+     * product).
+     *
+     * @param chebi_id the chebi identifier of the compound
+     * @param hops the maximum number of reactions to go through
+     * @param directed whether to follow the reactions from substrates to
+     * products only
+     * @param hubDegree the number of reactions above which a compound is
+     * reached but not gone through, 0 for no limit
+     * @return the enzymes by reaction identifier, reactions without enzyme
+     * included
+     */
+    public TreeMap<String, List<String>> getEnzymesWithin(
+            final String chebi_id, final int hops, final boolean directed,
+            final int hubDegree) {
+        TreeMap<String, List<String>> output =
+                new TreeMap<String, List<String>>();
+        int source = Arrays.binarySearch(chebiIds, chebi_id);
+        if (source < 0) {
+            return output;
+        }
+        boolean[] expanded = new boolean[reactionIds.length];
+        search(source, -1, hops, directed, hubDegree,
+                new int[chebiIds.length], new int[chebiIds.length], expanded);
+        for (int reaction = 0; reaction < expanded.length; reaction++) {
+            if (expanded[reaction]) {
+                output.put(reactionIds[reaction], enzymesOf(reaction));
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns one of the shortest chains of reactions from a compound to
+     * another.
+     *
+     * @param from the chebi identifier of the first compound
+     * @param to the chebi identifier of the last compound
+     * @param directed whether to follow the reactions from substrates to
+     * products only
+     * @param hubDegree the number of reactions above which a compound is
+     * reached but not gone through, 0 for no limit
+     * @return the chebi identifiers of the compounds alternating with the
+     * rhea identifiers of the reactions linking them, starting and ending
+     * with a compound, or an empty list if there is no such chain
+     */
+    public List<String> getShortestPath(final String from, final String to,
+            final boolean directed, final int hubDegree) {
+        int source = Arrays.binarySearch(chebiIds, from);
+        int target = Arrays.binarySearch(chebiIds, to);
+        if (source < 0 || target < 0) {
+            return Collections.emptyList();
+        }
+        int[] previous = new int[chebiIds.length];
+        int[] via = new int[chebiIds.length];
+        search(source, target, Integer.MAX_VALUE, directed, hubDegree,
+                previous, via, new boolean[reactionIds.length]);
+        if (previous[target] < 0) {
+            return Collections.emptyList();
+        }
+        ArrayList<String> output = new ArrayList<String>();
+        int node = target;
+        while (node != source) {
+            output.add(chebiIds[node]);
+            output.add(reactionIds[via[node]]);
+            node = previous[node];
+        }
+        output.add(chebiIds[source]);
+        Collections.reverse(output);
+        return output;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.IOException;
+
+/**
+ * Receives the rows of a query one at a time, as they are read.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public interface RowHandler {
+
+    /**
+     * Handle one row.
+     *
+     * @param values the values of the row, one per key of the query, null
+     * for the keys not bound
+     * @throws IOException if the row cannot be handled
+     */
+    void row(String[] values) throws IOException;
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Groups rows by their first value within a memory budget. The rows are
+ * encoded as lines and sorted with an ExternalSort, which spills them to
+ * sorted runs on disk once the budget is used, then read back in order, one
+ * group at a time.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+final class RowSpool implements RowHandler {
+
+    /**
+     * The sorter of the encoded rows.
+     */
+    private final ExternalSort sorter;
+
+    /**
+     * Constructor.
+     *
+     * @param budget the memory budget, in bytes
+     * @param directory the directory of the runs, null for the default one
+     */
+    RowSpool(final long budget, final File directory) {
+        this.sorter = new ExternalSort(budget, directory, true);
+    }
+
+    @Override
+    public void row(final String[] values) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int cnt = 0; cnt < values.length; cnt++) {
+            if (cnt > 0) {
+                sb.append('\t');
+            }
+            encode(sb, values[cnt]);
+        }
+        sorter.add(sb.toString());
+    }
+
+    /**
+     * Returns the number of runs spilled to disk so far.
+     *
+     * @return the number of runs
+     */
+    int getRunCount() {
+        return sorter.getRunCount();
+    }
+
+    /**
+     * Delete the rows spilled to disk, when they are not to be read back
+     * (ie: the query producing them failed).
+     */
+    void discard() {
+        sorter.discard();
+    }
+
+    /**
+     * Hand all the rows to the given handler, grouped by their first value.
+     * No row can be added afterward.
+     *
+     * @param handler the handler
+     * @throws IOException if the runs cannot be read
+     */
+    void forEachGroup(final GroupHandler handler) throws IOException {
+        ExternalSort.Lines lines = sorter.sorted();
+        try {
+            String key = null;
+            ArrayList<String[]> group = new ArrayList<String[]>();
+            String line = lines.next();
+            while (line != null) {
+                String[] row = decode(line);
+                if (key != null && !key.equals(row[0])) {
+                    handler.group(key, group);
+                    group = new ArrayList<String[]>();
+                }
+                key = row[0];
+                String[] rest = new String[row.length - 1];
+                System.arraycopy(row, 1, rest, 0, rest.length);
+                group.add(rest);
+                line = lines.next();
+            }
+            if (key != null) {
+                handler.group(key, group);
+            }
+        } finally {
+            lines.close();
+        }
+    }
+
+    /**
+     * Append a value, escaping the characters used by the encoding.
+     *
+     * @param sb the StringBuilder to append to
+     * @param value the value, may be null
+     */
+    private static void encode(final StringBuilder sb, final String value) {
+        if (value == null) {
+            sb.append("\\N");
+            return;
+        }
+        for (int cnt = 0; cnt < value.length(); cnt++) {
+            char c = value.charAt(cnt);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * Decode a row encoded by row().
+     *
+     * @param line the encoded row
+     * @return the values
+     */
+    private static String[] decode(final String line) {
+        ArrayList<String> values = new ArrayList<String>();
+        StringBuilder sb = new StringBuilder();
+        boolean isNull = false;
+        for (int cnt = 0; cnt <= line.length(); cnt++) {
+            char c = cnt < line.length() ? line.charAt(cnt) : '\t';
+            if (c == '\t') {
+                values.add(isNull ? null : sb.toString());
+                sb.setLength(0);
+                isNull = false;
+            } else if (c == '\\' && cnt + 1 < line.length()) {
+                char e = line.charAt(++cnt);
+                if (e == 'N') {
+                    isNull = true;
+                } else if (e == 't') {
+                    sb.append('\t');
+                } else if (e == 'n') {
+                    sb.append('\n');
+                } else if (e == 'r') {
+                    sb.append('\r');
+                } else {
+                    sb.append(e);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return values.toArray(new String[values.size()]);
+    }
+}
@@ -18,11 +18,13 @@ package nl.wur.plantbreeding.chebi2gene;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * This class handles the search of a compound within the chebi database. There
  * are two ways to search, either in the names only or an extended search taking
- * also synonyms into account.
+ * also synonyms into account. Compounds can also be searched by structure,
+ * using a StructureIndex.
  *
  * @author Pierre-Yves Chibon -- py@chibon.fr
  */
@@ -42,8 +44,24 @@ public class SearchChebi {
      */
     public static HashMap<String, HashMap<
             String, ArrayList<String>>> SearchChebiSimple(String compound_name) {
-        QueryRdf query = new QueryRdf();
-        return query.getExactChebiFromSearch(compound_name);
+        return SearchChebiSimple(QueryRdf.getDefault(), compound_name);
+    }
+
+    /**
+     * Search the chebi database for molecule having the given string in their
+     * name, using the given QueryRdf object.
+     *
+     * @param query the QueryRdf object used to run the query.
+     * @param compound_name a string, name of the molecule to search in chebi.
+     * @return a dictionary containing all the molecule found, see
+     * SearchChebiSimple(String).
+     */
+    public static HashMap<String, HashMap<String, ArrayList<String>>>
+            SearchChebiSimple(QueryRdf query, String compound_name) {
+        HashMap<String, HashMap<String, ArrayList<String>>> output =
+                query.getExactChebiFromSearch(compound_name);
+        StartupTimer.answered();
+        return output;
     }
 
     /**
@@ -60,7 +78,100 @@ public class SearchChebi {
      */
     public static HashMap<String, HashMap<
             String, ArrayList<String>>> SearchChebiExtended(String compound_name) {
-        QueryRdf query = new QueryRdf();
-        return query.getExtendedChebiFromSearch(compound_name);
+        return SearchChebiExtended(QueryRdf.getDefault(), compound_name);
+    }
+
+    /**
+     * Search the chebi database for molecule having the given string in their
+     * name or in their synonyms, using the given QueryRdf object.
+     *
+     * @param query the QueryRdf object used to run the query.
+     * @param compound_name a string, name of the molecule to search in chebi.
+     * @return a dictionary containing all the molecule found, see
+     * SearchChebiExtended(String).
+     */
+    public static HashMap<String, HashMap<String, ArrayList<String>>>
+            SearchChebiExtended(QueryRdf query, String compound_name) {
+        HashMap<String, HashMap<String, ArrayList<String>>> output =
+                query.getExtendedChebiFromSearch(compound_name);
+        StartupTimer.answered();
+        return output;
+    }
+
+    /**
+     * Default tolerance of a mass search, in parts per million.
+     */
+    public static final double MASS_PPM = 10;
+    /**
+     * Default similarity threshold of a SMILES search.
+     */
+    public static final double SIMILARITY = 0.7;
+    /**
+     * Maximum number of compounds returned by a SMILES search.
+     */
+    public static final int SIMILAR_LIMIT = 100;
+
+    /**
+     * Search the chebi database for molecules matching a structure. The
+     * structure may be prefixed by its kind: "inchikey:", "inchi:",
+     * "formula:", "mass:" (a monoisotopic mass, matched within MASS_PPM) or
+     * "smiles:" (matched by similarity, the most similar compounds first).
+     * Without prefix, the kind is guessed: InChIKey, InChI, mass, and SMILES
+     * otherwise.
+     *
+     * @param index the index of the structures of chebi.
+     * @param structure the structure to search.
+     * @return the chebi identifiers of the molecules found, as expected by
+     * Chebi2gene.
+     * @throws IllegalArgumentException if the structure cannot be parsed
+     */
+    public static List<String> SearchChebiStructure(StructureIndex index,
+            String structure) {
+        String value = structure.trim();
+        String kind = null;
+        int colon = value.indexOf(':');
+        if (colon > 0) {
+            String prefix = value.substring(0, colon).toLowerCase();
+            if (prefix.equals("inchikey") || prefix.equals("inchi")
+                    || prefix.equals("formula") || prefix.equals("mass")
+                    || prefix.equals("smiles")) {
+                kind = prefix;
+                value = value.substring(colon + 1).trim();
+            }
+        }
+        if (kind == null) {
+            if (value.matches("(InChIKey=)?[A-Z]{14}(-[A-Z]{10}-[A-Z])?")) {
+                kind = "inchikey";
+            } else if (value.startsWith("InChI=")) {
+                kind = "inchi";
+            } else if (value.matches("[0-9]+(\\.[0-9]+)?")) {
+                kind = "mass";
+            } else {
+                kind = "smiles";
+            }
+        }
+        List<String> output;
+        if (kind.equals("inchikey")) {
+            output = index.findByInChIKey(value);
+        } else if (kind.equals("inchi")) {
+            output = index.findByInChI(value);
+        } else if (kind.equals("formula")) {
+            output = index.findByFormula(value);
+        } else if (kind.equals("mass")) {
+            try {
+                output = index.findByMass(Double.parseDouble(value),
+                        MASS_PPM);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid mass: " + value);
+            }
+        } else {
+            output = new ArrayList<String>();
+            for (StructureIndex.Hit hit : index.findSimilar(value,
+                    SIMILARITY, SIMILAR_LIMIT)) {
+                output.add(hit.getChebiId());
+            }
+        }
+        StartupTimer.answered();
+        return output;
     }
 }
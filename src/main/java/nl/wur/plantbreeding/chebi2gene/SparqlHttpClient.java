@@ -0,0 +1,274 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import com.hp.hpl.jena.sparql.engine.http.QueryExceptionHTTP;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Sends sparql SELECT queries to an endpoint over HTTP and decodes the
+ * results with the SparqlResultReader, in the format the endpoint answers
+ * with: TSV, JSON or, failing these, XML.
+ *
+ * Short queries are sent with GET, long ones (ie: with a long IN list) are
+ * posted as a form. The client holds no connection itself, HttpURLConnection
+ * keeps the connections to the endpoint alive between queries.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+final class SparqlHttpClient {
+
+    /**
+     * The TSV format of the results.
+     */
+    static final String TSV = "tsv";
+    /**
+     * The JSON format of the results.
+     */
+    static final String JSON = "json";
+    /**
+     * The XML format of the results.
+     */
+    static final String XML = "xml";
+    /**
+     * Media type of the TSV results.
+     */
+    private static final String TSV_TYPE = "text/tab-separated-values";
+    /**
+     * Media type of the JSON results.
+     */
+    private static final String JSON_TYPE = "application/sparql-results+json";
+    /**
+     * Media type of the XML results.
+     */
+    private static final String XML_TYPE = "application/sparql-results+xml";
+    /**
+     * Parameter of the request giving the endpoint the time, in
+     * milliseconds, the query may run (as understood by virtuoso).
+     */
+    static final String TIMEOUT_PARAM = "timeout";
+    /**
+     * The thread closing the connections of the queries running past their
+     * timeout.
+     */
+    private static final ScheduledExecutorService WATCHDOG =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable task) {
+                    Thread thread = new Thread(task, "sparql-watchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    /**
+     * Longest encoded query sent with GET.
+     */
+    private static final int MAX_GET_LENGTH = 2000;
+    /**
+     * The url of the endpoint.
+     */
+    private final String endpoint;
+    /**
+     * The Accept header of the queries.
+     */
+    private final String accept;
+    /**
+     * Timeout of the query, in milliseconds, 0 for none.
+     */
+    private final int timeout;
+
+    /**
+     * Constructor.
+     *
+     * @param url the url of the endpoint
+     * @param format the preferred format of the results: TSV, JSON or XML
+     * @param millis timeout of the query, 0 for none: the endpoint is asked
+     * to stop the query after this time and the connection is closed if the
+     * results are not all read by then
+     */
+    SparqlHttpClient(final String url, final String format,
+            final long millis) {
+        this.endpoint = url;
+        this.accept = acceptHeader(format);
+        this.timeout = (int) Math.min(Integer.MAX_VALUE, millis);
+    }
+
+    /**
+     * Returns the Accept header asking for the given format first.
+     *
+     * @param format the preferred format: TSV, JSON or XML
+     * @return the header
+     */
+    static String acceptHeader(final String format) {
+        if (TSV.equals(format)) {
+            return TSV_TYPE + ", " + JSON_TYPE + ";q=0.9, " + XML_TYPE
+                    + ";q=0.5";
+        } else if (JSON.equals(format)) {
+            return JSON_TYPE + ", " + TSV_TYPE + ";q=0.9, " + XML_TYPE
+                    + ";q=0.5";
+        } else if (XML.equals(format)) {
+            return XML_TYPE;
+        }
+        throw new IllegalArgumentException("Unknown result format: "
+                + format + ", expected tsv, json or xml");
+    }
+
+    /**
+     * Runs a SELECT query and hands its rows to the handler.
+     *
+     * @param querystring the sparql query
+     * @param keys the variables to retrieve
+     * @param handler the handler receiving the rows, one value per key
+     * @return the number of rows
+     * @throws IOException if the handler fails
+     * @throws QueryExceptionHTTP if the endpoint cannot be queried
+     */
+    long select(final String querystring, final String[] keys,
+            final RowHandler handler) throws IOException {
+        String form = "query=" + URLEncoder.encode(querystring, "UTF-8");
+        if (timeout > 0) {
+            form += "&" + TIMEOUT_PARAM + "=" + timeout;
+        }
+        boolean post = form.length() > MAX_GET_LENGTH;
+        HttpURLConnection conn;
+        ScheduledFuture<?> watch = null;
+        try {
+            conn = open(post ? new URL(endpoint) : new URL(endpoint
+                    + (endpoint.indexOf('?') < 0 ? "?" : "&") + form));
+            if (timeout > 0) {
+                watch = WATCHDOG.schedule(disconnect(conn), timeout,
+                        TimeUnit.MILLISECONDS);
+            }
+            if (post) {
+                conn.setDoOutput(true);
+                conn.setRequestMethod("POST");
+                conn.setRequestProperty("Content-Type",
+                        "application/x-www-form-urlencoded");
+                OutputStream out = conn.getOutputStream();
+                try {
+                    out.write(form.getBytes("UTF-8"));
+                } finally {
+                    out.close();
+                }
+            }
+            int code = conn.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                String message = conn.getResponseMessage();
+                InputStream err = conn.getErrorStream();
+                if (err != null) {
+                    err.close();
+                }
+                throw new QueryExceptionHTTP(code, message);
+            }
+        } catch (IOException ex) {
+            cancel(watch);
+            throw new QueryExceptionHTTP(ex);
+        } catch (RuntimeException ex) {
+            cancel(watch);
+            throw ex;
+        }
+        InputStream in = null;
+        try {
+            in = conn.getInputStream();
+            if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+                in = new GZIPInputStream(in, 1 << 16);
+            }
+            String type = conn.getContentType() == null ? ""
+                    : conn.getContentType().toLowerCase();
+            if (type.startsWith(TSV_TYPE)) {
+                return SparqlResultReader.readTsv(reader(in), keys, handler);
+            } else if (type.startsWith(JSON_TYPE)
+                    || type.startsWith("application/json")) {
+                return SparqlResultReader.readJson(reader(in), keys, handler);
+            }
+            return SparqlResultReader.readXml(in, keys, handler);
+        } finally {
+            cancel(watch);
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the task closing a connection.
+     *
+     * @param conn the connection
+     * @return the task
+     */
+    private static Runnable disconnect(final HttpURLConnection conn) {
+        return new Runnable() {
+
+            @Override
+            public void run() {
+                conn.disconnect();
+            }
+        };
+    }
+
+    /**
+     * Cancel the closing of a connection.
+     *
+     * @param watch the scheduled closing, may be null
+     */
+    private static void cancel(final ScheduledFuture<?> watch) {
+        if (watch != null) {
+            watch.cancel(false);
+        }
+    }
+
+    /**
+     * Open a connection to the endpoint.
+     *
+     * @param url the url
+     * @return the connection, not yet connected
+     * @throws IOException if the connection cannot be opened
+     */
+    private HttpURLConnection open(final URL url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestProperty("Accept", accept);
+        conn.setRequestProperty("Accept-Encoding", "gzip");
+        conn.setConnectTimeout(timeout);
+        conn.setReadTimeout(timeout);
+        return conn;
+    }
+
+    /**
+     * Returns a reader of UTF-8 text.
+     *
+     * @param in the bytes
+     * @return the Reader
+     * @throws IOException if UTF-8 is not supported
+     */
+    private static Reader reader(final InputStream in) throws IOException {
+        return new InputStreamReader(in, "UTF-8");
+    }
+}
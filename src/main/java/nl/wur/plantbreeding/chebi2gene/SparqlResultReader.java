@@ -0,0 +1,551 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.ResultSetFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.HashMap;
+
+/**
+ * Streaming decoders of the results of a sparql SELECT query, in the TSV or
+ * in the JSON format of SPARQL 1.1, handing every row to a RowHandler as
+ * soon as it is read.
+ *
+ * Unlike Jena, which builds a binding and an RDFNode per value, the decoders
+ * write every value straight into the column of its variable, in the same
+ * form as RDFNode.toString(): the IRI of a resource, the label of a blank
+ * node and lexical form[@lang][^^datatype] of a literal. Variables which are
+ * not asked for are skipped, unbound ones are null.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+final class SparqlResultReader {
+
+    /**
+     * Namespace of the XML schema datatypes.
+     */
+    private static final String XSD = "http://www.w3.org/2001/XMLSchema#";
+
+    /**
+     * Utility class.
+     */
+    private SparqlResultReader() {
+    }
+
+    /**
+     * Returns the column of every variable.
+     *
+     * @param keys the variables asked for
+     * @return the columns, by variable name
+     */
+    private static HashMap<String, Integer> columns(final String[] keys) {
+        HashMap<String, Integer> output = new HashMap<String, Integer>();
+        for (int cnt = 0; cnt < keys.length; cnt++) {
+            output.put(keys[cnt], cnt);
+        }
+        return output;
+    }
+
+    /**
+     * Decode results in the SPARQL 1.1 TSV format.
+     *
+     * @param in the results
+     * @param keys the variables to retrieve
+     * @param handler the handler receiving the rows, one value per key
+     * @return the number of rows
+     * @throws IOException if the results cannot be read or the handler
+     * fails
+     */
+    static long readTsv(final Reader in, final String[] keys,
+            final RowHandler handler) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader
+                ? (BufferedReader) in : new BufferedReader(in, 1 << 16);
+        String line = reader.readLine();
+        if (line == null) {
+            return 0;
+        }
+        HashMap<String, Integer> columns = columns(keys);
+        String[] vars = line.split("\t", -1);
+        int[] target = new int[vars.length];
+        for (int cnt = 0; cnt < vars.length; cnt++) {
+            String var = vars[cnt].trim();
+            if (var.startsWith("?") || var.startsWith("$")) {
+                var = var.substring(1);
+            }
+            Integer col = columns.get(var);
+            target[cnt] = col == null ? -1 : col;
+        }
+        long rows = 0;
+        line = reader.readLine();
+        while (line != null) {
+            String[] row = new String[keys.length];
+            int start = 0;
+            for (int cnt = 0; cnt < target.length && start <= line.length();
+                    cnt++) {
+                int end = line.indexOf('\t', start);
+                if (end < 0) {
+                    end = line.length();
+                }
+                if (target[cnt] >= 0 && end > start) {
+                    row[target[cnt]] = decodeTerm(line, start, end);
+                }
+                start = end + 1;
+            }
+            handler.row(row);
+            rows++;
+            line = reader.readLine();
+        }
+        return rows;
+    }
+
+    /**
+     * Decode an RDF term written as in Turtle, as in the TSV format.
+     *
+     * @param line the line holding the term
+     * @param start the start of the term
+     * @param end the end of the term, exclusive
+     * @return the term, as RDFNode.toString() would write it
+     */
+    static String decodeTerm(final String line, final int start,
+            final int end) {
+        char first = line.charAt(start);
+        if (first == '<') {
+            return line.substring(start + 1, end - 1);
+        }
+        if (first == '_' && start + 1 < end && line.charAt(start + 1) == ':') {
+            return line.substring(start + 2, end);
+        }
+        if (first == '"' || first == '\'') {
+            StringBuilder sb = new StringBuilder(end - start);
+            int cnt = start + 1;
+            while (cnt < end && line.charAt(cnt) != first) {
+                char c = line.charAt(cnt++);
+                if (c == '\\' && cnt < end) {
+                    c = line.charAt(cnt++);
+                    switch (c) {
+                        case 't':
+                            sb.append('\t');
+                            break;
+                        case 'n':
+                            sb.append('\n');
+                            break;
+                        case 'r':
+                            sb.append('\r');
+                            break;
+                        case 'b':
+                            sb.append('\b');
+                            break;
+                        case 'f':
+                            sb.append('\f');
+                            break;
+                        case 'u':
+                            sb.append((char) Integer.parseInt(
+                                    line.substring(cnt, cnt + 4), 16));
+                            cnt += 4;
+                            break;
+                        case 'U':
+                            sb.appendCodePoint(Integer.parseInt(
+                                    line.substring(cnt, cnt + 8), 16));
+                            cnt += 8;
+                            break;
+                        default:
+                            sb.append(c);
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+            cnt++;
+            if (cnt < end && line.charAt(cnt) == '@') {
+                sb.append(line, cnt, end);
+            } else if (cnt + 2 < end && line.charAt(cnt) == '^') {
+                cnt += 2;
+                sb.append("^^");
+                if (line.charAt(cnt) == '<') {
+                    sb.append(line, cnt + 1, end - 1);
+                } else if (line.startsWith("xsd:", cnt)) {
+                    sb.append(XSD).append(line, cnt + 4, end);
+                } else {
+                    sb.append(line, cnt, end);
+                }
+            }
+            return sb.toString();
+        }
+        String value = line.substring(start, end);
+        if (value.equals("true") || value.equals("false")) {
+            return value + "^^" + XSD + "boolean";
+        }
+        if (first == '+' || first == '-' || first == '.'
+                || Character.isDigit(first)) {
+            if (value.indexOf('e') >= 0 || value.indexOf('E') >= 0) {
+                return value + "^^" + XSD + "double";
+            }
+            if (value.indexOf('.') >= 0) {
+                return value + "^^" + XSD + "decimal";
+            }
+            return value + "^^" + XSD + "integer";
+        }
+        return value;
+    }
+
+    /**
+     * Decode results in the SPARQL 1.1 JSON format.
+     *
+     * @param in the results
+     * @param keys the variables to retrieve
+     * @param handler the handler receiving the rows, one value per key
+     * @return the number of rows
+     * @throws IOException if the results cannot be read or the handler
+     * fails
+     */
+    static long readJson(final Reader in, final String[] keys,
+            final RowHandler handler) throws IOException {
+        JsonScanner json = new JsonScanner(in);
+        HashMap<String, Integer> columns = columns(keys);
+        long rows = 0;
+        json.expect('{');
+        while (json.nextMember()) {
+            if (!json.readString().equals("results")) {
+                json.expect(':');
+                json.skipValue();
+                continue;
+            }
+            json.expect(':');
+            json.expect('{');
+            while (json.nextMember()) {
+                if (!json.readString().equals("bindings")) {
+                    json.expect(':');
+                    json.skipValue();
+                    continue;
+                }
+                json.expect(':');
+                json.expect('[');
+                while (json.nextElement()) {
+                    String[] row = new String[keys.length];
+                    json.expect('{');
+                    while (json.nextMember()) {
+                        Integer col = columns.get(json.readString());
+                        json.expect(':');
+                        if (col == null) {
+                            json.skipValue();
+                        } else {
+                            row[col] = readTerm(json);
+                        }
+                    }
+                    handler.row(row);
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Read an RDF term of the JSON format.
+     *
+     * @param json the scanner, before the term
+     * @return the term, as RDFNode.toString() would write it
+     * @throws IOException if the term cannot be read
+     */
+    private static String readTerm(final JsonScanner json)
+            throws IOException {
+        String value = null;
+        String lang = null;
+        String datatype = null;
+        json.expect('{');
+        while (json.nextMember()) {
+            String name = json.readString();
+            json.expect(':');
+            if (name.equals("value")) {
+                value = json.readString();
+            } else if (name.equals("xml:lang")) {
+                lang = json.readString();
+            } else if (name.equals("datatype")) {
+                datatype = json.readString();
+            } else {
+                json.skipValue();
+            }
+        }
+        if (value == null) {
+            throw new IOException("RDF term without value");
+        }
+        if (lang != null && !lang.isEmpty()) {
+            return value + "@" + lang;
+        }
+        if (datatype != null) {
+            return value + "^^" + datatype;
+        }
+        return value;
+    }
+
+    /**
+     * Decode results in the SPARQL XML format, with the parser of Jena.
+     *
+     * @param in the results
+     * @param keys the variables to retrieve
+     * @param handler the handler receiving the rows, one value per key
+     * @return the number of rows
+     * @throws IOException if the handler fails
+     */
+    static long readXml(final InputStream in, final String[] keys,
+            final RowHandler handler) throws IOException {
+        ResultSet results = ResultSetFactory.fromXML(in);
+        long rows = 0;
+        while (results.hasNext()) {
+            QuerySolution soln = results.nextSolution();
+            String[] row = new String[keys.length];
+            for (int cnt = 0; cnt < keys.length; cnt++) {
+                RDFNode node = soln.get(keys[cnt]);
+                row[cnt] = node == null ? null : node.toString();
+            }
+            handler.row(row);
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * A minimal pull scanner of JSON text.
+     */
+    private static final class JsonScanner {
+
+        /**
+         * The text.
+         */
+        private final Reader in;
+        /**
+         * The buffer.
+         */
+        private final char[] buf = new char[1 << 16];
+        /**
+         * Position of the next character in the buffer.
+         */
+        private int pos = 0;
+        /**
+         * Number of characters in the buffer.
+         */
+        private int len = 0;
+        /**
+         * Whether the next member or element is the first of its object or
+         * array.
+         */
+        private boolean first = true;
+        /**
+         * A reusable buffer for the strings.
+         */
+        private final StringBuilder sb = new StringBuilder(64);
+
+        /**
+         * Constructor.
+         *
+         * @param reader the text
+         */
+        JsonScanner(final Reader reader) {
+            this.in = reader;
+        }
+
+        /**
+         * Returns the next character without consuming it.
+         *
+         * @return the character, -1 at the end of the text
+         * @throws IOException if the text cannot be read
+         */
+        private int peek() throws IOException {
+            if (pos == len) {
+                len = in.read(buf, 0, buf.length);
+                pos = 0;
+                if (len <= 0) {
+                    len = 0;
+                    return -1;
+                }
+            }
+            return buf[pos];
+        }
+
+        /**
+         * Returns the next character.
+         *
+         * @return the character
+         * @throws IOException at the end of the text
+         */
+        private char next() throws IOException {
+            if (peek() < 0) {
+                throw new IOException("Truncated JSON results");
+            }
+            return buf[pos++];
+        }
+
+        /**
+         * Returns the next character which is not a white space, without
+         * consuming it.
+         *
+         * @return the character, -1 at the end of the text
+         * @throws IOException if the text cannot be read
+         */
+        private int peekToken() throws IOException {
+            int c = peek();
+            while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                pos++;
+                c = peek();
+            }
+            return c;
+        }
+
+        /**
+         * Consume the given character, after white spaces.
+         *
+         * @param expected the character
+         * @throws IOException if another character is found
+         */
+        void expect(final char expected) throws IOException {
+            int c = peekToken();
+            if (c != expected) {
+                throw new IOException("Invalid JSON results: expected '"
+                        + expected + "' but found "
+                        + (c < 0 ? "the end" : "'" + (char) c + "'"));
+            }
+            pos++;
+            first = expected == '{' || expected == '[';
+        }
+
+        /**
+         * Move to the next member of the current object.
+         *
+         * @return false, having consumed the closing brace, if there is none
+         * @throws IOException if the text is invalid
+         */
+        boolean nextMember() throws IOException {
+            return nextItem('}');
+        }
+
+        /**
+         * Move to the next element of the current array.
+         *
+         * @return false, having consumed the closing bracket, if there is
+         * none
+         * @throws IOException if the text is invalid
+         */
+        boolean nextElement() throws IOException {
+            return nextItem(']');
+        }
+
+        /**
+         * Move to the next item of the current object or array.
+         *
+         * @param close the closing character of the object or array
+         * @return false, having consumed the closing character, if there is
+         * none
+         * @throws IOException if the text is invalid
+         */
+        private boolean nextItem(final char close) throws IOException {
+            int c = peekToken();
+            if (c == close) {
+                pos++;
+                first = false;
+                return false;
+            }
+            if (!first) {
+                expect(',');
+            }
+            first = false;
+            return true;
+        }
+
+        /**
+         * Read a string.
+         *
+         * @return the string
+         * @throws IOException if the text is invalid
+         */
+        String readString() throws IOException {
+            expect('"');
+            first = false;
+            sb.setLength(0);
+            char c = next();
+            while (c != '"') {
+                if (c == '\\') {
+                    c = next();
+                    switch (c) {
+                        case 'n':
+                            sb.append('\n');
+                            break;
+                        case 't':
+                            sb.append('\t');
+                            break;
+                        case 'r':
+                            sb.append('\r');
+                            break;
+                        case 'b':
+                            sb.append('\b');
+                            break;
+                        case 'f':
+                            sb.append('\f');
+                            break;
+                        case 'u':
+                            char[] hex = {next(), next(), next(), next()};
+                            sb.append((char) Integer.parseInt(
+                                    new String(hex), 16));
+                            break;
+                        default:
+                            sb.append(c);
+                    }
+                } else {
+                    sb.append(c);
+                }
+                c = next();
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Skip a value of any type.
+         *
+         * @throws IOException if the text is invalid
+         */
+        void skipValue() throws IOException {
+            int c = peekToken();
+            if (c == '"') {
+                readString();
+            } else if (c == '{') {
+                expect('{');
+                while (nextMember()) {
+                    readString();
+                    expect(':');
+                    skipValue();
+                }
+            } else if (c == '[') {
+                expect('[');
+                while (nextElement()) {
+                    skipValue();
+                }
+            } else {
+                while (c >= 0 && c != ',' && c != '}' && c != ']'
+                        && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    pos++;
+                    c = peek();
+                }
+            }
+            first = false;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Startup timings of the process: the time from the start of the JVM to the
+ * first answer of Chebi2gene or SearchChebi, and to the loading of ARQ, if
+ * it was needed at all.
+ *
+ * Short-lived workers and command line runs spend most of their time
+ * starting; these timings tell whether a run answered from its indexes and
+ * caches alone or had to load Jena. The first answer is logged, and the
+ * Chebi2geneServer publishes both timings with its metrics.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public final class StartupTimer {
+
+    /**
+     * Uptime, in milliseconds, of the first answer, -1 until then.
+     */
+    private static final AtomicLong FIRST_ANSWER = new AtomicLong(-1);
+    /**
+     * Uptime, in milliseconds, at which ARQ was loaded, -1 until then.
+     */
+    private static final AtomicLong JENA_LOADED = new AtomicLong(-1);
+    /**
+     * logger.
+     */
+    private static final Logger LOG = Logger.getLogger(
+            StartupTimer.class.getName());
+
+    /**
+     * No instance.
+     */
+    private StartupTimer() {
+    }
+
+    /**
+     * Returns the time elapsed since the start of the JVM.
+     *
+     * @return the uptime, in milliseconds
+     */
+    private static long uptime() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    /**
+     * Record an answer, only the first one is kept.
+     */
+    static void answered() {
+        if (FIRST_ANSWER.get() >= 0) {
+            return;
+        }
+        long now = uptime();
+        if (FIRST_ANSWER.compareAndSet(-1, now)) {
+            long jena = JENA_LOADED.get();
+            LOG.log(Level.INFO, "First answer {0} ms after the start of the"
+                    + " JVM, {1}", new Object[]{now, jena < 0
+                        ? "without loading Jena"
+                        : "Jena loaded at " + jena + " ms"});
+        }
+    }
+
+    /**
+     * Record the loading of ARQ.
+     */
+    static void jenaLoaded() {
+        JENA_LOADED.compareAndSet(-1, uptime());
+    }
+
+    /**
+     * Returns the time from the start of the JVM to the first answer.
+     *
+     * @return the time in milliseconds, -1 if nothing was answered yet
+     */
+    public static long getFirstAnswerMillis() {
+        return FIRST_ANSWER.get();
+    }
+
+    /**
+     * Returns the time from the start of the JVM to the loading of ARQ.
+     *
+     * @return the time in milliseconds, -1 if ARQ was not loaded
+     */
+    public static long getJenaLoadMillis() {
+        return JENA_LOADED.get();
+    }
+
+    /**
+     * Whether ARQ was loaded to run a query.
+     *
+     * @return true if it was loaded
+     */
+    public static boolean isJenaLoaded() {
+        return JENA_LOADED.get() >= 0;
+    }
+}
@@ -0,0 +1,853 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory index of the structures of the chebi compounds, answering
+ * structure queries (as produced by mass-spectrometry annotation) with
+ * chebi identifiers which can be resolved with Chebi2gene.
+ *
+ * The index supports:
+ * <ul>
+ * <li>exact InChIKey and InChI look-ups, or InChIKey skeleton (first block)
+ * look-ups;</li>
+ * <li>formula look-ups, the formulas being compared in Hill order;</li>
+ * <li>monoisotopic mass range look-ups;</li>
+ * <li>similarity search on a SMILES: every compound has a fingerprint of
+ * FINGERPRINT_BITS bits, set by hashing all the linear paths of up to
+ * MAX_PATH bonds of its structure, and the compounds are ranked by
+ * Tanimoto similarity. The fingerprints are kept in one array sorted by
+ * number of bits set, so that only the compounds whose bit count can reach
+ * the threshold are compared.</li>
+ * </ul>
+ *
+ * The keys are held in sorted arrays searched by binary search. The index
+ * is immutable and may be shared between threads.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public final class StructureIndex {
+
+    /**
+     * Number of bits of a fingerprint.
+     */
+    static final int FINGERPRINT_BITS = 1024;
+    /**
+     * Longest path, in bonds, hashed in a fingerprint.
+     */
+    static final int MAX_PATH = 5;
+    /**
+     * Number of words of a fingerprint.
+     */
+    private static final int WORDS = FINGERPRINT_BITS / 64;
+    /**
+     * The language tag ending a literal (ie: @en, @en-GB).
+     */
+    private static final Pattern LANGUAGE_TAG =
+            Pattern.compile("@[a-zA-Z]+(-[a-zA-Z0-9]+)*$");
+
+    /**
+     * Compounds sorted by a string key.
+     */
+    private static final class Lookup {
+
+        /**
+         * The keys, sorted.
+         */
+        private final String[] keys;
+        /**
+         * The chebi identifier of each key.
+         */
+        private final String[] ids;
+
+        /**
+         * Constructor.
+         *
+         * @param pairs the chebi identifiers, by key
+         */
+        Lookup(final TreeMap<String, List<String>> pairs) {
+            int size = 0;
+            for (List<String> list : pairs.values()) {
+                size += list.size();
+            }
+            this.keys = new String[size];
+            this.ids = new String[size];
+            int pos = 0;
+            for (Map.Entry<String, List<String>> entry : pairs.entrySet()) {
+                for (String chebi_id : entry.getValue()) {
+                    keys[pos] = entry.getKey();
+                    ids[pos++] = chebi_id;
+                }
+            }
+        }
+
+        /**
+         * Returns the compounds whose key starts with the given prefix.
+         *
+         * @param prefix the prefix, or the whole key
+         * @param exact whether the key must be equal to the prefix
+         * @return the chebi identifiers
+         */
+        List<String> find(final String prefix, final boolean exact) {
+            ArrayList<String> output = new ArrayList<String>();
+            int lo = 0;
+            int hi = keys.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid].compareTo(prefix) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int cnt = lo; cnt < keys.length
+                    && keys[cnt].startsWith(prefix); cnt++) {
+                if (!exact || keys[cnt].length() == prefix.length()) {
+                    output.add(ids[cnt]);
+                }
+            }
+            return output;
+        }
+    }
+
+    /**
+     * The compounds, by InChIKey.
+     */
+    private final Lookup inchiKeys;
+    /**
+     * The compounds, by InChI.
+     */
+    private final Lookup inchis;
+    /**
+     * The compounds, by formula in Hill order.
+     */
+    private final Lookup formulas;
+    /**
+     * The monoisotopic masses, sorted.
+     */
+    private final double[] masses;
+    /**
+     * The chebi identifier of each mass.
+     */
+    private final String[] massIds;
+    /**
+     * The chebi identifiers of the compounds having a fingerprint, sorted
+     * by number of bits set.
+     */
+    private final String[] fingerprintIds;
+    /**
+     * Number of bits set in each fingerprint.
+     */
+    private final int[] bitCounts;
+    /**
+     * The fingerprints, WORDS words each, in the order of fingerprintIds.
+     */
+    private final long[] fingerprints;
+
+    /**
+     * Build the index from rows of chebi identifier, InChIKey, InChI,
+     * formula, monoisotopic mass and SMILES, any of them but the identifier
+     * may be null. A SMILES which cannot be parsed is ignored.
+     *
+     * @param rows the rows, as returned by QueryRdf.getChebiStructures()
+     */
+    public StructureIndex(final Collection<String[]> rows) {
+        TreeMap<String, List<String>> byKey =
+                new TreeMap<String, List<String>>();
+        TreeMap<String, List<String>> byInchi =
+                new TreeMap<String, List<String>>();
+        TreeMap<String, List<String>> byFormula =
+                new TreeMap<String, List<String>>();
+        final HashMap<String, Double> massOf = new HashMap<String, Double>();
+        final HashMap<String, long[]> fingerprintOf =
+                new HashMap<String, long[]>();
+        for (String[] row : rows) {
+            String chebi_id = row[0];
+            if (row[1] != null) {
+                add(byKey, literal(row[1]).toUpperCase(), chebi_id);
+            }
+            if (row[2] != null) {
+                add(byInchi, literal(row[2]), chebi_id);
+            }
+            if (row[3] != null) {
+                add(byFormula, toHill(literal(row[3])), chebi_id);
+            }
+            if (row[4] != null) {
+                try {
+                    massOf.put(chebi_id, Double.parseDouble(
+                            literal(row[4])));
+                } catch (NumberFormatException ex) {
+                    // no usable mass
+                }
+            }
+            if (row[5] != null) {
+                try {
+                    fingerprintOf.put(chebi_id, fingerprint(
+                            literal(row[5])));
+                } catch (IllegalArgumentException ex) {
+                    // no usable structure
+                }
+            }
+        }
+        this.inchiKeys = new Lookup(byKey);
+        this.inchis = new Lookup(byInchi);
+        this.formulas = new Lookup(byFormula);
+
+        String[] ids = massOf.keySet().toArray(new String[massOf.size()]);
+        Arrays.sort(ids, new Comparator<String>() {
+
+            @Override
+            public int compare(final String id1, final String id2) {
+                int cmp = Double.compare(massOf.get(id1), massOf.get(id2));
+                return cmp != 0 ? cmp : id1.compareTo(id2);
+            }
+        });
+        this.massIds = ids;
+        this.masses = new double[ids.length];
+        for (int cnt = 0; cnt < ids.length; cnt++) {
+            masses[cnt] = massOf.get(ids[cnt]);
+        }
+
+        ids = fingerprintOf.keySet().toArray(new String[fingerprintOf.size()]);
+        final HashMap<String, Integer> countOf = new HashMap<String, Integer>();
+        for (String chebi_id : ids) {
+            countOf.put(chebi_id, bitCount(fingerprintOf.get(chebi_id), 0));
+        }
+        Arrays.sort(ids, new Comparator<String>() {
+
+            @Override
+            public int compare(final String id1, final String id2) {
+                int cmp = countOf.get(id1) - countOf.get(id2);
+                return cmp != 0 ? cmp : id1.compareTo(id2);
+            }
+        });
+        this.fingerprintIds = ids;
+        this.bitCounts = new int[ids.length];
+        this.fingerprints = new long[ids.length * WORDS];
+        for (int cnt = 0; cnt < ids.length; cnt++) {
+            bitCounts[cnt] = countOf.get(ids[cnt]);
+            System.arraycopy(fingerprintOf.get(ids[cnt]), 0, fingerprints,
+                    cnt * WORDS, WORDS);
+        }
+    }
+
+    /**
+     * Build the index of the structures of chebi, retrieved from the
+     * endpoint (or local model) of the given QueryRdf object.
+     *
+     * @param query the QueryRdf object used to run the query
+     * @return the index
+     */
+    public static StructureIndex fromQuery(final QueryRdf query) {
+        return new StructureIndex(query.getChebiStructures());
+    }
+
+    /**
+     * Add a compound to a key.
+     *
+     * @param map the compounds, by key
+     * @param key the key
+     * @param chebi_id the chebi identifier of the compound
+     */
+    private static void add(final Map<String, List<String>> map,
+            final String key, final String chebi_id) {
+        List<String> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<String>(1);
+            map.put(key, list);
+        }
+        if (!list.contains(chebi_id)) {
+            list.add(chebi_id);
+        }
+    }
+
+    /**
+     * Returns the lexical form of a literal, without its datatype or
+     * language tag. Only a suffix shaped as a language tag is dropped: the
+     * '@' of a chiral SMILES (ie: C[C@@H](O)C(O)=O) is part of the value.
+     *
+     * @param value the literal as returned by the queries
+     * @return the lexical form
+     */
+    private static String literal(final String value) {
+        int end = value.lastIndexOf("^^");
+        if (end < 0) {
+            Matcher tag = LANGUAGE_TAG.matcher(value);
+            end = tag.find() ? tag.start() : value.length();
+        }
+        return value.substring(0, end).trim();
+    }
+
+    /**
+     * Returns the compounds having the given InChIKey. When only the first
+     * block of the key (14 letters, the skeleton of the structure) is given,
+     * all the compounds having this skeleton are returned, whatever their
+     * stereochemistry or protonation.
+     *
+     * @param key the InChIKey, with or without the InChIKey= prefix
+     * @return the chebi identifiers, by InChIKey
+     */
+    public List<String> findByInChIKey(final String key) {
+        String value = key.trim().toUpperCase();
+        if (value.startsWith("INCHIKEY=")) {
+            value = value.substring(9);
+        }
+        return inchiKeys.find(value, value.length() > 14);
+    }
+
+    /**
+     * Returns the compounds having the given standard InChI.
+     *
+     * @param inchi the InChI (ie: InChI=1S/H2O/h1H2)
+     * @return the chebi identifiers
+     */
+    public List<String> findByInChI(final String inchi) {
+        return inchis.find(inchi.trim(), true);
+    }
+
+    /**
+     * Returns the compounds having the given formula, whatever the order of
+     * its elements.
+     *
+     * @param formula the formula (ie: C40H56)
+     * @return the chebi identifiers
+     */
+    public List<String> findByFormula(final String formula) {
+        return formulas.find(toHill(formula.trim()), true);
+    }
+
+    /**
+     * Returns the compounds whose monoisotopic mass is within a range.
+     *
+     * @param low the lowest mass, in daltons
+     * @param high the highest mass, in daltons
+     * @return the chebi identifiers, by increasing mass
+     */
+    public List<String> findByMassRange(final double low, final double high) {
+        ArrayList<String> output = new ArrayList<String>();
+        int lo = 0;
+        int hi = masses.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (masses[mid] < low) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int cnt = lo; cnt < masses.length && masses[cnt] <= high;
+                cnt++) {
+            output.add(massIds[cnt]);
+        }
+        return output;
+    }
+
+    /**
+     * Returns the compounds whose monoisotopic mass matches a measured mass.
+     *
+     * @param mass the measured mass, in daltons
+     * @param ppm the tolerance, in parts per million of the mass
+     * @return the chebi identifiers, by increasing mass
+     */
+    public List<String> findByMass(final double mass, final double ppm) {
+        double delta = mass * ppm / 1e6;
+        return findByMassRange(mass - delta, mass + delta);
+    }
+
+    /**
+     * Returns the compounds whose structure is similar to the given one.
+     *
+     * @param smiles the structure, as a SMILES
+     * @param threshold the lowest Tanimoto similarity, above 0 and up to 1
+     * @param limit the maximum number of compounds returned
+     * @return the compounds found, the most similar first
+     * @throws IllegalArgumentException if the SMILES cannot be parsed
+     */
+    public List<Hit> findSimilar(final String smiles, final double threshold,
+            final int limit) {
+        if (!(threshold > 0 && threshold <= 1)) {
+            throw new IllegalArgumentException(
+                    "Similarity threshold not in ]0, 1]: " + threshold);
+        }
+        long[] query = fingerprint(smiles);
+        int count = bitCount(query, 0);
+        ArrayList<Hit> output = new ArrayList<Hit>();
+        if (count == 0) {
+            return output;
+        }
+        // A fingerprint of b bits has a similarity of at most
+        // min(a, b) / max(a, b) with one of a bits.
+        int lowest = (int) Math.ceil(threshold * count - 1e-9);
+        int highest = (int) Math.floor(count / threshold + 1e-9);
+        int lo = 0;
+        int hi = bitCounts.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (bitCounts[mid] < lowest) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int cnt = lo; cnt < bitCounts.length
+                && bitCounts[cnt] <= highest; cnt++) {
+            int offset = cnt * WORDS;
+            int common = 0;
+            for (int word = 0; word < WORDS; word++) {
+                common += Long.bitCount(query[word]
+                        & fingerprints[offset + word]);
+            }
+            double similarity = (double) common
+                    / (count + bitCounts[cnt] - common);
+            if (similarity >= threshold) {
+                output.add(new Hit(fingerprintIds[cnt], similarity));
+            }
+        }
+        Collections.sort(output, new Comparator<Hit>() {
+
+            @Override
+            public int compare(final Hit hit1, final Hit hit2) {
+                int cmp = Double.compare(hit2.similarity, hit1.similarity);
+                return cmp != 0 ? cmp : hit1.chebiId.compareTo(hit2.chebiId);
+            }
+        });
+        return output.size() > limit ? new ArrayList<Hit>(
+                output.subList(0, limit)) : output;
+    }
+
+    /**
+     * Returns the number of compounds having a fingerprint.
+     *
+     * @return the number of compounds
+     */
+    public int size() {
+        return fingerprintIds.length;
+    }
+
+    /**
+     * Returns the number of bits set in a fingerprint.
+     *
+     * @param words the fingerprints
+     * @param offset the first word of the fingerprint
+     * @return the number of bits set
+     */
+    private static int bitCount(final long[] words, final int offset) {
+        int count = 0;
+        for (int word = offset; word < offset + WORDS; word++) {
+            count += Long.bitCount(words[word]);
+        }
+        return count;
+    }
+
+    /**
+     * Returns a formula in Hill order: carbon, then hydrogen, then the other
+     * elements in alphabetical order (all in alphabetical order without
+     * carbon), the parts of a formula separated by dots being added up.
+     *
+     * @param formula the formula (ie: OH2)
+     * @return the formula in Hill order (ie: H2O), or the given one if it
+     * cannot be parsed
+     */
+    static String toHill(final String formula) {
+        TreeMap<String, Long> counts = new TreeMap<String, Long>();
+        for (String part : formula.split("\\.")) {
+            int pos = 0;
+            long factor = 0;
+            while (pos < part.length() && Character.isDigit(part.charAt(pos))) {
+                factor = factor * 10 + part.charAt(pos++) - '0';
+            }
+            if (factor == 0) {
+                factor = 1;
+            }
+            while (pos < part.length()) {
+                char c = part.charAt(pos);
+                if (c < 'A' || c > 'Z') {
+                    return formula;
+                }
+                int start = pos++;
+                while (pos < part.length()
+                        && Character.isLowerCase(part.charAt(pos))) {
+                    pos++;
+                }
+                String element = part.substring(start, pos);
+                long count = 0;
+                while (pos < part.length()
+                        && Character.isDigit(part.charAt(pos))) {
+                    count = count * 10 + part.charAt(pos++) - '0';
+                }
+                if (count == 0) {
+                    count = 1;
+                }
+                Long previous = counts.get(element);
+                counts.put(element, (previous == null ? 0 : previous)
+                        + count * factor);
+            }
+        }
+        if (counts.isEmpty()) {
+            return formula;
+        }
+        StringBuilder sb = new StringBuilder();
+        if (counts.containsKey("C")) {
+            appendElement(sb, "C", counts.remove("C"));
+            if (counts.containsKey("H")) {
+                appendElement(sb, "H", counts.remove("H"));
+            }
+        }
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            appendElement(sb, entry.getKey(), entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Append an element and its count to a formula.
+     *
+     * @param sb the formula
+     * @param element the element
+     * @param count its count
+     */
+    private static void appendElement(final StringBuilder sb,
+            final String element, final long count) {
+        sb.append(element);
+        if (count != 1) {
+            sb.append(count);
+        }
+    }
+
+    /**
+     * Returns the fingerprint of a structure: the bits set by hashing every
+     * linear path of up to MAX_PATH bonds (the atoms and the bond orders
+     * along the path, read in the direction giving the lowest hash). The
+     * hydrogens written as atoms are ignored, as are the charges, isotopes
+     * and stereochemistry.
+     *
+     * @param smiles the structure, as a SMILES
+     * @return the fingerprint, FINGERPRINT_BITS bits in 64 bits words
+     * @throws IllegalArgumentException if the SMILES cannot be parsed
+     */
+    static long[] fingerprint(final String smiles) {
+        Molecule mol = new Molecule(smiles.trim());
+        long[] bits = new long[WORDS];
+        int[] atoms = new int[MAX_PATH + 1];
+        char[] orders = new char[MAX_PATH];
+        boolean[] visited = new boolean[mol.labels.size()];
+        for (int atom = 0; atom < mol.labels.size(); atom++) {
+            atoms[0] = atom;
+            visited[atom] = true;
+            paths(mol, atoms, orders, 0, visited, bits);
+            visited[atom] = false;
+        }
+        return bits;
+    }
+
+    /**
+     * Set the bits of the path ending with the given atom and of all its
+     * extensions.
+     *
+     * @param mol the molecule
+     * @param atoms the atoms of the path
+     * @param orders the bonds of the path
+     * @param length the number of bonds of the path
+     * @param visited the atoms of the path
+     * @param bits the fingerprint, filled
+     */
+    private static void paths(final Molecule mol, final int[] atoms,
+            final char[] orders, final int length, final boolean[] visited,
+            final long[] bits) {
+        long forward = 0;
+        long backward = 0;
+        for (int cnt = 0; cnt <= length; cnt++) {
+            forward = forward * 31 + mol.hashes[atoms[cnt]];
+            backward = backward * 31 + mol.hashes[atoms[length - cnt]];
+            if (cnt < length) {
+                forward = forward * 31 + orders[cnt];
+                backward = backward * 31 + orders[length - cnt - 1];
+            }
+        }
+        long hash = Math.min(forward, backward) * 0x9E3779B97F4A7C15L;
+        int bit = (int) ((hash >>> 32) % FINGERPRINT_BITS);
+        bits[bit >>> 6] |= 1L << bit;
+        if (length == MAX_PATH) {
+            return;
+        }
+        int last = atoms[length];
+        List<int[]> bonds = mol.bonds.get(last);
+        for (int[] bond : bonds) {
+            if (!visited[bond[0]]) {
+                visited[bond[0]] = true;
+                atoms[length + 1] = bond[0];
+                orders[length] = (char) bond[1];
+                paths(mol, atoms, orders, length + 1, visited, bits);
+                visited[bond[0]] = false;
+            }
+        }
+    }
+
+    /**
+     * The graph of a structure parsed from a SMILES.
+     */
+    private static final class Molecule {
+
+        /**
+         * The label of each atom: its element, lower case when aromatic.
+         */
+        private final ArrayList<String> labels = new ArrayList<String>();
+        /**
+         * The hash of the label of each atom.
+         */
+        private int[] hashes;
+        /**
+         * The bonds of each atom, as pairs of other atom and bond order.
+         */
+        private final ArrayList<List<int[]>> bonds =
+                new ArrayList<List<int[]>>();
+
+        /**
+         * Parse a SMILES.
+         *
+         * @param smiles the SMILES
+         * @throws IllegalArgumentException if the SMILES cannot be parsed
+         */
+        Molecule(final String smiles) {
+            ArrayDeque<Integer> branches = new ArrayDeque<Integer>();
+            HashMap<Integer, int[]> rings = new HashMap<Integer, int[]>();
+            int prev = -1;
+            char bond = 0;
+            int pos = 0;
+            while (pos < smiles.length()) {
+                char c = smiles.charAt(pos);
+                if (c == '(') {
+                    if (prev < 0) {
+                        throw invalid(smiles);
+                    }
+                    branches.push(prev);
+                    pos++;
+                } else if (c == ')') {
+                    if (branches.isEmpty()) {
+                        throw invalid(smiles);
+                    }
+                    prev = branches.pop();
+                    pos++;
+                } else if ("-=#$:/\\".indexOf(c) >= 0) {
+                    bond = c == '/' || c == '\\' ? '-' : c;
+                    pos++;
+                } else if (c == '.') {
+                    prev = -1;
+                    bond = 0;
+                    pos++;
+                } else if (Character.isDigit(c) || c == '%') {
+                    int ring;
+                    if (c == '%') {
+                        if (pos + 2 >= smiles.length()) {
+                            throw invalid(smiles);
+                        }
+                        ring = Integer.parseInt(
+                                smiles.substring(pos + 1, pos + 3));
+                        pos += 3;
+                    } else {
+                        ring = c - '0';
+                        pos++;
+                    }
+                    if (prev < 0) {
+                        throw invalid(smiles);
+                    }
+                    int[] open = rings.remove(ring);
+                    if (open == null) {
+                        rings.put(ring, new int[]{prev, bond});
+                    } else {
+                        char order = bond != 0 ? bond
+                                : open[1] != 0 ? (char) open[1]
+                                : defaultBond(open[0], prev);
+                        link(open[0], prev, order);
+                    }
+                    bond = 0;
+                } else {
+                    String label;
+                    if (c == '[') {
+                        int end = smiles.indexOf(']', pos);
+                        if (end < 0) {
+                            throw invalid(smiles);
+                        }
+                        label = element(smiles.substring(pos + 1, end),
+                                smiles);
+                        pos = end + 1;
+                    } else if (smiles.startsWith("Cl", pos)
+                            || smiles.startsWith("Br", pos)) {
+                        label = smiles.substring(pos, pos + 2);
+                        pos += 2;
+                    } else if ("BCNOPSFIbcnops*".indexOf(c) >= 0) {
+                        label = String.valueOf(c);
+                        pos++;
+                    } else {
+                        throw invalid(smiles);
+                    }
+                    if (label.equals("H")) {
+                        bond = 0;
+                        continue;
+                    }
+                    int atom = labels.size();
+                    labels.add(label);
+                    bonds.add(new ArrayList<int[]>(4));
+                    if (prev >= 0) {
+                        link(prev, atom, bond != 0 ? bond
+                                : defaultBond(prev, atom));
+                    }
+                    prev = atom;
+                    bond = 0;
+                }
+            }
+            if (!branches.isEmpty() || !rings.isEmpty()) {
+                throw invalid(smiles);
+            }
+            hashes = new int[labels.size()];
+            for (int atom = 0; atom < hashes.length; atom++) {
+                hashes[atom] = labels.get(atom).hashCode();
+            }
+        }
+
+        /**
+         * Returns the element of a bracket atom, dropping its isotope,
+         * chirality, hydrogen count, charge and class.
+         *
+         * @param atom the content of the brackets
+         * @param smiles the SMILES, for the error message
+         * @return the element, lower case when aromatic
+         */
+        private static String element(final String atom,
+                final String smiles) {
+            int pos = 0;
+            while (pos < atom.length() && Character.isDigit(atom.charAt(pos))) {
+                pos++;
+            }
+            if (pos >= atom.length() || !Character.isLetter(atom.charAt(pos))
+                    && atom.charAt(pos) != '*') {
+                throw invalid(smiles);
+            }
+            int start = pos++;
+            if (Character.isUpperCase(atom.charAt(start))) {
+                while (pos < atom.length()
+                        && Character.isLowerCase(atom.charAt(pos))) {
+                    pos++;
+                }
+            } else if (atom.startsWith("se", start)
+                    || atom.startsWith("as", start)) {
+                pos++;
+            }
+            return atom.substring(start, pos);
+        }
+
+        /**
+         * Returns the order of a bond written without symbol: aromatic
+         * between two aromatic atoms, single otherwise.
+         *
+         * @param atom1 the first atom
+         * @param atom2 the second atom
+         * @return the bond order
+         */
+        private char defaultBond(final int atom1, final int atom2) {
+            return Character.isLowerCase(labels.get(atom1).charAt(0))
+                    && Character.isLowerCase(labels.get(atom2).charAt(0))
+                    ? ':' : '-';
+        }
+
+        /**
+         * Add a bond.
+         *
+         * @param atom1 the first atom
+         * @param atom2 the second atom
+         * @param order the bond order
+         */
+        private void link(final int atom1, final int atom2,
+                final char order) {
+            bonds.get(atom1).add(new int[]{atom2, order});
+            bonds.get(atom2).add(new int[]{atom1, order});
+        }
+
+        /**
+         * Returns the error of an invalid SMILES.
+         *
+         * @param smiles the SMILES
+         * @return the exception
+         */
+        private static IllegalArgumentException invalid(final String smiles) {
+            return new IllegalArgumentException("Invalid SMILES: " + smiles);
+        }
+    }
+
+    /**
+     * A compound found by a similarity search.
+     */
+    public static final class Hit {
+
+        /**
+         * The chebi identifier of the compound.
+         */
+        private final String chebiId;
+        /**
+         * Its Tanimoto similarity with the query.
+         */
+        private final double similarity;
+
+        /**
+         * Constructor.
+         *
+         * @param chebi_id the chebi identifier of the compound
+         * @param tanimoto its similarity with the query
+         */
+        Hit(final String chebi_id, final double tanimoto) {
+            this.chebiId = chebi_id;
+            this.similarity = tanimoto;
+        }
+
+        /**
+         * Returns the chebi identifier of the compound, as expected by
+         * Chebi2gene.
+         *
+         * @return the chebi identifier
+         */
+        public String getChebiId() {
+            return chebiId;
+        }
+
+        /**
+         * Returns the Tanimoto similarity of the compound with the query.
+         *
+         * @return the similarity, between 0 and 1
+         */
+        public double getSimilarity() {
+            return similarity;
+        }
+
+        @Override
+        public String toString() {
+            return chebiId + " " + similarity;
+        }
+    }
+}
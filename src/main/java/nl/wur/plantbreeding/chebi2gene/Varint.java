@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length encoding of unsigned integers, seven bits per byte with the
+ * high bit set on every byte but the last, as used by the binary formats of
+ * the package.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+final class Varint {
+
+    /**
+     * Longest decimal number stored as a varint rather than as a string.
+     */
+    private static final int MAX_DIGITS = 18;
+
+    /**
+     * Utility class.
+     */
+    private Varint() {
+    }
+
+    /**
+     * Write an unsigned integer.
+     *
+     * @param out the stream to write to
+     * @param value the value, interpreted as unsigned
+     */
+    static void write(final ByteArrayOutputStream out, final long value) {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    /**
+     * Read an unsigned integer.
+     *
+     * @param in the buffer to read from, at its current position
+     * @return the value
+     */
+    static long read(final ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b = in.get();
+        while ((b & 0x80) != 0) {
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+            b = in.get();
+        }
+        return value | ((long) b << shift);
+    }
+
+    /**
+     * Read an unsigned integer expected to fit in an int.
+     *
+     * @param in the buffer to read from, at its current position
+     * @return the value
+     */
+    static int readInt(final ByteBuffer in) {
+        long value = read(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Corrupted data: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Whether the given string is a decimal number which converts to a long
+     * and back to the very same string, such as a chebi identifier or a
+     * gene position.
+     *
+     * @param value the string to check
+     * @return true if the string can be stored as a number
+     */
+    static boolean isNumber(final String value) {
+        int len = value.length();
+        if (len == 0 || len > MAX_DIGITS
+                || (len > 1 && value.charAt(0) == '0')) {
+            return false;
+        }
+        for (int cnt = 0; cnt < len; cnt++) {
+            char c = value.charAt(cnt);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
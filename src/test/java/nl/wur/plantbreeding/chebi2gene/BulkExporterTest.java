@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the BulkExporter class, run on the sample graphs.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class BulkExporterTest extends TestCase {
+
+    /** The QueryRdf object used to run the query. */
+    private final QueryRdf query = new QueryRdf();
+
+    public BulkExporterTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    public final void setUp() {
+        query.setModel(QueryRdfLocalTest.sampleModel());
+    }
+
+    /**
+     * Read back all the rows of an exported file.
+     * @param file the file to read
+     * @return the rows
+     * @throws IOException if the file cannot be read
+     */
+    private List<String> readRows(File file) throws IOException {
+        ColumnarReader reader = new ColumnarReader(file);
+        assertEquals(BulkExporter.COLUMNS.length, reader.getColumns().length);
+        ArrayList<String> rows = new ArrayList<String>();
+        String[][] group = reader.nextGroup();
+        while (group != null) {
+            for (int row = 0; row < group[0].length; row++) {
+                StringBuilder sb = new StringBuilder();
+                for (String[] column : group) {
+                    sb.append(column[row]).append('\t');
+                }
+                rows.add(sb.toString());
+            }
+            group = reader.nextGroup();
+        }
+        assertTrue(reader.isComplete());
+        return rows;
+    }
+
+    /**
+     * Test exporting the sample graphs.
+     * @throws IOException if the export fails
+     */
+    public void testExport() throws IOException {
+        File file = File.createTempFile("chebi2gene", ".col");
+        BulkExporter exporter = new BulkExporter(query);
+        exporter.setBatchSize(2);
+        assertEquals(8, exporter.export(file));
+        List<String> rows = readRows(file);
+        assertEquals(8, rows.size());
+        assertEquals("15377\t30403\tP93236\tSolyc10g079480.1.1\tSL2.40ch10\t"
+                + "60329890\t60333713\tLycopene epsilon cyclase\t",
+                rows.get(0));
+        assertFalse(new File(file.getPath() + ".checkpoint").exists());
+        file.delete();
+    }
+
+    /**
+     * Test resuming an export which failed half way.
+     * @throws IOException if the export fails
+     */
+    public void testResume() throws IOException {
+        File file = File.createTempFile("chebi2gene", ".col");
+        BulkExporter failing = new BulkExporter(query) {
+
+            @Override
+            List<String[]> resolve(List<String> batch) {
+                if (batch.contains("17579")) {
+                    throw new IllegalStateException("Endpoint down");
+                }
+                return super.resolve(batch);
+            }
+        };
+        failing.setBatchSize(1);
+        failing.setParallelism(1);
+        try {
+            failing.export(file);
+            fail("Export did not fail");
+        } catch (IOException ex) {
+            assertTrue(new File(file.getPath() + ".checkpoint").exists());
+        }
+
+        BulkExporter exporter = new BulkExporter(query);
+        exporter.setBatchSize(1);
+        assertEquals(8, exporter.export(file));
+        File reference = File.createTempFile("chebi2gene", ".col");
+        new BulkExporter(query).export(reference);
+        assertEquals(readRows(reference), readRows(file));
+        file.delete();
+        reference.delete();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the CacheWarmer and QueryLog classes, run on the sample
+ * graphs.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class CacheWarmerTest extends TestCase {
+
+    public CacheWarmerTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test that the lookups recorded are saved, most recent first, and
+     * that the log is bounded.
+     * @throws IOException if the log cannot be saved
+     */
+    public void testQueryLog() throws IOException {
+        QueryLog log = new QueryLog(2);
+        QueryRdf query = QueryRdf.builder()
+                .model(QueryRdfLocalTest.sampleModel()).queryLog(log).build();
+        new Chebi2gene(query).Chebi2gene("17579");
+        new Chebi2gene(query).Chebi2gene("15948");
+        new Chebi2gene(query).Chebi2gene("35309");
+        new Chebi2gene(query).Chebi2gene("15948");
+        assertEquals(Arrays.asList("15948", "35309"), log.recent());
+
+        File file = File.createTempFile("chebi2gene", ".log");
+        log.save(file);
+        assertEquals(log.recent(), QueryLog.load(file));
+        file.delete();
+    }
+
+    /**
+     * Test that the warm-up fills the cache with the same results as
+     * Chebi2gene in one-shot mode, under the keys of this mode only.
+     * @throws InterruptedException if interrupted
+     */
+    public void testWarm() throws InterruptedException {
+        QueryRdf query = QueryRdf.builder()
+                .model(QueryRdfLocalTest.sampleModel()).build();
+        ResultCache cache = new ResultCache(10);
+        CacheWarmer warmer = new CacheWarmer(query, cache);
+        warmer.setBatchSize(2);
+        List<String> ids = Arrays.asList("17579", "15948", "35309",
+                "unknown");
+        assertEquals(4, warmer.warm(ids).size());
+        assertEquals(4, cache.size());
+
+        for (String chebi_id : ids) {
+            Chebi2gene c2g = new Chebi2gene(query);
+            c2g.setOneShot(true);
+            c2g.Chebi2gene(chebi_id);
+            assertNull(cache.get(chebi_id));
+            CompoundResult cached = cache.get(chebi_id, true);
+            assertEquals(c2g.getProteins(), cached.getProteins());
+            assertEquals(c2g.getGenes(), cached.getGenes());
+            assertEquals(c2g.getOrganisms(), cached.getOrganisms());
+            assertEquals(c2g.getPathways(), cached.getPathways());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the Chebi2geneCli class, run on the sample graphs.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class Chebi2geneCliTest extends TestCase {
+
+    /** The QueryRdf object used to run the query. */
+    private final QueryRdf query = new QueryRdf();
+
+    public Chebi2geneCliTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    public final void setUp() {
+        query.setModel(QueryRdfLocalTest.sampleModel());
+    }
+
+    /**
+     * Run the command line annotator on the given input.
+     * @param cli the annotator
+     * @param input the input lines
+     * @param log where to print the errors
+     * @return the output
+     * @throws IOException if the run fails
+     */
+    private String run(Chebi2geneCli cli, String input, PrintStream log)
+            throws IOException {
+        StringWriter out = new StringWriter();
+        cli.setProgressInterval(0);
+        cli.run(new BufferedReader(new StringReader(input)), out, log);
+        return out.toString();
+    }
+
+    /**
+     * Test the tab separated output, in the order of the input, with a row
+     * for the compounds without protein and for the errors.
+     * @throws IOException if the run fails
+     */
+    public void testTsv() throws IOException {
+        Chebi2geneCli cli = new Chebi2geneCli(query);
+        cli.setParallelism(2);
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        String output = run(cli, "CHEBI:15377\n\n(5S,6R)-beta\n17579\n"
+                + "99999999\n{\"id\": 1}\n", new PrintStream(log));
+        String[] lines = output.split("\n");
+        assertTrue(lines[0].startsWith("input\tchebi_id\t"));
+        assertTrue(lines[0].endsWith("\terror"));
+        assertEquals("CHEBI:15377\t15377\t30403\tP93236\tSolyc10g079480.1.1"
+                + "\tSL2.40ch10\t60329890\t60333713\tLycopene epsilon cyclase"
+                + "\t", lines[1]);
+        assertTrue(lines[lines.length - 3].startsWith("17579\t17579\t"));
+        assertEquals("99999999\t99999999\t\t\t\t\t\t\t\t",
+                lines[lines.length - 2]);
+        assertEquals("{\"id\": 1}\t\t\t\t\t\t\t\t\t"
+                + "No chebi_id nor name found", lines[lines.length - 1]);
+    }
+
+    /**
+     * Test the JSON Lines output and the reporting of errors.
+     * @throws IOException if the run fails
+     */
+    public void testJsonLines() throws IOException {
+        Chebi2geneCli cli = new Chebi2geneCli(query);
+        cli.setJson(true);
+        cli.setUnordered(true);
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        String output = run(cli, "{\"chebi_id\": \"15377\"}\n{\"id\": 1}\n",
+                new PrintStream(log));
+        String[] lines = output.split("\n");
+        assertEquals(2, lines.length);
+        boolean found = false;
+        for (String line : lines) {
+            if (line.contains("\"error\"")) {
+                assertEquals("{\"input\":\"{\\\"id\\\": 1}\",\"error\":"
+                        + "\"No chebi_id nor name found\"}", line);
+            } else {
+                assertTrue(line.contains("\"chebi_id\":\"15377\""));
+                assertTrue(line.contains("\"30403\":["));
+                found = true;
+            }
+        }
+        assertTrue(found);
+        assertTrue(log.toString().contains("No chebi_id nor name found"));
+    }
+}
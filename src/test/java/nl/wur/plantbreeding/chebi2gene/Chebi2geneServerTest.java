@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the Chebi2geneServer class, run on the sample graphs.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class Chebi2geneServerTest extends TestCase {
+
+    /** The server tested. */
+    private Chebi2geneServer server;
+
+    public Chebi2geneServerTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    public final void setUp() throws IOException {
+        QueryRdf query = new QueryRdf();
+        query.setModel(QueryRdfLocalTest.sampleModel());
+        server = new Chebi2geneServer(query, new ResultCache(10), 2);
+        server.start(new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    @Override
+    public final void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * Send a GET request to the server.
+     * @param path the path and query string
+     * @param status the expected HTTP status
+     * @return the body of the response
+     * @throws IOException if the request fails
+     */
+    private String get(String path, int status) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + server.getPort() + path)
+                .openConnection();
+        assertEquals(status, conn.getResponseCode());
+        InputStream in = status == 200 ? conn.getInputStream()
+                : conn.getErrorStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        for (int len = in.read(buf); len >= 0; len = in.read(buf)) {
+            out.write(buf, 0, len);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * Test the search, compound and metrics routes.
+     * @throws IOException if a request fails
+     */
+    public void testRoutes() throws IOException {
+        String body = get("/search?name=psi%2Cpsi&extended=true", 200);
+        assertTrue(body.startsWith("{\"15948\":"));
+        body = get("/compound?chebi_id=CHEBI:15377", 200);
+        assertTrue(body.startsWith("{\"chebi_id\":\"15377\","));
+        assertTrue(body.contains("\"Solyc10g079480.1.1\""));
+        get("/compound?chebi_id=15377", 200);
+        assertEquals("{\"error\":\"Missing parameter: chebi_id\"}",
+                get("/compound", 400));
+
+        String metrics = get("/metrics", 200);
+        assertTrue(metrics.contains(
+                "chebi2gene_requests_total{route=\"compound\"} 3\n"));
+        assertTrue(metrics.contains(
+                "chebi2gene_errors_total{route=\"compound\"} 1\n"));
+        assertTrue(metrics.contains("chebi2gene_cache_hits_total 1\n"));
+    }
+}
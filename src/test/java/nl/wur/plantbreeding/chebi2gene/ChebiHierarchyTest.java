@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the ChebiHierarchy class.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class ChebiHierarchyTest extends TestCase {
+
+    public ChebiHierarchyTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test the hierarchy of the sample graphs and its use by Chebi2gene.
+     */
+    public void testSample() {
+        QueryRdf query = new QueryRdf();
+        query.setModel(QueryRdfLocalTest.sampleModel());
+        ChebiHierarchy hierarchy = ChebiHierarchy.fromQuery(query);
+        assertEquals(new TreeSet<String>(Arrays.asList("15377", "15948",
+                "17579", "35426")), hierarchy.expand("35426", false));
+        assertEquals(6, hierarchy.countDescendants("23044"));
+        assertEquals(Collections.singleton("1"), hierarchy.expand("1", true));
+
+        Chebi2gene c2g = new Chebi2gene(query);
+        c2g.Chebi2gene("35426");
+        assertTrue(c2g.getProteins().isEmpty());
+        c2g.setHierarchy(hierarchy, false);
+        c2g.Chebi2gene("35426");
+        assertEquals(new TreeSet<String>(Arrays.asList("16740", "30403")),
+                new TreeSet<String>(c2g.getProteins().keySet()));
+        assertEquals(3, c2g.getGenes().size());
+    }
+
+    /**
+     * Test the closure of a diamond with a cycle, the equivalent forms and
+     * saving the hierarchy.
+     * @throws IOException if the hierarchy cannot be saved
+     */
+    public void testClosure() throws IOException {
+        ArrayList<String[]> isA = new ArrayList<String[]>();
+        isA.add(new String[]{"2", "1"});
+        isA.add(new String[]{"3", "1"});
+        isA.add(new String[]{"4", "2"});
+        isA.add(new String[]{"4", "3"});
+        isA.add(new String[]{"1", "4"});
+        isA.add(new String[]{"6", "5"});
+        ArrayList<String[]> equivalences = new ArrayList<String[]>();
+        equivalences.add(new String[]{"6", "7"});
+        ChebiHierarchy hierarchy = new ChebiHierarchy(isA, equivalences);
+        assertEquals(4, hierarchy.countDescendants("1"));
+        assertEquals(4, hierarchy.countDescendants("4"));
+        assertEquals(new TreeSet<String>(Arrays.asList("5", "6")),
+                hierarchy.expand("5", false));
+        assertEquals(new TreeSet<String>(Arrays.asList("5", "6", "7")),
+                hierarchy.expand("5", true));
+
+        File file = File.createTempFile("chebi2gene", ".closure");
+        hierarchy.write(file);
+        ChebiHierarchy read = ChebiHierarchy.read(file);
+        assertEquals(hierarchy.size(), read.size());
+        assertEquals(hierarchy.expand("1", true), read.expand("1", true));
+        file.delete();
+    }
+}
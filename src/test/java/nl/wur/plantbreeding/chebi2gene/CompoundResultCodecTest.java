@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the CompoundResultCodec class.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class CompoundResultCodecTest extends TestCase {
+
+    public CompoundResultCodecTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Resolve a compound of the sample graphs.
+     * @param chebi_id the chebi identifier of the compound
+     * @return the CompoundResult
+     */
+    static CompoundResult sampleResult(String chebi_id) {
+        QueryRdf query = new QueryRdf();
+        query.setModel(QueryRdfLocalTest.sampleModel());
+        HashMap<String, ArrayList<String>> proteins =
+                query.getProteinOfChebi(chebi_id);
+        return new CompoundResult(chebi_id, proteins,
+                query.getPathwaysOfProteins(proteins),
+                query.getOrganismOfProteins(proteins),
+                query.getGenesOfProteins(proteins));
+    }
+
+    /**
+     * Check that two results are identical.
+     * @param expected the expected CompoundResult
+     * @param result the CompoundResult to check
+     */
+    private void assertSameResult(CompoundResult expected,
+            CompoundResult result) {
+        assertEquals(expected.getChebiId(), result.getChebiId());
+        assertEquals(expected.getProteins(), result.getProteins());
+        assertEquals(expected.getPathways(), result.getPathways());
+        assertEquals(expected.getOrganisms(), result.getOrganisms());
+        assertEquals(expected.getGenes(), result.getGenes());
+    }
+
+    /**
+     * Test encoding and decoding a result.
+     */
+    public void testRoundTrip() {
+        CompoundResult expected = sampleResult("17579");
+        expected.getGenes().get("P0C618").get(0).put("desc", null);
+        byte[] bytes = CompoundResultCodec.encode(expected);
+        assertSameResult(expected,
+                CompoundResultCodec.decode(ByteBuffer.wrap(bytes)));
+    }
+
+    /**
+     * Test writing results to a file and reading them back.
+     * @throws IOException if the file cannot be written
+     */
+    public void testFile() throws IOException {
+        CompoundResult first = sampleResult("17579");
+        CompoundResult second = sampleResult("15948");
+        File file = File.createTempFile("chebi2gene", ".bin");
+        OutputStream out = new FileOutputStream(file);
+        CompoundResultCodec.write(out, first);
+        CompoundResultCodec.write(out, second);
+        out.close();
+
+        ByteBuffer in = CompoundResultCodec.map(file);
+        assertSameResult(first, CompoundResultCodec.read(in));
+        assertSameResult(second, CompoundResultCodec.read(in));
+        assertNull(CompoundResultCodec.read(in));
+        file.delete();
+    }
+
+    /**
+     * Test the compact mode of the ResultCache.
+     */
+    public void testCompactCache() {
+        ResultCache cache = new ResultCache(2, true);
+        CompoundResult expected = sampleResult("17579");
+        cache.put(expected);
+        assertSameResult(expected, cache.get("17579"));
+        assertEquals(1, cache.getHits());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.Random;
+import java.util.TreeSet;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the CompressedBitSet class.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class CompressedBitSetTest extends TestCase {
+
+    public CompressedBitSetTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Returns random values, dense in the first chunk and sparse after.
+     * @param random the random generator
+     * @param expected the values drawn, filled
+     * @return the values, with duplicates
+     */
+    private static int[] draw(Random random, TreeSet<Integer> expected) {
+        int[] values = new int[12000];
+        for (int cnt = 0; cnt < values.length; cnt++) {
+            values[cnt] = cnt % 2 == 0 ? random.nextInt(20000)
+                    : random.nextInt(1 << 22);
+            expected.add(values[cnt]);
+        }
+        return values;
+    }
+
+    /**
+     * Test the content and the intersection of array and bitmap chunks
+     * against a TreeSet.
+     */
+    public void testAgainstTreeSet() {
+        Random random = new Random(42);
+        TreeSet<Integer> expected1 = new TreeSet<Integer>();
+        TreeSet<Integer> expected2 = new TreeSet<Integer>();
+        CompressedBitSet set1 = CompressedBitSet.of(draw(random, expected1));
+        CompressedBitSet set2 = CompressedBitSet.of(draw(random, expected2));
+        assertEquals(expected1.size(), set1.cardinality());
+        int pos = 0;
+        int[] values = set1.toArray();
+        for (int value : expected1) {
+            assertEquals(value, values[pos++]);
+            assertTrue(set1.contains(value));
+        }
+        assertFalse(set1.contains(-1));
+
+        TreeSet<Integer> both = new TreeSet<Integer>(expected1);
+        both.retainAll(expected2);
+        assertEquals(both.size(), set1.andCardinality(set2));
+        assertEquals(both.size(), set2.andCardinality(set1));
+        assertEquals(set1.cardinality(), set1.andCardinality(set1));
+        assertEquals(0, set1.andCardinality(CompressedBitSet.of(new int[0])));
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import com.hp.hpl.jena.query.QueryCancelledException;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the Deadline class and of the resolution of a compound
+ * under a deadline.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class DeadlineTest extends TestCase {
+
+    public DeadlineTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test that the timeout of the queries is shortened to the time left
+     * and that no query is allowed once the deadline has passed.
+     * @throws InterruptedException if interrupted
+     */
+    public void testTimeout() throws InterruptedException {
+        assertEquals(500, Deadline.timeout(500));
+        Deadline deadline = Deadline.after(10000);
+        Deadline previous = deadline.attach();
+        try {
+            assertTrue(Deadline.timeout(0) > 9000);
+            assertEquals(500, Deadline.timeout(500));
+        } finally {
+            Deadline.detach(previous);
+        }
+        assertNull(Deadline.current());
+
+        deadline = Deadline.after(1);
+        Thread.sleep(5);
+        assertTrue(deadline.isExpired());
+        assertEquals(0, deadline.remaining());
+        previous = deadline.attach();
+        try {
+            Deadline.timeout(0);
+            fail("Query allowed after the deadline");
+        } catch (QueryCancelledException ex) {
+            // expected
+        } finally {
+            Deadline.detach(previous);
+        }
+    }
+
+    /**
+     * Test that a compound whose annotations are not found in time is
+     * returned with its proteins and the pathways found before the
+     * deadline, marked incomplete and not cached.
+     * @throws IOException if the endpoint cannot be started
+     */
+    public void testPartialResults() throws IOException {
+        final Model model = QueryRdfLocalTest.sampleModel();
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicLong hint = new AtomicLong();
+        final CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/sparql", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String form = exchange.getRequestURI().getRawQuery();
+                String query = null;
+                for (String pair : form.split("&")) {
+                    String value = URLDecoder.decode(
+                            pair.substring(pair.indexOf('=') + 1), "UTF-8");
+                    if (pair.startsWith("query=")) {
+                        query = value;
+                    } else if (pair.startsWith("timeout=")) {
+                        hint.set(Long.parseLong(value));
+                    }
+                }
+                if (requests.incrementAndGet() > 2) {
+                    // Only the proteins and the pathways of the first
+                    // reaction are answered, in time.
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                byte[] bytes = SparqlHttpClientTest.serialize(model, query,
+                        "json");
+                exchange.getResponseHeaders().set("Content-Type",
+                        "application/sparql-results+json");
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        try {
+            QueryRdf remote = QueryRdf.builder().endpoint("http://127.0.0.1:"
+                    + server.getAddress().getPort() + "/sparql").build();
+            ResultCache cache = new ResultCache(10);
+            Chebi2gene c2g = new Chebi2gene(remote);
+            c2g.setCache(cache);
+            c2g.setDeadline(Deadline.after(1500));
+            long start = System.currentTimeMillis();
+            c2g.Chebi2gene("17579");
+            long elapsed = System.currentTimeMillis() - start;
+
+            assertFalse(c2g.isComplete());
+            assertTrue("Took " + elapsed + " ms", elapsed < 5000);
+            assertEquals(QueryRdf.builder().model(model).build()
+                    .getProteinOfChebi("17579"), c2g.getProteins());
+            assertFalse(c2g.getProteins().isEmpty());
+            HashMap<String, ArrayList<String>> first =
+                    new HashMap<String, ArrayList<String>>();
+            Entry<String, ArrayList<String>> reaction =
+                    c2g.getProteins().entrySet().iterator().next();
+            first.put(reaction.getKey(), reaction.getValue());
+            HashMap<String, ArrayList<String>> pathways =
+                    QueryRdf.builder().model(model).build()
+                    .getPathwaysOfProteins(first);
+            assertFalse(pathways.isEmpty());
+            assertEquals(pathways, c2g.getPathways());
+            assertTrue(c2g.getGenes().isEmpty());
+            assertTrue(hint.get() > 0 && hint.get() <= 1500);
+            assertNull(cache.get("17579"));
+            assertNull(Deadline.current());
+        } finally {
+            release.countDown();
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Test that a remote select query through ARQ runs with a timeout and
+     * under a deadline, the timeout being sent to the endpoint.
+     * @throws IOException if the endpoint cannot be started
+     */
+    public void testRemoteTimeout() throws IOException {
+        final Model model = QueryRdfLocalTest.sampleModel();
+        final AtomicLong hint = new AtomicLong();
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/sparql", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String query = null;
+                for (String pair : exchange.getRequestURI().getRawQuery()
+                        .split("&")) {
+                    String value = URLDecoder.decode(
+                            pair.substring(pair.indexOf('=') + 1), "UTF-8");
+                    if (pair.startsWith("query=")) {
+                        query = value;
+                    } else if (pair.startsWith("timeout=")) {
+                        hint.set(Long.parseLong(value));
+                    }
+                }
+                byte[] bytes = SparqlHttpClientTest.serialize(model, query,
+                        "xml");
+                exchange.getResponseHeaders().set("Content-Type",
+                        "application/sparql-results+xml");
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.start();
+        try {
+            QueryRdf remote = QueryRdf.builder().endpoint("http://127.0.0.1:"
+                    + server.getAddress().getPort() + "/sparql")
+                    .timeout(5000).build();
+            String query = "SELECT DISTINCT ?s WHERE { ?s ?p ?o }";
+            QueryExecution qexec = QueryExecutionFactory.create(query, model);
+            ArrayList<String> expected;
+            try {
+                expected = remote.getResults(qexec.execSelect(), "s",
+                        new ArrayList<String>());
+            } finally {
+                qexec.close();
+            }
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, remote.remoteSelectQuery(query,
+                    new ArrayList<String>(), "s"));
+            assertEquals(5000, hint.get());
+
+            Deadline previous = Deadline.after(3000).attach();
+            try {
+                assertEquals(expected.size(), remote.remoteSelectQuery(query,
+                        new ArrayList<ArrayList<String>>(),
+                        new String[]{"s"}).size());
+            } finally {
+                Deadline.detach(previous);
+            }
+            assertTrue(hint.get() > 0 && hint.get() <= 3000);
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the EnrichmentAnalysis class.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class EnrichmentAnalysisTest extends TestCase {
+
+    public EnrichmentAnalysisTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Returns a compound with one protein, linked to the given pathways and
+     * to a gene.
+     * @param chebi_id the chebi identifier
+     * @param gene the name of the gene
+     * @param names the pathways
+     * @return the CompoundResult
+     */
+    private static CompoundResult compound(String chebi_id, String gene,
+            String... names) {
+        String prot = "P" + chebi_id;
+        HashMap<String, ArrayList<String>> proteins =
+                new HashMap<String, ArrayList<String>>();
+        proteins.put("R" + chebi_id, new ArrayList<String>(
+                Arrays.asList(prot)));
+        HashMap<String, ArrayList<String>> pathways =
+                new HashMap<String, ArrayList<String>>();
+        pathways.put(prot, new ArrayList<String>(Arrays.asList(names)));
+        HashMap<String, String> info = new HashMap<String, String>();
+        info.put("name", gene);
+        HashMap<String, ArrayList<HashMap<String, String>>> genes =
+                new HashMap<String, ArrayList<HashMap<String, String>>>();
+        genes.put(prot, new ArrayList<HashMap<String, String>>(
+                Arrays.asList(info)));
+        return new CompoundResult(chebi_id, proteins, pathways,
+                new HashMap<String, ArrayList<String>>(), genes);
+    }
+
+    /**
+     * Test the p-values on a small background against the exact ones.
+     */
+    public void testSmallBackground() {
+        ArrayList<CompoundResult> background = new ArrayList<CompoundResult>();
+        for (int cnt = 0; cnt < 10; cnt++) {
+            background.add(cnt < 4 ? compound("c" + cnt, "g1", "A", "B")
+                    : compound("c" + cnt, "g2", "B"));
+        }
+        EnrichmentAnalysis analysis = new EnrichmentAnalysis(background);
+        assertEquals(10, analysis.size());
+        assertEquals(2, analysis.getPathwayCount());
+        assertEquals(2, analysis.getGeneCount());
+
+        // 2 of the 3 compounds of the list in a set of 4 out of 10:
+        // (C(4,2) C(6,1) + C(4,3) C(6,0)) / C(10,3) = 40 / 120.
+        List<EnrichmentAnalysis.Term> terms = analysis.enrichPathways(
+                Arrays.asList("c0", "CHEBI:c1", "c5", "unknown"));
+        assertEquals(2, terms.size());
+        EnrichmentAnalysis.Term top = terms.get(0);
+        assertEquals("A", top.getName());
+        assertEquals(Arrays.asList("c0", "c1"), top.getCompounds());
+        assertEquals(4, top.getSize());
+        assertEquals(3, top.getListSize());
+        assertEquals(1.0 / 3, top.getPValue(), 1e-12);
+        assertEquals(2.0 / 3, top.getQValue(), 1e-12);
+        assertEquals(1.0, terms.get(1).getPValue(), 1e-12);
+
+        assertEquals("g1", analysis.enrichGenes(
+                Arrays.asList("c0", "c1")).get(0).getName());
+        assertTrue(analysis.enrichGenes(
+                Arrays.asList("unknown")).isEmpty());
+    }
+
+    /**
+     * Test the overlaps of many sets, tested in parallel, against a direct
+     * count.
+     */
+    public void testManySets() {
+        Random random = new Random(7);
+        ArrayList<CompoundResult> background = new ArrayList<CompoundResult>();
+        HashMap<String, HashSet<String>> members =
+                new HashMap<String, HashSet<String>>();
+        for (int cnt = 0; cnt < 5000; cnt++) {
+            String[] names = new String[3];
+            for (int idx = 0; idx < names.length; idx++) {
+                names[idx] = "pw" + random.nextInt(2000);
+                if (!members.containsKey(names[idx])) {
+                    members.put(names[idx], new HashSet<String>());
+                }
+                members.get(names[idx]).add(Integer.toString(cnt));
+            }
+            background.add(compound(Integer.toString(cnt), "g", names));
+        }
+        EnrichmentAnalysis analysis = new EnrichmentAnalysis(background);
+        ArrayList<String> list = new ArrayList<String>();
+        for (int cnt = 0; cnt < 5000; cnt += 7) {
+            list.add(Integer.toString(cnt));
+        }
+        List<EnrichmentAnalysis.Term> terms = analysis.enrichPathways(list);
+        assertFalse(terms.isEmpty());
+        double previous = 0;
+        for (EnrichmentAnalysis.Term term : terms) {
+            HashSet<String> both = new HashSet<String>(
+                    members.get(term.getName()));
+            both.retainAll(list);
+            assertEquals(both.size(), term.getOverlap());
+            assertEquals(members.get(term.getName()).size(), term.getSize());
+            assertTrue(term.getPValue() >= previous);
+            assertTrue(term.getQValue() >= term.getPValue());
+            previous = term.getPValue();
+        }
+    }
+}
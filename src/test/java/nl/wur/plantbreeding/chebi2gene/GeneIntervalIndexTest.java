@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the GeneIntervalIndex class.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class GeneIntervalIndexTest extends TestCase {
+
+    public GeneIntervalIndexTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test the index of the sample compounds.
+     */
+    public void testSample() {
+        GeneIntervalIndex index = new GeneIntervalIndex(Arrays.asList(
+                CompoundResultCodecTest.sampleResult("17579"),
+                CompoundResultCodecTest.sampleResult("15377")));
+        assertEquals(Arrays.asList("Solyc10g079480.1.1"),
+                index.getGenes("SL2.40ch10", 60333713, 60400000));
+        assertTrue(index.getGenes("SL2.40ch10", 60333714, 60400000)
+                .isEmpty());
+        assertTrue(index.getGenes("unknown", 0, Long.MAX_VALUE).isEmpty());
+        assertEquals(new TreeSet<String>(Arrays.asList("15377", "17579")),
+                index.getCompounds("SL2.40ch10", 0, 60329890));
+    }
+
+    /**
+     * Test loading the index from an export.
+     * @throws IOException if the export fails
+     */
+    public void testLoad() throws IOException {
+        QueryRdf query = new QueryRdf();
+        query.setModel(QueryRdfLocalTest.sampleModel());
+        File file = File.createTempFile("chebi2gene", ".col");
+        new BulkExporter(query).export(file);
+        GeneIntervalIndex index = GeneIntervalIndex.load(file);
+        assertEquals(3, index.size());
+        assertEquals(new TreeSet<String>(Arrays.asList("15377", "17579")),
+                index.getCompounds("SL2.40ch10", 60330000, 60330000));
+        file.delete();
+    }
+
+    /**
+     * Test that typed positions are read from their lexical form and that
+     * a gene whose position is not a number is ignored.
+     */
+    public void testTypedPositions() {
+        HashMap<String, ArrayList<HashMap<String, String>>> map =
+                new HashMap<String, ArrayList<HashMap<String, String>>>();
+        String[][] genes = {
+            {"typed", "100^^http://www.w3.org/2001/XMLSchema#int",
+                "200^^http://www.w3.org/2001/XMLSchema#int"},
+            {"plain", "150", "300"},
+            {"invalid", "unknown", "400"}};
+        for (String[] values : genes) {
+            HashMap<String, String> gene = new HashMap<String, String>();
+            gene.put("name", values[0]);
+            gene.put("sca", "ch1");
+            gene.put("start", values[1]);
+            gene.put("stop", values[2]);
+            map.put("P" + values[0], new ArrayList<HashMap<String, String>>(
+                    Arrays.asList(gene)));
+        }
+        GeneIntervalIndex index = new GeneIntervalIndex(Arrays.asList(
+                new CompoundResult("1",
+                new HashMap<String, ArrayList<String>>(),
+                new HashMap<String, ArrayList<String>>(),
+                new HashMap<String, ArrayList<String>>(), map)));
+        assertEquals(2, index.size());
+        assertEquals(Arrays.asList("typed"), index.getGenes("ch1", 0, 120));
+        assertEquals(new TreeSet<String>(Arrays.asList("plain", "typed")),
+                new TreeSet<String>(index.getGenes("ch1", 160, 500)));
+    }
+
+    /**
+     * Compare the index with a linear scan of random genes.
+     */
+    public void testRandom() {
+        Random random = new Random(42);
+        ArrayList<CompoundResult> results = new ArrayList<CompoundResult>();
+        long[][] genes = new long[2000][];
+        for (int cnt = 0; cnt < genes.length; cnt++) {
+            long start = random.nextInt(1000000);
+            long stop = start + random.nextInt(cnt % 10 == 0 ? 50000 : 2000);
+            genes[cnt] = new long[]{cnt % 3, start, stop};
+            HashMap<String, String> gene = new HashMap<String, String>();
+            gene.put("name", "gene" + cnt);
+            gene.put("sca", "ch" + (cnt % 3));
+            gene.put("start", Long.toString(start));
+            gene.put("stop", Long.toString(stop));
+            HashMap<String, ArrayList<HashMap<String, String>>> map =
+                    new HashMap<String, ArrayList<HashMap<String, String>>>();
+            map.put("P" + cnt, new ArrayList<HashMap<String, String>>(
+                    Arrays.asList(gene)));
+            results.add(new CompoundResult(Integer.toString(cnt % 500),
+                    new HashMap<String, ArrayList<String>>(),
+                    new HashMap<String, ArrayList<String>>(),
+                    new HashMap<String, ArrayList<String>>(), map));
+        }
+        GeneIntervalIndex index = new GeneIntervalIndex(results);
+        for (int query = 0; query < 500; query++) {
+            int sca = random.nextInt(3);
+            long start = random.nextInt(1000000);
+            long stop = start + random.nextInt(20000);
+            TreeSet<String> expected = new TreeSet<String>();
+            for (int cnt = 0; cnt < genes.length; cnt++) {
+                if (genes[cnt][0] == sca && genes[cnt][1] <= stop
+                        && genes[cnt][2] >= start) {
+                    expected.add("gene" + cnt);
+                }
+            }
+            List<String> found = index.getGenes("ch" + sca, start, stop);
+            assertEquals(expected.size(), found.size());
+            assertEquals(expected, new TreeSet<String>(found));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the GroupCollector class.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class GroupCollectorTest extends TestCase {
+
+    public GroupCollectorTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test grouping with and without deduplication.
+     */
+    public void testGroups() {
+        GroupCollector<String> distinct = new GroupCollector<String>(true);
+        GroupCollector<String> all = new GroupCollector<String>(false);
+        for (String[] row : new String[][]{{"r1", "P2"}, {"r1", "P1"},
+                    {"r2", "P1"}, {"r1", "P2"}}) {
+            distinct.add(row[0], row[1]);
+            all.add(row[0], row[1]);
+        }
+        HashMap<String, ArrayList<String>> map = distinct.toMap();
+        assertEquals(Arrays.asList("P2", "P1"), map.get("r1"));
+        assertEquals(Arrays.asList("P1"), map.get("r2"));
+        assertEquals(Arrays.asList("P2", "P1", "P2"), all.toMap().get("r1"));
+
+        HashMap<String, ArrayList<String>> existing =
+                new HashMap<String, ArrayList<String>>();
+        existing.put("r1", new ArrayList<String>(Arrays.asList("P3", "P1")));
+        distinct.addTo(existing);
+        assertEquals(Arrays.asList("P3", "P1", "P2"), existing.get("r1"));
+        assertEquals(Arrays.asList("P1"), existing.get("r2"));
+    }
+}
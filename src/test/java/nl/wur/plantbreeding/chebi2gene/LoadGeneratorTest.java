@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the LoadGenerator and LatencyHistogram classes, run on the
+ * sample graphs.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class LoadGeneratorTest extends TestCase {
+
+    public LoadGeneratorTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test that the buckets of the histogram are contiguous and that its
+     * percentiles are within the precision of a bucket.
+     */
+    public void testHistogram() {
+        for (long value = 0; value < 100000; value++) {
+            int idx = LatencyHistogram.indexOf(value);
+            assertTrue(value <= LatencyHistogram.highestOf(idx));
+            assertTrue(idx == 0 || value > LatencyHistogram.highestOf(idx - 1));
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000.5, histogram.getMean(), 1e-6);
+        assertEquals(50000, histogram.getValueAtPercentile(50), 50000 / 128.);
+        assertEquals(99000, histogram.getValueAtPercentile(99), 99000 / 128.);
+        assertEquals(100000, histogram.getValueAtPercentile(100));
+    }
+
+    /**
+     * Test the reading of a recorded workload and the popularity of the
+     * compounds of a synthetic one.
+     * @throws IOException if the workload cannot be written
+     */
+    public void testWorkload() throws IOException {
+        File file = File.createTempFile("chebi2gene", ".workload");
+        Writer out = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        out.write("# recorded\nCHEBI:17579\ncompound 15948\n\n"
+                + "search beta-carotene\nbulk 17579 CHEBI:35309\n");
+        out.close();
+        List<LoadGenerator.Request> workload =
+                LoadGenerator.loadWorkload(file);
+        file.delete();
+        assertEquals(4, workload.size());
+        assertEquals("compound 17579", workload.get(0).toString());
+        assertEquals("compound 15948", workload.get(1).toString());
+        assertEquals("search beta-carotene", workload.get(2).toString());
+        assertEquals(Arrays.asList("17579", "35309"),
+                workload.get(3).getArguments());
+
+        List<String> ids = Arrays.asList("1", "2", "3", "4", "5", "6", "7",
+                "8", "9", "10");
+        workload = LoadGenerator.syntheticWorkload(ids,
+                Collections.singletonList("carotene"), 10000, 1.0, 0.1, 0.01,
+                5, 42);
+        int[] counts = new int[ids.size()];
+        int searches = 0;
+        int bulks = 0;
+        for (LoadGenerator.Request request : workload) {
+            if (LoadGenerator.SEARCH.equals(request.getKind())) {
+                searches++;
+            } else if (LoadGenerator.BULK.equals(request.getKind())) {
+                assertEquals(5, request.getArguments().size());
+                bulks++;
+            } else {
+                counts[ids.indexOf(request.getArguments().get(0))]++;
+            }
+        }
+        assertEquals(1000, searches, 100);
+        assertEquals(100, bulks, 40);
+        // With a skew of 1, the first compound is twice as popular as the
+        // second and ten times as popular as the tenth.
+        assertEquals(2.0, (double) counts[0] / counts[1], 0.3);
+        assertEquals(10.0, (double) counts[0] / counts[9], 2.5);
+    }
+
+    /**
+     * Test a short run in process: every request is timed and the repeated
+     * compounds are found in the cache.
+     * @throws InterruptedException if interrupted
+     */
+    public void testRun() throws InterruptedException {
+        ResultCache cache = new ResultCache(10);
+        QueryRdf query = QueryRdf.builder()
+                .model(QueryRdfLocalTest.sampleModel()).cache(cache).build();
+        LoadGenerator generator = new LoadGenerator(query, cache);
+        generator.setThreads(4);
+        generator.setPoisson(true);
+        List<LoadGenerator.Request> workload = Arrays.asList(
+                LoadGenerator.parseRequest("17579"),
+                LoadGenerator.parseRequest("15948"),
+                LoadGenerator.parseRequest("search carotene"),
+                LoadGenerator.parseRequest("bulk 17579 35309"));
+        LoadGenerator.Report report = generator.run(workload, 200, 40);
+        assertEquals(40, report.getRequests());
+        assertEquals(0, report.getErrors());
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.getLatency(50) <= report.getLatency(99));
+        assertTrue(report.getServiceTime(99) <= report.getLatency(100));
+        assertTrue(report.getCacheHitRatio() > 0.5);
+        assertTrue(report.toString().contains("requests      40, 0 errors"));
+    }
+}
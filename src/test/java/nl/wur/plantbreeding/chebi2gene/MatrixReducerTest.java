@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the MatrixReducer class.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class MatrixReducerTest extends TestCase {
+
+    public MatrixReducerTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test that decoding in parallel gives the same groups, in the same
+     * order, as decoding sequentially.
+     */
+    public void testParallelSameAsSequential() {
+        ArrayList<List<String>> matrix = new ArrayList<List<String>>();
+        for (int cnt = 0; cnt < 5000; cnt++) {
+            matrix.add(Arrays.asList("http://rdf#R" + (cnt * 7 % 97),
+                    "UNIPROT:P" + (cnt % 13)));
+        }
+        GroupCollector.Decoder<String> decoder =
+                new GroupCollector.Decoder<String>(true) {
+
+                    @Override
+                    public void add(final GroupCollector<String> acc,
+                            final List<String> row) {
+                        acc.add(row.get(0).split("#")[1],
+                                row.get(1).split(":")[1]);
+                    }
+                };
+        GroupCollector<String> sequential =
+                MatrixReducer.reduce(matrix, decoder, false, 16);
+        GroupCollector<String> parallel =
+                MatrixReducer.reduce(matrix, decoder, true, 16);
+        assertEquals(97, sequential.toMap().size());
+        assertEquals(new ArrayList<String>(sequential.toMap().keySet()),
+                new ArrayList<String>(parallel.toMap().keySet()));
+        assertEquals(sequential.toMap(), parallel.toMap());
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Runs the queries of QueryRdf against a small local model, so they can be
+ * tested without access to the sparql endpoint.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class QueryRdfLocalTest extends TestCase {
+
+    /** The QueryRdf object used to run the query. */
+    private final QueryRdf instance = new QueryRdf();
+
+    public QueryRdfLocalTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Load the sample graphs shipped with the tests in a new model.
+     * @return the Model
+     */
+    static Model sampleModel() {
+        Model model = ModelFactory.createDefaultModel();
+        InputStream in = QueryRdfLocalTest.class.getResourceAsStream(
+                "/chebi2gene-sample.nt");
+        model.read(in, null, "N-TRIPLE");
+        return model;
+    }
+
+    @Override
+    public final void setUp() {
+        instance.setModel(sampleModel());
+    }
+
+    /**
+     * Test of getExactChebiFromSearch method, of class QueryRdf.
+     */
+    public void testGetExactChebiFromSearch() {
+        HashMap<String, HashMap<String, ArrayList<String>>> result =
+                instance.getExactChebiFromSearch("(5S,6R)-beta");
+        assertEquals(1, result.size());
+        assertEquals("(5S,6R)-beta-carotene 5,6-epoxide",
+                result.get("35309").get("name").get(0));
+    }
+
+    /**
+     * Test that a search string cannot change the query.
+     */
+    public void testSearchIsEscaped() {
+        assertTrue(instance.getExactChebiFromSearch(".*").isEmpty());
+        assertTrue(instance.getExtendedChebiFromSearch(
+                "\") || true || regex(?name, \"").isEmpty());
+    }
+
+    /**
+     * Test of getExtendedChebiFromSearch method, of class QueryRdf.
+     */
+    public void testGetExtendedChebiFromSearch() {
+        HashMap<String, HashMap<String, ArrayList<String>>> result =
+                instance.getExtendedChebiFromSearch("psi,psi");
+        assertEquals(1, result.size());
+        assertEquals("lycopene", result.get("15948").get("name").get(0));
+    }
+
+    /**
+     * Test of getProteinOfChebi method, of class QueryRdf.
+     */
+    public void testGetProteinOfChebi() {
+        HashMap<String, ArrayList<String>> result =
+                instance.getProteinOfChebi("17579");
+        assertEquals(2, result.size());
+        assertEquals(2, result.get("16740").size());
+        assertTrue(result.get("16740").contains("P0C618"));
+        assertTrue(result.get("30403").contains("P93236"));
+    }
+
+    /**
+     * Test that getProteinOfChebis merges the answers of the batches sent
+     * for a long list of compounds.
+     */
+    public void testGetProteinOfChebisBatches() {
+        ArrayList<String> ids = new ArrayList<String>();
+        for (int cnt = 0; cnt < 1200; cnt++) {
+            ids.add("9" + cnt);
+        }
+        ids.add(0, "17579");
+        ids.add(700, "15948");
+        ids.add("15377");
+        HashMap<String, HashMap<String, ArrayList<String>>> result =
+                instance.getProteinOfChebis(ids);
+        assertEquals(3, result.size());
+        assertEquals(instance.getProteinOfChebi("17579"),
+                result.get("17579"));
+        assertEquals(instance.getProteinOfChebi("15948"),
+                result.get("15948"));
+        assertTrue(instance.getProteinOfChebis(
+                new ArrayList<String>()).isEmpty());
+    }
+
+    /**
+     * Test of getGenesOfProteins method, of class QueryRdf, by reaction
+     * and for a set of proteins.
+     */
+    public void testGetGenesOfProteins() {
+        HashMap<String, ArrayList<HashMap<String, String>>> result =
+                instance.getGenesOfProteins(
+                instance.getProteinOfChebi("17579"));
+        assertEquals(3, result.size());
+        assertEquals("SL2.40ch06", result.get("P0C618").get(0).get("sca"));
+
+        ArrayList<String> prots = new ArrayList<String>();
+        for (ArrayList<String> list
+                : instance.getProteinOfChebi("17579").values()) {
+            prots.addAll(list);
+            prots.addAll(list);
+        }
+        assertEquals(asSets(result),
+                asSets(instance.getGenesOfProteins(prots)));
+        assertEquals(1, instance.getGenesOfProteins(prots).get("P0C618")
+                .size());
+    }
+
+    /**
+     * Test of getOrganismOfProteins method, of class QueryRdf.
+     */
+    public void testGetOrganismOfProteins() {
+        HashMap<String, ArrayList<String>> result =
+                instance.getOrganismOfProteins(
+                instance.getProteinOfChebi("17579"));
+        ArrayList<String> expectedOrga = new ArrayList<String>();
+        expectedOrga.add("Arabidopsis thaliana");
+        assertEquals(expectedOrga, result.get("Q38933"));
+    }
+
+    /**
+     * Test of getPathwaysOfProteins method, of class QueryRdf.
+     */
+    public void testGetPathwaysOfProteins() {
+        HashMap<String, ArrayList<String>> result =
+                instance.getPathwaysOfProteins(
+                instance.getProteinOfChebi("17579"));
+        assertEquals(2, result.get("Q38933").size());
+        assertEquals(1, result.get("P0C618").size());
+    }
+
+    /**
+     * Test of getAnnotationsOfProteins method, of class QueryRdf.
+     */
+    public void testGetAnnotationsOfProteins() {
+        HashMap<String, ArrayList<String>> proteins =
+                instance.getProteinOfChebi("17579");
+        HashMap<String, ArrayList<HashMap<String, String>>> genes =
+                new HashMap<String, ArrayList<HashMap<String, String>>>();
+        HashMap<String, ArrayList<String>> organisms =
+                new HashMap<String, ArrayList<String>>();
+        HashMap<String, ArrayList<String>> pathways =
+                new HashMap<String, ArrayList<String>>();
+        instance.getAnnotationsOfProteins(proteins, genes, organisms,
+                pathways);
+        assertEquals(instance.getOrganismOfProteins(proteins), organisms);
+        HashMap<String, ArrayList<String>> expected =
+                instance.getPathwaysOfProteins(proteins);
+        assertEquals(expected.keySet(), pathways.keySet());
+        for (String prot : expected.keySet()) {
+            assertEquals(new HashSet<String>(expected.get(prot)),
+                    new HashSet<String>(pathways.get(prot)));
+        }
+        assertEquals(3, genes.size());
+        assertEquals(1, genes.get("Q38933").size());
+        assertEquals(instance.getGenesOfProteins(proteins).get("P0C618"),
+                genes.get("P0C618"));
+    }
+
+    /**
+     * Test of getChebiOfGenes method, of class QueryRdf.
+     */
+    public void testGetChebiOfGenes() {
+        HashMap<String, HashMap<String, ArrayList<String>>> result =
+                instance.getChebiOfGenes(Arrays.asList(
+                "Solyc10g079480.1.1", "Solyc04g040190.1.1", "unknown"));
+        assertEquals(2, result.size());
+        assertEquals(new HashSet<String>(Arrays.asList("17579", "15377")),
+                new HashSet<String>(result.get("Solyc10g079480.1.1")
+                .get("30403")));
+        assertEquals(2, result.get("Solyc04g040190.1.1").size());
+    }
+
+    /**
+     * Test of the streaming queries, with a memory budget small enough to
+     * spill every row to disk.
+     * @throws IOException if the rows cannot be spilled
+     */
+    public void testStreamProteinOfChebi() throws IOException {
+        instance.setMemoryBudget(1);
+        final HashMap<String, ArrayList<String>> proteins =
+                new HashMap<String, ArrayList<String>>();
+        instance.streamProteinOfChebi("17579", new GroupHandler() {
+
+            @Override
+            public void group(String key, List<String[]> rows) {
+                assertFalse(proteins.containsKey(key));
+                ArrayList<String> prots = new ArrayList<String>();
+                for (String[] row : rows) {
+                    prots.add(row[0]);
+                }
+                proteins.put(key, prots);
+            }
+        });
+        HashMap<String, ArrayList<String>> expected =
+                instance.getProteinOfChebi("17579");
+        assertEquals(expected.keySet(), proteins.keySet());
+        for (String react : expected.keySet()) {
+            assertEquals(new HashSet<String>(expected.get(react)),
+                    new HashSet<String>(proteins.get(react)));
+        }
+
+        final ArrayList<String> genes = new ArrayList<String>();
+        instance.streamGenesOfProteins(Arrays.asList("Q38933", "P93236",
+                "Q38933"), new GroupHandler() {
+
+            @Override
+            public void group(String key, List<String[]> rows) {
+                assertEquals(1, rows.size());
+                genes.add(key + "=" + rows.get(0)[0]);
+            }
+        });
+        assertEquals(Arrays.asList("P93236=Solyc10g079480.1.1",
+                "Q38933=Solyc04g040190.1.1"), genes);
+    }
+
+    /**
+     * Test that a QueryRdf object made by the Builder is configured and
+     * frozen.
+     */
+    public void testBuilder() {
+        ResultCache cache = new ResultCache(10, false);
+        QueryRdf shared = QueryRdf.builder().model(sampleModel())
+                .cache(cache).build();
+        assertTrue(shared.isFrozen());
+        assertSame(cache, shared.getCache());
+        assertEquals(2, shared.getProteinOfChebi("17579").size());
+        try {
+            shared.setService("http://localhost/sparql");
+            fail("A frozen QueryRdf must not be reconfigured");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        Chebi2gene c2g = new Chebi2gene(shared);
+        c2g.Chebi2gene("17579");
+        assertNotNull(cache.get("17579"));
+        assertSame(QueryRdf.getDefault(), QueryRdf.getDefault());
+        assertFalse(instance.isFrozen());
+    }
+
+    /**
+     * Test the genes of several genomes, tagged by genome. The local model
+     * ignores the graphs, so every genome finds the same genes.
+     */
+    public void testGenomes() {
+        QueryRdf multi = QueryRdf.builder().model(sampleModel())
+                .genome("tomato", QueryRdf.ITAG_GRAPH)
+                .genome("potato", "http://potato.pbr.wur.nl/").build();
+        assertEquals(Arrays.asList("tomato", "potato"), multi.getGenomes());
+        assertTrue(instance.getGenomes().isEmpty());
+        HashMap<String, ArrayList<String>> proteins =
+                instance.getProteinOfChebi("17579");
+        HashMap<String, ArrayList<HashMap<String, String>>> expected =
+                instance.getGenesOfProteins(proteins);
+        HashMap<String, ArrayList<HashMap<String, String>>> result =
+                multi.getGenesOfProteins(proteins);
+        assertEquals(expected.keySet(), result.keySet());
+        for (String prot : expected.keySet()) {
+            HashSet<HashMap<String, String>> tagged =
+                    new HashSet<HashMap<String, String>>();
+            for (HashMap<String, String> gene : expected.get(prot)) {
+                for (String genome : multi.getGenomes()) {
+                    HashMap<String, String> copy =
+                            new HashMap<String, String>(gene);
+                    copy.put("genome", genome);
+                    tagged.add(copy);
+                }
+            }
+            assertEquals(tagged, new HashSet<HashMap<String, String>>(
+                    result.get(prot)));
+        }
+
+        HashMap<String, ArrayList<HashMap<String, String>>> genes =
+                new HashMap<String, ArrayList<HashMap<String, String>>>();
+        HashMap<String, ArrayList<String>> organisms =
+                new HashMap<String, ArrayList<String>>();
+        HashMap<String, ArrayList<String>> pathways =
+                new HashMap<String, ArrayList<String>>();
+        multi.getAnnotationsOfProteins(proteins, genes, organisms, pathways);
+        assertEquals(asSets(result), asSets(genes));
+        assertEquals(instance.getOrganismOfProteins(proteins), organisms);
+        assertEquals(asSets(instance.getPathwaysOfProteins(proteins)),
+                asSets(pathways));
+
+        List<String> names = Arrays.asList("Solyc10g079480.1.1",
+                "Solyc04g040190.1.1", "unknown");
+        assertEquals(asSets(instance.getProteinsOfGenes(names)),
+                asSets(multi.getProteinsOfGenes(names)));
+    }
+
+    /**
+     * Returns the lists of a dictionary as sets, to compare results which
+     * may come in another order.
+     * @param map the dictionary
+     * @return the dictionary of sets
+     */
+    private static HashMap<String, HashSet<Object>> asSets(
+            HashMap<String, ? extends List<?>> map) {
+        HashMap<String, HashSet<Object>> output =
+                new HashMap<String, HashSet<Object>>();
+        for (String key : map.keySet()) {
+            output.put(key, new HashSet<Object>(map.get(key)));
+        }
+        return output;
+    }
+
+    /**
+     * Test that Chebi2gene resolves a compound within the memory budget:
+     * with a budget of one byte every row goes through the spill path, and
+     * the results are the same as in memory, without any run file left
+     * behind.
+     * @throws IOException if the temporary file cannot be created
+     */
+    public void testChebi2geneWithinBudget() throws IOException {
+        File spillDirectory = File.createTempFile("chebi2gene", ".spill");
+        spillDirectory.delete();
+        spillDirectory.mkdir();
+        QueryRdf spilled = QueryRdf.builder().model(instance.getModel())
+                .memoryBudget(1).spillDirectory(spillDirectory).build();
+        for (boolean oneShot : new boolean[]{false, true}) {
+            Chebi2gene expected = new Chebi2gene(instance);
+            expected.setOneShot(oneShot);
+            expected.Chebi2gene("17579");
+            Chebi2gene result = new Chebi2gene(spilled);
+            result.setOneShot(oneShot);
+            result.Chebi2gene("17579");
+            assertEquals(asSets(expected.getProteins()),
+                    asSets(result.getProteins()));
+            assertEquals(asSets(expected.getGenes()),
+                    asSets(result.getGenes()));
+            assertEquals(asSets(expected.getOrganisms()),
+                    asSets(result.getOrganisms()));
+            assertEquals(asSets(expected.getPathways()),
+                    asSets(result.getPathways()));
+        }
+        assertEquals(0, spillDirectory.list().length);
+        spillDirectory.delete();
+
+        // A spill directory which cannot be written shows that the rows
+        // really go through the spill path.
+        File notADirectory = File.createTempFile("chebi2gene", ".spill");
+        try {
+            final QueryRdf broken = QueryRdf.builder()
+                    .model(instance.getModel()).memoryBudget(1)
+                    .spillDirectory(notADirectory).build();
+            final QueryRdf genomes = QueryRdf.builder()
+                    .model(instance.getModel()).memoryBudget(1)
+                    .spillDirectory(notADirectory)
+                    .genome("tomato", QueryRdf.ITAG_GRAPH).build();
+            final HashMap<String, ArrayList<String>> proteins =
+                    instance.getProteinOfChebi("17579");
+            final List<String> names = Arrays.asList("Solyc10g079480.1.1");
+            assertSpilled(new Runnable() {
+
+                @Override
+                public void run() {
+                    new Chebi2gene(broken).Chebi2gene("17579");
+                }
+            });
+            assertSpilled(new Runnable() {
+
+                @Override
+                public void run() {
+                    broken.getPathwaysOfProteins(proteins);
+                }
+            });
+            assertSpilled(new Runnable() {
+
+                @Override
+                public void run() {
+                    broken.getOrganismOfProteins(proteins);
+                }
+            });
+            assertSpilled(new Runnable() {
+
+                @Override
+                public void run() {
+                    broken.getChebiOfGenes(names);
+                }
+            });
+            assertSpilled(new Runnable() {
+
+                @Override
+                public void run() {
+                    genomes.getGenesOfProteins(proteins);
+                }
+            });
+            assertSpilled(new Runnable() {
+
+                @Override
+                public void run() {
+                    genomes.getProteinsOfGenes(names);
+                }
+            });
+        } finally {
+            notADirectory.delete();
+        }
+    }
+
+    /**
+     * Check that a lookup fails because its rows cannot be spilled.
+     * @param lookup the lookup, on an engine whose spill directory is a
+     * file
+     */
+    private static void assertSpilled(Runnable lookup) {
+        try {
+            lookup.run();
+            fail("The rows should have been spilled to disk");
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getCause() instanceof IOException);
+        }
+    }
+
+    /**
+     * Test that the results fetched by pages are the same as the ones
+     * fetched in one go.
+     */
+    public void testPagination() {
+        for (int size = 1; size <= 3; size++) {
+            QueryRdf paged = QueryRdf.builder().model(instance.getModel())
+                    .pages(size, size + 1).build();
+            assertEquals(instance.getChebiOfRhea(), paged.getChebiOfRhea());
+            HashMap<String, HashMap<String, ArrayList<String>>> expected =
+                    instance.getExtendedChebiFromSearch("carotene");
+            HashMap<String, HashMap<String, ArrayList<String>>> result =
+                    paged.getExtendedChebiFromSearch("carotene");
+            assertEquals(expected.keySet(), result.keySet());
+            for (String chebi_id : expected.keySet()) {
+                assertEquals(asSets(expected.get(chebi_id)),
+                        asSets(result.get(chebi_id)));
+                assertEquals(expected.get(chebi_id).get("syn").size(),
+                        result.get(chebi_id).get("syn").size());
+            }
+            HashMap<String, ArrayList<String>> proteins =
+                    instance.getProteinOfChebi("17579");
+            assertEquals(asSets(proteins),
+                    asSets(paged.getProteinOfChebi("17579")));
+            assertEquals(asSets(instance.getGenesOfProteins(proteins)),
+                    asSets(paged.getGenesOfProteins(proteins)));
+            assertEquals(asSets(instance.getPathwaysOfProteins(proteins)),
+                    asSets(paged.getPathwaysOfProteins(proteins)));
+        }
+    }
+}
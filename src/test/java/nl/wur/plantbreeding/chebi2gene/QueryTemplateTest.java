@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the QueryTemplate class.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class QueryTemplateTest extends TestCase {
+
+    public QueryTemplateTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test the rendering of a template with all kinds of parameters.
+     */
+    public void testToQueryString() {
+        QueryTemplate tmpl = new QueryTemplate(
+                "SELECT ?x WHERE { ?x ?p ${iri} . "
+                + "FILTER(?x IN (${list}) && regex(?y, ${re}, \"i\")) }");
+        String query = tmpl.bind()
+                .iri("iri", "http://example.org/a")
+                .iriList("list", "http://example.org/", Arrays.asList("b", "c"))
+                .regex("re", "a(b)\"c")
+                .toQueryString();
+        assertEquals("SELECT ?x WHERE { ?x ?p <http://example.org/a> . "
+                + "FILTER(?x IN (<http://example.org/b>, \n"
+                + "<http://example.org/c>) && regex(?y, \"a\\\\(b\\\\)\\\"c\", "
+                + "\"i\")) }", query);
+    }
+
+    /**
+     * Test that the template is parsed with its parameters as variables.
+     */
+    public void testGetQuery() {
+        QueryTemplate tmpl = new QueryTemplate(
+                "SELECT ?x WHERE { ?x ?p ${value} }");
+        assertTrue(tmpl.getQuery().toString().contains("?value"));
+        assertSame(tmpl.getQuery(), tmpl.getQuery());
+    }
+
+    /**
+     * Test that invalid or missing values are rejected.
+     */
+    public void testInvalidValues() {
+        QueryTemplate tmpl = new QueryTemplate(
+                "SELECT ?x WHERE { ?x ?p ${value} }");
+        try {
+            tmpl.bind().iri("value", "http://example.org/> . ?x ?y <z");
+            fail("IRI with spaces accepted");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        try {
+            tmpl.bind().toQueryString();
+            fail("Unbound parameter accepted");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+}
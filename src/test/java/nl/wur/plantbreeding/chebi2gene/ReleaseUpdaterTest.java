@@ -0,0 +1,227 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the ReleaseUpdater class, run on the sample graphs.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class ReleaseUpdaterTest extends TestCase {
+
+    /**
+     * The state directory of the test.
+     */
+    private File dir;
+    /**
+     * The release file of the test.
+     */
+    private File release;
+
+    public ReleaseUpdaterTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = File.createTempFile("chebi2gene", "state");
+        dir.delete();
+        release = new File(dir.getParentFile(), dir.getName() + ".nt");
+    }
+
+    @Override
+    protected void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+        release.delete();
+    }
+
+    /**
+     * Write a release made of the given lines.
+     * @param file the file to write
+     * @param lines the triples
+     * @throws IOException if the file cannot be written
+     */
+    private void writeLines(File file, String... lines) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        for (String line : lines) {
+            out.write(line);
+            out.write('\n');
+        }
+        out.close();
+    }
+
+    /**
+     * Write the sample graphs to a file, replacing a string on the way.
+     * @param file the file to write
+     * @param from the string to replace
+     * @param to its replacement
+     * @throws IOException if the file cannot be written
+     */
+    private void writeRelease(File file, String from, String to)
+            throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                getClass().getResourceAsStream("/chebi2gene-sample.nt"),
+                "UTF-8"));
+        Writer out = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        String line = in.readLine();
+        while (line != null) {
+            out.write(line.replace(from, to));
+            out.write('\n');
+            line = in.readLine();
+        }
+        in.close();
+        out.close();
+    }
+
+    /**
+     * Resolve a compound on the given model and add it to the cache.
+     * @param model the Model to query
+     * @param cache the ResultCache to fill
+     * @param chebi_id the chebi identifier of the compound
+     */
+    private void resolve(Model model, ResultCache cache, String chebi_id) {
+        QueryRdf query = new QueryRdf();
+        query.setModel(model);
+        HashMap<String, ArrayList<String>> proteins =
+                query.getProteinOfChebi(chebi_id);
+        cache.put(new CompoundResult(chebi_id, proteins,
+                query.getPathwaysOfProteins(proteins),
+                query.getOrganismOfProteins(proteins),
+                query.getGenesOfProteins(proteins)));
+    }
+
+    /**
+     * Test an initial load followed by an incremental update.
+     * @throws IOException if the test files cannot be written
+     */
+    public void testUpdate() throws IOException {
+        ResultCache cache = new ResultCache(10);
+        ReleaseUpdater updater = new ReleaseUpdater(dir, cache);
+        Model model = updater.getModel();
+
+        writeRelease(release, "", "");
+        ReleaseUpdater.Report report = updater.update("sample", release);
+        assertTrue(report.isChanged());
+        assertEquals(0, report.getRemoved());
+        assertEquals(QueryRdfLocalTest.sampleModel().size(), model.size());
+
+        report = updater.update("sample", release);
+        assertFalse(report.isChanged());
+
+        resolve(model, cache, "17579");
+        resolve(model, cache, "15948");
+        writeRelease(release, "\"60333713\"", "\"60333999\"");
+        report = updater.update("sample", release);
+        assertEquals(1, report.getAdded());
+        assertEquals(1, report.getRemoved());
+        assertEquals(1, report.getInvalidated().size());
+        assertTrue(report.getInvalidated().contains("17579"));
+        assertNull(cache.get("17579"));
+        assertNotNull(cache.get("15948"));
+        assertTrue(model.contains(null, null, "60333999"));
+        assertFalse(model.contains(null, null, "60333713"));
+
+        // A new updater starts from the copy of the last release.
+        updater = new ReleaseUpdater(dir, null);
+        assertFalse(updater.update("sample", release).isChanged());
+        assertEquals(QueryRdfLocalTest.sampleModel().size(),
+                updater.getModel().size());
+    }
+
+    /**
+     * Test that a triple removed from one graph is kept while another graph
+     * asserts it, and that the triples of blank nodes can be removed.
+     * @throws IOException if the test files cannot be written
+     */
+    public void testGraphsAndBlankNodes() throws IOException {
+        ReleaseUpdater updater = new ReleaseUpdater(dir, null);
+        Model model = updater.getModel();
+        String shared = "<http://ex.org/a> <http://ex.org/p> \"shared\" .";
+        writeLines(release, shared);
+        updater.update("one", release);
+        writeLines(release, shared, "_:b1 <http://ex.org/p> \"blank\" .",
+                "<http://ex.org/a> <http://ex.org/q> _:b1 .");
+        updater.update("two", release);
+        assertEquals(3, model.size());
+        assertEquals(3, updater.getGraph("two").size());
+
+        writeLines(release);
+        ReleaseUpdater.Report report = updater.update("two", release);
+        assertEquals(3, report.getRemoved());
+        assertEquals(0, updater.getGraph("two").size());
+        assertEquals(1, model.size());
+        assertTrue(model.contains(null, null, "shared"));
+
+        assertEquals("<" + ReleaseUpdater.SKOLEM_IRI + "g:b1> <http://ex.org/q>"
+                + " <" + ReleaseUpdater.SKOLEM_IRI + "g:b2>.",
+                ReleaseUpdater.skolemize("_:b1 <http://ex.org/q> _:b2.",
+                "urn:chebi2gene:genid:g:"));
+        String literal = "<http://ex.org/a> <http://ex.org/p> \"_:b1\" .";
+        assertEquals(literal, ReleaseUpdater.skolemize(literal, "x:"));
+    }
+
+    /**
+     * Test that a result resolved before an update is not cached after it,
+     * and that the copy of a release moved aside is restored.
+     * @throws IOException if the test files cannot be written
+     */
+    public void testStaleResultAndBackup() throws IOException {
+        ResultCache cache = new ResultCache(10);
+        ReleaseUpdater updater = new ReleaseUpdater(dir, cache);
+        writeRelease(release, "", "");
+        updater.update("sample", release);
+
+        long generation = cache.getGeneration();
+        CompoundResult stale = new CompoundResult("17579",
+                new HashMap<String, ArrayList<String>>(),
+                new HashMap<String, ArrayList<String>>(),
+                new HashMap<String, ArrayList<String>>(),
+                new HashMap<String, ArrayList<HashMap<String, String>>>());
+        writeRelease(release, "\"60333713\"", "\"60333999\"");
+        updater.update("sample", release);
+        assertFalse(cache.put(stale, false, generation));
+        assertNull(cache.get("17579"));
+        assertTrue(cache.put(stale, false, cache.getGeneration()));
+
+        File snapshot = new File(dir, "sample.nt");
+        assertTrue(snapshot.renameTo(new File(dir, "sample.nt.old")));
+        updater = new ReleaseUpdater(dir, null);
+        assertFalse(updater.update("sample", release).isChanged());
+        assertTrue(snapshot.isFile());
+        assertTrue(updater.getModel().contains(null, null, "60333999"));
+    }
+}
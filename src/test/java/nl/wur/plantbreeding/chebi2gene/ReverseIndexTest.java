@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the ReverseIndex class, run on the sample graphs.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class ReverseIndexTest extends TestCase {
+
+    /** The QueryRdf object used to run the query. */
+    private final QueryRdf query = new QueryRdf();
+
+    public ReverseIndexTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    public final void setUp() {
+        query.setModel(QueryRdfLocalTest.sampleModel());
+    }
+
+    /**
+     * Check that two reverse lookups found the same compounds.
+     * @param expected the expected dictionary
+     * @param result the dictionary to check
+     */
+    private void assertSameLookup(
+            HashMap<String, HashMap<String, ArrayList<String>>> expected,
+            HashMap<String, HashMap<String, ArrayList<String>>> result) {
+        assertEquals(expected.keySet(), result.keySet());
+        for (String key : expected.keySet()) {
+            assertEquals(expected.get(key).keySet(), result.get(key).keySet());
+            for (Map.Entry<String, ArrayList<String>> entry
+                    : expected.get(key).entrySet()) {
+                assertEquals(new HashSet<String>(entry.getValue()),
+                        new HashSet<String>(result.get(key)
+                        .get(entry.getKey())));
+            }
+        }
+    }
+
+    /**
+     * Test that the index loaded from an export answers as the queries.
+     * @throws IOException if the export fails
+     */
+    public void testLoad() throws IOException {
+        File file = File.createTempFile("chebi2gene", ".col");
+        new BulkExporter(query).export(file);
+        ReverseIndex index = ReverseIndex.load(file);
+        List<String> prots = Arrays.asList("P0C618", "Q38933", "P93236",
+                "unknown");
+        assertSameLookup(query.getChebiOfProteins(prots),
+                index.getChebiOfProteins(prots));
+        List<String> genes = Arrays.asList("Solyc06g074240.1.1",
+                "Solyc04g040190.1.1", "Solyc10g079480.1.1");
+        assertSameLookup(query.getChebiOfGenes(genes),
+                index.getChebiOfGenes(genes));
+        file.delete();
+    }
+
+    /**
+     * Test the index built from resolved compounds.
+     */
+    public void testResults() {
+        ReverseIndex index = new ReverseIndex(Arrays.asList(
+                CompoundResultCodecTest.sampleResult("15377")));
+        HashMap<String, HashMap<String, ArrayList<String>>> result =
+                index.getChebiOfGenes(Arrays.asList("Solyc10g079480.1.1"));
+        assertEquals(Arrays.asList("15377"),
+                result.get("Solyc10g079480.1.1").get("30403"));
+        assertTrue(index.getChebiOfProteins(Arrays.asList("P0C618"))
+                .isEmpty());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the RheaFilter class.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class RheaFilterTest extends TestCase {
+
+    public RheaFilterTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test that the filter has no false negative and a false positive rate
+     * close to the configured one.
+     */
+    public void testFalsePositiveRate() {
+        ArrayList<String> ids = new ArrayList<String>();
+        for (int cnt = 0; cnt < 20000; cnt++) {
+            ids.add(Integer.toString(10000 + 2 * cnt));
+        }
+        RheaFilter filter = new RheaFilter(0.01);
+        assertTrue(filter.mightContain("17579"));
+        assertFalse(filter.isBuilt());
+        filter.rebuild(ids);
+        assertEquals(20000, filter.size());
+        for (String id : ids) {
+            assertTrue(filter.mightContain(id));
+            assertTrue(filter.mightContain("CHEBI:" + id));
+        }
+        int positives = 0;
+        for (int cnt = 0; cnt < 20000; cnt++) {
+            if (filter.mightContain(Integer.toString(10001 + 2 * cnt))) {
+                positives++;
+            }
+        }
+        assertTrue("False positives: " + positives, positives < 400);
+        assertTrue(filter.getExpectedFalsePositiveRate() < 0.02);
+
+        filter.rebuild(Arrays.asList("17579"));
+        assertEquals(1, filter.size());
+        assertFalse(filter.mightContain("10000"));
+    }
+
+    /**
+     * Test that an invalid false positive rate is rejected.
+     */
+    public void testInvalidRate() {
+        for (double fpp : new double[]{0, 1, -0.5, Double.NaN}) {
+            try {
+                new RheaFilter(fpp);
+                fail("Accepted a false positive rate of " + fpp);
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Test that Chebi2gene answers the compounds without reaction without
+     * querying and resolves the others as without filter.
+     */
+    public void testChebi2gene() {
+        RheaFilter filter = RheaFilter.fromQuery(QueryRdf.builder()
+                .model(QueryRdfLocalTest.sampleModel()).build(), 0.001);
+        List<String> members = Arrays.asList("17579", "15948", "15377");
+        for (String id : members) {
+            assertTrue(filter.mightContain(id));
+        }
+
+        // The endpoint is unreachable: any query would fail.
+        QueryRdf offline = QueryRdf.builder()
+                .endpoint("http://127.0.0.1:1/sparql").rheaFilter(filter)
+                .build();
+        Chebi2gene c2g = new Chebi2gene(offline);
+        c2g.Chebi2gene("99999999");
+        assertTrue(c2g.getProteins().isEmpty());
+        assertTrue(c2g.getGenes().isEmpty());
+
+        QueryRdf local = QueryRdf.builder()
+                .model(QueryRdfLocalTest.sampleModel()).build();
+        for (String id : members) {
+            Chebi2gene with = new Chebi2gene(local);
+            with.setRheaFilter(filter);
+            with.Chebi2gene(id);
+            Chebi2gene without = new Chebi2gene(local);
+            without.Chebi2gene(id);
+            assertEquals(without.getProteins(), with.getProteins());
+            assertEquals(without.getGenes(), with.getGenes());
+            assertEquals(without.getPathways(), with.getPathways());
+        }
+    }
+
+    /**
+     * Test that the compounds are fetched by pages and that a refresh
+     * retrieving no compound keeps the current filter.
+     */
+    public void testRefresh() {
+        QueryRdf local = QueryRdf.builder()
+                .model(QueryRdfLocalTest.sampleModel()).build();
+        QueryRdf paged = QueryRdf.builder()
+                .model(QueryRdfLocalTest.sampleModel()).pages(1, 2).build();
+        List<String> compounds = local.getChebiOfRhea();
+        assertTrue(compounds.size() > 1);
+        assertEquals(compounds, paged.getChebiOfRhea());
+
+        RheaFilter filter = RheaFilter.fromQuery(paged, 0.01);
+        assertEquals(compounds.size(), filter.size());
+        QueryRdf empty = QueryRdf.builder()
+                .model(ModelFactory.createDefaultModel()).build();
+        assertFalse(filter.refresh(empty));
+        assertEquals(compounds.size(), filter.size());
+        for (String id : compounds) {
+            assertTrue(filter.mightContain(id));
+        }
+        assertTrue(filter.refresh(local));
+
+        RheaFilter unbuilt = RheaFilter.fromQuery(empty, 0.01);
+        assertFalse(unbuilt.isBuilt());
+        assertTrue(unbuilt.mightContain("17579"));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the RheaNetwork class.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class RheaNetworkTest extends TestCase {
+
+    public RheaNetworkTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Test the network of the sample graphs.
+     */
+    public void testSample() {
+        QueryRdf query = QueryRdf.builder()
+                .model(QueryRdfLocalTest.sampleModel()).build();
+        RheaNetwork network = RheaNetwork.fromQuery(query);
+        assertEquals(3, network.countCompounds());
+        assertEquals(2, network.countReactions());
+        assertEquals(Arrays.asList("16740", "30403"),
+                network.getReactions("17579"));
+        assertEquals(Arrays.asList("P93236", "Q38933"),
+                network.getEnzymes("30403"));
+        assertEquals(RheaNetwork.SUBSTRATE,
+                (int) network.getCompounds("16740").get("15948"));
+        assertEquals(Arrays.asList("15948", "16740", "17579", "30403",
+                "15377"), network.getShortestPath("15948", "15377", true, 0));
+        assertTrue(network.getShortestPath("15377", "15948", true, 0)
+                .isEmpty());
+        assertEquals(2, network.getEnzymesWithin("15948", 2, true, 0)
+                .size());
+    }
+
+    /**
+     * Test the distances, the direction of the reactions and the hubs on
+     * a small network: 1 + 9 -> 2 (R1), 2 + 9 -> 3 (R2), 3 -> 4 (R3),
+     * 1 <-> 5 (R4, side unknown), 9 + 6 -> 7 (R5).
+     */
+    public void testTraversal() {
+        ArrayList<String[]> participants = new ArrayList<String[]>();
+        participants.add(new String[]{"R1", "LEFT", "1"});
+        participants.add(new String[]{"R1", "LEFT", "9"});
+        participants.add(new String[]{"R1", "RIGHT", "2"});
+        participants.add(new String[]{"R2", "LEFT", "2"});
+        participants.add(new String[]{"R2", "LEFT", "9"});
+        participants.add(new String[]{"R2", "RIGHT", "3"});
+        participants.add(new String[]{"R3", "LEFT", "3"});
+        participants.add(new String[]{"R3", "RIGHT", "4"});
+        participants.add(new String[]{"R4", "PARTICIPANT", "1"});
+        participants.add(new String[]{"R4", "PARTICIPANT", "5"});
+        participants.add(new String[]{"R5", "LEFT", "9"});
+        participants.add(new String[]{"R5", "LEFT", "6"});
+        participants.add(new String[]{"R5", "RIGHT", "7"});
+        participants.add(new String[]{"R5", "RIGHT", "7"});
+        ArrayList<String[]> catalysts = new ArrayList<String[]>();
+        catalysts.add(new String[]{"R2", "P2"});
+        catalysts.add(new String[]{"R2", "P1"});
+        catalysts.add(new String[]{"R2", "P1"});
+        catalysts.add(new String[]{"R3", "P3"});
+        catalysts.add(new String[]{"R9", "P9"});
+        RheaNetwork network = new RheaNetwork(participants, catalysts);
+        assertEquals(8, network.countCompounds());
+        assertEquals(5, network.countReactions());
+        assertEquals(Arrays.asList("P1", "P2"), network.getEnzymes("R2"));
+        assertTrue(network.getEnzymes("R9").isEmpty());
+
+        LinkedHashMap<String, Integer> expected =
+                new LinkedHashMap<String, Integer>();
+        expected.put("1", 0);
+        expected.put("2", 1);
+        expected.put("5", 1);
+        expected.put("9", 1);
+        expected.put("3", 2);
+        expected.put("6", 2);
+        expected.put("7", 2);
+        assertEquals(expected, network.getNeighbours("1", 2, false, 0));
+        expected.remove("6");
+        expected.remove("7");
+        assertEquals(expected, network.getNeighbours("1", 2, false, 2));
+        assertEquals(Arrays.asList("1", "2", "5"), new ArrayList<String>(
+                network.getNeighbours("1", 1, true, 0).keySet()));
+        assertEquals(Collections.singletonMap("4", 0),
+                network.getNeighbours("4", 3, true, 0));
+        assertEquals(5, network.getNeighbours("1", 9, true, 0).size());
+
+        assertEquals(Arrays.asList("1", "R1", "2", "R2", "3", "R3", "4"),
+                network.getShortestPath("1", "4", true, 0));
+        assertEquals(Arrays.asList("5", "R4", "1", "R1", "9", "R5", "7"),
+                network.getShortestPath("5", "7", false, 0));
+        assertTrue(network.getShortestPath("5", "7", true, 0).isEmpty());
+        assertTrue(network.getShortestPath("5", "7", false, 2).isEmpty());
+        assertTrue(network.getShortestPath("1", "unknown", true, 0)
+                .isEmpty());
+        assertEquals(Arrays.asList("R1", "R2", "R4"), new ArrayList<String>(
+                network.getEnzymesWithin("1", 2, true, 2).keySet()));
+        assertEquals(Arrays.asList("P1", "P2"),
+                network.getEnzymesWithin("1", 2, true, 2).get("R2"));
+    }
+
+    /**
+     * Test that the enzymes within reach include every reaction gone
+     * through, not only the first one reaching each compound: 1 -> 2 (R6
+     * and R7), 1 -> 4 (R10), 2 -> 3 (R8), 2 -> 4 (R9).
+     */
+    public void testParallelReactions() {
+        ArrayList<String[]> participants = new ArrayList<String[]>();
+        participants.add(new String[]{"R6", "LEFT", "1"});
+        participants.add(new String[]{"R6", "RIGHT", "2"});
+        participants.add(new String[]{"R7", "LEFT", "1"});
+        participants.add(new String[]{"R7", "RIGHT", "2"});
+        participants.add(new String[]{"R10", "LEFT", "1"});
+        participants.add(new String[]{"R10", "RIGHT", "4"});
+        participants.add(new String[]{"R8", "LEFT", "2"});
+        participants.add(new String[]{"R8", "RIGHT", "3"});
+        participants.add(new String[]{"R9", "LEFT", "2"});
+        participants.add(new String[]{"R9", "RIGHT", "4"});
+        ArrayList<String[]> catalysts = new ArrayList<String[]>();
+        catalysts.add(new String[]{"R6", "P6"});
+        catalysts.add(new String[]{"R7", "P7"});
+        catalysts.add(new String[]{"R8", "P8"});
+        RheaNetwork network = new RheaNetwork(participants, catalysts);
+
+        assertEquals(Arrays.asList("R10", "R6", "R7"), new ArrayList<String>(
+                network.getEnzymesWithin("1", 1, true, 0).keySet()));
+        assertEquals(Arrays.asList("P6"),
+                network.getEnzymesWithin("1", 1, true, 0).get("R6"));
+        assertEquals(Arrays.asList("P7"),
+                network.getEnzymesWithin("1", 1, false, 0).get("R7"));
+        assertEquals(Arrays.asList("R10", "R6", "R7", "R8", "R9"),
+                new ArrayList<String>(network.getEnzymesWithin("1", 2, true,
+                0).keySet()));
+        assertEquals(Arrays.asList("R6", "R7", "R8", "R9"),
+                new ArrayList<String>(network.getEnzymesWithin("2", 1, false,
+                0).keySet()));
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.ResultSetFormatter;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the SparqlHttpClient and SparqlResultReader classes, against
+ * an endpoint serving the sample graphs.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class SparqlHttpClientTest extends TestCase {
+
+    /** A query returning resources, plain, typed and tagged literals. */
+    private static final String QUERY = "SELECT ?s ?o ?x WHERE { ?s ?p ?o "
+            + "OPTIONAL { ?s <http://ex.org/none> ?x } } ORDER BY ?s ?o";
+
+    public SparqlHttpClientTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Returns a model with all kinds of terms.
+     * @return the Model
+     */
+    private static Model terms() {
+        Model model = ModelFactory.createDefaultModel();
+        model.read(new StringReader(
+                "<http://ex.org/a> <http://ex.org/p> \"tab\\there\" .\n"
+                + "<http://ex.org/a> <http://ex.org/p> \"chat\"@fr .\n"
+                + "<http://ex.org/a> <http://ex.org/p> \"12\"^^"
+                + "<http://www.w3.org/2001/XMLSchema#integer> .\n"
+                + "<http://ex.org/a> <http://ex.org/p> \"quote \\\" \\u00e9\" .\n"
+                + "<http://ex.org/b> <http://ex.org/p> <http://ex.org/c> .\n"),
+                null, "N-TRIPLE");
+        return model;
+    }
+
+    /**
+     * Returns the rows of a query as Jena reads them.
+     * @param model the model
+     * @param query the query
+     * @param keys the variables
+     * @return the rows
+     */
+    private static List<List<String>> jenaRows(Model model, String query,
+            String[] keys) {
+        List<List<String>> rows = new ArrayList<List<String>>();
+        QueryExecution qexec = QueryExecutionFactory.create(query, model);
+        try {
+            ResultSet results = qexec.execSelect();
+            while (results.hasNext()) {
+                QuerySolution soln = results.nextSolution();
+                List<String> row = new ArrayList<String>();
+                for (String key : keys) {
+                    RDFNode node = soln.get(key);
+                    row.add(node == null ? null : node.toString());
+                }
+                rows.add(row);
+            }
+        } finally {
+            qexec.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the results of a query in the given format.
+     * @param model the model
+     * @param query the query
+     * @param format tsv, json or xml
+     * @return the serialized results
+     */
+    static byte[] serialize(Model model, String query,
+            String format) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        QueryExecution qexec = QueryExecutionFactory.create(query, model);
+        try {
+            ResultSet results = qexec.execSelect();
+            if (format.equals("tsv")) {
+                ResultSetFormatter.outputAsTSV(out, results);
+            } else if (format.equals("json")) {
+                ResultSetFormatter.outputAsJSON(out, results);
+            } else {
+                ResultSetFormatter.outputAsXML(out, results);
+            }
+        } finally {
+            qexec.close();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A RowHandler keeping the rows.
+     */
+    private static final class Rows implements RowHandler {
+
+        /** The rows. */
+        private final List<List<String>> rows = new ArrayList<List<String>>();
+
+        @Override
+        public void row(String[] values) {
+            rows.add(Arrays.asList(values));
+        }
+    }
+
+    /**
+     * Test that the decoders read the same values as Jena.
+     * @throws IOException if the results cannot be read
+     */
+    public void testReaders() throws IOException {
+        Model model = terms();
+        String[] keys = {"o", "x", "s", "unknown"};
+        List<List<String>> expected = jenaRows(model, QUERY, keys);
+        assertEquals(5, expected.size());
+
+        Rows json = new Rows();
+        SparqlResultReader.readJson(new StringReader(new String(
+                serialize(model, QUERY, "json"), "UTF-8")), keys, json);
+        assertEquals(expected, json.rows);
+
+        // The TSV writer of Jena does not escape the tabulations.
+        model.remove(model.listStatements(null, null, "tab\there"));
+        expected = jenaRows(model, QUERY, keys);
+        Rows tsv = new Rows();
+        SparqlResultReader.readTsv(new StringReader(new String(
+                serialize(model, QUERY, "tsv"), "UTF-8")), keys, tsv);
+        assertEquals(expected, tsv.rows);
+        String escaped = "\"tab\\there\"";
+        assertEquals("tab\there", SparqlResultReader.decodeTerm(escaped, 0,
+                escaped.length()));
+        assertEquals("12^^http://www.w3.org/2001/XMLSchema#integer",
+                SparqlResultReader.decodeTerm("12", 0, 2));
+    }
+
+    /**
+     * Test the queries of QueryRdf against an endpoint answering in each
+     * format, with GET and POST.
+     * @throws IOException if the endpoint cannot be started
+     */
+    public void testEndpoint() throws IOException {
+        final Model model = QueryRdfLocalTest.sampleModel();
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/sparql", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String form = exchange.getRequestURI().getRawQuery();
+                if ("POST".equals(exchange.getRequestMethod())) {
+                    InputStream in = exchange.getRequestBody();
+                    ByteArrayOutputStream body = new ByteArrayOutputStream();
+                    byte[] buf = new byte[4096];
+                    for (int n = in.read(buf); n > 0; n = in.read(buf)) {
+                        body.write(buf, 0, n);
+                    }
+                    form = body.toString("UTF-8");
+                }
+                String query = URLDecoder.decode(
+                        form.substring(form.indexOf("query=") + 6), "UTF-8");
+                String accept = exchange.getRequestHeaders()
+                        .getFirst("Accept");
+                String format = accept.startsWith("text/tab") ? "tsv"
+                        : accept.contains("+json,") ? "json" : "xml";
+                byte[] bytes = serialize(model, query, format);
+                exchange.getResponseHeaders().set("Content-Type",
+                        format.equals("tsv") ? "text/tab-separated-values"
+                        : "application/sparql-results+" + format);
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.start();
+        try {
+            QueryRdf local = QueryRdf.builder().model(model).build();
+            String url = "http://127.0.0.1:" + server.getAddress().getPort()
+                    + "/sparql";
+            HashMap<String, ArrayList<String>> proteins =
+                    local.getProteinOfChebi("17579");
+            ArrayList<String> many = new ArrayList<String>();
+            for (int cnt = 0; cnt < 200; cnt++) {
+                many.add("P" + cnt);
+            }
+            many.addAll(Arrays.asList("P0C618", "Q38933", "P93236"));
+            for (String format : Arrays.asList("tsv", "json", "xml")) {
+                QueryRdf remote = QueryRdf.builder().endpoint(url)
+                        .resultFormat(format).build();
+                assertEquals(local.getChebiOfRhea(), remote.getChebiOfRhea());
+                assertEquals(proteins, remote.getProteinOfChebi("17579"));
+                assertEquals(local.getExtendedChebiFromSearch("carotene"),
+                        remote.getExtendedChebiFromSearch("carotene"));
+                assertEquals(local.getChebiOfProteins(many),
+                        remote.getChebiOfProteins(many));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the StartupTimer class and of the lazy loading of ARQ.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class StartupTimerTest extends TestCase {
+
+    public StartupTimerTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Answer a cached compound and a structure search, then print whether
+     * ARQ was loaded. Run in its own JVM by testIndexOnly().
+     *
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        ResultCache cache = new ResultCache(10);
+        cache.put(new CompoundResult("17579",
+                new HashMap<String, ArrayList<String>>(),
+                new HashMap<String, ArrayList<String>>(),
+                new HashMap<String, ArrayList<String>>(),
+                new HashMap<String, ArrayList<HashMap<String, String>>>()));
+        Chebi2gene c2g = new Chebi2gene(QueryRdf.builder().cache(cache)
+                .build());
+        c2g.Chebi2gene("17579");
+        StructureIndex index = new StructureIndex(Arrays.asList(
+                new String[][]{{"15377", "XLYOFNOQVPJJNP-UHFFFAOYSA-N", null,
+                        "H2O", "18.01056", "O"}}));
+        System.out.println("found=" + SearchChebi.SearchChebiStructure(index,
+                "XLYOFNOQVPJJNP-UHFFFAOYSA-N"));
+        System.out.println("first=" + StartupTimer.getFirstAnswerMillis());
+        System.out.println("jena=" + StartupTimer.isJenaLoaded());
+    }
+
+    /**
+     * Test that lookups answered from a cache and an index do not load
+     * ARQ, in a JVM of their own.
+     */
+    public void testIndexOnly() throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator
+                + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-verbose:class",
+                "-cp", System.getProperty("java.class.path"),
+                StartupTimerTest.class.getName());
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                process.getInputStream(), "UTF-8"));
+        StringBuilder output = new StringBuilder();
+        String line = reader.readLine();
+        while (line != null) {
+            output.append(line).append('\n');
+            line = reader.readLine();
+        }
+        assertEquals(output.toString(), 0, process.waitFor());
+        String text = output.toString();
+        assertTrue(text, text.contains("found=[15377]"));
+        assertTrue(text, text.contains("jena=false"));
+        assertFalse(text.contains("first=-1"));
+        assertFalse(text.contains("com.hp.hpl.jena.query.ARQ "));
+        assertFalse(text.contains("ArqExecutor"));
+    }
+
+    /**
+     * Test that a query on a local model records the loading of ARQ.
+     */
+    public void testLocalQuery() {
+        QueryRdf query = new QueryRdf();
+        query.setModel(QueryRdfLocalTest.sampleModel());
+        new Chebi2gene(query).Chebi2gene("17579");
+        assertTrue(StartupTimer.isJenaLoaded());
+        assertTrue(StartupTimer.getJenaLoadMillis() >= 0);
+        assertTrue(StartupTimer.getFirstAnswerMillis() >= 0);
+    }
+}
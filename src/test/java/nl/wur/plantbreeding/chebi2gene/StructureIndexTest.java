@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013 Wageningen UR Plant breeding.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  under the License.
+ */
+package nl.wur.plantbreeding.chebi2gene;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit-tests of the StructureIndex class.
+ *
+ * @author Pierre-Yves Chibon -- py@chibon.fr
+ */
+public class StructureIndexTest extends TestCase {
+
+    /**
+     * SMILES of beta-carotene, as in the sample data.
+     */
+    private static final String CAROTENE = "CC1=C(C(C)(C)CCC1)/C=C/C(C)=C/C=C"
+            + "/C(C)=C/C=C/C=C(C)/C=C/C=C(C)/C=C/C1=C(C)CCCC1(C)C";
+
+    public StructureIndexTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     * Returns the index of the structures of the sample data.
+     *
+     * @return the index
+     */
+    private static StructureIndex sampleIndex() {
+        QueryRdf query = new QueryRdf();
+        query.setModel(QueryRdfLocalTest.sampleModel());
+        return StructureIndex.fromQuery(query);
+    }
+
+    /**
+     * Test the InChIKey, InChI, formula and mass look-ups.
+     */
+    public void testLookups() {
+        StructureIndex index = sampleIndex();
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList("17579"),
+                index.findByInChIKey("OENHQHLEOONYIE-JLTXGRSLSA-N"));
+        assertEquals(Arrays.asList("17579"),
+                index.findByInChIKey("InChIKey=OENHQHLEOONYIE"));
+        assertTrue(index.findByInChIKey("OENHQHLEOONYIE-XXXXXXXXXX-N")
+                .isEmpty());
+        assertEquals(Arrays.asList("15377"),
+                index.findByInChI("InChI=1S/H2O/h1H2"));
+        List<String> found = index.findByFormula("H56C40");
+        assertEquals(2, found.size());
+        assertTrue(found.containsAll(Arrays.asList("17579", "15948")));
+        assertEquals(Arrays.asList("15377"), index.findByFormula("OH2"));
+        assertEquals(2, index.findByMass(536.4382, 5).size());
+        assertEquals(Arrays.asList("15377"),
+                index.findByMassRange(18, 19));
+        assertTrue(index.findByMassRange(100, 200).isEmpty());
+    }
+
+    /**
+     * Test the formulas in Hill order.
+     */
+    public void testToHill() {
+        assertEquals("C40H56", StructureIndex.toHill("H56C40"));
+        assertEquals("H2O", StructureIndex.toHill("OH2"));
+        assertEquals("C2H6Cl2O", StructureIndex.toHill("C2H4Cl2.H2O"));
+        assertEquals("ClNa", StructureIndex.toHill("NaCl"));
+        assertEquals("C2H12O6", StructureIndex.toHill("2CH4O.O4H4"));
+        assertEquals("(C6H10O5)n", StructureIndex.toHill("(C6H10O5)n"));
+    }
+
+    /**
+     * Test the similarity search and the fingerprints.
+     */
+    public void testSimilar() {
+        StructureIndex index = sampleIndex();
+        List<StructureIndex.Hit> hits = index.findSimilar(CAROTENE, 0.3, 10);
+        assertFalse(hits.isEmpty());
+        assertEquals("17579", hits.get(0).getChebiId());
+        assertEquals(1.0, hits.get(0).getSimilarity(), 1e-9);
+        for (StructureIndex.Hit hit : hits) {
+            assertFalse("15377".equals(hit.getChebiId()));
+        }
+        assertTrue(index.findSimilar("O=C=O", 0.9, 10).isEmpty());
+
+        // The fingerprint does not depend on how the SMILES is written.
+        assertTrue(Arrays.equals(StructureIndex.fingerprint("c1ccccc1O"),
+                StructureIndex.fingerprint("Oc1ccccc1")));
+        assertTrue(Arrays.equals(StructureIndex.fingerprint("CC(=O)O"),
+                StructureIndex.fingerprint("OC(C)=O")));
+        assertFalse(Arrays.equals(StructureIndex.fingerprint("CCO"),
+                StructureIndex.fingerprint("CC=O")));
+        try {
+            StructureIndex.fingerprint("C1CC");
+            fail("Unclosed ring accepted");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains("C1CC"));
+        }
+        try {
+            StructureIndex.fingerprint("CC)C");
+            fail("Unbalanced branch accepted");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains("CC)C"));
+        }
+    }
+
+    /**
+     * Test that the '@' of a chiral SMILES is kept, while a datatype or a
+     * language tag is dropped.
+     */
+    public void testChiralSmiles() {
+        String lactate = "C[C@@H](O)C(O)=O";
+        List<String[]> rows = new ArrayList<String[]>();
+        rows.add(new String[]{"422", null, null, null, null, lactate});
+        rows.add(new String[]{"341", null, null, null, null,
+                    "C[C@H](O)C(O)=O@en"});
+        rows.add(new String[]{"24996", null, null, null, null,
+                    lactate + "^^http://www.w3.org/2001/XMLSchema#string"});
+        StructureIndex index = new StructureIndex(rows);
+        List<StructureIndex.Hit> hits = index.findSimilar(lactate, 0.99, 10);
+        assertEquals(3, hits.size());
+        for (StructureIndex.Hit hit : hits) {
+            assertEquals(1.0, hit.getSimilarity(), 1e-9);
+        }
+    }
+
+    /**
+     * Test the structure search of SearchChebi.
+     */
+    public void testSearchChebiStructure() {
+        StructureIndex index = sampleIndex();
+        assertEquals(Arrays.asList("17579"), SearchChebi.SearchChebiStructure(
+                index, "OENHQHLEOONYIE-JLTXGRSLSA-N"));
+        assertEquals(Arrays.asList("15377"), SearchChebi.SearchChebiStructure(
+                index, "InChI=1S/H2O/h1H2"));
+        assertEquals(Arrays.asList("15377"), SearchChebi.SearchChebiStructure(
+                index, "formula: H2O"));
+        assertEquals(Arrays.asList("15377"), SearchChebi.SearchChebiStructure(
+                index, "18.0106"));
+        assertEquals("17579", SearchChebi.SearchChebiStructure(
+                index, "smiles:" + CAROTENE).get(0));
+    }
+}